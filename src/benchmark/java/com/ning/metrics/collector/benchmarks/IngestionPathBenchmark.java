@@ -0,0 +1,285 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.benchmarks;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.binder.config.CollectorConfigurationObjectFactory;
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
+import com.ning.metrics.collector.endpoint.extractors.EventDeserializerFactory;
+import com.ning.metrics.collector.filtering.EventLoadShedder;
+import com.ning.metrics.collector.filtering.Filter;
+import com.ning.metrics.collector.filtering.OrFilter;
+import com.ning.metrics.collector.jaxrs.EventDeserializerRequestHandler;
+import com.ning.metrics.collector.jaxrs.EventFilterRequestHandler;
+import com.ning.metrics.collector.processing.EventCollector;
+import com.ning.metrics.collector.processing.EventSpoolDispatcher;
+import com.ning.metrics.collector.processing.EventSpoolProcessor;
+import com.ning.metrics.collector.processing.EventSpoolWriterFactory;
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
+import com.ning.metrics.collector.processing.WriterStats;
+import com.ning.metrics.collector.realtime.EventListenerDispatcher;
+import com.ning.metrics.collector.realtime.EventQueueProcessor;
+import com.ning.metrics.collector.util.StageLatencies;
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.EventSerializer;
+import com.ning.metrics.serialization.event.Granularity;
+import com.ning.metrics.serialization.event.SmileEnvelopeEvent;
+import com.ning.metrics.serialization.event.ThriftEnvelopeEvent;
+import com.ning.metrics.serialization.smile.SmileEnvelopeEventSerializer;
+import com.ning.metrics.serialization.thrift.ThriftEnvelope;
+import com.ning.metrics.serialization.thrift.ThriftEnvelopeEventSerializer;
+import com.ning.metrics.serialization.thrift.ThriftField;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark of the HTTP ingestion path:
+ * EventDeserializerRequestHandler -> EventFilterRequestHandler -> EventCollector -> EventSpoolDispatcher
+ * -> DiskSpoolEventWriter (on tmpfs when available).
+ * <p/>
+ * The pipeline is wired through the same constructors Guice uses, so backpressure, load shedding and stage
+ * latencies are on the measured path.
+ * <p/>
+ * One operation is one HTTP request. The "events" auxiliary counter reports the number of events per second
+ * pushed through the pipeline, Mode.SampleTime reports the latency percentiles (p99 included) and the allocation
+ * rate is reported by the GC profiler (-prof gc, enabled by default in the benchmarks profile).
+ * <p/>
+ * Run with: mvn -Pbenchmarks verify -DskipTests
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@Threads(4)
+public class IngestionPathBenchmark
+{
+    private static final String EVENT_NAME = "BenchmarkEvent";
+    private static final String QUERY_EVENT = EVENT_NAME + ",sfuu,b1,41234567,8123456789012,d3.1459,xua";
+
+    /**
+     * Number of events per request (events in the POST body, repeated v parameters for GET)
+     */
+    @Param({"1", "50"})
+    public int eventsPerRequest;
+
+    private File spoolDirectory;
+    private EventSpoolDispatcher spoolDispatcher;
+    private SpoolAdmissionController admissionController;
+    private EventDeserializerRequestHandler requestHandler;
+
+    private byte[] smilePayload;
+    private byte[] jsonPayload;
+    private byte[] thriftPayload;
+    private List<String> queryEvents;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class EventCounters
+    {
+        public long events;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            events = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        // Spool on tmpfs if available, to measure the collector and not the disk
+        final File shm = new File("/dev/shm");
+        final File base = shm.isDirectory() && shm.canWrite() ? shm : new File(System.getProperty("java.io.tmpdir"));
+        spoolDirectory = new File(base, "collector-benchmark-" + System.currentTimeMillis());
+        spoolDirectory.mkdirs();
+
+        final Properties properties = new Properties();
+        properties.setProperty("collector.diskspool.path", spoolDirectory.getAbsolutePath());
+        properties.setProperty("collector.event-output-directory", new File(spoolDirectory, "hdfs").getAbsolutePath());
+        properties.setProperty("collector.activemq.enabled", "false");
+        properties.setProperty("collector.backpressure.enabled", "true");
+        final CollectorConfigurationObjectFactory configFactory = new CollectorConfigurationObjectFactory(properties);
+        final CollectorConfig config = configFactory.build(CollectorConfig.class);
+
+        // No spool processor: committed files are simply deleted on flush
+        final EventSpoolWriterFactory writerFactory = new EventSpoolWriterFactory(Collections.<EventSpoolProcessor>emptySet(),
+                                                                                  new HashMap<String, Set<EventSpoolProcessor>>(),
+                                                                                  config,
+                                                                                  configFactory);
+        spoolDispatcher = new EventSpoolDispatcher(writerFactory, new WriterStats(), config, configFactory);
+        admissionController = new SpoolAdmissionController(config, spoolDispatcher);
+
+        final StageLatencies stageLatencies = new StageLatencies(config);
+        final EventCollector collector = new EventCollector(new EventListenerDispatcher(new NoOpEventQueueProcessor()), spoolDispatcher, stageLatencies);
+        final Filter<ParsedRequest> noFilter = new OrFilter(new ArrayList<Filter<ParsedRequest>>());
+        final EventFilterRequestHandler filterRequestHandler = new EventFilterRequestHandler(collector, noFilter, new EventLoadShedder(config), stageLatencies, config);
+        requestHandler = new EventDeserializerRequestHandler(config, filterRequestHandler, new EventDeserializerFactory(config, collector), admissionController, stageLatencies);
+
+        smilePayload = createSmilePayload(false);
+        jsonPayload = createSmilePayload(true);
+        thriftPayload = createThriftPayload();
+        queryEvents = Collections.nCopies(eventsPerRequest, QUERY_EVENT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        admissionController.stop();
+        spoolDispatcher.shutdown();
+        FileUtils.deleteQuietly(spoolDirectory);
+    }
+
+    @Benchmark
+    public Response smile(final EventCounters counters)
+    {
+        counters.events += eventsPerRequest;
+        return post(smilePayload, DeserializationType.SMILE);
+    }
+
+    @Benchmark
+    public Response json(final EventCounters counters)
+    {
+        counters.events += eventsPerRequest;
+        return post(jsonPayload, DeserializationType.JSON);
+    }
+
+    @Benchmark
+    public Response thrift(final EventCounters counters)
+    {
+        counters.events += eventsPerRequest;
+        return post(thriftPayload, DeserializationType.THRIFT);
+    }
+
+    @Benchmark
+    public Response decimalQuery(final EventCounters counters)
+    {
+        counters.events += eventsPerRequest;
+        final ParsedRequest parsedRequest = new ParsedRequest(queryEvents, null, null, null, "127.0.0.1", DeserializationType.DECIMAL_QUERY);
+        return requestHandler.handleEventRequest(parsedRequest);
+    }
+
+    private Response post(final byte[] payload, final DeserializationType type)
+    {
+        final ParsedRequest parsedRequest = new ParsedRequest(null, null, new ByteArrayInputStream(payload), null, null, "127.0.0.1", type);
+        return requestHandler.handleEventRequest(parsedRequest);
+    }
+
+    private byte[] createSmilePayload(final boolean plainJson) throws IOException
+    {
+        final List<Event> events = new ArrayList<Event>(eventsPerRequest);
+        for (int i = 0; i < eventsPerRequest; i++) {
+            final Map<String, Object> data = new HashMap<String, Object>();
+            data.put("fuuField", "fuu-" + i);
+            data.put("trueField", true);
+            data.put("pi", 3.1459);
+            data.put("long", 10001000000L + i);
+            events.add(new SmileEnvelopeEvent(EVENT_NAME, new DateTime(), data));
+        }
+
+        return serialize(new SmileEnvelopeEventSerializer(plainJson), events);
+    }
+
+    private byte[] createThriftPayload() throws IOException
+    {
+        final List<Event> events = new ArrayList<Event>(eventsPerRequest);
+        for (int i = 0; i < eventsPerRequest; i++) {
+            final List<ThriftField> fields = new ArrayList<ThriftField>();
+            fields.add(ThriftField.createThriftField("fuu-" + i, (short) 1));
+            fields.add(ThriftField.createThriftField(true, (short) 2));
+            fields.add(ThriftField.createThriftField(3.1459, (short) 3));
+            fields.add(ThriftField.createThriftField(10001000000L + i, (short) 4));
+            events.add(new ThriftEnvelopeEvent(new DateTime(), new ThriftEnvelope(EVENT_NAME, fields), Granularity.HOURLY));
+        }
+
+        return serialize(new ThriftEnvelopeEventSerializer(), events);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private byte[] serialize(final EventSerializer serializer, final List<Event> events) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.open(out);
+        for (final Event event : events) {
+            serializer.serialize(event);
+        }
+        serializer.close();
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Realtime subsystem disabled - we only care about the spool path here
+     */
+    private static final class NoOpEventQueueProcessor implements EventQueueProcessor
+    {
+        @Override
+        public boolean isRunning()
+        {
+            return false;
+        }
+
+        @Override
+        public void stop()
+        {
+        }
+
+        @Override
+        public boolean isForwarding(final String eventName)
+        {
+            return false;
+        }
+
+        @Override
+        public void send(final Event event)
+        {
+        }
+    }
+}
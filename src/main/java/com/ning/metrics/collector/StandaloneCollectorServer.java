@@ -20,8 +20,10 @@ import com.ning.arecibo.jmx.AreciboProfile;
 import com.ning.arecibo.metrics.AreciboMetricsReporter;
 import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.endpoint.servers.JettyServer;
+import com.ning.metrics.collector.endpoint.servers.NioEventServer;
 import com.ning.metrics.collector.endpoint.servers.ScribeServer;
 import com.ning.metrics.collector.guice.module.ServerModule;
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
 import com.ning.nagios.ServiceCheck;
 import com.ning.nagios.ServiceMonitor;
 
@@ -40,6 +42,8 @@ public class StandaloneCollectorServer
     private final CollectorConfig config;
     private final JettyServer jettyServer;
     private final ScribeServer scribeServer;
+    private final NioEventServer nioEventServer;
+    private final SpoolAdmissionController admissionController;
     private final ServiceCheck serviceCheck;
     private final ServiceMonitor serviceMonitor;
     private final AreciboProfile areciboProfile;
@@ -48,6 +52,8 @@ public class StandaloneCollectorServer
     public StandaloneCollectorServer(final CollectorConfig config,
                                      final JettyServer jettyServer,
                                      final ScribeServer scribeServer,
+                                     final NioEventServer nioEventServer,
+                                     final SpoolAdmissionController admissionController,
                                      final ServiceCheck serviceCheck,
                                      final ServiceMonitor serviceMonitor,
                                      final AreciboProfile areciboProfile)
@@ -55,6 +61,8 @@ public class StandaloneCollectorServer
         this.config = config;
         this.jettyServer = jettyServer;
         this.scribeServer = scribeServer;
+        this.nioEventServer = nioEventServer;
+        this.admissionController = admissionController;
         this.serviceCheck = serviceCheck;
         this.serviceMonitor = serviceMonitor;
         this.areciboProfile = areciboProfile;
@@ -70,6 +78,12 @@ public class StandaloneCollectorServer
             log.info("Starting the Scribe server...");
             scribeServer.start();
             log.info("Scribe server has started");
+
+            if (config.isNioEndpointEnabled()) {
+                log.info("Starting the NIO endpoint...");
+                nioEventServer.start();
+                log.info("NIO endpoint has started");
+            }
         }
         catch (Exception ex) {
             log.error("Error when stopping servers: " + ex.getMessage(), ex);
@@ -94,6 +108,12 @@ public class StandaloneCollectorServer
             log.info("Shutting down the Scribe server...");
             scribeServer.stop();
             log.info("Scribe server has stopped");
+
+            log.info("Shutting down the NIO endpoint...");
+            nioEventServer.stop();
+            log.info("NIO endpoint has stopped");
+
+            admissionController.stop();
         }
         catch (Exception ex) {
             log.error("Error when stopping servers: " + ex.getMessage(), ex);
@@ -26,10 +26,28 @@ import org.skife.config.TimeSpan;
 
 public interface CollectorConfig
 {
-    @Config("collector.dfs.block.size")
+    /**
+     * HDFS block size of the files written by the collector (can be overridden per event type,
+     * e.g. collector.dfs.eventFoo.block.size=268435456).
+     *
+     * @return HDFS block size, in bytes
+     */
+    @Config({"collector.dfs.${eventName}.block.size",
+             "collector.dfs.block.size"})
     @Default("134217728")
     long getHadoopBlockSize();
 
+    /**
+     * HDFS replication factor of the files written by the collector (can be overridden per event type,
+     * e.g. collector.dfs.eventFoo.replication=2). Defaults to the replication factor of the filesystem.
+     *
+     * @return HDFS replication factor
+     */
+    @Config({"collector.dfs.${eventName}.replication",
+             "collector.dfs.replication"})
+    @DefaultNull
+    Integer getHadoopReplication();
+
     @Config("collector.hadoop.ugi")
     @Default("nobody,nobody")
     String getHadoopUgi();
@@ -95,10 +113,276 @@ public interface CollectorConfig
     @Default("7911")
     int getScribePort();
 
+    /**
+     * Thrift server used for the Scribe endpoint: NONBLOCKING (single thread), HSHA (single I/O thread,
+     * pool of workers) or THREADED_SELECTOR (pool of selector threads, pool of workers)
+     *
+     * @return the String representation of the ScribeServerType
+     * @see com.ning.metrics.collector.endpoint.servers.ScribeServerType
+     */
+    @Config("collector.scribe.server-type")
+    @Default("NONBLOCKING")
+    String getScribeServerType();
+
+    /**
+     * @return number of threads accepting, reading and writing Scribe connections (THREADED_SELECTOR only)
+     */
+    @Config("collector.scribe.selector-threads")
+    @Default("2")
+    int getScribeSelectorThreads();
+
+    /**
+     * @return number of threads deserializing and processing Scribe messages (HSHA and THREADED_SELECTOR only)
+     */
+    @Config("collector.scribe.worker-threads")
+    @Default("8")
+    int getScribeWorkerThreads();
+
+    /**
+     * @return number of accepted connections waiting to be registered, per selector thread (THREADED_SELECTOR only)
+     */
+    @Config("collector.scribe.accept-queue-size-per-thread")
+    @Default("4")
+    int getScribeAcceptQueueSizePerThread();
+
+    /**
+     * If true, large Scribe batches are split in chunks which are decoded and processed in parallel.
+     * The result code sent back to Scribe is unchanged.
+     *
+     * @return whether to process large Scribe batches in parallel
+     */
+    @Config("collector.scribe.parallel-extraction.enabled")
+    @Default("false")
+    boolean isScribeParallelExtractionEnabled();
+
+    /**
+     * @return number of threads, shared across all Scribe connections, processing batch chunks
+     */
+    @Config("collector.scribe.parallel-extraction.threads")
+    @Default("8")
+    int getScribeParallelExtractionThreads();
+
+    /**
+     * @return number of entries below which a batch is processed serially, by the Scribe worker thread
+     */
+    @Config("collector.scribe.parallel-extraction.min-batch-size")
+    @Default("256")
+    int getScribeParallelExtractionMinBatchSize();
+
+    /**
+     * @return number of entries per chunk
+     */
+    @Config("collector.scribe.parallel-extraction.chunk-size")
+    @Default("128")
+    int getScribeParallelExtractionChunkSize();
+
+    /**
+     * Chunks not processed within this time are cancelled, and TRY_LATER is sent back to Scribe.
+     *
+     * @return maximum time to process the chunks of a batch
+     */
+    @Config("collector.scribe.parallel-extraction.timeout")
+    @Default("30s")
+    TimeSpan getScribeParallelExtractionTimeout();
+
     @Config("collector.max-event-queue-size")
     @Default("200000")
     int getMaxQueueSize();
 
+    /**
+     * Implementation of the in-memory event queues (spool writers and realtime senders):
+     * LINKED (LinkedBlockingQueue) or RING_BUFFER (lock-free and allocation-free, but the whole
+     * buffer is allocated upfront for each queue).
+     * <p/>
+     * Ring buffer queues hold at most collector.event-queue.ring-buffer.capacity events (16384 by default), i.e. much
+     * less than collector.max-event-queue-size (200000 by default): switching to RING_BUFFER drops events sooner
+     * under load, unless the ring buffer capacity is raised.
+     *
+     * @return the String representation of the EventQueueType
+     * @see com.ning.metrics.collector.util.EventQueueType
+     */
+    @Config("collector.event-queue.type")
+    @Default("LINKED")
+    String getEventQueueType();
+
+    /**
+     * Maximum capacity of the RING_BUFFER event queues. Their buffer is allocated upfront (about 16 bytes per slot)
+     * and queues are recreated for every output path, so they are capped to this capacity rather than to the
+     * configured queue size.
+     *
+     * @return maximum number of events in a ring buffer queue
+     * @see #getEventQueueType()
+     */
+    @Config("collector.event-queue.ring-buffer.capacity")
+    @Default("16384")
+    int getRingBufferQueueCapacity();
+
+    /**
+     * If true, stage latencies (com.ning.metrics.collector:type=StageLatenciesByEvent) are also recorded per event
+     * name, for at most 1000 event names per stage. This adds one histogram per event name and stage.
+     *
+     * @return whether to break down the stage latencies per event name
+     */
+    @Config("collector.stage-latencies.per-event.enabled")
+    @Default("false")
+    boolean isStageLatenciesPerEventEnabled();
+
+    //------------------- Backpressure -------------------//
+
+    /**
+     * If true, requests are rejected (503 on HTTP, TRY_LATER on Scribe) before being deserialized when
+     * the spool can't keep up
+     *
+     * @return whether to reject requests when above the watermarks
+     */
+    @Config("collector.backpressure.enabled")
+    @Default("false")
+    boolean isBackpressureEnabled();
+
+    /**
+     * Number of events queued across all spool queues above which requests are rejected. 0 to ignore queued events.
+     * A single full queue doesn't push back on the other event types, its own events are dropped.
+     *
+     * @return queued events high watermark
+     * @see #getMaxQueueSize()
+     */
+    @Config("collector.backpressure.queued-events-high-watermark")
+    @Default("1000000")
+    long getBackpressureQueuedEventsHighWatermark();
+
+    /**
+     * Number of committed local spool files not yet flushed to the spool processors above which requests are rejected.
+     * Files being written, flushed or quarantined, and the links in the processors inboxes, are not counted.
+     * 0 to ignore pending files.
+     *
+     * @return pending spool files high watermark
+     */
+    @Config("collector.backpressure.pending-files-high-watermark")
+    @Default("0")
+    int getBackpressurePendingFilesHighWatermark();
+
+    /**
+     * Delay between two checks of the watermarks
+     *
+     * @return check interval
+     */
+    @Config("collector.backpressure.check-interval")
+    @Default("1s")
+    TimeSpan getBackpressureCheckInterval();
+
+    /**
+     * Retry-After hint sent to HTTP clients when rejecting requests
+     *
+     * @return delay clients should wait before retrying
+     */
+    @Config("collector.backpressure.retry-after")
+    @Default("30s")
+    TimeSpan getBackpressureRetryAfter();
+
+    //------------------- NIO endpoint -------------------//
+
+    /**
+     * Cap on the size of compressed (gzip, deflate, lzf) request bodies once decompressed, on the Jetty and NIO
+     * endpoints. Larger requests are rejected with a 413.
+     *
+     * @return maximum size of a decompressed request body, in bytes
+     */
+    @Config("collector.max-decompressed-size")
+    @Default("33554432")
+    long getMaxDecompressedSize();
+
+    /**
+     * If true, an additional HTTP server accepts POST /rest/1.0/event requests (Smile, JSON and Thrift bodies)
+     * on its own port. Bodies are read with non-blocking I/O, so slow clients don't hold a thread,
+     * and requests are processed by a bounded worker pool once fully received.
+     *
+     * @return whether to start the NIO endpoint
+     */
+    @Config("collector.nio.enabled")
+    @Default("false")
+    boolean isNioEndpointEnabled();
+
+    @Config("collector.nio.port")
+    @Default("8090")
+    int getNioPort();
+
+    /**
+     * @return number of selector threads (doing all the socket I/O)
+     */
+    @Config("collector.nio.selectors")
+    @Default("2")
+    int getNioSelectorCount();
+
+    /**
+     * @return number of threads deserializing and processing the requests
+     */
+    @Config("collector.nio.workers")
+    @Default("32")
+    int getNioWorkerCount();
+
+    /**
+     * Number of fully received requests waiting for a worker, above which requests are rejected (503)
+     *
+     * @return maximum number of pending requests
+     */
+    @Config("collector.nio.worker-queue-size")
+    @Default("1024")
+    int getNioWorkerQueueSize();
+
+    /**
+     * Size of the pooled buffers bodies are read into. Also the maximum size of the request headers.
+     *
+     * @return buffers size in bytes
+     */
+    @Config("collector.nio.buffer-size")
+    @Default("16384")
+    int getNioBufferSize();
+
+    @Config("collector.nio.max-pooled-buffers")
+    @Default("4096")
+    int getNioMaxPooledBuffers();
+
+    @Config("collector.nio.max-request-size")
+    @Default("10485760")
+    long getNioMaxRequestSize();
+
+    /**
+     * Cap on the direct memory used for buffers, across all connections. A request whose body doesn't fit in what's
+     * left is rejected (503) before its body is read.
+     *
+     * @return maximum number of bytes buffered by the NIO endpoint
+     */
+    @Config("collector.nio.max-buffered-bytes")
+    @Default("268435456")
+    long getNioMaxBufferedBytes();
+
+    /**
+     * Connections accepted above this limit are closed right away
+     *
+     * @return maximum number of open connections on the NIO endpoint
+     */
+    @Config("collector.nio.max-connections")
+    @Default("10000")
+    int getNioMaxConnections();
+
+    /**
+     * On shutdown, how long to wait for in-flight requests to be processed, and then for the I/O threads to exit
+     *
+     * @return maximum time to wait for each of the thread pools
+     */
+    @Config("collector.nio.shutdown-timeout")
+    @Default("10s")
+    TimeSpan getNioShutdownTimeout();
+
+    /**
+     * Connections which haven't sent (or read) anything for that long are closed
+     *
+     * @return maximum idle time
+     */
+    @Config("collector.nio.max-idle-time")
+    @Default("15s")
+    TimeSpan getNioMaxIdleTime();
+
     @Config("collector.event-routes.persistent")
     @Default("true")
     boolean isHdfsWriterEnabled();
@@ -148,9 +432,10 @@ public interface CollectorConfig
     String getSyncType();
 
     /**
-     * Size of the batch for the sync type parameter
+     * Size of the batch for the sync type parameter. Batches written by the dequeuer (see getEventWriterBatchSize)
+     * are also flushed or synced at their end.
      *
-     * @return the number of events to buffer before calling flush or sync
+     * @return the number of events to write before calling flush or sync
      */
     @Config("collector.diskspool.batch-size")
     @Default("50")
@@ -161,10 +446,9 @@ public interface CollectorConfig
      * <p/>
      * Maximum number of events per file in the temporary spooling area. Past this threshold,
      * buffered events are promoted to the final spool queue.
-     * This is used in the ThresholdEventWriter (size before commits)
+     * This is used in the BatchingThresholdEventWriter (size before commits).
      *
      * @return the maximum number of events per file
-     * @see com.ning.metrics.serialization.writer.ThresholdEventWriter
      */
     @Config("collector.diskspool.max-uncommitted-write-count")
     @Default("10000")
@@ -174,10 +458,9 @@ public interface CollectorConfig
      * Maximum age of events in the file being written (_tmp directory).
      * <p/>
      * Maximum number of seconds before events are promoted from the temporary spooling area to the final spool queue.
-     * This is used in the ThresholdEventWriter (delay between commits).
+     * This is used in the BatchingThresholdEventWriter (delay between commits).
      *
      * @return maxixmum age of events in seconds in the temporary spool queue
-     * @see com.ning.metrics.serialization.writer.ThresholdEventWriter
      */
     @Config("collector.diskspool.max-uncommitted-period-seconds")
     @Default("60")
@@ -237,6 +520,12 @@ public interface CollectorConfig
     @Default("15s")
     TimeSpan getJettyMaxIdleTime();
 
+    /**
+     * HDFS directory where files are uploaded before being renamed to their final path, so that readers never see
+     * partial files. Needs to be on the same filesystem as the event output directory.
+     *
+     * @return temporary output directory in HDFS
+     */
     @Config("collector.temporary-event-output-directory")
     @Default("/tmp/collector/hdfs/tmp")
     String getTemporaryEventOutputDirectory();
@@ -245,6 +534,12 @@ public interface CollectorConfig
     @Default("/events")
     String getEventOutputDirectory();
 
+    /**
+     * Maximum number of files uploaded to HDFS at the same time (i.e. of HDFS output streams open). The uploads
+     * themselves run in the HDFSWriter spool processor threads, see getFileProcessorThreadCount.
+     *
+     * @return maximum number of concurrent HDFS uploads
+     */
     @Config("collector.hadoop-writer.max-writers")
     @Default("64")
     int getMaxHadoopWriters();
@@ -291,6 +586,36 @@ public interface CollectorConfig
     @Default("true")
     boolean isFilteredEventTypeIncluded();
 
+    /**
+     * Event types to sample, as EventName:rate[:FIELD] separated by the filters delimiter. The rate is the fraction
+     * of events to keep (0 to 1). If a field (HOST, IP, USERAGENT or PATH) is specified, the sampling is
+     * deterministic on that field, otherwise random.
+     *
+     * @return the initial sampling rules, changeable via JMX
+     */
+    @Config("collector.load-shedding.sampling-rates")
+    @DefaultNull
+    String getLoadSheddingSamplingRates();
+
+    /**
+     * Event types to rate limit, as EventName:eventsPerSecond separated by the filters delimiter
+     *
+     * @return the initial rate limits, changeable via JMX
+     */
+    @Config("collector.load-shedding.rate-limits")
+    @DefaultNull
+    String getLoadSheddingRateLimits();
+
+    /**
+     * Maximum number of field values (host, IP, user agent, ...) for which each filter remembers its verdict, 0 to
+     * disable caching
+     *
+     * @return the size of the per-filter verdict cache
+     */
+    @Config("collector.filters.cache-size")
+    @Default("10000")
+    int getFiltersCacheSize();
+
     /**
      * Default hostname to use when connecting to the load balancer
      *
@@ -419,13 +744,86 @@ public interface CollectorConfig
     String getSpoolWriterClassNames();
 
     /**
-     * Total number of threads that can run in parallel.
-     * Typically it would be 5 times the number of processor classes.
+     * Number of threads processing spool files, per spool processor (can be overridden per processor,
+     * e.g. collector.spoolWriter.HDFSWriter.fileprocessor.threads.count=20).
      * */
-    @Config("collector.spoolWriter.fileprocessor.threads.count")
+    @Config({"collector.spoolWriter.${processorName}.fileprocessor.threads.count",
+             "collector.spoolWriter.fileprocessor.threads.count"})
     @Default("10")
     int getFileProcessorThreadCount();
 
+    /**
+     * Maximum number of spool files waiting for a given spool processor (can be overridden per processor).
+     * Flushes wait (see collector.spoolWriter.queue.submit.timeout) when a processor is that far behind.
+     *
+     * @return maximum number of files queued per spool processor
+     */
+    @Config({"collector.spoolWriter.${processorName}.queue.size",
+             "collector.spoolWriter.queue.size"})
+    @Default("1000")
+    int getSpoolProcessorQueueSize();
+
+    /**
+     * Maximum time a flush waits for room in the queue of a spool processor (can be overridden per processor).
+     * The file is then handled as if the processor failed on it: it is quarantined, or kept in the processor inbox
+     * with the fan-out, and picked up again with the files left below.
+     *
+     * @return maximum time to wait for a full spool processor queue
+     */
+    @Config({"collector.spoolWriter.${processorName}.queue.submit.timeout",
+             "collector.spoolWriter.queue.submit.timeout"})
+    @Default("30s")
+    TimeSpan getSpoolProcessorQueueSubmitTimeout();
+
+    /**
+     * Number of times a spool processor tries to process a file before giving up (can be overridden per processor).
+     * Files given up on are quarantined, and only sent again to the processors which failed.
+     *
+     * @return maximum number of attempts per file and spool processor
+     */
+    @Config({"collector.spoolWriter.${processorName}.max.attempts",
+             "collector.spoolWriter.max.attempts"})
+    @Default("3")
+    int getSpoolProcessorMaxAttempts();
+
+    /**
+     * Delay before the first retry of a file by a spool processor, doubled at each attempt (can be overridden per processor).
+     *
+     * @return initial retry backoff
+     */
+    @Config({"collector.spoolWriter.${processorName}.retry.backoff",
+             "collector.spoolWriter.retry.backoff"})
+    @Default("1s")
+    TimeSpan getSpoolProcessorRetryBackoff();
+
+    /**
+     * If true, committed spool files are hard linked into an inbox per spool processor (_inbox/processorName under the
+     * spool directory) and the flush returns right away. Each processor deletes its own link once done with the file:
+     * the data goes away with the last link. Requires hard links support on the spool filesystem.
+     * <p/>
+     * Links are created with Hadoop's HardLink, which runs ln in a new process: this costs a fork per spool file and
+     * processor, i.e. a few milliseconds per flush, much less than processing the file itself.
+     *
+     * @return whether to fan out spool files to the processors via hard links
+     */
+    @Config("collector.spoolWriter.fan-out.enabled")
+    @Default("false")
+    boolean isSpoolFanOutEnabled();
+
+    /**
+     * Maximum time a flush waits for the spool processors when the fan-out is disabled (can be overridden per event).
+     * The file is then quarantined and the flush moves on: the processors done with it have acknowledged it (see
+     * SpoolDeliveryJournal), so only the slow ones get it again. A processor slower than this on every file still holds
+     * back each flush for that long, use the fan-out to decouple the processors entirely.
+     *
+     * @return maximum time to wait for the spool processors on flush
+     * @see #isSpoolFanOutEnabled()
+     */
+    @Config({"collector.spoolWriter.${eventName}.flush.timeout",
+             "collector.spoolWriter.flush.timeout"})
+    @Default("1m")
+    TimeSpan getSpoolProcessorsFlushTimeout();
+
     /**
      * Shutdown wait time for the executor to let the existing threads finish the processing.
      * */
@@ -433,6 +831,16 @@ public interface CollectorConfig
     @Default("5s")
     TimeSpan getSpoolWriterExecutorShutdownTime();
 
+    /**
+     * Number of event types processed in parallel when recovering the files left below (e.g. after a restart).
+     * Directories of a given event type are always processed one after the other.
+     *
+     * @return number of threads used to process files left below
+     */
+    @Config("collector.spoolWriter.recovery.threads.count")
+    @Default("4")
+    int getLeftBelowRecoveryThreadCount();
+
     /**
      * @return Comma (,) seperated class names for processing the event of the
      * given type.  This parameter is meant as an overload
@@ -447,11 +855,10 @@ public interface CollectorConfig
      * configuration parameter of the same name
      * <p/>
      * Maximum number of seconds before events are promoted from the temporary spooling area to the final spool queue.
-     * This is used in the ThresholdEventWriter (delay between commits).
+     * This is used in the BatchingThresholdEventWriter (delay between commits).
      *
      * @return maxixmum age of events in seconds in the temporary spool queue
      *          for events for the given type
-     * @see com.ning.metrics.serialization.writer.ThresholdEventWriter
      */
     @Config("collector.diskspool.${eventName}.max-uncommitted-period-seconds")
     @DefaultNull
@@ -464,6 +871,53 @@ public interface CollectorConfig
     @Default("60s")
     TimeSpan getEventFlushTime();
 
+    /**
+     * Maximum number of events the dequeuer hands to the writer at once. Can be overridden per event type,
+     * e.g. collector.spoolWriter.eventFoo.batchSize=5000. Each batch is serialized in blocks of up to
+     * collector.diskspool.batch-size events (if collector.diskspool.synctype is set, as a single block otherwise), each
+     * block written and flushed or synced at once. Set it to 1 to write events one by one.
+     *
+     * @return maximum number of events per batch
+     */
+    @Config({"collector.spoolWriter.${eventName}.batchSize",
+             "collector.spoolWriter.batchSize"})
+    @Default("1000")
+    int getEventWriterBatchSize();
+
+    /**
+     * How long the dequeuer waits for more events to fill up a batch (can be overridden per event type).
+     * By default, the dequeuer writes whatever is in the queue without waiting.
+     *
+     * @return maximum time to wait for a batch to fill up
+     */
+    @Config({"collector.spoolWriter.${eventName}.batchLinger",
+             "collector.spoolWriter.batchLinger"})
+    @Default("0ms")
+    TimeSpan getEventWriterBatchLinger();
+
+    /**
+     * Number of parallel writers (and dequeuer threads) per output path (can be overridden per event type).
+     * Each writer has its own local spool directory (and _tmp file). Bump it for event types saturating a single
+     * thread, e.g. collector.spoolWriter.eventFoo.writers=4
+     *
+     * @return number of spool writers per output path
+     */
+    @Config({"collector.spoolWriter.${eventName}.writers",
+             "collector.spoolWriter.writers"})
+    @Default("1")
+    int getEventSpoolWriterCount();
+
+    /**
+     * If true, Smile and JSON envelopes are not deserialized on the request path: the request body is only scanned
+     * for envelope boundaries, event name and date, and the envelopes are copied as-is to the spool files.
+     * Events forwarded to realtime listeners (ActiveMQ, ...) are always fully deserialized.
+     *
+     * @return whether to stream Smile/JSON events straight to the spool
+     */
+    @Config("collector.spoolWriter.pass-through.enabled")
+    @Default("false")
+    boolean isSpoolPassThroughEnabled();
+
     @Config("collector.spoolWriter.db.enabled")
     @Default("true")
     boolean isSpoolWriterDbEnabled();
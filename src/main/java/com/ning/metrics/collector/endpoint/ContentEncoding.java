@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint;
+
+import com.ning.compress.lzf.LZFInputStream;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-Encoding of POST requests. Bodies are decompressed on the fly, as the deserializers read them.
+ * <p/>
+ * Decompressed bodies are capped (collector.max-decompressed-size): a few KB of gzip can expand to gigabytes.
+ * Reading past the cap fails with a RequestTooLargeException, which the request handler turns into a 413.
+ */
+public enum ContentEncoding
+{
+    IDENTITY
+            {
+                @Override
+                InputStream newInputStream(final InputStream in) throws IOException
+                {
+                    return in;
+                }
+            },
+    GZIP
+            {
+                @Override
+                InputStream newInputStream(final InputStream in) throws IOException
+                {
+                    return new GZIPInputStream(in, BUFFER_SIZE);
+                }
+            },
+    DEFLATE
+            {
+                @Override
+                InputStream newInputStream(final InputStream in) throws IOException
+                {
+                    return new InflaterInputStream(in);
+                }
+            },
+    LZF
+            {
+                @Override
+                InputStream newInputStream(final InputStream in) throws IOException
+                {
+                    return new LZFInputStream(in);
+                }
+            };
+
+    public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    abstract InputStream newInputStream(InputStream in) throws IOException;
+
+    /**
+     * @param contentEncoding Content-Encoding header of the request (optional)
+     * @return the matching ContentEncoding, null if not supported
+     */
+    public static ContentEncoding fromHeader(final String contentEncoding)
+    {
+        if (contentEncoding == null) {
+            return IDENTITY;
+        }
+
+        final String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        if (encoding.isEmpty() || "identity".equals(encoding)) {
+            return IDENTITY;
+        }
+        else if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+            return GZIP;
+        }
+        else if ("deflate".equals(encoding)) {
+            return DEFLATE;
+        }
+        else if ("lzf".equals(encoding) || "x-lzf".equals(encoding)) {
+            return LZF;
+        }
+        else {
+            return null;
+        }
+    }
+
+    /**
+     * Wrap a request body to decompress it
+     *
+     * @param contentEncoding   Content-Encoding header of the request (optional)
+     * @param in                request body
+     * @param maxDecodedSize    maximum size of the decompressed body, in bytes
+     * @return the decompressed body, which throws a RequestTooLargeException past maxDecodedSize bytes
+     * @throws WebApplicationException 415 if the encoding is not supported, 400 if the body is not properly encoded
+     */
+    public static InputStream decode(final String contentEncoding, final InputStream in, final long maxDecodedSize)
+    {
+        final ContentEncoding encoding = fromHeader(contentEncoding);
+        if (encoding == null) {
+            throw new WebApplicationException(Response.status(Response.Status.UNSUPPORTED_MEDIA_TYPE)
+                                                      .header("Warning", String.format("199 Unsupported Content-Encoding: %s", contentEncoding))
+                                                      .build());
+        }
+
+        if (encoding == IDENTITY) {
+            return in;
+        }
+
+        try {
+            return new LimitedInputStream(encoding.newInputStream(in), maxDecodedSize);
+        }
+        catch (IOException e) {
+            // e.g. invalid gzip header
+            throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+        }
+    }
+}
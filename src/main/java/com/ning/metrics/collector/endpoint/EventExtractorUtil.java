@@ -112,6 +112,15 @@ class EventExtractorUtil
         return null;
     }
 
+    /**
+     * @param httpHeaders HTTP headers of the incoming request
+     * @return the referrer match (host in group 1, path in group 2), null if there is no valid referrer
+     */
+    public Matcher getReferrerFromHeaders(final HttpHeaders httpHeaders)
+    {
+        return extractReferrer(httpHeaders);
+    }
+
     public String getReferrerHostFromHeaders(final HttpHeaders httpHeaders)
     {
         final Matcher matcher = extractReferrer(httpHeaders);
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.endpoint;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Fails with a RequestTooLargeException when more than maxSize bytes are read from the underlying stream.
+ * Unlike ByteStreams.limit, oversized streams are never silently truncated.
+ */
+class LimitedInputStream extends FilterInputStream
+{
+    private final long maxSize;
+    private long remaining;
+
+    LimitedInputStream(final InputStream in, final long maxSize)
+    {
+        super(in);
+        this.maxSize = maxSize;
+        this.remaining = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (remaining == 0) {
+            checkEndOfStream();
+            return -1;
+        }
+
+        final int b = in.read();
+        if (b >= 0) {
+            remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            checkEndOfStream();
+            return -1;
+        }
+
+        final int read = in.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0) {
+            remaining -= read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException
+    {
+        final long skipped = in.skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported()
+    {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(final int readLimit)
+    {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException
+    {
+        throw new IOException("mark/reset not supported");
+    }
+
+    private void checkEndOfStream() throws IOException
+    {
+        if (in.read() != -1) {
+            throw new RequestTooLargeException(String.format("Decompressed body larger than %d bytes", maxSize));
+        }
+    }
+}
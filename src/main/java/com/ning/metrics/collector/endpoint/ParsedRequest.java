@@ -27,22 +27,40 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
 
+/**
+ * Request metadata used by the deserializers, filters and parsers.
+ * <p/>
+ * Headers are only looked at when needed (e.g. the referrer is only parsed if a filter or an annotated field uses it),
+ * and parsed once. Instances are not thread safe: a request is processed by a single thread.
+ */
 public class ParsedRequest
 {
     private static final Logger log = LoggerFactory.getLogger(ParsedRequest.class);
     private static final EventExtractorUtil eventExtractorUtil = new EventExtractorUtil();
 
     private final String eventName;
+    private final List<String> eventNames;
     private final DateTime eventDateTime;
-    private String ipAddress;
+    private final HttpHeaders httpHeaders;
+    private final String granularityString;
+    private final String peerIpAddress;
+    private final DeserializationType contentType;
+    private final InputStream inputStream;
+
+    // Lazily computed
+    private boolean referrerParsed = false;
     private String referrerHost = null;
     private String referrerPath = null;
-    private final String userAgent;
-    private final Granularity granularity;
-    private int contentLength = 0;
-    private DeserializationType contentType;
-    private final InputStream inputStream;
+    private boolean ipAddressParsed = false;
+    private String ipAddress = null;
+    private boolean userAgentParsed = false;
+    private String userAgent = null;
+    private Granularity granularity = null;
+    private Integer contentLength = null;
 
     /**
      * Constructor used by the external API (GET only)
@@ -64,6 +82,28 @@ public class ParsedRequest
         this(eventName, httpHeaders, null, eventDateTime, granularityString, peerIpAddress, contentType);
     }
 
+    /**
+     * Constructor used by the external API (GET only), for several events (one per value of the v query parameter)
+     *
+     * @param eventNames        events parsed, one per value (may be null)
+     * @param httpHeaders       HTTP headers of the incoming request
+     * @param eventDateTime     query value parameter (optional)
+     * @param granularityString query value parameter (optional)
+     * @param peerIpAddress     requestor (peer) IP address (optional)
+     * @param contentType       deserialization type (BASE_64_QUERY or DECIMAL_QUERY)
+     */
+    public ParsedRequest(final List<String> eventNames,
+                         final HttpHeaders httpHeaders,
+                         final DateTime eventDateTime,
+                         final String granularityString,
+                         final String peerIpAddress,
+                         final DeserializationType contentType)
+    {
+        this(eventNames == null || eventNames.isEmpty() ? null : eventNames.get(0),
+             eventNames == null ? Collections.<String>emptyList() : eventNames,
+             httpHeaders, null, eventDateTime, granularityString, peerIpAddress, contentType);
+    }
+
     /**
      * Constructor used by the internal API (POST only)
      *
@@ -83,36 +123,27 @@ public class ParsedRequest
                          final String peerIpAddress,
                          final DeserializationType contentType)
     {
-        this.eventName = eventName;
+        this(eventName, eventName == null ? Collections.<String>emptyList() : Collections.singletonList(eventName),
+             httpHeaders, inputStream, eventDateTime, granularityString, peerIpAddress, contentType);
+    }
 
+    private ParsedRequest(final String eventName,
+                          final List<String> eventNames,
+                          final HttpHeaders httpHeaders,
+                          final InputStream inputStream,
+                          final DateTime eventDateTime,
+                          final String granularityString,
+                          final String peerIpAddress,
+                          final DeserializationType contentType)
+    {
+        this.eventName = eventName;
+        this.eventNames = eventNames;
         this.eventDateTime = eventExtractorUtil.dateFromDateTime(eventDateTime);
-
-        granularity = eventExtractorUtil.granularityFromString(granularityString);
-
-        referrerHost = eventExtractorUtil.getReferrerHostFromHeaders(httpHeaders);
-        referrerPath = eventExtractorUtil.getReferrerPathFromHeaders(httpHeaders);
-
-        ipAddress = eventExtractorUtil.ipAddressFromHeaders(httpHeaders);
-        if (ipAddress == null) {
-            ipAddress = peerIpAddress;
-        }
-
-        try {
-            contentLength = eventExtractorUtil.contentLengthFromHeaders(httpHeaders);
-        }
-        catch (NumberFormatException e) {
-            log.warn(String.format("Illegal Content-Length header"), e);
-            throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
-        }
-
-        this.contentType = contentType;
-        if (this.contentType == null) {
-            this.contentType = DeserializationType.DEFAULT;
-        }
-
+        this.httpHeaders = httpHeaders;
+        this.granularityString = granularityString;
+        this.peerIpAddress = peerIpAddress;
+        this.contentType = contentType == null ? DeserializationType.DEFAULT : contentType;
         this.inputStream = inputStream;
-
-        userAgent = eventExtractorUtil.getUserAgentFromHeaders(httpHeaders);
     }
 
     public String getEventName()
@@ -120,6 +151,14 @@ public class ParsedRequest
         return eventName;
     }
 
+    /**
+     * @return all events of the request (values of the v query parameter), empty if none
+     */
+    public List<String> getEventNames()
+    {
+        return eventNames;
+    }
+
     public DateTime getDateTime()
     {
         return eventDateTime;
@@ -127,31 +166,71 @@ public class ParsedRequest
 
     public String getReferrerHost()
     {
+        parseReferrer();
         return referrerHost;
     }
 
     public String getReferrerPath()
     {
+        parseReferrer();
         return referrerPath;
     }
 
+    private void parseReferrer()
+    {
+        if (referrerParsed) {
+            return;
+        }
+
+        // Host and path come from the same match
+        final Matcher matcher = eventExtractorUtil.getReferrerFromHeaders(httpHeaders);
+        if (matcher != null) {
+            referrerHost = matcher.group(1);
+            referrerPath = matcher.group(2);
+        }
+        referrerParsed = true;
+    }
+
     public String getIpAddress()
     {
+        if (!ipAddressParsed) {
+            ipAddress = eventExtractorUtil.ipAddressFromHeaders(httpHeaders);
+            if (ipAddress == null) {
+                ipAddress = peerIpAddress;
+            }
+            ipAddressParsed = true;
+        }
         return ipAddress;
     }
 
     public String getUserAgent()
     {
+        if (!userAgentParsed) {
+            userAgent = eventExtractorUtil.getUserAgentFromHeaders(httpHeaders);
+            userAgentParsed = true;
+        }
         return userAgent;
     }
 
     public Granularity getBucketGranularity()
     {
+        if (granularity == null) {
+            granularity = eventExtractorUtil.granularityFromString(granularityString);
+        }
         return granularity;
     }
 
     public int getContentLength()
     {
+        if (contentLength == null) {
+            try {
+                contentLength = eventExtractorUtil.contentLengthFromHeaders(httpHeaders);
+            }
+            catch (NumberFormatException e) {
+                log.warn(String.format("Illegal Content-Length header"), e);
+                throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
+            }
+        }
         return contentLength;
     }
 
@@ -168,15 +247,31 @@ public class ParsedRequest
     @Override
     public String toString()
     {
+        Object granularityForDisplay;
+        try {
+            granularityForDisplay = getBucketGranularity();
+        }
+        catch (IllegalArgumentException e) {
+            granularityForDisplay = granularityString;
+        }
+
+        Object contentLengthForDisplay;
+        try {
+            contentLengthForDisplay = getContentLength();
+        }
+        catch (WebApplicationException e) {
+            contentLengthForDisplay = "INVALID";
+        }
+
         final StringBuilder builder = new StringBuilder();
         builder.append(String.format("name: %s, ", eventName == null ? "NULL" : eventName));
         builder.append(String.format("date: %s, ", eventDateTime == null ? "NULL" : eventDateTime));
-        builder.append(String.format("referrerHost: %s, ", referrerHost == null ? "NULL" : referrerHost));
-        builder.append(String.format("referrerPath: %s, ", referrerPath == null ? "NULL" : referrerPath));
-        builder.append(String.format("ip: %s, ", ipAddress == null ? "NULL" : ipAddress));
-        builder.append(String.format("ua: %s, ", userAgent == null ? "NULL" : userAgent));
-        builder.append(String.format("granularity: %s, ", granularity == null ? "NULL" : granularity));
-        builder.append(String.format("contentLength: %d, ", contentLength));
+        builder.append(String.format("referrerHost: %s, ", getReferrerHost() == null ? "NULL" : referrerHost));
+        builder.append(String.format("referrerPath: %s, ", getReferrerPath() == null ? "NULL" : referrerPath));
+        builder.append(String.format("ip: %s, ", getIpAddress() == null ? "NULL" : ipAddress));
+        builder.append(String.format("ua: %s, ", getUserAgent() == null ? "NULL" : userAgent));
+        builder.append(String.format("granularity: %s, ", granularityForDisplay == null ? "NULL" : granularityForDisplay));
+        builder.append(String.format("contentLength: %s, ", contentLengthForDisplay));
         builder.append(String.format("contentType: %s", contentType == null ? "NULL" : contentType));
         return builder.toString();
     }
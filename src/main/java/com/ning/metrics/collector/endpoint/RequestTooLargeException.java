@@ -0,0 +1,30 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.endpoint;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a decompressed request body larger than allowed (see collector.max-decompressed-size)
+ */
+@SuppressWarnings("serial")
+public class RequestTooLargeException extends IOException
+{
+    public RequestTooLargeException(final String message)
+    {
+        super(message);
+    }
+}
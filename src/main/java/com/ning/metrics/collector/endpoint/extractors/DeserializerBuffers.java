@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.extractors;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Scratch buffers, reused by the deserializers of a given thread from one request to the next.
+ * <p/>
+ * A request is deserialized by a single thread, one deserializer at a time. Callers get copies of the buffers
+ * content, except for readFully(), whose stream must be consumed before the buffers are used again.
+ */
+final class DeserializerBuffers
+{
+    // Don't hold on to the buffers of unusually large requests
+    //@VisibleForTesting
+    static final int MAX_RETAINED_SIZE = 1024 * 1024;
+    private static final int INITIAL_SIZE = 8192;
+
+    private static final ThreadLocal<DeserializerBuffers> buffers = new ThreadLocal<DeserializerBuffers>()
+    {
+        @Override
+        protected DeserializerBuffers initialValue()
+        {
+            return new DeserializerBuffers();
+        }
+    };
+
+    private final byte[] readBuffer = new byte[INITIAL_SIZE];
+    private BodyBuffer bodyBuffer = new BodyBuffer();
+    private ByteArrayOutputStream envelopeBuffer = new ByteArrayOutputStream(INITIAL_SIZE);
+
+    private DeserializerBuffers()
+    {
+    }
+
+    static DeserializerBuffers get()
+    {
+        return buffers.get();
+    }
+
+    /**
+     * Equivalent of ByteStreams.toByteArray, without growing a new buffer for each request
+     *
+     * @param in stream to read
+     * @return the content of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    byte[] toByteArray(final InputStream in) throws IOException
+    {
+        try {
+            read(in);
+            return bodyBuffer.toByteArray();
+        }
+        finally {
+            trimBodyBuffer();
+        }
+    }
+
+    /**
+     * Same as toByteArray, without copying the content
+     *
+     * @param in stream to read
+     * @return a stream over the content of in, to be consumed before the next call to this object
+     * @throws IOException if the stream cannot be read
+     */
+    ByteArrayInputStream readFully(final InputStream in) throws IOException
+    {
+        try {
+            read(in);
+            return bodyBuffer.toInputStream();
+        }
+        finally {
+            // The stream keeps the previous array, if any
+            trimBodyBuffer();
+        }
+    }
+
+    private void read(final InputStream in) throws IOException
+    {
+        bodyBuffer.reset();
+        int read;
+        while ((read = in.read(readBuffer)) != -1) {
+            bodyBuffer.write(readBuffer, 0, read);
+        }
+    }
+
+    private void trimBodyBuffer()
+    {
+        if (bodyBuffer.size() > MAX_RETAINED_SIZE) {
+            bodyBuffer = new BodyBuffer();
+        }
+    }
+
+    /**
+     * @return an empty stream, to encode one envelope. Its content must be copied (toByteArray) before the next call.
+     */
+    ByteArrayOutputStream getEnvelopeBuffer()
+    {
+        if (envelopeBuffer.size() > MAX_RETAINED_SIZE) {
+            envelopeBuffer = new ByteArrayOutputStream(INITIAL_SIZE);
+        }
+        else {
+            envelopeBuffer.reset();
+        }
+        return envelopeBuffer;
+    }
+
+    private static final class BodyBuffer extends ByteArrayOutputStream
+    {
+        private BodyBuffer()
+        {
+            super(INITIAL_SIZE);
+        }
+
+        private ByteArrayInputStream toInputStream()
+        {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -15,14 +15,18 @@
  */
 package com.ning.metrics.collector.endpoint.extractors;
 
+import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.endpoint.ParsedRequest;
 import com.ning.metrics.collector.events.parsing.ThriftEnvelopeEventParser;
 import com.ning.metrics.collector.events.parsing.converters.Base64NumberConverter;
 import com.ning.metrics.collector.events.parsing.converters.DecimalNumberConverter;
+import com.ning.metrics.collector.processing.EventCollector;
 import com.ning.metrics.serialization.event.EventDeserializer;
 import com.ning.metrics.serialization.smile.SmileEnvelopeEventDeserializer;
 import com.ning.metrics.serialization.thrift.ThriftEnvelopeEventDeserializer;
 
+import com.google.inject.Inject;
+
 import java.io.IOException;
 
 public class EventDeserializerFactory
@@ -30,14 +34,45 @@ public class EventDeserializerFactory
     private static final ThriftEnvelopeEventParser decimalParser = new ThriftEnvelopeEventParser(new DecimalNumberConverter());
     private static final ThriftEnvelopeEventParser base64Parser = new ThriftEnvelopeEventParser(new Base64NumberConverter());
 
+    private final boolean passThroughEnabled;
+    private final EventCollector eventCollector;
+
+    //@VisibleForTesting
+    public EventDeserializerFactory()
+    {
+        this(false, null);
+    }
+
+    @Inject
+    public EventDeserializerFactory(final CollectorConfig config, final EventCollector eventCollector)
+    {
+        this(config.isSpoolPassThroughEnabled(), eventCollector);
+    }
+
+    /**
+     * @param passThroughEnabled whether to stream Smile and JSON envelopes to the spool without deserializing them
+     * @param eventCollector     used to find out which events are forwarded in realtime (these are always deserialized)
+     */
+    public EventDeserializerFactory(final boolean passThroughEnabled, final EventCollector eventCollector)
+    {
+        this.passThroughEnabled = passThroughEnabled;
+        this.eventCollector = eventCollector;
+    }
+
     // question: why is this class not static?
     // answer: so we can replace this factory with a mock one during tests
     public EventDeserializer getEventDeserializer(final ParsedRequest annotation) throws IOException
     {
         switch (annotation.getContentType()) {
             case SMILE:
+                if (passThroughEnabled) {
+                    return new PassThroughSmileEnvelopeEventDeserializer(annotation.getInputStream(), false, eventCollector);
+                }
                 return new SmileEnvelopeEventDeserializer(annotation.getInputStream(), false);
             case JSON:
+                if (passThroughEnabled) {
+                    return new PassThroughSmileEnvelopeEventDeserializer(annotation.getInputStream(), true, eventCollector);
+                }
                 return new SmileEnvelopeEventDeserializer(annotation.getInputStream(), true);
             case THRIFT:
                 return new ThriftEnvelopeEventDeserializer(annotation.getInputStream());
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.extractors;
+
+import com.ning.metrics.collector.processing.EventCollector;
+import com.ning.metrics.collector.processing.PassThroughSmileEnvelopeEvent;
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.EventDeserializer;
+import com.ning.metrics.serialization.event.Granularity;
+import com.ning.metrics.serialization.event.SmileEnvelopeEvent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.joda.time.DateTime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming equivalent of SmileEnvelopeEventDeserializer: envelopes are not deserialized, only scanned for
+ * the event name, date and granularity (see PassThroughSmileEnvelopeEvent).
+ * <p/>
+ * JSON envelopes are slices of the request body. Smile envelopes may refer to names (and values) seen in previous
+ * envelopes, so they are re-encoded token by token, without shared names nor values.
+ * <p/>
+ * Envelopes we can't route without deserializing them (unknown granularity, non numeric date, ...) and envelopes
+ * of event types forwarded in realtime are returned as regular SmileEnvelopeEvent.
+ */
+public class PassThroughSmileEnvelopeEventDeserializer implements EventDeserializer
+{
+    private static final String EVENT_NAME_TOKEN_NAME = "eventName";
+    private static final String PAYLOAD_TOKEN_NAME = "payload";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final SmileFactory smileFactory = new SmileFactory();
+    // Factory for standalone envelopes
+    private static final SmileFactory envelopeSmileFactory = new SmileFactory();
+
+    static {
+        envelopeSmileFactory.configure(SmileGenerator.Feature.WRITE_HEADER, false);
+        envelopeSmileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_NAMES, false);
+        envelopeSmileFactory.configure(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES, false);
+    }
+
+    private final boolean plainJson;
+    private final EventCollector eventCollector;
+    private final DeserializerBuffers buffers = DeserializerBuffers.get();
+    private final JsonParser parser;
+    // Request body, for JSON
+    private final byte[] body;
+    // Whether the parser gives us byte offsets in body
+    private final boolean sliceBody;
+
+    private JsonToken nextToken;
+
+    /**
+     * @param in             request body
+     * @param plainJson      true for JSON, false for Smile
+     * @param eventCollector used to find out which event types are forwarded in realtime
+     * @throws IOException if the body doesn't start with a valid token
+     */
+    public PassThroughSmileEnvelopeEventDeserializer(final InputStream in, final boolean plainJson, final EventCollector eventCollector) throws IOException
+    {
+        this.plainJson = plainJson;
+        this.eventCollector = eventCollector;
+
+        if (plainJson) {
+            body = buffers.toByteArray(in);
+            parser = jsonFactory.createJsonParser(body);
+        }
+        else {
+            body = null;
+            parser = smileFactory.createJsonParser(in);
+        }
+
+        nextToken = parser.nextToken();
+        if (nextToken == JsonToken.START_ARRAY) {
+            nextToken = parser.nextToken();
+        }
+
+        // Non UTF-8 JSON is decoded by a Reader, which doesn't know about byte offsets
+        sliceBody = plainJson && parser.getTokenLocation().getByteOffset() >= 0;
+    }
+
+    @Override
+    public boolean hasNextEvent()
+    {
+        return nextToken != null && nextToken != JsonToken.END_ARRAY;
+    }
+
+    @Override
+    public Event getNextEvent() throws IOException
+    {
+        if (nextToken != JsonToken.START_OBJECT) {
+            throw new IOException(String.format("Expected an envelope, got %s", nextToken));
+        }
+
+        final int start = (int) parser.getTokenLocation().getByteOffset();
+        final ByteArrayOutputStream envelope;
+        final JsonGenerator generator;
+        if (sliceBody) {
+            envelope = null;
+            generator = null;
+        }
+        else {
+            envelope = buffers.getEnvelopeBuffer();
+            generator = plainJson ? jsonFactory.createJsonGenerator(envelope) : envelopeSmileFactory.createJsonGenerator(envelope);
+        }
+
+        String eventName = null;
+        Long eventDateTime = null;
+        String granularity = null;
+        boolean canRoute = true;
+
+        // Walk the envelope, the parser is on its START_OBJECT
+        String fieldName = null;
+        boolean inPayload = false;
+        int depth = 0;
+        JsonToken token = nextToken;
+        do {
+            if (generator != null) {
+                generator.copyCurrentEvent(parser);
+            }
+
+            switch (token) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    if (depth == 2 && token == JsonToken.START_OBJECT && PAYLOAD_TOKEN_NAME.equals(fieldName)) {
+                        inPayload = true;
+                    }
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    if (depth == 1) {
+                        inPayload = false;
+                    }
+                    break;
+                case FIELD_NAME:
+                    fieldName = parser.getCurrentName();
+                    break;
+                default:
+                    if (depth == 1 && EVENT_NAME_TOKEN_NAME.equals(fieldName)) {
+                        eventName = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    }
+                    else if (inPayload && depth == 2 && SmileEnvelopeEvent.SMILE_EVENT_DATETIME_TOKEN_NAME.equals(fieldName)) {
+                        if (token == JsonToken.VALUE_NUMBER_INT) {
+                            eventDateTime = parser.getLongValue();
+                        }
+                        else {
+                            canRoute = false;
+                        }
+                    }
+                    else if (inPayload && depth == 2 && SmileEnvelopeEvent.SMILE_EVENT_GRANULARITY_TOKEN_NAME.equals(fieldName)) {
+                        granularity = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                        canRoute = canRoute && isValidGranularity(granularity);
+                    }
+                    break;
+            }
+        }
+        while (depth > 0 && (token = parser.nextToken()) != null);
+
+        if (depth > 0) {
+            throw new IOException(String.format("Truncated envelope for event %s", eventName));
+        }
+
+        final PassThroughSmileEnvelopeEvent event;
+        if (sliceBody) {
+            final int end = (int) parser.getCurrentLocation().getByteOffset();
+            event = newEvent(eventName, eventDateTime, granularity, canRoute, body, start, end - start);
+        }
+        else {
+            generator.close();
+            final byte[] bytes = envelope.toByteArray();
+            event = newEvent(eventName, eventDateTime, granularity, canRoute, bytes, 0, bytes.length);
+        }
+
+        nextToken = parser.nextToken();
+
+        if (eventName == null || !canRoute || (eventCollector != null && eventCollector.isForwarded(eventName))) {
+            // Let SmileEnvelopeEventDeserializer deal with it
+            return event.materialize();
+        }
+        else {
+            return event;
+        }
+    }
+
+    private PassThroughSmileEnvelopeEvent newEvent(final String eventName, final Long eventDateTime, final String granularity,
+                                                   final boolean canRoute, final byte[] bytes, final int offset, final int length)
+    {
+        // Same defaults as SmileEnvelopeEvent
+        final DateTime dateTime = eventDateTime == null ? new DateTime() : new DateTime(eventDateTime);
+        final Granularity eventGranularity = granularity == null || !canRoute ? Granularity.HOURLY : Granularity.valueOf(granularity);
+
+        return new PassThroughSmileEnvelopeEvent(eventName, dateTime, eventGranularity, plainJson, bytes, offset, length);
+    }
+
+    private static boolean isValidGranularity(final String granularity)
+    {
+        if (granularity == null) {
+            return false;
+        }
+
+        try {
+            Granularity.valueOf(granularity);
+            return true;
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -15,69 +15,186 @@
  */
 package com.ning.metrics.collector.endpoint.extractors;
 
+import com.google.common.base.Charsets;
 import com.google.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.RequestTooLargeException;
 import com.ning.metrics.collector.events.parsing.ThriftEnvelopeEventParser;
 import com.ning.metrics.serialization.event.EventDeserializer;
 import com.ning.metrics.serialization.event.ThriftEnvelopeEvent;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
 
+/**
+ * Deserializer for the query parameter formats (DECIMAL_QUERY and BASE_64_QUERY).
+ * <p/>
+ * Events are described as type,field,field,... Several events can be sent at once: one per value of the v query
+ * parameter (GET) or, if there is none, one per line of the request body (POST).
+ */
 public class QueryParameterEventDeserializer implements EventDeserializer
 {
     private static final Logger log = LoggerFactory.getLogger(QueryParameterEventDeserializer.class);
 
-    private boolean hasNextEvent;
+    // Lines of the body are buffered: bound them, as the query string is bound by the HTTP server
+    //@VisibleForTesting
+    static final int MAX_LINE_LENGTH = 65536;
+
     private final ParsedRequest parsedRequest;
     private final ThriftEnvelopeEventParser thriftEventParser;
 
+    // Events from the query string
+    private final List<String> events;
+    private int position = 0;
+    // Events from the body
+    private final BufferedReader reader;
+    private final StringBuilder line = new StringBuilder();
+    private String nextLine = null;
+
+    private boolean missingEvents;
+
     @Inject
     public QueryParameterEventDeserializer(final ThriftEnvelopeEventParser thriftEventParser, final ParsedRequest parsedRequest)
     {
-        this.hasNextEvent = true;
         this.parsedRequest = parsedRequest;
         this.thriftEventParser = thriftEventParser;
+
+        this.events = parsedRequest.getEventNames();
+        final InputStream body = parsedRequest.getInputStream();
+        if (events.isEmpty() && body != null) {
+            this.reader = new BufferedReader(new InputStreamReader(body, Charsets.UTF_8));
+        }
+        else {
+            this.reader = null;
+        }
+
+        // Fail in getNextEvent, as we used to
+        this.missingEvents = reader == null && !hasNonEmptyEvent(events);
     }
 
     @Override
     public boolean hasNextEvent()
     {
-        return hasNextEvent;
+        if (missingEvents) {
+            return true;
+        }
+        else if (reader == null) {
+            skipEmptyEvents();
+            return position < events.size();
+        }
+        else {
+            return readNextLine() != null;
+        }
     }
 
     @Override
     public ThriftEnvelopeEvent getNextEvent() throws IOException
     {
-        if (!hasNextEvent) {
+        if (missingEvents) {
+            missingEvents = false;
+            // TODO there's gotta be a better Exception to throw here. Maybe move EventParsingException
+            // to the Serialization library so that we can throw it from EventDeserializers
+            throw new IOException("Event name not specified");
+        }
+        else if (!hasNextEvent()) {
             throw new IOException("No more events left to deserialize");
         }
-        // can only extract one event
-        hasNextEvent = false;
 
-        final String eventName = parsedRequest.getEventName();
+        final String event;
+        if (reader == null) {
+            event = events.get(position);
+            position++;
+        }
+        else {
+            event = nextLine;
+            nextLine = null;
+        }
+
+        return parseEvent(event);
+    }
+
+    private ThriftEnvelopeEvent parseEvent(final String event) throws IOException
+    {
+        log.debug(String.format("Query parameter to process: %s", event));
+        final int typeSeparator = event.indexOf(',');
+        if (typeSeparator < 0) {
+            throw new IOException(String.format("Event type not specified: %s", event));
+        }
+        final String type = event.substring(0, typeSeparator);
+
+        try {
+            // Parse the fields in place, without copying them out of the query parameter
+            return thriftEventParser.parseThriftEvent(type, event, typeSeparator + 1, event.length(), parsedRequest);
+        }
+        catch (EventParsingException e) {
+            throw new IOException("Unable to parse event from query string.", e);
+        }
+    }
 
-        if (eventName != null) {
-            log.debug(String.format("Query parameter to process: %s", eventName));
-            final String type = eventName.substring(0, eventName.indexOf(","));
-            final String eventTypeString = eventName.substring(eventName.indexOf(",") + 1);
+    private static boolean hasNonEmptyEvent(final List<String> events)
+    {
+        for (final String event : events) {
+            if (event != null && !event.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-            log.debug(String.format("Event type [%s], event string [%s]", type, eventTypeString));
+    private void skipEmptyEvents()
+    {
+        while (position < events.size() && (events.get(position) == null || events.get(position).isEmpty())) {
+            position++;
+        }
+    }
 
-            try {
-                // This API only supports sending one event at a time
-                return thriftEventParser.parseThriftEvent(type, eventTypeString, parsedRequest);
+    private String readNextLine()
+    {
+        try {
+            while (nextLine == null) {
+                final String bodyLine = readLine();
+                if (bodyLine == null) {
+                    return null;
+                }
+                else if (!bodyLine.isEmpty()) {
+                    nextLine = bodyLine;
+                }
             }
-            catch (EventParsingException e) {
-                throw new IOException("Unable to parse event from query string.", e);
+            return nextLine;
+        }
+        catch (IOException e) {
+            // EventDeserializer#hasNextEvent can't throw
+            throw new RuntimeException("Unable to read request body", e);
+        }
+    }
+
+    /**
+     * Same as BufferedReader#readLine (minus lone \r line terminators), up to MAX_LINE_LENGTH characters
+     */
+    private String readLine() throws IOException
+    {
+        line.setLength(0);
+        int c;
+        while ((c = reader.read()) >= 0 && c != '\n') {
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new RequestTooLargeException(String.format("Event longer than %d characters", MAX_LINE_LENGTH));
             }
+            line.append((char) c);
         }
-        else {
-            // TODO there's gotta be a better Exception to throw here. Maybe move EventParsingException
-            // to the Serialization library so that we can throw it from EventDeserializers
-            throw new IOException("Event name not specified");
+
+        if (c < 0 && line.length() == 0) {
+            return null;
+        }
+        // Be lenient with CRLF
+        if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
         }
+        return line.toString();
     }
 }
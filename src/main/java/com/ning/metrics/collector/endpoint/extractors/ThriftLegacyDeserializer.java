@@ -22,7 +22,9 @@ import com.ning.metrics.serialization.thrift.ThriftEnvelope;
 import com.ning.metrics.serialization.thrift.ThriftField;
 import com.ning.metrics.serialization.thrift.ThriftFieldListParser;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 
 // this class is one big hack to let the legacy endpoint continue to exist
@@ -53,7 +55,16 @@ public class ThriftLegacyDeserializer implements EventDeserializer
         hasNextEvent = false;
 
         try {
-            final ArrayList<ThriftField> thriftFieldList = new ThriftFieldListParser().parse(annotation.getContentLength(), annotation.getInputStream());
+            int contentLength = annotation.getContentLength();
+            InputStream in = annotation.getInputStream();
+            if (contentLength <= 0) {
+                // No Content-Length header (e.g. compressed or chunked request): ThriftFieldListParser needs the length
+                // upfront, read the body in the per-thread buffer. Compressed bodies are capped by ContentEncoding.
+                final ByteArrayInputStream content = DeserializerBuffers.get().readFully(in);
+                contentLength = content.available();
+                in = content;
+            }
+            final ArrayList<ThriftField> thriftFieldList = new ThriftFieldListParser().parse(contentLength, in);
 
             return new ThriftEnvelopeEvent(
                 annotation.getDateTime(),
@@ -16,18 +16,24 @@
 
 package com.ning.metrics.collector.endpoint.resources;
 
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
 import com.ning.metrics.serialization.event.Event;
 import com.ning.metrics.serialization.event.StringToThriftEnvelopeEvent;
 import com.ning.metrics.serialization.event.ThriftEnvelopeEvent;
 import com.ning.metrics.serialization.event.ThriftToThriftEnvelopeEvent;
 
 import com.facebook.fb303.fb_status;
+import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.mogwee.executors.LoggingExecutor;
+import com.mogwee.executors.NamedThreadFactory;
 import com.yammer.metrics.annotation.Timed;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.thrift.TException;
 import org.joda.time.DateTime;
+import org.skife.config.TimeSpan;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scribe.thrift.LogEntry;
@@ -36,31 +42,119 @@ import scribe.thrift.scribe.Iface;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-class ScribeEventRequestHandler implements Iface
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+class ScribeEventRequestHandler implements Iface, Closeable
 {
     private static final Logger log = LoggerFactory.getLogger(ScribeEventRequestHandler.class);
 
     private static final String SERVICE_NAME = "Ning Scribed Service";
     private static final String VERSION = "0.1";
     private static final long startTime = System.currentTimeMillis();
+    // fb303 counters, named as in Scribe (in number of entries)
+    static final String RECEIVED_COUNTER = "received good";
+    static final String DENIED_COUNTER = "denied for queue size";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
 
-    private final Map<String, String> options = new HashMap<String, String>();
-    private final Map<String, Long> counters = new HashMap<String, Long>();
+    // Log() may be called concurrently, depending on the ScribeServerType
+    private final Map<String, String> options = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
 
+    private final ScribePayloadFormatDetector formatDetector = new ScribePayloadFormatDetector();
     private final ScribeEventHandler eventHandler;
+    private final SpoolAdmissionController admissionController;
+    // Null if batches are processed serially
+    private final ExecutorService executor;
+    private final int parallelMinBatchSize;
+    private final int parallelChunkSize;
+    private final TimeSpan parallelTimeout;
 
-    @Inject
     public ScribeEventRequestHandler(final ScribeEventHandler eventHandler)
+    {
+        this(eventHandler, null);
+    }
+
+    /**
+     * @param eventHandler        event handler
+     * @param admissionController backpressure, may be null (all requests are admitted)
+     */
+    public ScribeEventRequestHandler(final ScribeEventHandler eventHandler, final SpoolAdmissionController admissionController)
+    {
+        this(eventHandler, admissionController, null, Integer.MAX_VALUE, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @param eventHandler        event handler
+     * @param admissionController backpressure, may be null (all requests are admitted)
+     * @param config              collector config, for parallel processing of large batches
+     */
+    @Inject
+    public ScribeEventRequestHandler(final ScribeEventHandler eventHandler, final SpoolAdmissionController admissionController, final CollectorConfig config)
+    {
+        this(eventHandler, admissionController, createExecutor(config), config.getScribeParallelExtractionMinBatchSize(),
+             config.getScribeParallelExtractionChunkSize(), config.getScribeParallelExtractionTimeout());
+    }
+
+    //@VisibleForTesting
+    ScribeEventRequestHandler(final ScribeEventHandler eventHandler,
+                              final SpoolAdmissionController admissionController,
+                              final ExecutorService executor,
+                              final int parallelMinBatchSize,
+                              final int parallelChunkSize,
+                              final TimeSpan parallelTimeout)
     {
         this.eventHandler = eventHandler;
+        this.admissionController = admissionController;
+        this.executor = executor;
+        this.parallelMinBatchSize = parallelMinBatchSize;
+        this.parallelChunkSize = parallelChunkSize;
+        this.parallelTimeout = parallelTimeout;
+    }
+
+    private static ExecutorService createExecutor(final CollectorConfig config)
+    {
+        if (!config.isScribeParallelExtractionEnabled()) {
+            return null;
+        }
+
+        // Bounded: when all threads are busy and the queue is full, the Scribe worker processes the chunk itself
+        final int threads = config.getScribeParallelExtractionThreads();
+        return new LoggingExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                                   new ArrayBlockingQueue<Runnable>(threads),
+                                   new NamedThreadFactory("ScribeEntriesExtractor"), new RejectedExecutionHandler()
+        {
+            @Override
+            public void rejectedExecution(final Runnable runnable, final ThreadPoolExecutor pool)
+            {
+                // Unlike CallerRunsPolicy, don't silently discard the chunk once the pool is shut down
+                if (pool.isShutdown()) {
+                    throw new RejectedExecutionException("Scribe extraction pool shut down");
+                }
+                runnable.run();
+            }
+        });
     }
 
     /**
@@ -73,74 +167,171 @@ class ScribeEventRequestHandler implements Iface
     @Timed(name = "SCRIBE_API")
     public ResultCode Log(final List<LogEntry> logEntries)
     {
-        boolean success = false;
-
-        for (final LogEntry entry : logEntries) {
-            if (entry.getCategory() == null) {
-                log.info("Ignoring scribe entry with null category");
-                eventHandler.handleFailure(entry);
-                // We don't want Scribe to try later if it sends messages we don't understand.
-                success = true;
-                continue;
-            }
-            else if (entry.getMessage() == null) {
-                log.info("Ignoring scribe entry with null message");
-                eventHandler.handleFailure(entry);
-                // We don't want Scribe to try later if it sends messages we don't understand.
-                success = true;
-                continue;
-            }
+        // Scribe will buffer and retry, don't bother extracting events we would drop anyways
+        if (admissionController != null && !admissionController.admit()) {
+            incrementCounter(DENIED_COUNTER, logEntries.size());
+            return ResultCode.TRY_LATER;
+        }
 
-            try {
-                log.debug(String.format("Parsing log: %s", entry));
-
-                // Return a collection here: in case of Smile, we may can a bucket of events that overlaps on multiple
-                // output directories
-                // TODO use EventDeserializer here!
-                final Collection<? extends Event> events = extractEvent(entry.getCategory(), entry.getMessage());
-
-                // We only record failure when collectors are falling over (rejecting)
-                success = true;
-                for (final Event event : events) {
-                    if (event != null) {
-                        if (!eventHandler.processEvent(event)) {
-                            success = false;
-                        }
-                    }
-                    else {
-                        eventHandler.handleFailure(entry);
-                    }
-                }
-            }
-            catch (RuntimeException e) {
-                log.info(String.format("Ignoring malformed entry [%s]: %s", entry, e.getLocalizedMessage()));
-                eventHandler.handleFailure(entry);
-                // We don't want Scribe to try later if it sends messages we don't understand.
-                success = true;
-            }
-            catch (TException e) {
-                log.info(String.format("Ignoring malformed Thrift [%s]: %s", entry, e.getLocalizedMessage()));
-                eventHandler.handleFailure(entry);
-                // We don't want Scribe to try later if it sends messages we don't understand.
-                success = true;
-            }
-            catch (IOException e) {
-                log.info(String.format("Ignoring malformed Smile [%s]: %s", entry, e.getLocalizedMessage()));
-                eventHandler.handleFailure(entry);
-                // We don't want Scribe to try later if it sends messages we don't understand.
-                success = true;
-            }
+        final boolean success;
+        // Once closed, process batches serially (see processEntriesInParallel if it is closed meanwhile)
+        if (executor != null && !executor.isShutdown() && logEntries.size() >= parallelMinBatchSize) {
+            success = processEntriesInParallel(logEntries);
+        }
+        else {
+            success = processEntries(logEntries);
         }
 
         if (success) {
+            incrementCounter(RECEIVED_COUNTER, logEntries.size());
             return ResultCode.OK;
         }
         else {
             // We mainly come here if the collectors are falling over (rejected event)
+            incrementCounter(DENIED_COUNTER, logEntries.size());
             return ResultCode.TRY_LATER;
         }
     }
 
+    private void incrementCounter(final String name, final long delta)
+    {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong(0);
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    /**
+     * Split the batch in chunks and process them on the extraction pool. If the pool is busy, chunks are processed by
+     * the calling thread, as are the chunks not started yet if the pool is shut down meanwhile.
+     *
+     * @param logEntries list of logEntries to process
+     * @return the outcome of the last chunk, see processEntries
+     */
+    private boolean processEntriesInParallel(final List<LogEntry> logEntries)
+    {
+        final List<Chunk> chunks = new ArrayList<Chunk>();
+        for (final List<LogEntry> entries : Lists.partition(logEntries, parallelChunkSize)) {
+            chunks.add(new Chunk(entries));
+        }
+
+        final List<Future<Boolean>> results;
+        try {
+            results = executor.invokeAll(chunks, parallelTimeout.getPeriod(), parallelTimeout.getUnit());
+        }
+        catch (RejectedExecutionException e) {
+            // Closed concurrently: chunks already handed to the pool are processed there
+            boolean success = false;
+            for (final Chunk chunk : chunks) {
+                if (chunk.claim()) {
+                    success = processEntries(chunk.entries);
+                }
+            }
+            return success;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try {
+            return results.get(results.size() - 1).get();
+        }
+        catch (CancellationException e) {
+            log.warn(String.format("Scribe entries not processed after %s, giving up", parallelTimeout));
+            return false;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e) {
+            log.warn("Unable to process Scribe entries", e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * @param logEntries list of logEntries to process
+     * @return the outcome of the last entry (false if there is none), see processEntry
+     */
+    private boolean processEntries(final List<LogEntry> logEntries)
+    {
+        boolean success = false;
+        for (final LogEntry entry : logEntries) {
+            success = processEntry(entry);
+        }
+        return success;
+    }
+
+    /**
+     * @param entry Scribe entry to process
+     * @return false if the collector rejected one of the events of the entry, true otherwise
+     */
+    private boolean processEntry(final LogEntry entry)
+    {
+        if (entry.getCategory() == null) {
+            log.info("Ignoring scribe entry with null category");
+            eventHandler.handleFailure(entry);
+            // We don't want Scribe to try later if it sends messages we don't understand.
+            return true;
+        }
+        else if (entry.getMessage() == null) {
+            log.info("Ignoring scribe entry with null message");
+            eventHandler.handleFailure(entry);
+            // We don't want Scribe to try later if it sends messages we don't understand.
+            return true;
+        }
+
+        boolean success;
+        try {
+            log.debug(String.format("Parsing log: %s", entry));
+
+            // Return a collection here: in case of Smile, we may can a bucket of events that overlaps on multiple
+            // output directories
+            // TODO use EventDeserializer here!
+            final Collection<? extends Event> events = extractEvent(entry.getCategory(), entry.getMessage());
+
+            // We only record failure when collectors are falling over (rejecting)
+            success = true;
+            for (final Event event : events) {
+                if (event != null) {
+                    if (!eventHandler.processEvent(event)) {
+                        success = false;
+                    }
+                }
+                else {
+                    eventHandler.handleFailure(entry);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            log.info(String.format("Ignoring malformed entry [%s]: %s", entry, e.getLocalizedMessage()));
+            eventHandler.handleFailure(entry);
+            // We don't want Scribe to try later if it sends messages we don't understand.
+            success = true;
+        }
+        catch (TException e) {
+            log.info(String.format("Ignoring malformed Thrift [%s]: %s", entry, e.getLocalizedMessage()));
+            eventHandler.handleFailure(entry);
+            // We don't want Scribe to try later if it sends messages we don't understand.
+            success = true;
+        }
+        catch (IOException e) {
+            log.info(String.format("Ignoring malformed Smile [%s]: %s", entry, e.getLocalizedMessage()));
+            eventHandler.handleFailure(entry);
+            // We don't want Scribe to try later if it sends messages we don't understand.
+            success = true;
+        }
+
+        return success;
+    }
+
     /**
      * Extract a message from Scribe.
      * <p/>
@@ -182,14 +373,58 @@ class ScribeEventRequestHandler implements Iface
         // The payload is Base64 encoded
         final byte[] thrift = new Base64().decode(payload[1].getBytes());
 
-        // Assume a ThriftEnvelopeEvent from the eventtracker (uses Java serialization).
-        // This is bigger on the wire, but the interface is portable. Serialize using TBinaryProtocol
-        // if you care about size (see below).
-        ObjectInputStream objectInputStream = null;
+        final ScribePayloadFormatDetector.Format format = formatDetector.detect(category, thrift);
+
         Event event;
+        if (format == ScribePayloadFormatDetector.Format.JAVA_SERIALIZATION) {
+            event = extractJavaSerializedEvent(category, thrift);
+            if (event != null) {
+                return event;
+            }
+        }
+
+        // Not a ThriftEvent, probably native Thrift serialization (TBinaryProtocol)
+        if (format != ScribePayloadFormatDetector.Format.PLAIN_TEXT) {
+            try {
+                if (eventDateTime == null) {
+                    event = ThriftToThriftEnvelopeEvent.extractEvent(category, thrift);
+                }
+                else {
+                    event = ThriftToThriftEnvelopeEvent.extractEvent(category, new DateTime(eventDateTime), thrift);
+                }
+                formatDetector.remember(category, ScribePayloadFormatDetector.Format.THRIFT);
+                return event;
+            }
+            catch (TException e) {
+                log.debug("Event doesn't look like a Thrift, assuming plain text");
+            }
+        }
+
+        formatDetector.remember(category, ScribePayloadFormatDetector.Format.PLAIN_TEXT);
+        if (eventDateTime == null) {
+            event = StringToThriftEnvelopeEvent.extractEvent(category, payload[1]);
+        }
+        else {
+            event = StringToThriftEnvelopeEvent.extractEvent(category, new DateTime(eventDateTime), payload[1]);
+        }
+        return event;
+    }
+
+    /**
+     * Assume a ThriftEnvelopeEvent from the eventtracker (uses Java serialization).
+     * This is bigger on the wire, but the interface is portable. Serialize using TBinaryProtocol
+     * if you care about size.
+     *
+     * @param category Scribe category, maps to Thrift type
+     * @param thrift   decoded payload
+     * @return the ThriftEnvelopeEvent, null if the payload is not a ThriftEnvelopeEvent for this category
+     */
+    private Event extractJavaSerializedEvent(final String category, final byte[] thrift)
+    {
+        ObjectInputStream objectInputStream = null;
         try {
             objectInputStream = new ObjectInputStream(new BufferedInputStream(new ByteArrayInputStream(thrift)));
-            event = new ThriftEnvelopeEvent();
+            final Event event = new ThriftEnvelopeEvent();
             event.readExternal(objectInputStream);
 
             if (event.getName().equals(category)) {
@@ -210,25 +445,7 @@ class ScribeEventRequestHandler implements Iface
             }
         }
 
-        // Not a ThriftEvent, probably native Thrift serialization (TBinaryProtocol)
-        try {
-            if (eventDateTime == null) {
-                event = ThriftToThriftEnvelopeEvent.extractEvent(category, thrift);
-            }
-            else {
-                event = ThriftToThriftEnvelopeEvent.extractEvent(category, new DateTime(eventDateTime), thrift);
-            }
-        }
-        catch (TException e) {
-            log.debug("Event doesn't look like a Thrift, assuming plain text");
-            if (eventDateTime == null) {
-                event = StringToThriftEnvelopeEvent.extractEvent(category, payload[1]);
-            }
-            else {
-                event = StringToThriftEnvelopeEvent.extractEvent(category, new DateTime(eventDateTime), payload[1]);
-            }
-        }
-        return event;
+        return null;
     }
 
     @Override
@@ -258,13 +475,18 @@ class ScribeEventRequestHandler implements Iface
     @Override
     public Map<String, Long> getCounters()
     {
-        return counters;
+        final Map<String, Long> snapshot = new HashMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+            snapshot.put(counter.getKey(), counter.getValue().get());
+        }
+        return snapshot;
     }
 
     @Override
     public long getCounter(final String s)
     {
-        return counters.get(s);
+        final AtomicLong counter = counters.get(s);
+        return counter == null ? 0 : counter.get();
     }
 
     @Override
@@ -309,4 +531,53 @@ class ScribeEventRequestHandler implements Iface
     {
         // Don't do anything now.
     }
+
+    /**
+     * Stop the extraction pool, if any. Called by the ScribeServer once it has stopped serving requests.
+     */
+    @Override
+    public void close()
+    {
+        if (executor == null) {
+            return;
+        }
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                log.warn(String.format("Scribe extraction threads still running after %d seconds, interrupting them", SHUTDOWN_TIMEOUT_SECONDS));
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Chunk of a batch, processed once, either by the extraction pool or by the calling thread
+     */
+    private final class Chunk implements Callable<Boolean>
+    {
+        private final List<LogEntry> entries;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        private Chunk(final List<LogEntry> entries)
+        {
+            this.entries = entries;
+        }
+
+        private boolean claim()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public Boolean call() throws Exception
+        {
+            // Already processed by the calling thread otherwise, see processEntriesInParallel
+            return claim() ? processEntries(entries) : false;
+        }
+    }
 }
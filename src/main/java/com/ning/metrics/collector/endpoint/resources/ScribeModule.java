@@ -18,6 +18,7 @@ package com.ning.metrics.collector.endpoint.resources;
 
 import com.google.inject.Binder;
 import com.google.inject.Module;
+import com.google.inject.Scopes;
 import org.weakref.jmx.guice.ExportBuilder;
 import org.weakref.jmx.guice.MBeanModule;
 import scribe.thrift.scribe;
@@ -32,7 +33,8 @@ public class ScribeModule implements Module
     {
         final ExportBuilder builder = MBeanModule.newExporter(binder);
 
-        binder.bind(scribe.Iface.class).to(ScribeEventRequestHandler.class);
+        // Singleton: owns the pool used to process large batches
+        binder.bind(scribe.Iface.class).to(ScribeEventRequestHandler.class).in(Scopes.SINGLETON);
 
         binder.bind(ScribeEventHandler.class).asEagerSingleton();
         builder.export(ScribeEventHandler.class).as("com.ning.metrics.collector:name=ScribeEventHandler");
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.resources;
+
+import org.apache.thrift.protocol.TType;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Guess the encoding of decoded Scribe payloads, to avoid going through the whole (exception driven) fallback chain
+ * in ScribeEventRequestHandler for every entry.
+ * <p/>
+ * Java serialization is detected via the stream magic bytes. Native Thrift (TBinaryProtocol) and plain text can't be
+ * told apart reliably, hence the last decoder which succeeded is remembered for each category: plain text categories
+ * skip the Thrift attempt, unless the payload looks like a Thrift struct.
+ */
+class ScribePayloadFormatDetector
+{
+    enum Format
+    {
+        JAVA_SERIALIZATION,
+        THRIFT,
+        PLAIN_TEXT
+    }
+
+    // See java.io.ObjectStreamConstants
+    private static final byte STREAM_MAGIC_1 = (byte) 0xAC;
+    private static final byte STREAM_MAGIC_2 = (byte) 0xED;
+
+    // Don't let misbehaving clients grow the cache forever
+    private static final int MAX_CATEGORIES = 10000;
+
+    private final ConcurrentMap<String, Format> formatsPerCategory = new ConcurrentHashMap<String, Format>();
+
+    /**
+     * @param category Scribe category
+     * @param payload  Base64 decoded payload
+     * @return the first decoder to try
+     */
+    Format detect(final String category, final byte[] payload)
+    {
+        if (payload.length >= 2 && payload[0] == STREAM_MAGIC_1 && payload[1] == STREAM_MAGIC_2) {
+            return Format.JAVA_SERIALIZATION;
+        }
+        else if (formatsPerCategory.get(category) == Format.PLAIN_TEXT && !looksLikeThrift(payload)) {
+            return Format.PLAIN_TEXT;
+        }
+        else {
+            return Format.THRIFT;
+        }
+    }
+
+    /**
+     * @param category Scribe category
+     * @param format   decoder which succeeded
+     */
+    void remember(final String category, final Format format)
+    {
+        if (formatsPerCategory.get(category) == format) {
+            return;
+        }
+
+        if (formatsPerCategory.size() < MAX_CATEGORIES || formatsPerCategory.containsKey(category)) {
+            formatsPerCategory.put(category, format);
+        }
+    }
+
+    /**
+     * Check the header of the first field of the struct: valid type and room for the field id
+     *
+     * @param payload Base64 decoded payload
+     * @return false if the payload can't be a TBinaryProtocol struct
+     */
+    //@VisibleForTesting
+    static boolean looksLikeThrift(final byte[] payload)
+    {
+        if (payload.length == 0) {
+            return false;
+        }
+
+        switch (payload[0]) {
+            case TType.STOP:
+                // Empty struct
+                return payload.length == 1;
+            case TType.BOOL:
+            case TType.BYTE:
+            case TType.DOUBLE:
+            case TType.I16:
+            case TType.I32:
+            case TType.I64:
+            case TType.STRING:
+            case TType.STRUCT:
+            case TType.MAP:
+            case TType.SET:
+            case TType.LIST:
+            case TType.ENUM:
+                return payload.length >= 3;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.servers;
+
+import com.ning.arecibo.jmx.Monitored;
+import com.ning.arecibo.jmx.MonitoringType;
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.endpoint.ContentEncoding;
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
+import com.ning.metrics.collector.jaxrs.EventDeserializerRequestHandler;
+import com.ning.metrics.collector.util.ByteBufferPool;
+
+import com.google.inject.Inject;
+import com.mogwee.executors.FailsafeScheduledExecutor;
+import com.mogwee.executors.LoggingExecutor;
+import com.mogwee.executors.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Alternative to the Jetty POST endpoints (see BodyResource) for lots of slow clients.
+ * <p/>
+ * Jetty reads request bodies with blocking I/O: a client trickling its payload holds a Jetty thread for the whole
+ * upload. Here, an acceptor thread hands connections over to a few selector threads, which read the requests
+ * with non-blocking I/O into pooled buffers. Complete requests are then deserialized and processed by a bounded
+ * worker pool, via the regular EventDeserializerRequestHandler (same filters, backpressure and metrics).
+ * <p/>
+ * Resources are bounded: connections above collector.nio.max-connections are closed as soon as they are accepted,
+ * and the buffers of all connections come from a pool capped at collector.nio.max-buffered-bytes. A request body is
+ * only read if all the buffers it needs could be reserved upfront, the request is rejected with a 503 otherwise.
+ */
+public class NioEventServer
+{
+    private static final Logger log = LoggerFactory.getLogger(NioEventServer.class);
+
+    static final String EVENT_PATH = "/rest/1.0/event";
+    private static final String APPLICATION_JSON_SMILE = "application/json+smile";
+    private static final String THRIFT = "application/thrift";
+
+    private final CollectorConfig config;
+    private final EventDeserializerRequestHandler requestHandler;
+    private final ByteBufferPool bufferPool;
+    private final long maxRequestSize;
+    private final long maxDecompressedSize;
+    private final int maxConnections;
+
+    private final AtomicInteger openConnections = new AtomicInteger(0);
+    private final AtomicLong rejectedConnections = new AtomicLong(0);
+    private final AtomicLong rejectedRequests = new AtomicLong(0);
+    private final AtomicLong rejectedRequestsNoBuffers = new AtomicLong(0);
+
+    private final List<NioSelectorLoop> loops = new ArrayList<NioSelectorLoop>();
+    private ServerSocketChannel serverChannel = null;
+    private ThreadPoolExecutor workers = null;
+    private ExecutorService ioExecutor = null;
+    private volatile boolean running = false;
+
+    @Inject
+    public NioEventServer(final CollectorConfig config, final EventDeserializerRequestHandler requestHandler)
+    {
+        this.config = config;
+        this.requestHandler = requestHandler;
+        final int maxBuffers = (int) Math.max(1, Math.min(Integer.MAX_VALUE, config.getNioMaxBufferedBytes() / config.getNioBufferSize()));
+        this.bufferPool = new ByteBufferPool(config.getNioBufferSize(), maxBuffers, config.getNioMaxPooledBuffers());
+        this.maxRequestSize = config.getNioMaxRequestSize();
+        this.maxDecompressedSize = config.getMaxDecompressedSize();
+        this.maxConnections = config.getNioMaxConnections();
+    }
+
+    /**
+     * Start the NIO endpoint, if enabled
+     *
+     * @throws IOException if the server socket cannot be bound
+     */
+    public synchronized void start() throws IOException
+    {
+        if (!config.isNioEndpointEnabled() || running) {
+            return;
+        }
+
+        workers = new LoggingExecutor(config.getNioWorkerCount(), config.getNioWorkerCount(), 60L, TimeUnit.SECONDS,
+                                      new ArrayBlockingQueue<Runnable>(config.getNioWorkerQueueSize()),
+                                      new NamedThreadFactory("NioEventServer-worker"), new ThreadPoolExecutor.AbortPolicy());
+
+        loops.clear();
+        for (int i = 0; i < config.getNioSelectorCount(); i++) {
+            loops.add(new NioSelectorLoop(this, config.getNioMaxIdleTime().getMillis()));
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(config.getLocalIp(), config.getNioPort()));
+        running = true;
+
+        ioExecutor = new FailsafeScheduledExecutor(loops.size() + 1, "NioEventServer");
+        for (final NioSelectorLoop loop : loops) {
+            ioExecutor.execute(loop);
+        }
+        ioExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                acceptConnections();
+            }
+        });
+
+        log.info(String.format("Started NIO endpoint on port %d", getLocalPort()));
+    }
+
+    /**
+     * Stop the NIO endpoint: stop accepting connections, let the workers process the requests already received
+     * and wait for the selector threads to exit (at most collector.nio.shutdown-timeout for each step)
+     */
+    public synchronized void stop()
+    {
+        if (!running) {
+            return;
+        }
+        running = false;
+
+        try {
+            serverChannel.close();
+        }
+        catch (IOException e) {
+            log.warn("Unable to close the NIO endpoint socket", e);
+        }
+
+        final long timeoutMillis = config.getNioShutdownTimeout().getMillis();
+        workers.shutdown();
+        awaitTermination(workers, "worker", timeoutMillis);
+
+        // The loops write the responses of the last processed requests before exiting
+        for (final NioSelectorLoop loop : loops) {
+            loop.stop();
+        }
+        ioExecutor.shutdown();
+        awaitTermination(ioExecutor, "I/O", timeoutMillis);
+    }
+
+    private void awaitTermination(final ExecutorService executor, final String name, final long timeoutMillis)
+    {
+        try {
+            if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                log.warn(String.format("NIO endpoint %s threads still running after %d ms, interrupting them", name, timeoutMillis));
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    private void acceptConnections()
+    {
+        int next = 0;
+        while (running) {
+            try {
+                final SocketChannel channel = serverChannel.accept();
+                if (openConnections.get() >= maxConnections) {
+                    rejectedConnections.incrementAndGet();
+                    closeQuietly(channel);
+                    continue;
+                }
+
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                }
+                catch (IOException e) {
+                    closeQuietly(channel);
+                    throw e;
+                }
+
+                // Decremented by NioHttpConnection#close()
+                openConnections.incrementAndGet();
+                loops.get(next).register(channel);
+                next = (next + 1) % loops.size();
+            }
+            catch (ClosedChannelException e) {
+                // Server stopped
+                break;
+            }
+            catch (IOException e) {
+                log.warn("Unable to accept connection", e);
+            }
+        }
+    }
+
+    private void closeQuietly(final SocketChannel channel)
+    {
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            log.debug("Unable to close connection", e);
+        }
+    }
+
+    /**
+     * Called by the selector thread once a request has been fully received
+     *
+     * @param connection connection with a complete request
+     */
+    void dispatch(final NioHttpConnection connection)
+    {
+        try {
+            workers.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    process(connection);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            rejectedRequests.incrementAndGet();
+            connection.releaseBody();
+            final Response response = Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                                              .header("Retry-After", 1)
+                                              .header("Warning", "199 Collector overloaded")
+                                              .build();
+            connection.sendResponse(toHttpResponse(response, connection.isKeepAlive()), !connection.isKeepAlive());
+        }
+    }
+
+    private void process(final NioHttpConnection connection)
+    {
+        Response response;
+        try {
+            final InputStream body = ContentEncoding.decode(connection.getHeaders().getFirst(ContentEncoding.CONTENT_ENCODING_HEADER),
+                                                            connection.getBodyInputStream(), maxDecompressedSize);
+            final ParsedRequest parsedRequest = new ParsedRequest(null, connection.getHeaders(), body,
+                                                                  null, null, connection.getRemoteAddress(),
+                                                                  connection.getDeserializationType());
+            response = requestHandler.handleEventRequest(parsedRequest);
+        }
+        catch (WebApplicationException e) {
+            response = e.getResponse();
+        }
+        catch (RuntimeException e) {
+            log.warn("Unable to process request", e);
+            response = Response.serverError().build();
+        }
+        finally {
+            connection.releaseBody();
+        }
+
+        connection.sendResponse(toHttpResponse(response, connection.isKeepAlive()), !connection.isKeepAlive());
+    }
+
+    //@VisibleForTesting
+    static byte[] toHttpResponse(final Response response, final boolean keepAlive)
+    {
+        final Response.Status status = Response.Status.fromStatusCode(response.getStatus());
+
+        final StringBuilder builder = new StringBuilder();
+        builder.append("HTTP/1.1 ").append(response.getStatus()).append(' ').append(status == null ? "Unknown" : status.getReasonPhrase()).append("\r\n");
+        for (final Map.Entry<String, List<Object>> header : response.getMetadata().entrySet()) {
+            for (final Object value : header.getValue()) {
+                builder.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        // The request handler doesn't send any entity back
+        builder.append("Content-Length: 0\r\n");
+        if (!keepAlive) {
+            builder.append("Connection: close\r\n");
+        }
+        builder.append("\r\n");
+
+        return builder.toString().getBytes(NioHttpConnection.HEADERS_CHARSET);
+    }
+
+    /**
+     * @param contentType Content-Type header of the request
+     * @return the matching DeserializationType, as in BodyResource, null if not supported
+     */
+    static DeserializationType getDeserializationType(final String contentType)
+    {
+        if (contentType == null) {
+            return null;
+        }
+
+        final int parametersStart = contentType.indexOf(';');
+        final String mediaType = (parametersStart < 0 ? contentType : contentType.substring(0, parametersStart)).trim();
+        if (APPLICATION_JSON_SMILE.equalsIgnoreCase(mediaType)) {
+            return DeserializationType.SMILE;
+        }
+        else if (MediaType.APPLICATION_JSON.equalsIgnoreCase(mediaType)) {
+            return DeserializationType.JSON;
+        }
+        else if (THRIFT.equalsIgnoreCase(mediaType)) {
+            return DeserializationType.THRIFT;
+        }
+        else {
+            return null;
+        }
+    }
+
+    ByteBufferPool getBufferPool()
+    {
+        return bufferPool;
+    }
+
+    long getMaxRequestSize()
+    {
+        return maxRequestSize;
+    }
+
+    void noBuffersAvailable()
+    {
+        rejectedRequestsNoBuffers.incrementAndGet();
+    }
+
+    void connectionClosed()
+    {
+        openConnections.decrementAndGet();
+    }
+
+    /**
+     * @return the port the endpoint listens on (useful if configured with port 0)
+     */
+    public int getLocalPort()
+    {
+        return serverChannel == null ? -1 : serverChannel.socket().getLocalPort();
+    }
+
+    @Monitored(description = "Number of open connections on the NIO endpoint", monitoringType = {MonitoringType.VALUE})
+    public int getOpenConnections()
+    {
+        return openConnections.get();
+    }
+
+    @Monitored(description = "Number of received requests waiting for a worker", monitoringType = {MonitoringType.VALUE})
+    public int getPendingRequests()
+    {
+        return workers == null ? 0 : workers.getQueue().size();
+    }
+
+    @Monitored(description = "Number of requests rejected because all workers were busy", monitoringType = {MonitoringType.VALUE, MonitoringType.RATE})
+    public long getRejectedRequests()
+    {
+        return rejectedRequests.get();
+    }
+
+    @Monitored(description = "Number of connections closed because too many were open", monitoringType = {MonitoringType.VALUE, MonitoringType.RATE})
+    public long getRejectedConnections()
+    {
+        return rejectedConnections.get();
+    }
+
+    @Monitored(description = "Number of requests rejected because the buffer pool was exhausted", monitoringType = {MonitoringType.VALUE, MonitoringType.RATE})
+    public long getRejectedRequestsNoBuffers()
+    {
+        return rejectedRequestsNoBuffers.get();
+    }
+
+    @Monitored(description = "Number of buffers in use or reserved", monitoringType = {MonitoringType.VALUE})
+    public int getUsedBuffers()
+    {
+        return bufferPool.getUsedBuffers();
+    }
+
+    @Monitored(description = "Number of idle buffers in the pool", monitoringType = {MonitoringType.VALUE})
+    public int getPooledBuffers()
+    {
+        return bufferPool.getPooledBuffers();
+    }
+
+    @Monitored(description = "Number of buffers allocated since startup", monitoringType = {MonitoringType.VALUE, MonitoringType.RATE})
+    public long getAllocatedBuffers()
+    {
+        return bufferPool.getAllocatedBuffers();
+    }
+}
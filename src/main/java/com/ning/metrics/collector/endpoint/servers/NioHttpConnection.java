@@ -0,0 +1,539 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.servers;
+
+import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
+import com.ning.metrics.collector.util.ByteBufferPool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HTTP/1.1 connection handled by a NioSelectorLoop.
+ * <p/>
+ * Headers and body are read without blocking, into buffers from the server pool. Once the body has been fully
+ * received, the request is handed over to the worker pool (the connection doesn't read anything while the request is
+ * processed) and the response is written back by the selector thread.
+ * <p/>
+ * Only what event producers need is supported: POST requests with a Content-Length (no chunked encoding),
+ * keep-alive and Expect: 100-continue.
+ * <p/>
+ * All the buffers a body needs are reserved from the pool once its headers have been parsed: if the pool can't
+ * provide them, the request is rejected (503) rather than read partially.
+ */
+class NioHttpConnection
+{
+    private static final Logger log = LoggerFactory.getLogger(NioHttpConnection.class);
+
+    static final Charset HEADERS_CHARSET = Charset.forName("ISO-8859-1");
+    private static final byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(HEADERS_CHARSET);
+
+    enum State
+    {
+        READING_HEADERS,
+        READING_BODY,
+        PROCESSING,
+        WRITING,
+        CLOSED
+    }
+
+    private final SocketChannel channel;
+    private final NioSelectorLoop loop;
+    private final NioEventServer server;
+    private final ByteBufferPool bufferPool;
+    private final String remoteAddress;
+
+    private SelectionKey key = null;
+    private volatile State state = State.READING_HEADERS;
+    private long lastActivityMillis = System.currentTimeMillis();
+
+    // Headers (and pipelined bytes), in write mode
+    private ByteBuffer readBuffer = null;
+
+    // Current request
+    private NioHttpHeaders headers = null;
+    private DeserializationType deserializationType = null;
+    private boolean keepAlive = false;
+    private long bodyRemaining = 0;
+    private final List<ByteBuffer> body = new ArrayList<ByteBuffer>();
+    // Buffers reserved for the body and not acquired yet
+    private int reservedBuffers = 0;
+
+    // Current response
+    private ByteBuffer response = null;
+    private boolean closeAfterResponse = false;
+
+    NioHttpConnection(final SocketChannel channel, final NioSelectorLoop loop, final NioEventServer server)
+    {
+        this.channel = channel;
+        this.loop = loop;
+        this.server = server;
+        this.bufferPool = server.getBufferPool();
+
+        final Socket socket = channel.socket();
+        if (socket.getRemoteSocketAddress() instanceof InetSocketAddress) {
+            this.remoteAddress = ((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress().getHostAddress();
+        }
+        else {
+            this.remoteAddress = null;
+        }
+    }
+
+    void setKey(final SelectionKey key)
+    {
+        this.key = key;
+    }
+
+    //------------------- Selector thread -------------------//
+
+    /**
+     * @return false if the connection should be closed
+     * @throws IOException if the channel can't be read
+     */
+    boolean onReadable() throws IOException
+    {
+        lastActivityMillis = System.currentTimeMillis();
+
+        if (state == State.READING_HEADERS) {
+            if (readBuffer == null) {
+                readBuffer = bufferPool.acquire();
+                if (readBuffer == null) {
+                    server.noBuffersAvailable();
+                    sendServiceUnavailable();
+                    return true;
+                }
+            }
+            if (channel.read(readBuffer) < 0) {
+                return false;
+            }
+            processHeaders();
+        }
+        else if (state == State.READING_BODY) {
+            int read;
+            do {
+                final ByteBuffer buffer = currentBodyBuffer();
+                final int limit = buffer.limit();
+                if (buffer.remaining() > bodyRemaining) {
+                    // Don't read the next request
+                    buffer.limit(buffer.position() + (int) bodyRemaining);
+                }
+                try {
+                    read = channel.read(buffer);
+                }
+                finally {
+                    buffer.limit(limit);
+                }
+                if (read < 0) {
+                    return false;
+                }
+
+                bodyRemaining -= read;
+                if (bodyRemaining == 0) {
+                    dispatch();
+                }
+            }
+            while (read > 0 && state == State.READING_BODY);
+        }
+
+        return true;
+    }
+
+    /**
+     * @return false if the connection should be closed
+     * @throws IOException if the channel can't be written to
+     */
+    boolean onWritable() throws IOException
+    {
+        lastActivityMillis = System.currentTimeMillis();
+
+        if (state != State.WRITING) {
+            return true;
+        }
+
+        channel.write(response);
+        if (response.hasRemaining()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return true;
+        }
+
+        response = null;
+        if (closeAfterResponse) {
+            return false;
+        }
+
+        // Ready for the next request
+        headers = null;
+        deserializationType = null;
+        state = State.READING_HEADERS;
+        key.interestOps(SelectionKey.OP_READ);
+        if (readBuffer != null && readBuffer.position() > 0) {
+            // Pipelined request
+            processHeaders();
+        }
+
+        return true;
+    }
+
+    /**
+     * Called by the selector thread after sendResponse()
+     *
+     * @return false if the connection should be closed
+     * @throws IOException if the channel can't be written to
+     */
+    boolean startWriting() throws IOException
+    {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        state = State.WRITING;
+        return onWritable();
+    }
+
+    boolean isIdle(final long now, final long maxIdleMillis)
+    {
+        return state != State.PROCESSING && state != State.CLOSED && now - lastActivityMillis > maxIdleMillis;
+    }
+
+    void close()
+    {
+        final State previousState = state;
+        state = State.CLOSED;
+
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            log.debug("Unable to close connection", e);
+        }
+
+        bufferPool.release(readBuffer);
+        readBuffer = null;
+        // The worker gives the buffers back once done
+        if (previousState != State.PROCESSING) {
+            releaseBody();
+        }
+
+        if (previousState != State.CLOSED) {
+            server.connectionClosed();
+        }
+    }
+
+    private void processHeaders() throws IOException
+    {
+        final int end = findEndOfHeaders(readBuffer);
+        if (end < 0) {
+            if (!readBuffer.hasRemaining()) {
+                sendError(400, "Bad Request (headers too large)");
+            }
+            return;
+        }
+
+        readBuffer.flip();
+        final byte[] rawHeaders = new byte[end];
+        readBuffer.get(rawHeaders);
+
+        if (!parseHeaders(new String(rawHeaders, HEADERS_CHARSET))) {
+            return;
+        }
+
+        if ("100-continue".equalsIgnoreCase(headers.getFirst("Expect")) && readBuffer.remaining() < bodyRemaining) {
+            // Tiny, fits in the socket buffer
+            channel.write(ByteBuffer.wrap(CONTINUE_RESPONSE));
+        }
+
+        // Beginning of the body
+        while (bodyRemaining > 0 && readBuffer.hasRemaining()) {
+            final ByteBuffer buffer = currentBodyBuffer();
+            final int length = (int) Math.min(Math.min(buffer.remaining(), readBuffer.remaining()), bodyRemaining);
+            final ByteBuffer slice = readBuffer.duplicate();
+            slice.limit(slice.position() + length);
+            buffer.put(slice);
+            readBuffer.position(readBuffer.position() + length);
+            bodyRemaining -= length;
+        }
+
+        // Keep pipelined bytes, if any
+        readBuffer.compact();
+        if (readBuffer.position() == 0) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+
+        state = State.READING_BODY;
+        if (bodyRemaining == 0) {
+            dispatch();
+        }
+    }
+
+    /**
+     * @param rawHeaders request line and headers
+     * @return true if the request is acceptable (an error has been sent otherwise)
+     */
+    private boolean parseHeaders(final String rawHeaders)
+    {
+        final String[] lines = rawHeaders.split("\r\n");
+        final String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            sendError(400, "Bad Request");
+            return false;
+        }
+
+        headers = new NioHttpHeaders();
+        for (int i = 1; i < lines.length; i++) {
+            final int separator = lines[i].indexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            headers.addHeader(lines[i].substring(0, separator).trim(), lines[i].substring(separator + 1).trim());
+        }
+
+        final String connection = headers.getFirst("Connection");
+        if ("HTTP/1.1".equals(requestLine[2])) {
+            keepAlive = !"close".equalsIgnoreCase(connection);
+        }
+        else {
+            keepAlive = "keep-alive".equalsIgnoreCase(connection);
+        }
+
+        final String uri = requestLine[1];
+        final int queryStart = uri.indexOf('?');
+        final String path = queryStart < 0 ? uri : uri.substring(0, queryStart);
+        if (!NioEventServer.EVENT_PATH.equals(path)) {
+            sendError(404, "Not Found");
+            return false;
+        }
+        if (!"POST".equals(requestLine[0])) {
+            sendError(405, "Method Not Allowed");
+            return false;
+        }
+
+        deserializationType = NioEventServer.getDeserializationType(headers.getFirst("Content-Type"));
+        if (deserializationType == null) {
+            sendError(415, "Unsupported Media Type");
+            return false;
+        }
+
+        final String contentLength = headers.getFirst("Content-Length");
+        if (contentLength == null || headers.getFirst("Transfer-Encoding") != null) {
+            sendError(411, "Length Required");
+            return false;
+        }
+        try {
+            bodyRemaining = Long.parseLong(contentLength);
+        }
+        catch (NumberFormatException e) {
+            sendError(400, "Bad Request (invalid Content-Length)");
+            return false;
+        }
+        if (bodyRemaining < 0) {
+            sendError(400, "Bad Request (invalid Content-Length)");
+            return false;
+        }
+        if (bodyRemaining > server.getMaxRequestSize()) {
+            sendError(413, "Request Entity Too Large");
+            return false;
+        }
+
+        final int buffersNeeded = bufferPool.getBuffersNeeded(bodyRemaining);
+        if (!bufferPool.reserve(buffersNeeded)) {
+            server.noBuffersAvailable();
+            sendServiceUnavailable();
+            return false;
+        }
+        reservedBuffers = buffersNeeded;
+
+        return true;
+    }
+
+    private ByteBuffer currentBodyBuffer()
+    {
+        if (body.isEmpty() || !body.get(body.size() - 1).hasRemaining()) {
+            // The body never needs more buffers than what has been reserved
+            reservedBuffers--;
+            body.add(bufferPool.acquireReserved());
+        }
+        return body.get(body.size() - 1);
+    }
+
+    private void dispatch()
+    {
+        state = State.PROCESSING;
+        key.interestOps(0);
+
+        for (final ByteBuffer buffer : body) {
+            buffer.flip();
+        }
+        server.dispatch(this);
+    }
+
+    private void sendError(final int status, final String reason)
+    {
+        sendError(status, reason, "");
+    }
+
+    private void sendServiceUnavailable()
+    {
+        sendError(503, "Service Unavailable", "Retry-After: 1\r\n");
+    }
+
+    private void sendError(final int status, final String reason, final String extraHeaders)
+    {
+        // Don't try to read the rest of the request
+        key.interestOps(0);
+        state = State.PROCESSING;
+        sendResponse(String.format("HTTP/1.1 %d %s\r\n%sContent-Length: 0\r\nConnection: close\r\n\r\n", status, reason, extraHeaders).getBytes(HEADERS_CHARSET), true);
+    }
+
+    //@VisibleForTesting
+    static int findEndOfHeaders(final ByteBuffer buffer)
+    {
+        // Buffer in write mode
+        for (int i = 3; i < buffer.position(); i++) {
+            if (buffer.get(i) == '\n' && buffer.get(i - 1) == '\r' && buffer.get(i - 2) == '\n' && buffer.get(i - 3) == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    //------------------- Worker threads -------------------//
+
+    NioHttpHeaders getHeaders()
+    {
+        return headers;
+    }
+
+    DeserializationType getDeserializationType()
+    {
+        return deserializationType;
+    }
+
+    boolean isKeepAlive()
+    {
+        return keepAlive;
+    }
+
+    String getRemoteAddress()
+    {
+        return remoteAddress;
+    }
+
+    InputStream getBodyInputStream()
+    {
+        return new ByteBuffersInputStream(body);
+    }
+
+    synchronized void releaseBody()
+    {
+        for (final ByteBuffer buffer : body) {
+            bufferPool.release(buffer);
+        }
+        body.clear();
+        bufferPool.cancelReservation(reservedBuffers);
+        reservedBuffers = 0;
+    }
+
+    /**
+     * Can be called from any thread, the response is written by the selector thread
+     *
+     * @param bytes           full HTTP response
+     * @param closeAfterwards whether to close the connection once the response has been written
+     */
+    void sendResponse(final byte[] bytes, final boolean closeAfterwards)
+    {
+        response = ByteBuffer.wrap(bytes);
+        closeAfterResponse = closeAfterwards;
+        loop.scheduleWrite(this);
+    }
+
+    /**
+     * Reads the body buffers (in read mode) in sequence
+     */
+    private static final class ByteBuffersInputStream extends InputStream
+    {
+        private final List<ByteBuffer> buffers;
+        private int current = 0;
+
+        private ByteBuffersInputStream(final List<ByteBuffer> buffers)
+        {
+            this.buffers = buffers;
+        }
+
+        @Override
+        public int read()
+        {
+            final ByteBuffer buffer = nextBuffer();
+            if (buffer == null) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len)
+        {
+            if (len == 0) {
+                return 0;
+            }
+
+            final ByteBuffer buffer = nextBuffer();
+            if (buffer == null) {
+                return -1;
+            }
+            final int length = Math.min(len, buffer.remaining());
+            buffer.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public int available()
+        {
+            int available = 0;
+            for (int i = current; i < buffers.size(); i++) {
+                available += buffers.get(i).remaining();
+            }
+            return available;
+        }
+
+        private ByteBuffer nextBuffer()
+        {
+            while (current < buffers.size()) {
+                final ByteBuffer buffer = buffers.get(current);
+                if (buffer.hasRemaining()) {
+                    return buffer;
+                }
+                current++;
+            }
+            return null;
+        }
+    }
+}
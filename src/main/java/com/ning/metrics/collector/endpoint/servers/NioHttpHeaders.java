@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.servers;
+
+import com.sun.jersey.core.header.InBoundHeaders;
+
+import javax.ws.rs.core.Cookie;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Request headers parsed by NioHttpConnection, so that requests can go through ParsedRequest.
+ * Only the raw headers are exposed.
+ */
+class NioHttpHeaders implements HttpHeaders
+{
+    // Case insensitive
+    private final MultivaluedMap<String, String> headers = new InBoundHeaders();
+
+    void addHeader(final String name, final String value)
+    {
+        headers.add(name, value);
+    }
+
+    String getFirst(final String name)
+    {
+        return headers.getFirst(name);
+    }
+
+    @Override
+    public List<String> getRequestHeader(final String name)
+    {
+        return headers.get(name);
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getRequestHeaders()
+    {
+        return headers;
+    }
+
+    @Override
+    public List<MediaType> getAcceptableMediaTypes()
+    {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<Locale> getAcceptableLanguages()
+    {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public MediaType getMediaType()
+    {
+        final String contentType = getFirst("Content-Type");
+        return contentType == null ? null : MediaType.valueOf(contentType);
+    }
+
+    @Override
+    public Locale getLanguage()
+    {
+        return null;
+    }
+
+    @Override
+    public Map<String, Cookie> getCookies()
+    {
+        return Collections.emptyMap();
+    }
+}
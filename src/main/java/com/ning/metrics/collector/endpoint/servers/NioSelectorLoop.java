@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.servers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Selector thread of the NioEventServer: all socket I/O for its connections happens here.
+ * Other threads (acceptor, workers) talk to it via queues.
+ */
+class NioSelectorLoop implements Runnable
+{
+    private static final Logger log = LoggerFactory.getLogger(NioSelectorLoop.class);
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+
+    private final NioEventServer server;
+    private final long maxIdleMillis;
+    private final Selector selector;
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+    private final Queue<NioHttpConnection> pendingResponses = new ConcurrentLinkedQueue<NioHttpConnection>();
+
+    private volatile boolean running = true;
+    private long lastIdleCheckMillis = System.currentTimeMillis();
+
+    NioSelectorLoop(final NioEventServer server, final long maxIdleMillis) throws IOException
+    {
+        this.server = server;
+        this.maxIdleMillis = maxIdleMillis;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Called by the acceptor thread
+     *
+     * @param channel new connection, in non-blocking mode
+     */
+    void register(final SocketChannel channel)
+    {
+        newChannels.offer(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Called by the worker threads (or the selector thread itself) when a response is ready
+     *
+     * @param connection connection to write the response to
+     */
+    void scheduleWrite(final NioHttpConnection connection)
+    {
+        pendingResponses.offer(connection);
+        selector.wakeup();
+    }
+
+    void stop()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        while (running) {
+            try {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+
+                registerNewChannels();
+                writePendingResponses();
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+
+                closeIdleConnections();
+            }
+            catch (IOException e) {
+                log.warn("Unexpected error in the selector loop", e);
+            }
+            catch (RuntimeException e) {
+                log.warn("Unexpected error in the selector loop", e);
+            }
+        }
+
+        // Best effort: flush the responses of the requests processed during shutdown
+        writePendingResponses();
+        for (final SelectionKey key : selector.keys()) {
+            ((NioHttpConnection) key.attachment()).close();
+        }
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            new NioHttpConnection(channel, this, server).close();
+        }
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            log.warn("Unable to close selector", e);
+        }
+    }
+
+    private void registerNewChannels()
+    {
+        SocketChannel channel;
+        while ((channel = newChannels.poll()) != null) {
+            final NioHttpConnection connection = new NioHttpConnection(channel, this, server);
+            try {
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            }
+            catch (IOException e) {
+                log.info("Unable to register new connection", e);
+                connection.close();
+            }
+        }
+    }
+
+    private void writePendingResponses()
+    {
+        NioHttpConnection connection;
+        while ((connection = pendingResponses.poll()) != null) {
+            try {
+                if (!connection.startWriting()) {
+                    connection.close();
+                }
+            }
+            catch (IOException e) {
+                log.debug("Unable to write response", e);
+                connection.close();
+            }
+            catch (CancelledKeyException e) {
+                connection.close();
+            }
+        }
+    }
+
+    private void handle(final SelectionKey key)
+    {
+        final NioHttpConnection connection = (NioHttpConnection) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable() && !connection.onReadable()) {
+                connection.close();
+                return;
+            }
+            if (key.isValid() && key.isWritable() && !connection.onWritable()) {
+                connection.close();
+            }
+        }
+        catch (IOException e) {
+            log.debug("Closing connection", e);
+            connection.close();
+        }
+        catch (CancelledKeyException e) {
+            connection.close();
+        }
+    }
+
+    private void closeIdleConnections()
+    {
+        final long now = System.currentTimeMillis();
+        if (now - lastIdleCheckMillis < SELECT_TIMEOUT_MILLIS) {
+            return;
+        }
+        lastIdleCheckMillis = now;
+
+        for (final SelectionKey key : selector.keys()) {
+            final NioHttpConnection connection = (NioHttpConnection) key.attachment();
+            if (connection != null && connection.isIdle(now, maxIdleMillis)) {
+                log.debug("Closing idle connection");
+                connection.close();
+            }
+        }
+    }
+}
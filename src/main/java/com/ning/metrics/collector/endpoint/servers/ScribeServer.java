@@ -21,8 +21,7 @@ import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.google.inject.Inject;
 import com.mogwee.executors.FailsafeScheduledExecutor;
 import org.apache.thrift.TProcessor;
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.server.TNonblockingServer;
+import org.apache.thrift.server.TServer;
 import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TNonblockingServerTransport;
 import org.apache.thrift.transport.TTransportException;
@@ -31,7 +30,9 @@ import org.slf4j.LoggerFactory;
 import scribe.thrift.scribe.Iface;
 import scribe.thrift.scribe.Processor;
 
-import java.util.concurrent.Executor;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Thrift service. Contacted usually by Scribe client.
@@ -43,7 +44,9 @@ public class ScribeServer
     private final Iface eventRequestHandler;
     private final CollectorConfig config;
 
-    private TNonblockingServer server = null;
+    private ExecutorService executor = null;
+    // Set by the executor thread
+    private volatile TServer server = null;
 
     @Inject
     public ScribeServer(final Iface eventRequestHandler, final CollectorConfig config) throws TTransportException
@@ -59,7 +62,7 @@ public class ScribeServer
      */
     public void start() throws TTransportException
     {
-        final Executor executor = new FailsafeScheduledExecutor(1, "ScribeServer");
+        executor = new FailsafeScheduledExecutor(1, "ScribeServer");
         executor.execute(new Runnable()
         {
             @Override
@@ -69,8 +72,10 @@ public class ScribeServer
                     final TNonblockingServerTransport socket = new TNonblockingServerSocket(config.getScribePort());
                     final TProcessor processor = new Processor(eventRequestHandler);
 
-                    server = new TNonblockingServer(new TNonblockingServer.Args(socket).processor(processor).protocolFactory(new TBinaryProtocol.Factory()));
-                    log.info(String.format("Starting terminal Scribe server on port %d", config.getScribePort()));
+                    final ScribeServerType serverType = ScribeServerType.valueOf(config.getScribeServerType());
+
+                    server = serverType.newServer(socket, processor, config);
+                    log.info(String.format("Starting terminal Scribe server (%s) on port %d", serverType, config.getScribePort()));
                     server.serve();
                 }
                 catch (TTransportException e) {
@@ -82,13 +87,25 @@ public class ScribeServer
     }
 
     /**
-     * Stop the terminal Scribe server
+     * Stop the terminal Scribe server, and then the request handler if it holds resources
      */
     public void stop()
     {
         if (server != null) {
             server.stop();
         }
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        if (eventRequestHandler instanceof Closeable) {
+            try {
+                ((Closeable) eventRequestHandler).close();
+            }
+            catch (IOException e) {
+                log.warn("Unable to close the Scribe request handler", e);
+            }
+        }
     }
 }
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.servers;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.server.THsHaServer;
+import org.apache.thrift.server.TNonblockingServer;
+import org.apache.thrift.server.TServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerTransport;
+
+/**
+ * Thrift server implementations available for the Scribe endpoint
+ *
+ * @see com.ning.metrics.collector.binder.config.CollectorConfig#getScribeServerType()
+ */
+public enum ScribeServerType
+{
+    /**
+     * TNonblockingServer: a single thread does all the I/O and runs all Log() calls
+     */
+    NONBLOCKING
+        {
+            @Override
+            public TServer newServer(final TNonblockingServerTransport socket, final TProcessor processor, final CollectorConfig config)
+            {
+                return new TNonblockingServer(new TNonblockingServer.Args(socket).processor(processor).protocolFactory(new TBinaryProtocol.Factory()));
+            }
+        },
+
+    /**
+     * THsHaServer (half-sync/half-async): a single thread does the I/O, Log() calls run on a pool of workers
+     */
+    HSHA
+        {
+            @Override
+            public TServer newServer(final TNonblockingServerTransport socket, final TProcessor processor, final CollectorConfig config)
+            {
+                return new THsHaServer(new THsHaServer.Args(socket)
+                                           .workerThreads(config.getScribeWorkerThreads())
+                                           .processor(processor)
+                                           .protocolFactory(new TBinaryProtocol.Factory()));
+            }
+        },
+
+    /**
+     * TThreadedSelectorServer: connections are spread over several selector threads, Log() calls run on a
+     * pool of workers
+     */
+    THREADED_SELECTOR
+        {
+            @Override
+            public TServer newServer(final TNonblockingServerTransport socket, final TProcessor processor, final CollectorConfig config)
+            {
+                return new TThreadedSelectorServer(new TThreadedSelectorServer.Args(socket)
+                                                       .selectorThreads(config.getScribeSelectorThreads())
+                                                       .workerThreads(config.getScribeWorkerThreads())
+                                                       .acceptQueueSizePerThread(config.getScribeAcceptQueueSizePerThread())
+                                                       .processor(processor)
+                                                       .protocolFactory(new TBinaryProtocol.Factory()));
+            }
+        };
+
+    public abstract TServer newServer(final TNonblockingServerTransport socket, final TProcessor processor, final CollectorConfig config);
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.events.parsing;
+
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.extractors.EventParsingException;
+import com.ning.metrics.collector.events.parsing.converters.CharSequenceNumberConverter;
+import com.ning.metrics.collector.events.parsing.converters.DoubleConverter;
+import com.ning.metrics.serialization.thrift.ThriftField;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Single pass equivalent of the SplitTokenizer/UrlDecodingTokenizer/Converter chain used by ThriftEnvelopeEventParser.
+ * <p/>
+ * Each field is URL-decoded into a per-thread buffer and numbers are parsed straight from it: besides the list of
+ * fields (sized from the previous events) and the ThriftFields themselves, only String and double values allocate.
+ */
+class QueryStringEventParser
+{
+    private static final char TOKEN_SEPARATOR = ',';
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final DoubleConverter doubleConverter = new DoubleConverter();
+    private static final int MAX_FIELDS_CAPACITY = 256;
+    private static final String[] ANNOTATIONS = new String[]{
+        ThriftEnvelopeEventParser.ANNOTATION_DATE,
+        ThriftEnvelopeEventParser.ANNOTATION_HOST,
+        ThriftEnvelopeEventParser.ANNOTATION_PATH,
+        ThriftEnvelopeEventParser.ANNOTATION_USER_AGENT,
+        ThriftEnvelopeEventParser.ANNOTATION_IP
+    };
+
+    private final CharSequenceNumberConverter numberConverter;
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>()
+    {
+        @Override
+        protected Buffers initialValue()
+        {
+            return new Buffers();
+        }
+    };
+
+    QueryStringEventParser(final CharSequenceNumberConverter numberConverter)
+    {
+        this.numberConverter = numberConverter;
+    }
+
+    /**
+     * @param input         query string value, as for ThriftEnvelopeEventParser
+     * @param start         index of the first character of the fields
+     * @param end           index after the last character of the fields
+     * @param parsedRequest request, for annotated (x) fields
+     * @return the fields, with ids starting at 1
+     * @throws EventParsingException for invalid fields
+     */
+    List<ThriftField> parseFields(final CharSequence input, final int start, final int end, final ParsedRequest parsedRequest) throws EventParsingException
+    {
+        final Buffers buffers = this.buffers.get();
+        // Owned by the ThriftEnvelope
+        final List<ThriftField> payload = new ArrayList<ThriftField>(buffers.fieldsCapacity);
+
+        // Like String#split, an empty token still consumes an id
+        short id = (short) 1;
+        int tokenStart = start;
+        while (tokenStart < end) {
+            int tokenEnd = tokenStart;
+            while (tokenEnd < end && input.charAt(tokenEnd) != TOKEN_SEPARATOR) {
+                tokenEnd++;
+            }
+
+            if (tokenEnd > tokenStart) {
+                final StringBuilder value = urlDecode(input, tokenStart + 1, tokenEnd, buffers);
+                payload.add(parseField(input.charAt(tokenStart), value, id, parsedRequest));
+            }
+
+            id++;
+            tokenStart = tokenEnd + 1;
+        }
+
+        // Bounded, so that a single huge event doesn't oversize all the following lists
+        buffers.fieldsCapacity = Math.min(MAX_FIELDS_CAPACITY, Math.max(buffers.fieldsCapacity, payload.size()));
+        return payload;
+    }
+
+    private ThriftField parseField(final char type, final StringBuilder value, final short id, final ParsedRequest parsedRequest) throws EventParsingException
+    {
+        switch (type) {
+            case 'b':
+                if (value.length() == 1 && value.charAt(0) == '1') {
+                    return ThriftField.createThriftField(true, id);
+                }
+                else if (value.length() == 1 && value.charAt(0) == '0') {
+                    return ThriftField.createThriftField(false, id);
+                }
+                throw new EventParsingException("expected 0 or 1, got " + value);
+            case '1':
+                return ThriftField.createThriftField((byte) convertInRange(value, Byte.MIN_VALUE, Byte.MAX_VALUE, "Byte"), id);
+            case '2':
+                return ThriftField.createThriftField((short) convertInRange(value, Short.MIN_VALUE, Short.MAX_VALUE, "Short"), id);
+            case '4':
+                return ThriftField.createThriftField((int) convertInRange(value, Integer.MIN_VALUE, Integer.MAX_VALUE, "Integer"), id);
+            case '8':
+                return ThriftField.createThriftField(numberConverter.convert(value, 0, value.length()), id);
+            case 'd':
+                return ThriftField.createThriftField(doubleConverter.convert(value.toString()), id);
+            case 's':
+                return ThriftField.createThriftField(value.toString(), id);
+            case 'x':
+                return ThriftEnvelopeEventParser.getAnnotatedValue(id, toAnnotation(value), parsedRequest);
+            default:
+                throw new EventParsingException(String.format("unknown type %c", type));
+        }
+    }
+
+    private long convertInRange(final StringBuilder value, final long min, final long max, final String typeName) throws EventParsingException
+    {
+        final long number;
+        try {
+            number = numberConverter.convert(value, 0, value.length());
+        }
+        catch (NumberFormatException e) {
+            throw new EventParsingException(String.format("cannot convert %s to %s", value, typeName), e);
+        }
+
+        if (number < min || number > max) {
+            throw new EventParsingException(String.format("Value out of range(%d, %d). Value:\"%s\"", min, max, value));
+        }
+
+        return number;
+    }
+
+    /**
+     * @param value annotation name, case insensitive
+     * @return the lower case annotation name, without allocating for known annotations
+     */
+    private String toAnnotation(final StringBuilder value)
+    {
+        for (final String annotation : ANNOTATIONS) {
+            if (equalsIgnoreAsciiCase(value, annotation)) {
+                return annotation;
+            }
+        }
+        return value.toString().toLowerCase(Locale.US);
+    }
+
+    private boolean equalsIgnoreAsciiCase(final StringBuilder value, final String lowerCaseString)
+    {
+        if (value.length() != lowerCaseString.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (c != lowerCaseString.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same as URLDecoder.decode(input.subSequence(start, end).toString(), "UTF-8")
+     *
+     * @return the per-thread buffer containing the decoded characters
+     */
+    private static StringBuilder urlDecode(final CharSequence input, final int start, final int end, final Buffers buffers)
+    {
+        final StringBuilder decoded = buffers.value;
+        decoded.setLength(0);
+
+        int i = start;
+        while (i < end) {
+            final char c = input.charAt(i);
+            if (c == '+') {
+                decoded.append(' ');
+                i++;
+            }
+            else if (c == '%') {
+                // Sequences of escaped bytes are decoded together (multi-byte UTF-8 characters)
+                final byte[] bytes = buffers.getBytes((end - i) / 3);
+                int length = 0;
+                while (i + 2 < end && input.charAt(i) == '%') {
+                    bytes[length++] = (byte) parseEscapedByte(input.charAt(i + 1), input.charAt(i + 2));
+                    i += 3;
+                }
+
+                if (i < end && input.charAt(i) == '%') {
+                    throw new IllegalArgumentException("URLDecoder: Incomplete trailing escape (%) pattern");
+                }
+                decoded.append(new String(bytes, 0, length, UTF_8));
+            }
+            else {
+                decoded.append(c);
+                i++;
+            }
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Same as Integer.parseInt(String.valueOf(first) + second, 16) in URLDecoder
+     */
+    private static int parseEscapedByte(final char first, final char second)
+    {
+        final int secondDigit = Character.digit(second, 16);
+
+        final int value;
+        if (secondDigit >= 0 && (first == '+' || first == '-')) {
+            value = first == '-' ? -secondDigit : secondDigit;
+        }
+        else {
+            final int firstDigit = Character.digit(first, 16);
+            if (firstDigit < 0 || secondDigit < 0) {
+                throw new IllegalArgumentException(String.format("URLDecoder: Illegal hex characters in escape (%%) pattern - %c%c", first, second));
+            }
+            value = firstDigit * 16 + secondDigit;
+        }
+
+        if (value < 0) {
+            throw new IllegalArgumentException("URLDecoder: Illegal hex characters in escape (%) pattern - negative value");
+        }
+        return value;
+    }
+
+    /**
+     * Per-thread scratch space
+     */
+    private static class Buffers
+    {
+        private final StringBuilder value = new StringBuilder();
+        private byte[] bytes = new byte[64];
+        // Largest number of fields seen, to size the lists upfront
+        private int fieldsCapacity = 10;
+
+        private byte[] getBytes(final int minLength)
+        {
+            if (bytes.length < minLength) {
+                bytes = new byte[Math.max(minLength, bytes.length * 2)];
+            }
+            return bytes;
+        }
+    }
+}
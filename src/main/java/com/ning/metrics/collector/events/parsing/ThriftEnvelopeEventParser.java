@@ -22,6 +22,7 @@ import com.ning.metrics.collector.endpoint.ParsedRequest;
 import com.ning.metrics.collector.endpoint.extractors.EventParsingException;
 import com.ning.metrics.collector.events.parsing.converters.BooleanConverter;
 import com.ning.metrics.collector.events.parsing.converters.ByteConverter;
+import com.ning.metrics.collector.events.parsing.converters.CharSequenceNumberConverter;
 import com.ning.metrics.collector.events.parsing.converters.DoubleConverter;
 import com.ning.metrics.collector.events.parsing.converters.IntegerConverter;
 import com.ning.metrics.collector.events.parsing.converters.NumberConverter;
@@ -37,6 +38,12 @@ import java.util.Locale;
 
 public class ThriftEnvelopeEventParser
 {
+    static final String ANNOTATION_DATE = "date";
+    static final String ANNOTATION_HOST = "host";
+    static final String ANNOTATION_PATH = "path";
+    static final String ANNOTATION_USER_AGENT = "ua";
+    static final String ANNOTATION_IP = "ip";
+
     private static final String TOKEN_SEPARATOR = ",";
     private static final BooleanConverter booleanConverter = new BooleanConverter();
     private static final DoubleConverter doubleConverter = new DoubleConverter();
@@ -44,6 +51,8 @@ public class ThriftEnvelopeEventParser
     private final ByteConverter byteConverter;
     private final ShortConverter shortConverter;
     private final IntegerConverter integerConverter;
+    // Null if the NumberConverter can't parse in place
+    private final QueryStringEventParser queryStringParser;
 
     @Inject
     public ThriftEnvelopeEventParser(final NumberConverter numberConverter)
@@ -52,54 +61,40 @@ public class ThriftEnvelopeEventParser
         this.byteConverter = new ByteConverter(numberConverter);
         this.shortConverter = new ShortConverter(numberConverter);
         this.integerConverter = new IntegerConverter(numberConverter);
+
+        if (numberConverter instanceof CharSequenceNumberConverter) {
+            this.queryStringParser = new QueryStringEventParser((CharSequenceNumberConverter) numberConverter);
+        }
+        else {
+            this.queryStringParser = null;
+        }
     }
 
     public ThriftEnvelopeEvent parseThriftEvent(final String eventTypeName, final String input, final ParsedRequest parsedRequest) throws EventParsingException
     {
-        try {
-            final Tokenizer tokenizer = new UrlDecodingTokenizer(new SplitTokenizer(input, TOKEN_SEPARATOR));
-            final List<ThriftField> payload = new ArrayList<ThriftField>();
-            short id = (short) 1;
-
-            while (tokenizer.hasNext()) {
-                final Token token = tokenizer.next();
-
-                if (!token.isEmpty()) {
-                    final ThriftField field;
-
-                    switch (token.getType()) {
-                        case 'b':
-                            field = ThriftField.createThriftField(booleanConverter.convert(token.getValue()), id);
-                            break;
-                        case '1':
-                            field = ThriftField.createThriftField(byteConverter.convert(token.getValue()), id);
-                            break;
-                        case '2':
-                            field = ThriftField.createThriftField(shortConverter.convert(token.getValue()), id);
-                            break;
-                        case '4':
-                            field = ThriftField.createThriftField(integerConverter.convert(token.getValue()), id);
-                            break;
-                        case '8':
-                            field = ThriftField.createThriftField(numberConverter.convert(token.getValue()), id);
-                            break;
-                        case 'd':
-                            field = ThriftField.createThriftField(doubleConverter.convert(token.getValue()), id);
-                            break;
-                        case 's':
-                            field = ThriftField.createThriftField(token.getValue(), id);
-                            break;
-                        case 'x':
-                            field = getAnnotatedValue(id, token, parsedRequest);
-                            break;
-                        default:
-                            throw new EventParsingException(String.format("unknown type %c", token.getType()));
-                    }
-
-                    payload.add(field);
-                }
+        return parseThriftEvent(eventTypeName, input, 0, input.length(), parsedRequest);
+    }
 
-                id++;
+    /**
+     * Parse an event from a region of a query string, e.g. the characters after the event type in the v parameter
+     *
+     * @param eventTypeName name of the event
+     * @param input         characters to parse
+     * @param start         index of the first character of the fields
+     * @param end           index after the last character of the fields
+     * @param parsedRequest request, for annotated (x) fields
+     * @return the ThriftEnvelopeEvent
+     * @throws EventParsingException for invalid fields
+     */
+    public ThriftEnvelopeEvent parseThriftEvent(final String eventTypeName, final CharSequence input, final int start, final int end, final ParsedRequest parsedRequest) throws EventParsingException
+    {
+        try {
+            final List<ThriftField> payload;
+            if (queryStringParser == null) {
+                payload = parseFields(input.subSequence(start, end).toString(), parsedRequest);
+            }
+            else {
+                payload = queryStringParser.parseFields(input, start, end, parsedRequest);
             }
 
             final ThriftEnvelope thriftEnvelope = new ThriftEnvelope(eventTypeName, payload);
@@ -111,29 +106,87 @@ public class ThriftEnvelopeEventParser
         }
     }
 
-    private ThriftField getAnnotatedValue(final short id, final Token token, final ParsedRequest parsedRequest)
+    /**
+     * Slow path, for NumberConverters which can't parse in place
+     */
+    private List<ThriftField> parseFields(final String input, final ParsedRequest parsedRequest) throws EventParsingException
+    {
+        final Tokenizer tokenizer = new UrlDecodingTokenizer(new SplitTokenizer(input, TOKEN_SEPARATOR));
+        final List<ThriftField> payload = new ArrayList<ThriftField>();
+        short id = (short) 1;
+
+        while (tokenizer.hasNext()) {
+            final Token token = tokenizer.next();
+
+            if (!token.isEmpty()) {
+                final ThriftField field;
+
+                switch (token.getType()) {
+                    case 'b':
+                        field = ThriftField.createThriftField(booleanConverter.convert(token.getValue()), id);
+                        break;
+                    case '1':
+                        field = ThriftField.createThriftField(byteConverter.convert(token.getValue()), id);
+                        break;
+                    case '2':
+                        field = ThriftField.createThriftField(shortConverter.convert(token.getValue()), id);
+                        break;
+                    case '4':
+                        field = ThriftField.createThriftField(integerConverter.convert(token.getValue()), id);
+                        break;
+                    case '8':
+                        field = ThriftField.createThriftField(numberConverter.convert(token.getValue()), id);
+                        break;
+                    case 'd':
+                        field = ThriftField.createThriftField(doubleConverter.convert(token.getValue()), id);
+                        break;
+                    case 's':
+                        field = ThriftField.createThriftField(token.getValue(), id);
+                        break;
+                    case 'x':
+                        field = getAnnotatedValue(id, token.getValue().toLowerCase(Locale.US), parsedRequest);
+                        break;
+                    default:
+                        throw new EventParsingException(String.format("unknown type %c", token.getType()));
+                }
+
+                payload.add(field);
+            }
+
+            id++;
+        }
+
+        return payload;
+    }
+
+    /**
+     * @param id            field id
+     * @param function      lower case annotation name
+     * @param parsedRequest request to extract the value from
+     * @return the annotated field
+     */
+    static ThriftField getAnnotatedValue(final short id, final String function, final ParsedRequest parsedRequest)
     {
-        final String function = token.getValue().toLowerCase(Locale.US);
-        if ("date".equals(function)) {
+        if (ANNOTATION_DATE.equals(function)) {
             return ThriftField.createThriftField(parsedRequest.getDateTime().getMillis(), id);
         }
-        else if ("host".equals(function)) {
+        else if (ANNOTATION_HOST.equals(function)) {
             return ThriftField.createThriftField(nullCheck(parsedRequest.getReferrerHost()), id);
         }
-        else if ("path".equals(function)) {
+        else if (ANNOTATION_PATH.equals(function)) {
             return ThriftField.createThriftField(nullCheck(parsedRequest.getReferrerPath()), id);
         }
-        else if ("ua".equals(function)) {
+        else if (ANNOTATION_USER_AGENT.equals(function)) {
             return ThriftField.createThriftField(nullCheck(parsedRequest.getUserAgent()), id);
         }
-        else if ("ip".equals(function)) {
+        else if (ANNOTATION_IP.equals(function)) {
             return ThriftField.createThriftField(Ip.ipToInt(parsedRequest.getIpAddress()), id);
         }
 
         throw new IllegalArgumentException(String.format("invalid parsedRequest function: %s", function));
     }
 
-    private String nullCheck(final String annotation)
+    private static String nullCheck(final String annotation)
     {
         return annotation == null ? "" : annotation;
     }
@@ -16,15 +16,14 @@
 
 package com.ning.metrics.collector.events.parsing.converters;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
-public class Base64NumberConverter implements NumberConverter
+public class Base64NumberConverter implements CharSequenceNumberConverter
 {
     @Override
     public Long convert(final String input)
     {
-        return decode(input.toCharArray());
+        return convert(input, 0, input.length());
     }
 
     private static final char[] ENCODING_MAP = new char[]{
@@ -37,33 +36,36 @@ public class Base64NumberConverter implements NumberConverter
         'n', 'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z',
     };
 
-    private static final Map<Character, Integer> DECODING_MAP = new HashMap<Character, Integer>();
+    // Indexed by character, -1 for invalid characters
+    private static final int[] DECODING_MAP = new int[128];
 
     static {
+        Arrays.fill(DECODING_MAP, -1);
         for (int i = 0; i < ENCODING_MAP.length; i++) {
-            DECODING_MAP.put(ENCODING_MAP[i], i);
+            DECODING_MAP[ENCODING_MAP[i]] = i;
         }
     }
 
-    private static long decode(final char[] input)
+    @Override
+    public long convert(final CharSequence input, final int start, final int end)
     {
         boolean isNegative = false;
-        int i = 0;
+        int i = start;
 
-        if (input.length > 1 && input[0] == '-') {
+        if (end - start > 1 && input.charAt(start) == '-') {
             isNegative = true;
-            i = 1;
+            i++;
         }
 
         long value = 0L;
-        for (; i < input.length; i++) {
-            final char c = input[i];
+        for (; i < end; i++) {
+            final char c = input.charAt(i);
 
-            final Integer charValue = DECODING_MAP.get(c);
+            final int charValue = c < DECODING_MAP.length ? DECODING_MAP[c] : -1;
 
             value <<= 6;
 
-            if (charValue == null) {
+            if (charValue < 0) {
                 throw new IllegalArgumentException(String.format("invalid input character %c", c));
             }
 
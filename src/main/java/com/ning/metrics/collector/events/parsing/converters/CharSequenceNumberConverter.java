@@ -0,0 +1,31 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.events.parsing.converters;
+
+/**
+ * NumberConverter which can parse numbers in place, without creating a String nor boxing the result
+ */
+public interface CharSequenceNumberConverter extends NumberConverter
+{
+    /**
+     * @param input characters to parse
+     * @param start index of the first character of the number
+     * @param end   index after the last character of the number
+     * @return the number, same as convert(input.subSequence(start, end).toString())
+     */
+    public long convert(CharSequence input, int start, int end);
+}
@@ -16,11 +16,59 @@
 
 package com.ning.metrics.collector.events.parsing.converters;
 
-public class DecimalNumberConverter implements NumberConverter
+public class DecimalNumberConverter implements CharSequenceNumberConverter
 {
     @Override
     public Long convert(final String input)
     {
         return Long.valueOf(input);
     }
+
+    /**
+     * Same as Long.parseLong on Java 6: a leading '+' is rejected
+     */
+    @Override
+    public long convert(final CharSequence input, final int start, final int end)
+    {
+        if (start >= end) {
+            throw numberFormatException(input, start, end);
+        }
+
+        boolean isNegative = false;
+        long limit = -Long.MAX_VALUE;
+        int i = start;
+
+        final char first = input.charAt(start);
+        if (first == '-') {
+            isNegative = true;
+            limit = Long.MIN_VALUE;
+
+            if (end - start == 1) {
+                throw numberFormatException(input, start, end);
+            }
+            i++;
+        }
+
+        // Accumulate negatively, to be able to represent Long.MIN_VALUE
+        final long multiplyMin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            final int digit = Character.digit(input.charAt(i), 10);
+            if (digit < 0 || result < multiplyMin) {
+                throw numberFormatException(input, start, end);
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                throw numberFormatException(input, start, end);
+            }
+            result -= digit;
+        }
+
+        return isNegative ? result : -result;
+    }
+
+    private NumberFormatException numberFormatException(final CharSequence input, final int start, final int end)
+    {
+        return new NumberFormatException(String.format("For input string: \"%s\"", input.subSequence(start, end)));
+    }
 }
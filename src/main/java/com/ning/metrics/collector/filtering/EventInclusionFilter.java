@@ -27,6 +27,11 @@ public class EventInclusionFilter extends PatternSetFilter
         super(fieldExtractor, patterns);
     }
 
+    public EventInclusionFilter(FieldExtractor fieldExtractor, Iterable<Pattern> patterns, int cacheSize)
+    {
+        super(fieldExtractor, patterns, cacheSize);
+    }
+
     @Override
     public boolean passesFilter(String name, ParsedRequest parsedRequest)
     {
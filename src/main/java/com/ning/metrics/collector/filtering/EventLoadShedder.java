@@ -0,0 +1,286 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.filtering;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weakref.jmx.Managed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sheds load on specific event types, after the filters and before the events are handed to the EventCollector.
+ * <p/>
+ * Each event type can be sampled, either randomly or deterministically based on a field of the request (e.g. all
+ * events from a given IP are kept or dropped together), and/or rate limited with a token bucket. Rules can be
+ * changed at runtime via JMX.
+ */
+public class EventLoadShedder
+{
+    private static final Logger log = LoggerFactory.getLogger(EventLoadShedder.class);
+
+    private static final int SAMPLING_BUCKETS = 10000;
+
+    private final ConcurrentMap<String, Sampling> samplingRules = new ConcurrentHashMap<String, Sampling>();
+    private final ConcurrentMap<String, RateLimit> rateLimits = new ConcurrentHashMap<String, RateLimit>();
+
+    private final AtomicLong admitted = new AtomicLong(0);
+    private final AtomicLong shed = new AtomicLong(0);
+
+    public EventLoadShedder()
+    {
+    }
+
+    @Inject
+    public EventLoadShedder(final CollectorConfig config)
+    {
+        final String delimiter = config.getFilters();
+
+        final String samplingRatesString = config.getLoadSheddingSamplingRates();
+        if (samplingRatesString != null && !samplingRatesString.isEmpty()) {
+            for (final String rule : samplingRatesString.split(delimiter)) {
+                // EventName:rate[:FIELD]
+                final String[] parts = rule.trim().split(":");
+                if (parts.length < 2 || parts.length > 3) {
+                    throw new IllegalArgumentException(String.format("Invalid sampling rule: %s", rule));
+                }
+                setSampling(parts[0], Double.valueOf(parts[1]), parts.length == 3 ? parts[2] : null);
+            }
+        }
+
+        final String rateLimitsString = config.getLoadSheddingRateLimits();
+        if (rateLimitsString != null && !rateLimitsString.isEmpty()) {
+            for (final String rule : rateLimitsString.split(delimiter)) {
+                // EventName:eventsPerSecond
+                final String[] parts = rule.trim().split(":");
+                if (parts.length != 2) {
+                    throw new IllegalArgumentException(String.format("Invalid rate limit rule: %s", rule));
+                }
+                setRateLimit(parts[0], Double.valueOf(parts[1]));
+            }
+        }
+    }
+
+    /**
+     * @param eventName     name of the event
+     * @param parsedRequest request the event came from, used for deterministic sampling
+     * @return true if the event should be collected, false if it should be dropped
+     */
+    public boolean admit(final String eventName, final ParsedRequest parsedRequest)
+    {
+        // Fast path, nothing configured
+        if (samplingRules.isEmpty() && rateLimits.isEmpty()) {
+            admitted.incrementAndGet();
+            return true;
+        }
+
+        // Sample first, so that dropped events don't use tokens
+        final Sampling sampling = samplingRules.get(eventName);
+        if (sampling != null && !sampling.admit(eventName, parsedRequest)) {
+            shed.incrementAndGet();
+            return false;
+        }
+
+        final RateLimit rateLimit = rateLimits.get(eventName);
+        if (rateLimit != null && !rateLimit.admit()) {
+            shed.incrementAndGet();
+            return false;
+        }
+
+        admitted.incrementAndGet();
+        return true;
+    }
+
+    @Managed(description = "sample an event type: keep a fraction (0 to 1) of the events, randomly or based on a field (HOST, IP, USERAGENT, PATH)")
+    public void setSampling(final String eventName, final double rate, final String keyField)
+    {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException(String.format("Invalid sampling rate for %s: %f", eventName, rate));
+        }
+
+        final FieldExtractor fieldExtractor;
+        if (keyField == null || keyField.trim().isEmpty()) {
+            fieldExtractor = null;
+        }
+        else {
+            fieldExtractor = FieldExtractors.valueOf(keyField.trim().toUpperCase(Locale.US));
+        }
+
+        samplingRules.put(eventName, new Sampling(rate, fieldExtractor, keyField));
+        log.info(String.format("Sampling %s at %f", eventName, rate));
+    }
+
+    @Managed(description = "stop sampling an event type")
+    public void removeSampling(final String eventName)
+    {
+        samplingRules.remove(eventName);
+        log.info(String.format("Stopped sampling %s", eventName));
+    }
+
+    @Managed(description = "limit the number of events per second for an event type")
+    public void setRateLimit(final String eventName, final double eventsPerSecond)
+    {
+        if (eventsPerSecond < 0) {
+            throw new IllegalArgumentException(String.format("Invalid rate limit for %s: %f", eventName, eventsPerSecond));
+        }
+
+        rateLimits.put(eventName, new RateLimit(eventsPerSecond));
+        log.info(String.format("Rate limiting %s to %f events/s", eventName, eventsPerSecond));
+    }
+
+    @Managed(description = "stop rate limiting an event type")
+    public void removeRateLimit(final String eventName)
+    {
+        rateLimits.remove(eventName);
+        log.info(String.format("Stopped rate limiting %s", eventName));
+    }
+
+    @Managed(description = "list of sampling rules and rate limits, with the number of shed events for each")
+    public List<String> getRules()
+    {
+        final List<String> rules = new ArrayList<String>();
+        for (final Map.Entry<String, Sampling> entry : samplingRules.entrySet()) {
+            rules.add(String.format("%s: %s", entry.getKey(), entry.getValue()));
+        }
+        for (final Map.Entry<String, RateLimit> entry : rateLimits.entrySet()) {
+            rules.add(String.format("%s: %s", entry.getKey(), entry.getValue()));
+        }
+        return rules;
+    }
+
+    @Managed(description = "number of events admitted")
+    public long getAdmittedEvents()
+    {
+        return admitted.get();
+    }
+
+    @Managed(description = "number of events shed")
+    public long getShedEvents()
+    {
+        return shed.get();
+    }
+
+    private static final class Sampling
+    {
+        // java.util.Random is thread-safe but contended when shared (CAS on its seed), and there is no
+        // ThreadLocalRandom on Java 6
+        private static final ThreadLocal<Random> randoms = new ThreadLocal<Random>()
+        {
+            @Override
+            protected Random initialValue()
+            {
+                return new Random();
+            }
+        };
+
+        private final double rate;
+        // Null for random sampling
+        private final FieldExtractor keyExtractor;
+        private final String keyField;
+        private final int admittedBuckets;
+        private final AtomicLong shed = new AtomicLong(0);
+
+        private Sampling(final double rate, final FieldExtractor keyExtractor, final String keyField)
+        {
+            this.rate = rate;
+            this.keyExtractor = keyExtractor;
+            this.keyField = keyField;
+            this.admittedBuckets = (int) Math.round(rate * SAMPLING_BUCKETS);
+        }
+
+        private boolean admit(final String eventName, final ParsedRequest parsedRequest)
+        {
+            final String key = keyExtractor == null ? null : keyExtractor.getField(eventName, parsedRequest);
+
+            final boolean admit;
+            if (key == null) {
+                admit = randoms.get().nextDouble() < rate;
+            }
+            else {
+                // String#hashCode doesn't spread similar keys (e.g. IPs) well enough
+                final int hash = Hashing.murmur3_32().hashString(key, Charsets.UTF_8).asInt();
+                admit = (hash & Integer.MAX_VALUE) % SAMPLING_BUCKETS < admittedBuckets;
+            }
+
+            if (!admit) {
+                shed.incrementAndGet();
+            }
+            return admit;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("sampled at %f%s, %d shed", rate, keyExtractor == null ? "" : " by " + keyField, shed.get());
+        }
+    }
+
+    /**
+     * Token bucket, which can hold up to one second worth of events (at least one event)
+     */
+    private static final class RateLimit
+    {
+        private final double eventsPerSecond;
+        private final double capacity;
+        private final AtomicLong shed = new AtomicLong(0);
+
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+
+        private RateLimit(final double eventsPerSecond)
+        {
+            this.eventsPerSecond = eventsPerSecond;
+            this.capacity = Math.max(1, eventsPerSecond);
+            this.tokens = capacity;
+        }
+
+        private synchronized boolean admit()
+        {
+            final long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * eventsPerSecond / 1e9);
+            lastRefillNanos = now;
+
+            if (tokens >= 1) {
+                tokens--;
+                return true;
+            }
+            else {
+                shed.incrementAndGet();
+                return false;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("limited to %f events/s, %d shed", eventsPerSecond, shed.get());
+        }
+    }
+}
@@ -18,6 +18,8 @@ package com.ning.metrics.collector.filtering;
 
 import com.ning.metrics.collector.endpoint.ParsedRequest;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.inject.Inject;
 import org.weakref.jmx.Managed;
 
@@ -29,35 +31,53 @@ import java.util.regex.Pattern;
 
 public class PatternSetFilter implements Filter<ParsedRequest>
 {
+    // Numbered backreferences would point to the wrong group once patterns are merged
+    private static final Pattern BACKREFERENCE = Pattern.compile("\\\\[0-9]");
+
     private final FieldExtractor fieldExtractor;
     private final ConcurrentMap<String, Pattern> patternMap = new ConcurrentHashMap<String, Pattern>();
+    private final int cacheSize;
+
+    // Rebuilt (with an empty cache) whenever the patterns change
+    private volatile CompiledPatterns compiledPatterns;
 
     @Inject
     public PatternSetFilter(final FieldExtractor fieldExtractor, final Iterable<Pattern> patterns)
+    {
+        this(fieldExtractor, patterns, 0);
+    }
+
+    /**
+     * @param fieldExtractor extractor for the field to match
+     * @param patterns       patterns to match, the filter matches if any of them is found in the field
+     * @param cacheSize      maximum number of field values for which to remember the verdict, 0 to disable caching
+     */
+    public PatternSetFilter(final FieldExtractor fieldExtractor, final Iterable<Pattern> patterns, final int cacheSize)
     {
         this.fieldExtractor = fieldExtractor;
+        this.cacheSize = cacheSize;
 
         for (final Pattern pattern : patterns) {
             patternMap.put(pattern.toString(), pattern);
         }
+        compiledPatterns = new CompiledPatterns(patternMap.values(), cacheSize);
     }
 
     @Override
     public boolean passesFilter(final String name, final ParsedRequest parsedRequest)
     {
+        final CompiledPatterns patterns = compiledPatterns;
+        if (patterns.isEmpty()) {
+            return false;
+        }
+
         final String input = fieldExtractor.getField(name, parsedRequest);
 
         if (input == null) {
             return false;
         }
 
-        for (final Pattern pattern : patternMap.values()) {
-            if (pattern.matcher(input).find()) {
-                return true;
-            }
-        }
-
-        return false;
+        return patterns.matches(input);
     }
 
     @Managed(description = "list of patterns for this filter")
@@ -67,14 +87,176 @@ public class PatternSetFilter implements Filter<ParsedRequest>
     }
 
     @Managed(description = "add a regular expression to filter set")
-    public void addPattern(final String patternString)
+    public synchronized void addPattern(final String patternString)
     {
         patternMap.put(patternString, Pattern.compile(patternString));
+        compiledPatterns = new CompiledPatterns(patternMap.values(), cacheSize);
     }
 
     @Managed(description = "add a regular expression to filter set")
-    public void removePattern(final String patternString)
+    public synchronized void removePattern(final String patternString)
     {
         patternMap.remove(patternString);
+        compiledPatterns = new CompiledPatterns(patternMap.values(), cacheSize);
+    }
+
+    @Managed(description = "number of patterns matched as plain strings")
+    public int getLiteralPatternsCount()
+    {
+        return compiledPatterns.literals.size();
+    }
+
+    @Managed(description = "number of regular expressions evaluated for each value (merged patterns count as one)")
+    public int getRegularExpressionsCount()
+    {
+        return compiledPatterns.regularExpressions.size();
+    }
+
+    @Managed(description = "number of values in the verdict cache")
+    public long getCacheSize()
+    {
+        final Cache<String, Boolean> cache = compiledPatterns.verdicts;
+        return cache == null ? 0 : cache.size();
+    }
+
+    @Managed(description = "verdict cache hits since the patterns last changed")
+    public long getCacheHitCount()
+    {
+        final Cache<String, Boolean> cache = compiledPatterns.verdicts;
+        return cache == null ? 0 : cache.stats().hitCount();
+    }
+
+    @Managed(description = "verdict cache misses since the patterns last changed")
+    public long getCacheMissCount()
+    {
+        final Cache<String, Boolean> cache = compiledPatterns.verdicts;
+        return cache == null ? 0 : cache.stats().missCount();
+    }
+
+    @Managed(description = "verdict cache hit rate since the patterns last changed")
+    public double getCacheHitRate()
+    {
+        final Cache<String, Boolean> cache = compiledPatterns.verdicts;
+        return cache == null ? 0 : cache.stats().hitRate();
+    }
+
+    //@VisibleForTesting
+    static boolean isMergeable(final Pattern pattern)
+    {
+        final String regex = pattern.pattern();
+        if (pattern.flags() != 0 || regex.contains("\\Q") || regex.contains("\\k") || BACKREFERENCE.matcher(regex).find()) {
+            return false;
+        }
+
+        // Inline flags (e.g. comments) could leak out of the enclosing group, only allow non-capturing groups
+        int i = regex.indexOf("(?");
+        while (i >= 0) {
+            if (!regex.startsWith("(?:", i)) {
+                return false;
+            }
+            i = regex.indexOf("(?", i + 1);
+        }
+
+        return true;
+    }
+
+    //@VisibleForTesting
+    static boolean isLiteral(final Pattern pattern)
+    {
+        if (pattern.flags() != 0) {
+            return false;
+        }
+
+        final String regex = pattern.pattern();
+        for (int i = 0; i < regex.length(); i++) {
+            if ("\\^$.|?*+()[]{}".indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Immutable view of the patterns, optimized for matching:
+     * <ul>
+     * <li>literal patterns are looked up with String#contains</li>
+     * <li>all other patterns are merged into a single alternation, so that the input is scanned once</li>
+     * <li>patterns which can't be merged safely (flags, backreferences, ...) are matched one by one</li>
+     * </ul>
+     * Verdicts are cached per field value.
+     */
+    private static final class CompiledPatterns
+    {
+        private final List<String> literals = new ArrayList<String>();
+        private final List<Pattern> regularExpressions = new ArrayList<Pattern>();
+        // Null if caching is disabled
+        private final Cache<String, Boolean> verdicts;
+
+        private CompiledPatterns(final Iterable<Pattern> patterns, final int cacheSize)
+        {
+            final StringBuilder merged = new StringBuilder();
+            for (final Pattern pattern : patterns) {
+                if (isLiteral(pattern)) {
+                    literals.add(pattern.pattern());
+                }
+                else if (isMergeable(pattern)) {
+                    if (merged.length() > 0) {
+                        merged.append('|');
+                    }
+                    merged.append("(?:").append(pattern.pattern()).append(')');
+                }
+                else {
+                    regularExpressions.add(pattern);
+                }
+            }
+            if (merged.length() > 0) {
+                regularExpressions.add(Pattern.compile(merged.toString()));
+            }
+
+            if (cacheSize > 0) {
+                verdicts = CacheBuilder.newBuilder().maximumSize(cacheSize).recordStats().build();
+            }
+            else {
+                verdicts = null;
+            }
+        }
+
+        private boolean isEmpty()
+        {
+            return literals.isEmpty() && regularExpressions.isEmpty();
+        }
+
+        private boolean matches(final String input)
+        {
+            if (verdicts == null) {
+                return evaluate(input);
+            }
+
+            final Boolean cachedVerdict = verdicts.getIfPresent(input);
+            if (cachedVerdict != null) {
+                return cachedVerdict;
+            }
+
+            final boolean verdict = evaluate(input);
+            verdicts.put(input, verdict);
+            return verdict;
+        }
+
+        private boolean evaluate(final String input)
+        {
+            for (final String literal : literals) {
+                if (input.contains(literal)) {
+                    return true;
+                }
+            }
+
+            for (final Pattern pattern : regularExpressions) {
+                if (pattern.matcher(input).find()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
     }
 }
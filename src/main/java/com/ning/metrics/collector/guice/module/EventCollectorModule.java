@@ -18,7 +18,9 @@ package com.ning.metrics.collector.guice.module;
 
 import com.ning.metrics.collector.processing.EventCollector;
 import com.ning.metrics.collector.processing.EventSpoolDispatcher;
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
 import com.ning.metrics.collector.processing.WriterStats;
+import com.ning.metrics.collector.util.StageLatencies;
 
 import com.google.inject.Binder;
 import com.google.inject.Module;
@@ -39,7 +41,12 @@ public class EventCollectorModule implements Module
         binder.bind(WriterStats.class).asEagerSingleton();
         builder.export(WriterStats.class).as("com.ning.metrics.collector:name=WriterQueueStats");
 
+        binder.bind(StageLatencies.class).asEagerSingleton();
+
         binder.bind(EventCollector.class).asEagerSingleton();
         builder.export(EventCollector.class).as("com.ning.metrics.collector:name=EventCollector");
+
+        binder.bind(SpoolAdmissionController.class).asEagerSingleton();
+        builder.export(SpoolAdmissionController.class).as("com.ning.metrics.collector:name=SpoolAdmissionController");
     }
 }
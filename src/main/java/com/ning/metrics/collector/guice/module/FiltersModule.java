@@ -19,6 +19,7 @@ package com.ning.metrics.collector.guice.module;
 import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.binder.providers.ArrayListProvider;
 import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.filtering.EventLoadShedder;
 import com.ning.metrics.collector.filtering.FieldExtractors;
 import com.ning.metrics.collector.filtering.Filter;
 import com.ning.metrics.collector.filtering.OrFilter;
@@ -55,28 +56,29 @@ public class FiltersModule implements Module
         final ExportBuilder builder = MBeanModule.newExporter(binder);
 
         final String filterListDelimiter = config.getFilters();
+        final int filtersCacheSize = config.getFiltersCacheSize();
 
         final TypeLiteral<Filter<ParsedRequest>> filterTypeLiteral = new TypeLiteral<Filter<ParsedRequest>>() {};
         binder.bind(filterTypeLiteral).to(OrFilter.class).asEagerSingleton();
 
         binder.bind(filterTypeLiteral).annotatedWith(Names.named("host"))
-              .toProvider(new EventFilterProvider(FieldExtractors.HOST, config.getFiltersHost(), filterListDelimiter, false)).asEagerSingleton();
+              .toProvider(new EventFilterProvider(FieldExtractors.HOST, config.getFiltersHost(), filterListDelimiter, false, filtersCacheSize)).asEagerSingleton();
         builder.export(Key.get(filterTypeLiteral, Names.named("host"))).as("com.ning.metrics.collector.filters:name=Host");
 
         binder.bind(filterTypeLiteral).annotatedWith(Names.named("ip"))
-              .toProvider(new EventFilterProvider(FieldExtractors.IP, config.getFiltersIp(), filterListDelimiter, false)).asEagerSingleton();
+              .toProvider(new EventFilterProvider(FieldExtractors.IP, config.getFiltersIp(), filterListDelimiter, false, filtersCacheSize)).asEagerSingleton();
         builder.export(Key.get(filterTypeLiteral, Names.named("ip"))).as("com.ning.metrics.collector.filters:name=IP");
 
         binder.bind(filterTypeLiteral).annotatedWith(Names.named("user-agent"))
-              .toProvider(new EventFilterProvider(FieldExtractors.USERAGENT, config.getFiltersUserAgent(), filterListDelimiter, false)).asEagerSingleton();
+              .toProvider(new EventFilterProvider(FieldExtractors.USERAGENT, config.getFiltersUserAgent(), filterListDelimiter, false, filtersCacheSize)).asEagerSingleton();
         builder.export(Key.get(filterTypeLiteral, Names.named("user-agent"))).as("com.ning.metrics.collector.filters:name=UserAgent");
 
         binder.bind(filterTypeLiteral).annotatedWith(Names.named("path"))
-              .toProvider(new EventFilterProvider(FieldExtractors.PATH, config.getFiltersPath(), filterListDelimiter, false)).asEagerSingleton();
+              .toProvider(new EventFilterProvider(FieldExtractors.PATH, config.getFiltersPath(), filterListDelimiter, false, filtersCacheSize)).asEagerSingleton();
         builder.export(Key.get(filterTypeLiteral, Names.named("path"))).as("com.ning.metrics.collector.filters:name=Path");
 
         binder.bind(filterTypeLiteral).annotatedWith(Names.named("event-type"))
-              .toProvider(new EventFilterProvider(FieldExtractors.EVENT_TYPE, config.getFiltersEventType(), filterListDelimiter, config.isFilteredEventTypeIncluded())).asEagerSingleton();
+              .toProvider(new EventFilterProvider(FieldExtractors.EVENT_TYPE, config.getFiltersEventType(), filterListDelimiter, config.isFilteredEventTypeIncluded(), filtersCacheSize)).asEagerSingleton();
         builder.export(Key.get(filterTypeLiteral, Names.named("event-type"))).as("com.ning.metrics.collector.filters:name=EventType");
 
         final ArrayListProvider<Filter<ParsedRequest>> filterListProvider = new ArrayListProvider<Filter<ParsedRequest>>()
@@ -86,5 +88,9 @@ public class FiltersModule implements Module
                                                                                     .add(Key.get(filterTypeLiteral, Names.named("path")))
                                                                                     .add(Key.get(filterTypeLiteral, Names.named("event-type")));
         binder.bind(new TypeLiteral<List<Filter<ParsedRequest>>>() {}).toProvider(filterListProvider).asEagerSingleton();
+
+        // Sampling and rate limiting of the events which went through the filters
+        binder.bind(EventLoadShedder.class).asEagerSingleton();
+        builder.export(EventLoadShedder.class).as("com.ning.metrics.collector.filters:name=LoadShedder");
     }
 }
@@ -22,8 +22,10 @@ import com.ning.arecibo.jmx.AreciboMonitoringModule;
 import com.ning.arecibo.metrics.guice.AreciboMetricsModule;
 import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.binder.config.CollectorConfigurationObjectFactory;
+import com.ning.metrics.collector.endpoint.servers.NioEventServer;
 import com.ning.metrics.collector.endpoint.resources.ScribeModule;
 import com.ning.metrics.collector.guice.providers.CollectorJacksonJsonProvider;
+import com.ning.metrics.collector.jaxrs.ContentEncodingFilter;
 import com.ning.metrics.collector.nagios.CollectorServiceCheck;
 import com.ning.metrics.collector.nagios.NagiosMonitor;
 import com.ning.metrics.collector.realtime.RealTimeQueueModule;
@@ -32,6 +34,7 @@ import com.ning.nagios.FakeNagiosMonitor;
 import com.ning.nagios.ServiceCheck;
 import com.ning.nagios.ServiceMonitor;
 import com.sun.jersey.api.core.PackagesResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
 import com.sun.jersey.guice.spi.container.servlet.GuiceContainer;
 import com.yammer.metrics.guice.InstrumentationModule;
 
@@ -68,6 +71,7 @@ public class ServerModule extends ServletModule
         installF5();
         installJaxrsSupport(config);
         installScribe();
+        installNioEndpoint();
         installPersistentSink();
         installEventSpoolWriter(config);
         installHDFS();
@@ -88,6 +92,8 @@ public class ServerModule extends ServletModule
         {
             {
                 put(PackagesResourceConfig.PROPERTY_PACKAGES, "com.ning.metrics.collector.jaxrs");
+                // Compressed POST bodies (the filter is created by Guice, see its @Inject constructor)
+                put(ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS, ContentEncodingFilter.class.getName());
             }
         });
     }
@@ -152,6 +158,14 @@ public class ServerModule extends ServletModule
         install(new ScribeModule());
     }
 
+    protected void installNioEndpoint()
+    {
+        bind(NioEventServer.class).asEagerSingleton();
+
+        final ExportBuilder builder = MBeanModule.newExporter(binder());
+        builder.export(NioEventServer.class).as("com.ning.metrics.collector:name=NioEventServer");
+    }
+
     protected void installPersistentSink()
     {
         install(new EventCollectorModule());
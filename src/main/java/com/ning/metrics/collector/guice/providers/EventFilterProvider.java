@@ -31,12 +31,19 @@ public class EventFilterProvider implements Provider<PatternSetFilter>
     private final FieldExtractor fieldExtractor;
     private final Set<Pattern> patternSet = new HashSet<Pattern>();
     private final boolean isEventInclusionFilter;
+    private final int cacheSize;
 
-    @Inject
     public EventFilterProvider(final FieldExtractor fieldExtractor, final String patternListString, final String delimiter, final boolean isEventInclusionFilter)
+    {
+        this(fieldExtractor, patternListString, delimiter, isEventInclusionFilter, 0);
+    }
+
+    @Inject
+    public EventFilterProvider(final FieldExtractor fieldExtractor, final String patternListString, final String delimiter, final boolean isEventInclusionFilter, final int cacheSize)
     {
         this.fieldExtractor = fieldExtractor;
         this.isEventInclusionFilter = isEventInclusionFilter;
+        this.cacheSize = cacheSize;
 
         if (patternListString != null && !patternListString.isEmpty()) {
             for (final String str : patternListString.split(delimiter)) {
@@ -48,6 +55,6 @@ public class EventFilterProvider implements Provider<PatternSetFilter>
     @Override
     public PatternSetFilter get()
     {   
-        return isEventInclusionFilter ? new EventInclusionFilter(fieldExtractor, patternSet) : new PatternSetFilter(fieldExtractor, patternSet);
+        return isEventInclusionFilter ? new EventInclusionFilter(fieldExtractor, patternSet, cacheSize) : new PatternSetFilter(fieldExtractor, patternSet, cacheSize);
     }
 }
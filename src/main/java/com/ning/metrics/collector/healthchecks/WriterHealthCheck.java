@@ -16,7 +16,6 @@
 
 package com.ning.metrics.collector.healthchecks;
 
-import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.processing.EventSpoolDispatcher;
 import com.ning.metrics.collector.processing.LocalQueueAndWriter;
 import com.ning.metrics.collector.processing.PersistentWriterFactory;
@@ -26,6 +25,7 @@ import com.ning.metrics.collector.processing.hadoop.HadoopWriterFactory;
 import com.google.inject.Inject;
 import com.yammer.metrics.core.HealthCheck;
 
+import java.util.Map;
 import java.util.Set;
 
 public class WriterHealthCheck extends HealthCheck
@@ -33,16 +33,14 @@ public class WriterHealthCheck extends HealthCheck
     private final EventSpoolDispatcher processor;
     private final WriterStats stats;
     private final PersistentWriterFactory factory;
-    private final CollectorConfig config;
 
     @Inject
-    public WriterHealthCheck(final EventSpoolDispatcher processor, final PersistentWriterFactory factory, final WriterStats stats, final CollectorConfig config)
+    public WriterHealthCheck(final EventSpoolDispatcher processor, final PersistentWriterFactory factory, final WriterStats stats)
     {
         super(WriterHealthCheck.class.getName());
         this.processor = processor;
         this.factory = factory;
         this.stats = stats;
-        this.config = config;
     }
 
     @Override
@@ -55,11 +53,12 @@ public class WriterHealthCheck extends HealthCheck
 
             builder.append("local files: {");
             int i = 1;
-            final Set<String> paths = processor.getQueuesPerPath().keySet();
+            final Map<String, LocalQueueAndWriter> queuesPerPath = processor.getQueuesPerPath();
+            final Set<String> paths = queuesPerPath.keySet();
             for (final String queue : paths) {
-                final LocalQueueAndWriter worker = processor.getQueuesPerPath().get(queue);
+                final LocalQueueAndWriter worker = queuesPerPath.get(queue);
                 builder.append(String.format("%s: %d", queue, worker.size()));
-                if (worker.size() == config.getMaxQueueSize()) {
+                if (worker.remainingCapacity() == 0) {
                     builder.append(" [FULL]");
                 }
 
@@ -25,7 +25,9 @@ import com.yammer.metrics.annotation.Timed;
 import org.joda.time.DateTime;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
@@ -33,6 +35,8 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * Version 2 of the collector's external API encodes numbers as in a custom base64 encoding.
@@ -48,17 +52,40 @@ public class Base64CollectorResource
         this.requestHandler = requestHandler;
     }
 
+    /**
+     * Several events can be sent at once by repeating the v parameter, one event per value
+     */
     @GET
     @Produces(MediaType.TEXT_PLAIN)
     @Timed(name = "GET_Base64_API")
-    public Response get(@QueryParam("v") final String eventName,
+    public Response get(@QueryParam("v") final List<String> eventNames,
                         @QueryParam("date") final String eventDateTimeString,
                         @QueryParam(Granularity.GRANULARITY_QUERY_PARAM) final String eventGranularity,
                         @Context final HttpHeaders httpHeaders,
                         @Context final HttpServletRequest request)
     {
         final DateTime eventDateTime = new DateTime(eventDateTimeString);
-        final ParsedRequest parsedRequest = new ParsedRequest(eventName, httpHeaders, eventDateTime,
+        final ParsedRequest parsedRequest = new ParsedRequest(eventNames, httpHeaders, eventDateTime,
+                                                              eventGranularity, request.getRemoteAddr(),
+                                                              DeserializationType.BASE_64_QUERY);
+        return requestHandler.handleEventRequest(parsedRequest);
+    }
+
+    /**
+     * Same as GET, for batches of events, one per line
+     */
+    @POST
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Produces(MediaType.TEXT_PLAIN)
+    @Timed(name = "POST_Base64_API")
+    public Response post(@QueryParam("date") final String eventDateTimeString,
+                         @QueryParam(Granularity.GRANULARITY_QUERY_PARAM) final String eventGranularity,
+                         final InputStream body,
+                         @Context final HttpHeaders httpHeaders,
+                         @Context final HttpServletRequest request)
+    {
+        final DateTime eventDateTime = new DateTime(eventDateTimeString);
+        final ParsedRequest parsedRequest = new ParsedRequest(null, httpHeaders, body, eventDateTime,
                                                               eventGranularity, request.getRemoteAddr(),
                                                               DeserializationType.BASE_64_QUERY);
         return requestHandler.handleEventRequest(parsedRequest);
@@ -25,12 +25,17 @@ import com.yammer.metrics.annotation.Timed;
 import org.joda.time.DateTime;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * Version 1 of the collector's external API.
@@ -46,17 +51,39 @@ public class CollectorResource
         this.requestHandler = requestHandler;
     }
 
+    /**
+     * Several events can be sent at once by repeating the v parameter, one event per value
+     */
     @GET
     @Timed(name = "GET_API")
-    public Response get(@QueryParam("v") final String eventName,
+    public Response get(@QueryParam("v") final List<String> eventNames,
                         @QueryParam("date") final String eventDateTimeString,
                         @QueryParam(Granularity.GRANULARITY_QUERY_PARAM) final String eventGranularity,
                         @Context final HttpHeaders httpHeaders,
                         @Context final HttpServletRequest request)
     {
         final DateTime eventDateTime = new DateTime(eventDateTimeString);
-        final ParsedRequest parsedRequest = new ParsedRequest(eventName, httpHeaders, eventDateTime,
+        final ParsedRequest parsedRequest = new ParsedRequest(eventNames, httpHeaders, eventDateTime,
                                                               eventGranularity, request.getRemoteAddr(), DeserializationType.DECIMAL_QUERY);
         return requestHandler.handleEventRequest(parsedRequest);
     }
+
+    /**
+     * Same as GET, for batches of events, one per line
+     */
+    @POST
+    @Consumes(MediaType.TEXT_PLAIN)
+    @Timed(name = "POST_API")
+    public Response post(@QueryParam("date") final String eventDateTimeString,
+                         @QueryParam(Granularity.GRANULARITY_QUERY_PARAM) final String eventGranularity,
+                         final InputStream body,
+                         @Context final HttpHeaders httpHeaders,
+                         @Context final HttpServletRequest request)
+    {
+        final DateTime eventDateTime = new DateTime(eventDateTimeString);
+        final ParsedRequest parsedRequest = new ParsedRequest(null, httpHeaders, body, eventDateTime,
+                                                              eventGranularity, request.getRemoteAddr(),
+                                                              DeserializationType.DECIMAL_QUERY);
+        return requestHandler.handleEventRequest(parsedRequest);
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.jaxrs;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.endpoint.ContentEncoding;
+
+import com.google.inject.Inject;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
+
+/**
+ * Decompress gzip, deflate and lzf encoded POST bodies, for all resources (see ContentEncoding).
+ * <p/>
+ * The Content-Encoding and Content-Length headers are removed from decoded requests, so that the resources see
+ * a regular, uncompressed, request of unknown length. Decoded bodies are capped to collector.max-decompressed-size.
+ */
+public class ContentEncodingFilter implements ContainerRequestFilter
+{
+    private final long maxDecompressedSize;
+
+    @Inject
+    public ContentEncodingFilter(final CollectorConfig config)
+    {
+        this.maxDecompressedSize = config.getMaxDecompressedSize();
+    }
+
+    @Override
+    public ContainerRequest filter(final ContainerRequest request)
+    {
+        if (!HttpMethod.POST.equals(request.getMethod())) {
+            return request;
+        }
+
+        final String contentEncoding = request.getHeaderValue(ContentEncoding.CONTENT_ENCODING_HEADER);
+        if (contentEncoding == null || ContentEncoding.fromHeader(contentEncoding) == ContentEncoding.IDENTITY) {
+            return request;
+        }
+
+        request.setEntityInputStream(ContentEncoding.decode(contentEncoding, request.getEntityInputStream(), maxDecompressedSize));
+        request.getRequestHeaders().remove(ContentEncoding.CONTENT_ENCODING_HEADER);
+        request.getRequestHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+
+        return request;
+    }
+}
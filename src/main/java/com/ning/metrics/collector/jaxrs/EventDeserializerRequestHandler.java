@@ -18,8 +18,11 @@ package com.ning.metrics.collector.jaxrs;
 
 import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.RequestTooLargeException;
 import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
 import com.ning.metrics.collector.endpoint.extractors.EventDeserializerFactory;
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
+import com.ning.metrics.collector.util.StageLatencies;
 import com.ning.metrics.serialization.event.Event;
 import com.ning.metrics.serialization.event.EventDeserializer;
 
@@ -48,12 +51,15 @@ public class EventDeserializerRequestHandler
 
     final EventFilterRequestHandler filterRequestHandler;
     final EventDeserializerFactory eventDeserializerFactory;
+    private final SpoolAdmissionController admissionController;
+    private final StageLatencies stageLatencies;
 
     private final CacheControl cacheControl;
 
     // We keep two meters (success and failure) for each DeserializationType
     private final Map<MetricName, Meter> metrics = new HashMap<MetricName, Meter>();
     private final Meter rejectedMeter;
+    private final Meter throttledMeter;
     private final Meter badRequestMeter;
 
     private volatile boolean collectionEnabled;
@@ -61,21 +67,47 @@ public class EventDeserializerRequestHandler
     @Inject
     public EventDeserializerRequestHandler(final CollectorConfig config,
                                            final EventFilterRequestHandler filterRequestHandler,
-                                           final EventDeserializerFactory deserializerFactory)
+                                           final EventDeserializerFactory deserializerFactory,
+                                           final SpoolAdmissionController admissionController,
+                                           final StageLatencies stageLatencies)
     {
-        this(config.isEventEndpointEnabled(), filterRequestHandler, deserializerFactory);
+        this(config.isEventEndpointEnabled(), filterRequestHandler, deserializerFactory, admissionController, stageLatencies);
     }
 
     //@VisibleForTesting
     public EventDeserializerRequestHandler(final boolean isCollectionEnabled,
                                            final EventFilterRequestHandler filterRequestHandler,
                                            final EventDeserializerFactory deserializerFactory)
+    {
+        this(isCollectionEnabled, filterRequestHandler, deserializerFactory, null);
+    }
+
+    //@VisibleForTesting
+    public EventDeserializerRequestHandler(final boolean isCollectionEnabled,
+                                           final EventFilterRequestHandler filterRequestHandler,
+                                           final EventDeserializerFactory deserializerFactory,
+                                           final SpoolAdmissionController admissionController)
+    {
+        this(isCollectionEnabled, filterRequestHandler, deserializerFactory, admissionController, new StageLatencies(false));
+    }
+
+    /**
+     * @param admissionController backpressure, may be null (all requests are admitted)
+     */
+    public EventDeserializerRequestHandler(final boolean isCollectionEnabled,
+                                           final EventFilterRequestHandler filterRequestHandler,
+                                           final EventDeserializerFactory deserializerFactory,
+                                           final SpoolAdmissionController admissionController,
+                                           final StageLatencies stageLatencies)
     {
         this.collectionEnabled = isCollectionEnabled;
         this.filterRequestHandler = filterRequestHandler;
         this.eventDeserializerFactory = deserializerFactory;
+        this.admissionController = admissionController;
+        this.stageLatencies = stageLatencies;
 
         rejectedMeter = Metrics.newMeter(new MetricName(METRICS_GROUP, "DeserializationStats", "Rejected"), "events", TimeUnit.SECONDS);
+        throttledMeter = Metrics.newMeter(new MetricName(METRICS_GROUP, "DeserializationStats", "Throttled"), "requests", TimeUnit.SECONDS);
         badRequestMeter = Metrics.newMeter(new MetricName(METRICS_GROUP, "DeserializationStats", "BadRequest"), "events", TimeUnit.SECONDS);
 
         // Exposes stats per Event type
@@ -105,7 +137,21 @@ public class EventDeserializerRequestHandler
                            .build();
         }
 
+        // Don't bother deserializing events we would drop anyways, let the client back off
+        if (admissionController != null && !admissionController.admit()) {
+            log.debug("Spool overloaded, rejecting request: {}", parsedRequest);
+            throttledMeter.mark();
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                           .header("Retry-After", admissionController.getRetryAfterSeconds())
+                           .header("Warning", "199 Collector overloaded")
+                           .cacheControl(cacheControl)
+                           .build();
+        }
+
+        final DeserializationType deserializationType = parsedRequest.getContentType();
+
         // First, create a deserializer from the request
+        long stageStartNanos = System.nanoTime();
         final EventDeserializer extractor;
         try {
             extractor = eventDeserializerFactory.getEventDeserializer(parsedRequest);
@@ -125,9 +171,10 @@ public class EventDeserializerRequestHandler
                 if (event == null) {
                     continue;
                 }
+                // The first event also accounts for the creation of the deserializer
+                stageLatencies.record(StageLatencies.Stage.DESERIALIZE, deserializationType, event.getName(), stageStartNanos);
                 log.debug(String.format("Processing event %s", event));
 
-                final DeserializationType deserializationType = parsedRequest.getContentType();
                 if (filterRequestHandler.processEvent(event, parsedRequest)) {
                     metrics.get(getSuccessMetricsKey(deserializationType)).mark();
                     successes++;
@@ -136,6 +183,7 @@ public class EventDeserializerRequestHandler
                     metrics.get(getFailureMetricsKey(deserializationType)).mark();
                     failures++;
                 }
+                stageStartNanos = System.nanoTime();
             }
         }
         // Catch IOException (getNextEvent() failed) and RuntimeExceptions
@@ -148,29 +196,59 @@ public class EventDeserializerRequestHandler
 
     private Response buildResponse(final ParsedRequest parsedRequest, final int successes, final int failures)
     {
-        if (failures == 0) {
-            return Response.status(Response.Status.ACCEPTED)
-                           .cacheControl(cacheControl)
-                           .build();
+        final long startNanos = System.nanoTime();
+        try {
+            if (failures == 0) {
+                return Response.status(Response.Status.ACCEPTED)
+                               .cacheControl(cacheControl)
+                               .build();
+            }
+            else {
+                log.warn("Some events in the request couldn't be processed: {} successes/{} failures [{}]", new Object[]{successes, failures, parsedRequest.toString()});
+                return Response.status(Response.Status.ACCEPTED)
+                               .header("Warning", String.format("199 [%d successes] [%d failures]", successes, failures))
+                               .cacheControl(cacheControl)
+                               .build();
+            }
         }
-        else {
-            log.warn("Some events in the request couldn't be processed: {} successes/{} failures [{}]", new Object[]{successes, failures, parsedRequest.toString()});
-            return Response.status(Response.Status.ACCEPTED)
-                           .header("Warning", String.format("199 [%d successes] [%d failures]", successes, failures))
-                           .cacheControl(cacheControl)
-                           .build();
+        finally {
+            stageLatencies.record(StageLatencies.Stage.RESPONSE, parsedRequest.getContentType(), startNanos);
         }
     }
 
     public Response handleDeserializationFailure(final ParsedRequest parsedRequest, final int successes, final int failures, final Exception e)
     {
-        log.warn(String.format("Exception while extracting or processing an event. [%s] %s", parsedRequest.toString(), e.toString()));
-        badRequestMeter.mark();
+        final long startNanos = System.nanoTime();
+        try {
+            log.warn(String.format("Exception while extracting or processing an event. [%s] %s", parsedRequest.toString(), e.toString()));
+            badRequestMeter.mark();
+
+            // The deserializers may wrap the exception (e.g. in a TTransportException)
+            if (isRequestTooLarge(e)) {
+                return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                               .header("Warning", String.format("199 [%d successes] [%d failures] [%s]", successes, failures, e.toString()))
+                               .cacheControl(cacheControl)
+                               .build();
+            }
+
+            return Response.status(Response.Status.BAD_REQUEST)
+                           .header("Warning", String.format("199 [%d successes] [%d failures] [%s]", successes, failures, e.toString()))
+                           .cacheControl(cacheControl)
+                           .build();
+        }
+        finally {
+            stageLatencies.record(StageLatencies.Stage.RESPONSE, parsedRequest.getContentType(), startNanos);
+        }
+    }
 
-        return Response.status(Response.Status.BAD_REQUEST)
-                       .header("Warning", String.format("199 [%d successes] [%d failures] [%s]", successes, failures, e.toString()))
-                       .cacheControl(cacheControl)
-                       .build();
+    private boolean isRequestTooLarge(final Throwable e)
+    {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RequestTooLargeException) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Managed(description = "enable/disable collection of events")
@@ -209,6 +287,12 @@ public class EventDeserializerRequestHandler
         return rejectedMeter;
     }
 
+    //@VisibleForTesting
+    Meter getThrottledMeter()
+    {
+        return throttledMeter;
+    }
+
     //@VisibleForTesting
     Meter getBadRequestMeter()
     {
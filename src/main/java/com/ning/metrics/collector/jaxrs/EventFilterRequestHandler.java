@@ -18,8 +18,10 @@ package com.ning.metrics.collector.jaxrs;
 
 import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.filtering.EventLoadShedder;
 import com.ning.metrics.collector.filtering.Filter;
 import com.ning.metrics.collector.processing.EventCollector;
+import com.ning.metrics.collector.util.StageLatencies;
 import com.ning.metrics.serialization.event.Event;
 
 import com.google.inject.Inject;
@@ -37,17 +39,33 @@ public class EventFilterRequestHandler
 
     private final Meter receivedMeter = Metrics.newMeter(EventFilterRequestHandler.class, "Received", "events", TimeUnit.SECONDS);
     private final Meter filteredMeter = Metrics.newMeter(EventFilterRequestHandler.class, "Filtered", "events", TimeUnit.SECONDS);
+    private final Meter shedMeter = Metrics.newMeter(EventFilterRequestHandler.class, "Shed", "events", TimeUnit.SECONDS);
     private final Meter succeededMeter = Metrics.newMeter(EventFilterRequestHandler.class, "Succeeded", "events", TimeUnit.SECONDS);
     private final Meter failedMeter = Metrics.newMeter(EventFilterRequestHandler.class, "Failed", "events", TimeUnit.SECONDS);
 
     private final EventCollector collector;
     private final Filter<ParsedRequest> requestFilter;
-    
-    @Inject
+    private final EventLoadShedder loadShedder;
+    private final StageLatencies stageLatencies;
+
     public EventFilterRequestHandler(final EventCollector collector, final Filter<ParsedRequest> requestFilter, final CollectorConfig baseConfig)
+    {
+        this(collector, requestFilter, new EventLoadShedder(), baseConfig);
+    }
+
+    public EventFilterRequestHandler(final EventCollector collector, final Filter<ParsedRequest> requestFilter, final EventLoadShedder loadShedder, final CollectorConfig baseConfig)
+    {
+        this(collector, requestFilter, loadShedder, new StageLatencies(baseConfig), baseConfig);
+    }
+
+    @Inject
+    public EventFilterRequestHandler(final EventCollector collector, final Filter<ParsedRequest> requestFilter, final EventLoadShedder loadShedder,
+                                     final StageLatencies stageLatencies, final CollectorConfig baseConfig)
     {
         this.collector = collector;
         this.requestFilter = requestFilter;
+        this.loadShedder = loadShedder;
+        this.stageLatencies = stageLatencies;
     }
 
     public boolean processEvent(final Event event, final ParsedRequest parsedRequest)
@@ -55,10 +73,20 @@ public class EventFilterRequestHandler
         receivedMeter.mark();
 
         final String eventName = event.getName();
-        if (requestFilter.passesFilter(eventName, parsedRequest)) {
+        final long filterStartNanos = System.nanoTime();
+        final boolean filtered = requestFilter.passesFilter(eventName, parsedRequest);
+        final boolean shed = !filtered && !loadShedder.admit(eventName, parsedRequest);
+        stageLatencies.record(StageLatencies.Stage.FILTER, eventName, filterStartNanos);
+
+        if (filtered) {
             return markRequestFiltered();
         }
-        else{
+        else if (shed) {
+            shedMeter.mark();
+            // As for filtered events, the client shouldn't retry
+            return true;
+        }
+        else {
             // At this point, the event will be dispatched to the various backend modules
             log.debug("Receiving event of type {}", eventName);
 
@@ -93,6 +121,12 @@ public class EventFilterRequestHandler
         return filteredMeter;
     }
 
+    //@VisibleForTesting
+    Meter getShedMeter()
+    {
+        return shedMeter;
+    }
+
     //@VisibleForTesting
     Meter getSucceededMeter()
     {
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.writer.EventWriter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writer committing the underlying writer every maxUncommittedWriteCount events or every maxUncommittedPeriodInSeconds
+ * seconds, like ThresholdEventWriter, which also accepts batches of events.
+ * <p/>
+ * Batches are handed to the underlying writer as EventBatch blocks (it must serialize them with an
+ * EventBatchSerializer), of at most maxEventsPerBlock events. Blocks are cut at the commit threshold, so that
+ * collector.diskspool.max-uncommitted-write-count keeps counting events.
+ */
+class BatchingThresholdEventWriter implements EventBatchWriter
+{
+    private final EventWriter delegate;
+    private final long maxUncommittedWriteCount;
+    private final long maxUncommittedPeriodMillis;
+    private final int maxEventsPerBlock;
+
+    private long uncommittedWriteCount = 0;
+    private long lastCommitMillis = System.currentTimeMillis();
+
+    /**
+     * @param delegate                      underlying writer, serializing EventBatch blocks with an EventBatchSerializer
+     * @param maxUncommittedWriteCount      number of events after which the underlying writer is committed
+     * @param maxUncommittedPeriodInSeconds delay after which the underlying writer is committed, checked on writes
+     * @param maxEventsPerBlock             maximum number of events per write to the underlying writer
+     */
+    BatchingThresholdEventWriter(final EventWriter delegate, final long maxUncommittedWriteCount, final int maxUncommittedPeriodInSeconds, final int maxEventsPerBlock)
+    {
+        this.delegate = delegate;
+        this.maxUncommittedWriteCount = maxUncommittedWriteCount;
+        this.maxUncommittedPeriodMillis = TimeUnit.SECONDS.toMillis(maxUncommittedPeriodInSeconds);
+        this.maxEventsPerBlock = Math.max(1, maxEventsPerBlock);
+    }
+
+    @Override
+    public synchronized void write(final Event event) throws IOException
+    {
+        delegate.write(event);
+        uncommittedWriteCount++;
+        commitIfNeeded();
+    }
+
+    @Override
+    public synchronized int writeAll(final List<Event> events) throws IOException
+    {
+        int erroredEvents = 0;
+        int offset = 0;
+        while (offset < events.size()) {
+            final long eventsBeforeCommit = Math.max(1, maxUncommittedWriteCount - uncommittedWriteCount);
+            final int blockSize = (int) Math.min(events.size() - offset, Math.min(eventsBeforeCommit, maxEventsPerBlock));
+
+            final EventBatch block = new EventBatch(events.subList(offset, offset + blockSize));
+            delegate.write(block);
+            erroredEvents += block.getErroredEvents();
+
+            offset += blockSize;
+            uncommittedWriteCount += blockSize;
+            commitIfNeeded();
+        }
+        return erroredEvents;
+    }
+
+    @Override
+    public synchronized void commit() throws IOException
+    {
+        commitIfNeeded();
+    }
+
+    @Override
+    public synchronized void forceCommit() throws IOException
+    {
+        delegate.commit();
+        uncommittedWriteCount = 0;
+        lastCommitMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void rollback() throws IOException
+    {
+        delegate.rollback();
+        uncommittedWriteCount = 0;
+        lastCommitMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        forceCommit();
+        delegate.close();
+    }
+
+    private void commitIfNeeded() throws IOException
+    {
+        if (uncommittedWriteCount > 0 &&
+            (uncommittedWriteCount >= maxUncommittedWriteCount || System.currentTimeMillis() - lastCommitMillis >= maxUncommittedPeriodMillis)) {
+            forceCommit();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.Granularity;
+
+import org.joda.time.DateTime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Block of events handed by BatchingThresholdEventWriter to the underlying writer in a single write call.
+ * <p/>
+ * All events of a batch come from the same queue, i.e. share the same output directory and serialization type.
+ * EventBatchSerializer writes the events one after the other: spool files look the same as if the events had been
+ * written one by one. Elsewhere, the batch behaves like the concatenation of its events.
+ */
+final class EventBatch implements Event
+{
+    private final List<Event> events;
+    private int erroredEvents = 0;
+
+    /**
+     * @param events events to write, the list is not copied and must not change until the batch has been written
+     */
+    EventBatch(final List<Event> events)
+    {
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("Empty event batch");
+        }
+        this.events = events;
+    }
+
+    List<Event> getEvents()
+    {
+        return events;
+    }
+
+    void registerEventErrored()
+    {
+        erroredEvents++;
+    }
+
+    /**
+     * @return number of events of the batch which could not be serialized
+     */
+    int getErroredEvents()
+    {
+        return erroredEvents;
+    }
+
+    @Override
+    public DateTime getEventDateTime()
+    {
+        return events.get(0).getEventDateTime();
+    }
+
+    @Override
+    public String getName()
+    {
+        return events.get(0).getName();
+    }
+
+    @Override
+    public Granularity getGranularity()
+    {
+        return events.get(0).getGranularity();
+    }
+
+    @Override
+    public String getVersion()
+    {
+        return events.get(0).getVersion();
+    }
+
+    @Override
+    public String getOutputDir(final String prefix)
+    {
+        return events.get(0).getOutputDir(prefix);
+    }
+
+    /**
+     * @return the events of the batch
+     */
+    @Override
+    public Object getData()
+    {
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * @return the serialized events of the batch, one after the other
+     */
+    @Override
+    public byte[] getSerializedEvent()
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final Event event : events) {
+            final byte[] serializedEvent = event.getSerializedEvent();
+            out.write(serializedEvent, 0, serializedEvent.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException
+    {
+        for (final Event event : events) {
+            event.writeExternal(out);
+        }
+    }
+
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        // The events are read back one by one, with their own types
+        throw new UnsupportedOperationException("Event batches are read back as individual events");
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("EventBatch");
+        sb.append("{eventName='").append(getName()).append('\'');
+        sb.append(", size=").append(events.size());
+        sb.append('}');
+        return sb.toString();
+    }
+}
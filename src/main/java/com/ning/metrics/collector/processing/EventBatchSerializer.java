@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.EventSerializer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Serializer writing EventBatch batches as a single block.
+ * <p/>
+ * The events of a batch are serialized by the underlying serializer into an in-memory block, which is then written to
+ * the spool file in one call. The writer sees a single write per batch, see BatchingThresholdEventWriter for the way
+ * batches are cut to keep the commit and sync thresholds per event. Regular events are written as-is.
+ */
+class EventBatchSerializer implements EventSerializer<Event>
+{
+    private static final Logger log = LoggerFactory.getLogger(EventBatchSerializer.class);
+
+    private final EventSerializer delegate;
+    // Reused across batches and files
+    private final ByteArrayOutputStream block = new ByteArrayOutputStream(64 * 1024);
+
+    private OutputStream out = null;
+
+    EventBatchSerializer(final EventSerializer delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void open(final OutputStream out) throws IOException
+    {
+        this.out = out;
+        block.reset();
+        delegate.open(new BlockOutputStream());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void serialize(final Event event) throws IOException
+    {
+        if (event instanceof EventBatch) {
+            final EventBatch batch = (EventBatch) event;
+            for (final Event batchEvent : batch.getEvents()) {
+                try {
+                    delegate.serialize(batchEvent);
+                }
+                catch (IOException e) {
+                    log.error(String.format("Unable to serialize event %s", batchEvent), e);
+                    batch.registerEventErrored();
+                }
+                catch (RuntimeException e) {
+                    log.error(String.format("Unable to serialize event %s", batchEvent), e);
+                    batch.registerEventErrored();
+                }
+            }
+        }
+        else {
+            delegate.serialize(event);
+        }
+
+        writeBlock();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        delegate.close();
+        // In case the underlying serializer didn't close the stream
+        writeBlock();
+        out = null;
+    }
+
+    private void writeBlock() throws IOException
+    {
+        if (block.size() > 0 && out != null) {
+            block.writeTo(out);
+            block.reset();
+        }
+    }
+
+    /**
+     * Stream given to the underlying serializer: everything goes to the block until the end of the batch
+     */
+    private final class BlockOutputStream extends OutputStream
+    {
+        @Override
+        public void write(final int b)
+        {
+            block.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+        {
+            block.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (out != null) {
+                writeBlock();
+                out.close();
+            }
+        }
+    }
+}
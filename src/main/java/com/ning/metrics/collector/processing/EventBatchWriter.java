@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.writer.EventWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * EventWriter accepting several events in a single call, see LocalQueueWorker.
+ */
+interface EventBatchWriter extends EventWriter
+{
+    /**
+     * Write events, in order. Commit and sync thresholds count events, not calls.
+     *
+     * @param events events to write, the list is not kept
+     * @return number of events which could not be serialized (the others have been written)
+     * @throws IOException if the events could not be written (some of them may have been)
+     */
+    int writeAll(List<Event> events) throws IOException;
+}
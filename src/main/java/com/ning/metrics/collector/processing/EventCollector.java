@@ -19,6 +19,7 @@ package com.ning.metrics.collector.processing;
 import com.ning.arecibo.jmx.Monitored;
 import com.ning.arecibo.jmx.MonitoringType;
 import com.ning.metrics.collector.realtime.EventListenerDispatcher;
+import com.ning.metrics.collector.util.StageLatencies;
 import com.ning.metrics.serialization.event.Event;
 
 import com.google.inject.Inject;
@@ -38,15 +39,17 @@ public class EventCollector
 
     private final EventListenerDispatcher forwardDispatcher;
     private final EventSpoolDispatcher spoolDispatcher;
+    private final StageLatencies stageLatencies;
 
     private final Meter spooledMeter;
     private final Meter lostMeter;
 
     @Inject
-    public EventCollector(final EventListenerDispatcher forwardDispatcher, final EventSpoolDispatcher spoolDispatcher)
+    public EventCollector(final EventListenerDispatcher forwardDispatcher, final EventSpoolDispatcher spoolDispatcher, final StageLatencies stageLatencies)
     {
         this.forwardDispatcher = forwardDispatcher;
         this.spoolDispatcher = spoolDispatcher;
+        this.stageLatencies = stageLatencies;
 
         final String group = EventCollector.class.getPackage().getName();
 
@@ -90,10 +93,18 @@ public class EventCollector
     @Metered
     public boolean collectEvent(final Event event)
     {
+        final String eventName = event.getName();
+
         // Async forwarder (i.e. realtime queue)
+        final long realtimeStartNanos = System.nanoTime();
         forwardDispatcher.offer(event);
+        stageLatencies.record(StageLatencies.Stage.REALTIME_OFFER, eventName, realtimeStartNanos);
+
+        final long spoolStartNanos = System.nanoTime();
+        final boolean spooled = spoolDispatcher.offer(event);
+        stageLatencies.record(StageLatencies.Stage.SPOOL_OFFER, eventName, spoolStartNanos);
 
-        if (spoolDispatcher.offer(event)) {
+        if (spooled) {
             spooledMeter.mark();
             return true;
         }
@@ -103,6 +114,15 @@ public class EventCollector
         }
     }
 
+    /**
+     * @param eventName event type
+     * @return true if events of this type are forwarded in realtime, in addition to being spooled
+     */
+    public boolean isForwarded(final String eventName)
+    {
+        return forwardDispatcher.hasSubscribers(eventName);
+    }
+
     @Monitored(description = "Number of events in memory (spool queue)", monitoringType = {MonitoringType.VALUE, MonitoringType.RATE})
     public int getQueueSizes()
     {
@@ -16,26 +16,38 @@
 
 package com.ning.metrics.collector.processing;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.mogwee.executors.FailsafeScheduledExecutor;
 
+import org.skife.config.ConfigurationObjectFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.writer.EventWriter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Manager of writer queues
+ * <p/>
+ * The dispatch path is lock-free: queues are looked up with a per-thread key (no allocation per event) and
+ * created at most once per key, outside of any global lock. Only threads offering events for a queue being created
+ * wait for it, other event types are not affected.
  */
 public class EventSpoolDispatcher
 {
@@ -45,16 +57,25 @@ public class EventSpoolDispatcher
     private final PersistentWriterFactory factory;
     private final WriterStats stats;
     private final CollectorConfig config;
-    private final Map<String, LocalQueueAndWriter> queuesPerPath = new ConcurrentHashMap<String, LocalQueueAndWriter>();
-    private final Object queueMapMonitor = new Object();
+    private final ConfigurationObjectFactory configFactory;
+    private final ConcurrentMap<SpoolQueueKey, Future<LocalQueueAndWriter>> queuesPerPath = new ConcurrentHashMap<SpoolQueueKey, Future<LocalQueueAndWriter>>();
     private final AtomicBoolean isRunning = new AtomicBoolean(true);
 
-    @Inject
     public EventSpoolDispatcher(final PersistentWriterFactory factory, final WriterStats stats, final CollectorConfig config)
+    {
+        this(factory, stats, config, null);
+    }
+
+    /**
+     * @param configFactory used to build per event type configurations (e.g. batch sizes), may be null
+     */
+    @Inject
+    public EventSpoolDispatcher(final PersistentWriterFactory factory, final WriterStats stats, final CollectorConfig config, final ConfigurationObjectFactory configFactory)
     {
         this.factory = factory;
         this.stats = stats;
         this.config = config;
+        this.configFactory = configFactory;
 
         // Background committer (close the current open file and promote it to the final spool area for flush)
         final ScheduledExecutorService scheduledExecutor = new FailsafeScheduledExecutor(1, "WriterQueuesReaper");
@@ -64,23 +85,12 @@ public class EventSpoolDispatcher
             public void run()
             {
                 try {
-                    final Set<String> queuePaths = new HashSet<String>(queuesPerPath.keySet());
-                    for (final String queuePath : queuePaths) {
-                        final LocalQueueAndWriter queueAndWriter = queuesPerPath.get(queuePath);
-                        if (queueAndWriter.isEmpty()) {
-                            boolean isRemoved = false;
-                            // synchronized to avoid conflicts when we get a queue to offer an event to
-                            synchronized (queueMapMonitor) {
-                                if (queueAndWriter.isEmpty()) {
-                                    queuesPerPath.remove(queuePath);
-                                    isRemoved = true;
-                                }
-                            }
-                            if (isRemoved) {
-                                // Closing is expensive b/c we're destroying threads, so we don't want to do this
-                                // within the synchronized block
-                                queueAndWriter.close();
-                            }
+                    for (final Map.Entry<SpoolQueueKey, Future<LocalQueueAndWriter>> entry : queuesPerPath.entrySet()) {
+                        final LocalQueueAndWriter queueAndWriter = getIfCreated(entry.getValue());
+                        // Only remove the mapping we looked at: if the queue was replaced in the meantime, leave it alone
+                        if (queueAndWriter != null && queueAndWriter.isEmpty() && queuesPerPath.remove(entry.getKey(), entry.getValue())) {
+                            // Closing is expensive b/c we're destroying threads, new events will go to a fresh queue
+                            queueAndWriter.close();
                         }
                     }
 
@@ -102,8 +112,11 @@ public class EventSpoolDispatcher
         isRunning.set(false);
 
         log.info("Closing all local writer queues");
-        for (final LocalQueueAndWriter queue : queuesPerPath.values()) {
-            queue.close();
+        for (final Future<LocalQueueAndWriter> future : queuesPerPath.values()) {
+            final LocalQueueAndWriter queue = getIfCreated(future);
+            if (queue != null) {
+                queue.close();
+            }
         }
         queuesPerPath.clear();
 
@@ -123,24 +136,16 @@ public class EventSpoolDispatcher
      */
     public boolean offer(final Event event)
     {
-        final SerializationType eventType = SerializationType.get(event);
-
         if (event != null && isRunning.get()) {
+            final SerializationType eventType = SerializationType.get(event);
             final String hdfsDir = event.getOutputDir(config.getEventOutputDirectory());
-            final String key = String.format("%s|%s", event.getOutputDir(config.getEventOutputDirectory()), eventType.getFileSuffix());
-            LocalQueueAndWriter queue = queuesPerPath.get(key);
-
-            if (queue == null) {
-                synchronized (queueMapMonitor) {
-                    queue = queuesPerPath.get(key);
-                    if (queue == null) {
-                        queue = new LocalQueueAndWriter(config, hdfsDir, factory.createPersistentWriter(stats, eventType, event.getName(), hdfsDir), stats);
-                        queuesPerPath.put(key, queue);
-                    }
-                }
+
+            Future<LocalQueueAndWriter> future = queuesPerPath.get(SpoolQueueKey.lookupKey(hdfsDir, eventType));
+            if (future == null) {
+                future = createQueue(new SpoolQueueKey(hdfsDir, eventType), event.getName());
             }
 
-            return queue.offer(event);
+            return getQueue(future).offer(event);
         }
         else {
             stats.registerEventIgnored();
@@ -148,6 +153,91 @@ public class EventSpoolDispatcher
         }
     }
 
+    private Future<LocalQueueAndWriter> createQueue(final SpoolQueueKey key, final String eventName)
+    {
+        final FutureTask<LocalQueueAndWriter> task = new FutureTask<LocalQueueAndWriter>(new Callable<LocalQueueAndWriter>()
+        {
+            @Override
+            public LocalQueueAndWriter call() throws Exception
+            {
+                final String hdfsDir = key.getOutputDir();
+                final CollectorConfig eventConfig = getEventConfig(eventName);
+
+                // Each writer gets its own local spool directory
+                final int nbWriters = Math.max(1, eventConfig.getEventSpoolWriterCount());
+                final List<EventWriter> writers = new ArrayList<EventWriter>(nbWriters);
+                for (int i = 0; i < nbWriters; i++) {
+                    writers.add(factory.createPersistentWriter(stats, key.getSerializationType(), eventName, hdfsDir));
+                }
+
+                return new LocalQueueAndWriter(eventConfig, hdfsDir, writers, stats);
+            }
+        });
+
+        final Future<LocalQueueAndWriter> existing = queuesPerPath.putIfAbsent(key, task);
+        if (existing != null) {
+            // Someone beat us to it
+            return existing;
+        }
+
+        // We won the race, create the writer in the calling thread
+        task.run();
+        if (getIfCreated(task) == null) {
+            // Creation failed, let the next event retry
+            queuesPerPath.remove(key, task);
+        }
+
+        return task;
+    }
+
+    private CollectorConfig getEventConfig(final String eventName)
+    {
+        if (configFactory == null) {
+            return config;
+        }
+        else {
+            return configFactory.buildWithReplacements(CollectorConfig.class, ImmutableMap.of("eventName", eventName));
+        }
+    }
+
+    private LocalQueueAndWriter getQueue(final Future<LocalQueueAndWriter> future)
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for writer queue creation", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException("Unable to create writer queue", e.getCause());
+        }
+    }
+
+    /**
+     * @return the queue if it has been successfully created, null if it is still being created or if creation failed
+     */
+    private LocalQueueAndWriter getIfCreated(final Future<LocalQueueAndWriter> future)
+    {
+        if (!future.isDone()) {
+            return null;
+        }
+
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e) {
+            return null;
+        }
+    }
+
     /**
      * Number of events not yet committed (combined size of all queues)
      *
@@ -156,16 +246,27 @@ public class EventSpoolDispatcher
     public Map<String, Integer> getQueuesSizes()
     {
         final Map<String, Integer> map = new HashMap<String, Integer>();
-        for (final String path : queuesPerPath.keySet()) {
-            map.put(path, queuesPerPath.get(path).size());
+        for (final Map.Entry<String, LocalQueueAndWriter> entry : getQueuesPerPath().entrySet()) {
+            map.put(entry.getKey(), entry.getValue().size());
         }
 
         return map;
     }
 
+    /**
+     * @return snapshot of the writer queues, keyed by path|suffix
+     */
     public Map<String, LocalQueueAndWriter> getQueuesPerPath()
     {
-        return queuesPerPath;
+        final Map<String, LocalQueueAndWriter> map = new HashMap<String, LocalQueueAndWriter>();
+        for (final Map.Entry<SpoolQueueKey, Future<LocalQueueAndWriter>> entry : queuesPerPath.entrySet()) {
+            final LocalQueueAndWriter queue = getIfCreated(entry.getValue());
+            if (queue != null) {
+                map.put(entry.getKey().toString(), queue);
+            }
+        }
+
+        return map;
     }
 
     /**
@@ -15,11 +15,15 @@
  */
 package com.ning.metrics.collector.processing;
 
+import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import com.mogwee.executors.FailsafeScheduledExecutor;
-import com.mogwee.executors.LoggingExecutor;
 import com.mogwee.executors.NamedThreadFactory;
 import com.ning.arecibo.jmx.Monitored;
 import com.ning.metrics.collector.binder.config.CollectorConfig;
@@ -28,23 +32,27 @@ import com.ning.metrics.serialization.writer.DiskSpoolEventWriter;
 import com.ning.metrics.serialization.writer.EventHandler;
 import com.ning.metrics.serialization.writer.EventWriter;
 import com.ning.metrics.serialization.writer.SyncType;
-import com.ning.metrics.serialization.writer.ThresholdEventWriter;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.SynchronousQueue;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.HardLink;
 import org.skife.config.ConfigurationObjectFactory;
 import org.skife.config.TimeSpan;
 import org.slf4j.Logger;
@@ -54,13 +62,15 @@ import org.weakref.jmx.Managed;
 public class EventSpoolWriterFactory implements PersistentWriterFactory
 {
     private static final Logger log = LoggerFactory.getLogger(EventSpoolWriterFactory.class);
+    // See CollectorConfig#isSpoolFanOutEnabled
+    static final String INBOX_DIRECTORY_NAME = "_inbox";
     private final CollectorConfig config;
     private final AtomicBoolean flushEnabled;
     private final Set<EventSpoolProcessor> defaultSpoolProcessorSet;
     private final Map<String, Set<EventSpoolProcessor>> perEventSpoolProcessors;
     private long cutoffTime = 7200000L;
     private final TimeSpan executorShutdownTimeOut;
-    private final ExecutorService executorService;
+    private final ConcurrentMap<String, SpoolProcessorQueue> processorQueues = new ConcurrentHashMap<String, SpoolProcessorQueue>();
     private final ConfigurationObjectFactory configFactory;
 
     /**
@@ -93,7 +103,6 @@ public class EventSpoolWriterFactory implements PersistentWriterFactory
         this.configFactory = configFactory;
         this.flushEnabled = new AtomicBoolean(config.isFlushEnabled());
         this.executorShutdownTimeOut = config.getSpoolWriterExecutorShutdownTime();
-        executorService = new LoggingExecutor(0, config.getFileProcessorThreadCount() , 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new NamedThreadFactory("EventSpool-Processor-Threads"),new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
     /**
@@ -159,6 +168,16 @@ public class EventSpoolWriterFactory implements PersistentWriterFactory
         final Set<EventSpoolProcessor> spoolProcessors
                 = getSpoolProcessors(eventName);
 
+        final String spoolDirectoryPath = spoolManager.getSpoolDirectoryPath();
+        final File spoolDirectory = new File(spoolDirectoryPath);
+        final SpoolDeliveryJournal journal = new SpoolDeliveryJournal(spoolDirectory);
+
+        // The disk spool writer flushes or syncs after a number of writes: when batches are written, it syncs after each
+        // block instead, and blocks are cut every collector.diskspool.batch-size events
+        final SyncType syncType = SyncType.valueOf(config.getSyncType());
+        final boolean syncPerBlock = syncType != SyncType.NONE && replacementConfig.getEventWriterBatchSize() > 1;
+        final TimeSpan flushTimeout = replacementConfig.getSpoolProcessorsFlushTimeout();
+
         final EventWriter eventWriter = new DiskSpoolEventWriter(new EventHandler()
         {
             private int flushCount = 0;
@@ -171,31 +190,141 @@ public class EventSpoolWriterFactory implements PersistentWriterFactory
                 }
 
                 final String outputPath = spoolManager.toHadoopPath(flushCount);
+                // Increment flush count in any case, the file may have been created on HDFS
+                flushCount++;
+
+                if (config.isSpoolFanOutEnabled()) {
+                    fanOutSpoolFile(spoolProcessors, spoolManager, spoolDirectory, file, outputPath, journal, handler, stats);
+                    return;
+                }
 
-                // If the processors are not able to process the file then handle error
-                if(!executeSpoolProcessors(spoolProcessors, spoolManager, file, outputPath))
-                {
+                // Call the handler before returning, from the flush thread, as DiskSpoolEventWriter expects: wait for
+                // the processors, up to a timeout (see collector.spoolWriter.fan-out.enabled to not hold back the flush)
+                if (!waitForSpoolProcessors(executeSpoolProcessors(spoolProcessors, spoolManager, file, outputPath, journal), file, flushTimeout)) {
+                    // The journal is kept: only the processors which failed, or were too slow, will get the file again
                     handler.onError(new RuntimeException("Execution Failed!"), file);
-                    // Increment flush count in case the file was created on HDFS
-                    flushCount++;
                     return;
                 }
 
                 log.debug(String.format("Calling Handler Success ... deleting the file %s!", file.getAbsolutePath()));
                 handler.onSuccess(file);
+                if (!journal.forget(file)) {
+                    log.warn(String.format("Unable to delete the delivery journal of %s", file.getAbsolutePath()));
+                }
                 stats.registerHdfsFlush();
-                flushCount++;
             }
-        }, spoolManager.getSpoolDirectoryPath(), config.isFlushEnabled(),
+        }, spoolDirectoryPath, config.isFlushEnabled(),
         getFlushTimeForEventInSeconds(replacementConfig),
-        new FailsafeScheduledExecutor(1, eventOutputDirectory + "-EventSpool-writer"), SyncType.valueOf(config.getSyncType()),
-        config.getSyncBatchSize(),
+        new FailsafeScheduledExecutor(1, eventOutputDirectory + "-EventSpool-writer"), syncType,
+        syncPerBlock ? 1 : config.getSyncBatchSize(),
         config.getCompressionCodec(),
-        serializationType.getSerializer());
+        new EventBatchSerializer(serializationType.getSerializer()));
 
-        return new ThresholdEventWriter(eventWriter
+        return new BatchingThresholdEventWriter(eventWriter
                 , config.getMaxUncommittedWriteCount()
-                , getMaxUncommittedTimeForEventInSeconds(replacementConfig));
+                , getMaxUncommittedTimeForEventInSeconds(replacementConfig)
+                , syncPerBlock ? config.getSyncBatchSize() : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Hard link a committed spool file into the inbox of each processor which hasn't processed it yet, and release the
+     * original file right away. Each processor deletes its own link once done with it.
+     */
+    private void fanOutSpoolFile(final Set<EventSpoolProcessor> spoolProcessors, final LocalSpoolManager spoolManager, final File spoolDirectory,
+                                 final File file, final String outputPath, final SpoolDeliveryJournal journal, final CallbackHandler handler, final WriterStats stats)
+    {
+        final Map<EventSpoolProcessor, File> links = new HashMap<EventSpoolProcessor, File>();
+        try {
+            final Set<String> acknowledgedProcessors = journal.getAcknowledgedProcessors(file);
+            for (final EventSpoolProcessor eventSpoolProcessor : spoolProcessors) {
+                if (acknowledgedProcessors.contains(eventSpoolProcessor.getProcessorName())) {
+                    continue;
+                }
+
+                final File inbox = new File(spoolDirectory, String.format("%s/%s", INBOX_DIRECTORY_NAME, eventSpoolProcessor.getProcessorName()));
+                if (!inbox.isDirectory() && !inbox.mkdirs()) {
+                    throw new IOException(String.format("Unable to create inbox %s", inbox));
+                }
+
+                final File link = new File(inbox, file.getName());
+                // The link may be there already, if the file was quarantined
+                if (!link.exists()) {
+                    createInboxLink(file, link);
+                }
+                links.put(eventSpoolProcessor, link);
+            }
+        }
+        catch (IOException e) {
+            log.warn(String.format("Unable to link %s to the spool processors inboxes", file), e);
+            for (final File link : links.values()) {
+                FileUtils.deleteQuietly(link);
+            }
+            handler.onError(e, file);
+            return;
+        }
+
+        // The inboxes have their own links to the data
+        log.debug(String.format("Calling Handler Success ... deleting the file %s!", file.getAbsolutePath()));
+        handler.onSuccess(file);
+        journal.forget(file);
+        stats.registerHdfsFlush();
+
+        for (final Map.Entry<EventSpoolProcessor, File> entry : links.entrySet()) {
+            consumeInboxFile(entry.getKey(), spoolManager, entry.getValue(), outputPath);
+        }
+    }
+
+    /**
+     * Hard link a spool file into an inbox. HardLink runs ln in a new process (hadoop-core doesn't have a native
+     * implementation and Java 6 can't create links), so this costs a fork per link: a few milliseconds, once per flushed
+     * file and spool processor.
+     */
+    //@VisibleForTesting
+    static void createInboxLink(final File file, final File link) throws IOException
+    {
+        HardLink.createHardLink(file, link);
+    }
+
+    private void consumeInboxFile(final EventSpoolProcessor eventSpoolProcessor, final LocalSpoolManager spoolManager, final File link, final String outputPath)
+    {
+        final SpoolDeliveryJournal inboxJournal = new SpoolDeliveryJournal(link.getParentFile());
+        Futures.addCallback(executeSpoolProcessors(ImmutableSet.of(eventSpoolProcessor), spoolManager, link, outputPath, inboxJournal), new FutureCallback<Boolean>()
+        {
+            @Override
+            public void onSuccess(final Boolean success)
+            {
+                if (!success) {
+                    // Picked up again with the files left below
+                    log.warn(String.format("Spooler %s gave up on %s, keeping it in its inbox", eventSpoolProcessor.getProcessorName(), link));
+                }
+                else if (link.delete()) {
+                    inboxJournal.forget(link);
+                }
+                else {
+                    log.warn(String.format("Unable to delete inbox file %s", link));
+                }
+            }
+
+            @Override
+            public void onFailure(final Throwable t)
+            {
+                log.warn(String.format("Spooler %s failed on %s, keeping it in its inbox", eventSpoolProcessor.getProcessorName(), link), t);
+            }
+        });
+    }
+
+    /**
+     * @return name of the processor if the file is in a processor inbox of the spool directory, null otherwise
+     */
+    private String getInboxProcessorName(final File spoolDirectory, final File file)
+    {
+        final File parent = file.getParentFile();
+        if (parent != null && new File(spoolDirectory, INBOX_DIRECTORY_NAME).equals(parent.getParentFile())) {
+            return parent.getName();
+        }
+        else {
+            return null;
+        }
     }
 
     /**
@@ -203,6 +332,10 @@ public class EventSpoolWriterFactory implements PersistentWriterFactory
      * we need to process manually all files left below.
      * This includes all files in all directories under the spool directory, but the ones in _tmp. _tmp are files being written,
      * since they may not have been be closed, we don't want to upload garbage.
+     * <p/>
+     * Event types are processed in parallel (see collector.spoolWriter.recovery.threads.count), directories of a given
+     * event type one after the other. Files are only sent to the processors which haven't acknowledged them yet (see
+     * SpoolDeliveryJournal), and are kept for the next recovery if a processor fails.
      *
      * @throws java.io.IOException Exception when writing to HDFS
      * @see <a href="http://en.wikipedia.org/wiki/Thank_God,_It's_Doomsday">Left Below</a>
@@ -217,105 +350,234 @@ public class EventSpoolWriterFactory implements PersistentWriterFactory
         // We record candidates first, delete the files, and then delete the empty directories among the candidates.
         final Collection<File> potentialOldDirectories = LocalSpoolManager.findOldSpoolDirectories(config.getSpoolDirectoryName(), getCutoffTime());
 
-        final HashMap<String, Integer> flushesPerEvent = new HashMap<String, Integer>();
+        final Map<String, List<File>> directoriesPerEvent = new HashMap<String, List<File>>();
         for (final File oldDirectory : potentialOldDirectories) {
-            log.info(String.format("Processing the directory %s",oldDirectory.getAbsolutePath()));
-            // Ignore _tmp, files may be corrupted (not closed properly)
-            for (final File file : LocalSpoolManager.findFilesInSpoolDirectory(oldDirectory)) {
-                log.info(String.format("Processing file %s in the directory the directory %s",file.getAbsolutePath(), oldDirectory.getAbsolutePath()));
-                final LocalSpoolManager spoolManager;
-                try {
-                    spoolManager = new LocalSpoolManager(config, oldDirectory);
+            final String eventName;
+            try {
+                eventName = new LocalSpoolManager(config, oldDirectory).getEventName();
+            }
+            catch (IllegalArgumentException e) {
+                log.warn(String.format("Skipping invalid local directory: %s", oldDirectory.getAbsolutePath()));
+                continue;
+            }
+
+            List<File> directories = directoriesPerEvent.get(eventName);
+            if (directories == null) {
+                directories = new ArrayList<File>();
+                directoriesPerEvent.put(eventName, directories);
+            }
+            directories.add(oldDirectory);
+        }
+
+        if (!directoriesPerEvent.isEmpty()) {
+            final int nbThreads = Math.max(1, Math.min(config.getLeftBelowRecoveryThreadCount(), directoriesPerEvent.size()));
+            final ExecutorService recoveryExecutor = Executors.newFixedThreadPool(nbThreads, new NamedThreadFactory("EventSpool-Recovery-Threads"));
+            try {
+                final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (final Map.Entry<String, List<File>> entry : directoriesPerEvent.entrySet()) {
+                    futures.add(recoveryExecutor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call() throws Exception
+                        {
+                            processLeftBelowDirectories(entry.getKey(), entry.getValue());
+                            return null;
+                        }
+                    }));
                 }
-                catch (IllegalArgumentException e) {
-                    log.warn(String.format("Skipping invalid local directory: %s", file.getAbsolutePath()));
-                    continue;
+
+                for (final Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    }
+                    catch (ExecutionException e) {
+                        log.warn("Exception processing left below files", e.getCause());
+                    }
                 }
+            }
+            catch (InterruptedException e) {
+                log.warn(String.format("Interrupted while processing files left below %s", config.getSpoolDirectoryName()));
+                recoveryExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                recoveryExecutor.shutdown();
+            }
+        }
+
+        LocalSpoolManager.cleanupOldSpoolDirectories(potentialOldDirectories);
+    }
+
+    /**
+     * Send all files left below in the given directories, for a single event type
+     *
+     * @param eventName      name of the event
+     * @param oldDirectories directories for this event, as found by LocalSpoolManager#findOldSpoolDirectories
+     */
+    private void processLeftBelowDirectories(final String eventName, final Iterable<File> oldDirectories)
+    {
+        final Set<EventSpoolProcessor> spoolProcessors = getSpoolProcessors(eventName);
+
+        int flushCount = 0;
+        for (final File oldDirectory : oldDirectories) {
+            log.info(String.format("Processing the directory %s", oldDirectory.getAbsolutePath()));
+            final LocalSpoolManager spoolManager = new LocalSpoolManager(config, oldDirectory);
+            final SpoolDeliveryJournal journal = new SpoolDeliveryJournal(oldDirectory);
 
-                incrementFlushCount(flushesPerEvent, spoolManager.getEventName());
-                String outputPath = spoolManager.toHadoopPath(flushesPerEvent.get(spoolManager.getEventName()));
+            // Ignore _tmp, files may be corrupted (not closed properly)
+            for (final File file : LocalSpoolManager.findFilesInSpoolDirectory(oldDirectory)) {
+                log.info(String.format("Processing file %s in the directory the directory %s", file.getAbsolutePath(), oldDirectory.getAbsolutePath()));
+
+                flushCount++;
+                final String outputPath = spoolManager.toHadoopPath(flushCount);
 
-                Set<EventSpoolProcessor> spoolProcessors
-                        = getSpoolProcessors(spoolManager.getEventName());
+                // Files in an inbox are only for the processor owning it (see CollectorConfig#isSpoolFanOutEnabled)
+                final String inboxProcessorName = getInboxProcessorName(oldDirectory, file);
+                final Set<EventSpoolProcessor> fileSpoolProcessors;
+                final SpoolDeliveryJournal fileJournal;
+                if (inboxProcessorName == null) {
+                    fileSpoolProcessors = spoolProcessors;
+                    fileJournal = journal;
+                }
+                else {
+                    fileSpoolProcessors = new HashSet<EventSpoolProcessor>();
+                    for (final EventSpoolProcessor eventSpoolProcessor : spoolProcessors) {
+                        if (inboxProcessorName.equals(eventSpoolProcessor.getProcessorName())) {
+                            fileSpoolProcessors.add(eventSpoolProcessor);
+                        }
+                    }
+                    fileJournal = new SpoolDeliveryJournal(file.getParentFile());
+                }
 
                 // Execute the file in parallel using all spool processors. This was put in a separate condition as not all files will be processed.
-                if(!executeSpoolProcessors(spoolProcessors, spoolManager,file,outputPath))
-                {
-                    log.warn(String.format("Exception cleaning up left below file: %s. We might have DUPS!", file.toString()));
+                if (!waitForSpoolProcessors(executeSpoolProcessors(fileSpoolProcessors, spoolManager, file, outputPath, fileJournal))) {
+                    // Keep the file, the next run will retry the processors which failed
+                    log.warn(String.format("Unable to process left below file: %s, will retry", file.toString()));
+                    continue;
                 }
 
                 // Make sure the file is deleted.
                 if (!file.delete()) {
-                    log.warn(String.format("Exception cleaning up left below file: %s. We might have DUPS!", file.toString()));
+                    log.warn(String.format("Exception cleaning up left below file: %s", file.toString()));
+                }
+                else {
+                    fileJournal.forget(file);
                 }
             }
-        }
 
-        LocalSpoolManager.cleanupOldSpoolDirectories(potentialOldDirectories);
+            // Files which couldn't be deleted are not sent again as long as their journal is around
+            if (LocalSpoolManager.findFilesInSpoolDirectory(oldDirectory).isEmpty()) {
+                journal.clear();
+                FileUtils.deleteQuietly(new File(oldDirectory, INBOX_DIRECTORY_NAME));
+            }
+        }
     }
 
     /*
-     * Execute the processors in parallel for the given file and event
+     * Hand the file to the queues of the processors, skipping the ones which already processed it (see SpoolDeliveryJournal).
+     * The returned future is true once all processors have processed the file, false if any of them gave up on it.
      * */
-    private boolean executeSpoolProcessors(
+    private ListenableFuture<Boolean> executeSpoolProcessors(
             Set<EventSpoolProcessor> spoolProcessors,
             final LocalSpoolManager spoolManager,
             final File file,
-            final String outputPath) {
-        List<Future<Boolean>> callerFutureList = new ArrayList<Future<Boolean>>();
-        boolean executionResult = true;
+            final String outputPath,
+            final SpoolDeliveryJournal journal) {
+        final Set<String> acknowledgedProcessors;
+        try {
+            acknowledgedProcessors = journal.getAcknowledgedProcessors(file);
+        }
+        catch (IOException e) {
+            log.error("Unable to read the delivery journal of "+file,e);
+            return Futures.immediateFuture(false);
+        }
+
+        final List<ListenableFuture<Boolean>> results = new ArrayList<ListenableFuture<Boolean>>();
         log.info("Starting Spool Process");
         for(final EventSpoolProcessor eventSpoolProcessor : spoolProcessors)
         {
-            log.info("Submitting task for "+eventSpoolProcessor.getProcessorName());
-            callerFutureList.add(executorService.submit(new Callable<Boolean>() {
-
-                @Override
-                public Boolean call() throws Exception
-                {
-                    try {
-                        log.info(String.format("Processing Event %s via spooler %s at path %s ",spoolManager.getEventName(),eventSpoolProcessor.getProcessorName(),outputPath));
-
-                        eventSpoolProcessor.processEventFile(spoolManager.getEventName(), spoolManager.getSerializationType(), file, outputPath);
-
-                        log.info(String.format("Completed Processing Event  %s via spooler %s",spoolManager.getEventName(),eventSpoolProcessor.getProcessorName()));
-                    }
-                    catch (IOException e) {
-                        log.error("Exception occurred while processing event "+spoolManager.getEventName()+" for spooler "+eventSpoolProcessor.getProcessorName(),e);
-                        return false;
-                    }
-                    return true;
-                }
-
-            }));
+            if (acknowledgedProcessors.contains(eventSpoolProcessor.getProcessorName())) {
+                log.info(String.format("Skipping spooler %s, file %s already processed",eventSpoolProcessor.getProcessorName(),file));
+                continue;
+            }
 
+            log.info("Submitting task for "+eventSpoolProcessor.getProcessorName());
+            try {
+                results.add(getProcessorQueue(eventSpoolProcessor.getProcessorName()).submit(eventSpoolProcessor, spoolManager, file, outputPath, journal));
+            }
+            catch (InterruptedException e) {
+                log.error("InterruptedException while submitting the file to the spoolers",e);
+                Thread.currentThread().interrupt();
+                results.add(Futures.immediateFuture(false));
+                break;
+            }
         }
 
-        log.debug("Spool Process Completed, now waiting for the parallel task to complete.");
-
+        return Futures.transform(Futures.allAsList(results), new Function<List<Boolean>, Boolean>()
+        {
+            @Override
+            public Boolean apply(final List<Boolean> processorResults)
+            {
+                return !processorResults.contains(false);
+            }
+        });
+    }
 
+    private boolean waitForSpoolProcessors(final Future<Boolean> result)
+    {
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            log.error("InterruptedException while checking the result of the spoolers",e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException e) {
+            log.error("ExecutionException while checking the result of the spoolers",e);
+            return false;
+        }
+    }
 
+    /**
+     * Same as waitForSpoolProcessors(Future), but gives up after the timeout. The processors still working on the file
+     * may finish later: they acknowledge it in its journal, wherever the file is by then.
+     */
+    private boolean waitForSpoolProcessors(final Future<Boolean> result, final File file, final TimeSpan timeout)
+    {
         try {
-            for(Future<Boolean> future : callerFutureList)
-            {
-                // Making sure that all tasks have been executed
-                log.debug("Execution Result is "+future.get());
-                if(!future.get())
-                {
-                    executionResult = false;
-                }
-            }
+            return result.get(timeout.getPeriod(), timeout.getUnit());
+        }
+        catch (TimeoutException e) {
+            log.warn(String.format("Spoolers still processing %s after %s, giving up on it for now", file, timeout));
+            return false;
         }
         catch (InterruptedException e) {
-            log.error("InterruptedException while checking the result of the apoolers",e);
-            executionResult = false;
+            log.error("InterruptedException while checking the result of the spoolers",e);
+            Thread.currentThread().interrupt();
+            return false;
         }
         catch (ExecutionException e) {
-            log.error("ExecutionException while checking the result of the apoolers",e);
-            executionResult = false;
+            log.error("ExecutionException while checking the result of the spoolers",e);
+            return false;
         }
-        log.debug("Parallel Spool Execution Completed with result as "+executionResult);
-        return executionResult;
+    }
+
+    private SpoolProcessorQueue getProcessorQueue(final String processorName)
+    {
+        SpoolProcessorQueue queue = processorQueues.get(processorName);
+        if (queue == null) {
+            synchronized (processorQueues) {
+                queue = processorQueues.get(processorName);
+                if (queue == null) {
+                    final Map<String, String> replacements = ImmutableMap.of("processorName", processorName);
+                    queue = new SpoolProcessorQueue(processorName, configFactory.buildWithReplacements(CollectorConfig.class, replacements));
+                    processorQueues.put(processorName, queue);
+                }
+            }
+        }
+        return queue;
     }
 
     @Override
@@ -353,40 +615,19 @@ public class EventSpoolWriterFactory implements PersistentWriterFactory
             else {
                 log.info("All local files have been flushed");
             }
-
-            /*Making sure to close all spool processors for clean up purpose*/
-            for(final EventSpoolProcessor eventSpoolProcessor : defaultSpoolProcessorSet)
-            {
-                eventSpoolProcessor.close();
-            }
         }
         finally{
-            log.info("Shutting Down Executor Service");
-            executorService.shutdown();
-
-            try {
-                executorService.awaitTermination(executorShutdownTimeOut.getPeriod(), executorShutdownTimeOut.getUnit());
-            }
-            catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
+            log.info("Shutting Down Spool Processor Queues");
+            for (final SpoolProcessorQueue queue : processorQueues.values()) {
+                queue.close(executorShutdownTimeOut);
             }
-            executorService.shutdownNow();
         }
-    }
 
-    /**
-     * Increment flushes count for this event
-     *
-     * @param flushesPerEvent global HashMap keeping state
-     * @param eventName       name of the event
-     */
-    private void incrementFlushCount(final HashMap<String, Integer> flushesPerEvent, final String eventName)
-    {
-        final Integer flushes = flushesPerEvent.get(eventName);
-        if (flushes == null) {
-            flushesPerEvent.put(eventName, 0);
+        /*Making sure to close all spool processors for clean up purpose*/
+        for(final EventSpoolProcessor eventSpoolProcessor : defaultSpoolProcessorSet)
+        {
+            eventSpoolProcessor.close();
         }
-        flushesPerEvent.put(eventName, flushesPerEvent.get(eventName) + 1);
     }
 
     /**
@@ -18,6 +18,7 @@ package com.ning.metrics.collector.processing;
 
 import com.mogwee.executors.FailsafeScheduledExecutor;
 import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.util.EventQueueType;
 import com.ning.metrics.serialization.event.Event;
 import com.ning.metrics.serialization.writer.EventWriter;
 
@@ -25,32 +26,49 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Writer manager for a specific queue
+ * <p/>
+ * A queue can be drained by multiple writers in parallel (each with its own dequeuer thread and local spool
+ * directory): events are spread across writers by whichever dequeuer is available.
  */
 public class LocalQueueAndWriter
 {
     private final Logger log = LoggerFactory.getLogger(LocalQueueAndWriter.class);
 
     private final BlockingQueue<Event> queue;
-    private final EventWriter eventWriter;
+    private final List<EventWriter> eventWriters;
     private final ExecutorService executor;
     private final WriterStats stats;
 
     public LocalQueueAndWriter(final CollectorConfig config, final String path, final EventWriter eventWriter, final WriterStats stats)
     {
-        this.queue = new LinkedBlockingQueue<Event>(config.getMaxQueueSize());
-        this.eventWriter = eventWriter;
+        this(config, path, Collections.singletonList(eventWriter), stats);
+    }
+
+    /**
+     * @param config       configuration, may be specific to the event type (see EventSpoolDispatcher)
+     * @param path         output path
+     * @param eventWriters writers for this path, one dequeuer thread is started per writer
+     * @param stats        stats object, across all writers
+     */
+    public LocalQueueAndWriter(final CollectorConfig config, final String path, final List<EventWriter> eventWriters, final WriterStats stats)
+    {
+        this.queue = EventQueueType.valueOf(config.getEventQueueType()).newQueue(config.getMaxQueueSize(), config.getRingBufferQueueCapacity());
+        this.eventWriters = eventWriters;
         this.stats = stats;
 
-        // Underlying dequeuer (writer)
-        this.executor = new FailsafeScheduledExecutor(1, path + "-HDFS-dequeuer");
-        executor.submit(new LocalQueueWorker(queue, eventWriter, stats));
+        // Underlying dequeuers (writers)
+        this.executor = new FailsafeScheduledExecutor(eventWriters.size(), path + "-HDFS-dequeuer");
+        for (final EventWriter eventWriter : eventWriters) {
+            executor.submit(new LocalQueueWorker(queue, eventWriter, stats, config.getEventWriterBatchSize(), config.getEventWriterBatchLinger().getMillis()));
+        }
     }
 
     public void close()
@@ -65,13 +83,15 @@ public class LocalQueueAndWriter
         }
         executor.shutdownNow();
 
-        try {
-            // The flush is async - the eventWriter will clean itself up on close() by trying to flush events.
-            // In practice, this means that events are still being flushed to HDFS after close() returns.
-            eventWriter.close();
-        }
-        catch (IOException e) {
-            log.warn("Got IOException when trying to promote files to the final spool area", e);
+        for (final EventWriter eventWriter : eventWriters) {
+            try {
+                // The flush is async - the eventWriter will clean itself up on close() by trying to flush events.
+                // In practice, this means that events are still being flushed to HDFS after close() returns.
+                eventWriter.close();
+            }
+            catch (IOException e) {
+                log.warn("Got IOException when trying to promote files to the final spool area", e);
+            }
         }
 
         queue.clear();
@@ -109,13 +129,22 @@ public class LocalQueueAndWriter
         return queue.size();
     }
 
+    /**
+     * @return number of events which can still be queued (the capacity of ring buffer queues is capped, see
+     *         EventQueueType#RING_BUFFER)
+     */
+    public int remainingCapacity()
+    {
+        return queue.remainingCapacity();
+    }
+
     /**
      * Unit test hook
      *
-     * @return underlying eventwriter
+     * @return underlying eventwriter (the first one if there are several)
      */
     EventWriter getEventWriter()
     {
-        return eventWriter;
+        return eventWriters.get(0);
     }
 }
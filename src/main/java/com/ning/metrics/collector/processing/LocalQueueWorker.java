@@ -22,10 +22,17 @@ import com.ning.metrics.serialization.writer.EventWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Worker that constantly dequeues events from its underlying queue and writes them to disk
+ * Worker that constantly dequeues events from its underlying queue and writes them to disk.
+ * <p/>
+ * Events are dequeued in batches: the worker blocks for the first event, then drains up to batchSize events,
+ * waiting at most batchLingerMillis for the batch to fill up. If the writer accepts batches (see EventBatchWriter),
+ * each batch is handed to the writer in a single call. Otherwise, events are written one by one.
  */
 class LocalQueueWorker implements Runnable
 {
@@ -34,33 +41,102 @@ class LocalQueueWorker implements Runnable
     private final BlockingQueue<Event> eventQueue;
     private final EventWriter processor;
     private final WriterStats stats;
+    private final int batchSize;
+    private final long batchLingerNanos;
 
     public LocalQueueWorker(final BlockingQueue<Event> msgQueue, final EventWriter eventWriter, final WriterStats stats)
+    {
+        this(msgQueue, eventWriter, stats, 1, 0);
+    }
+
+    public LocalQueueWorker(final BlockingQueue<Event> msgQueue, final EventWriter eventWriter, final WriterStats stats,
+                            final int batchSize, final long batchLingerMillis)
     {
         this.eventQueue = msgQueue;
         this.processor = eventWriter;
         this.stats = stats;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchLingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, batchLingerMillis));
     }
 
     /**
-     * Dequeue an event from its underlying queue, blocking if necessary
+     * Dequeue events from the underlying queue, blocking if necessary
      */
     public void run()
     {
+        final List<Event> batch = new ArrayList<Event>(batchSize);
         while (true) {
             try {
-                final Event event = eventQueue.take();
-                processor.write(event);
-                stats.registerEventWritten();
+                batch.add(eventQueue.take());
+                fillBatch(batch);
             }
             catch (InterruptedException ex) {
+                // Don't lose what we already dequeued
+                writeBatch(batch);
                 Thread.currentThread().interrupt();
                 return;
             }
+
+            writeBatch(batch);
+        }
+    }
+
+    private void fillBatch(final List<Event> batch) throws InterruptedException
+    {
+        eventQueue.drainTo(batch, batchSize - batch.size());
+        if (batchLingerNanos == 0) {
+            return;
+        }
+
+        final long deadline = System.nanoTime() + batchLingerNanos;
+        while (batch.size() < batchSize) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+
+            final Event event = eventQueue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (event == null) {
+                return;
+            }
+            batch.add(event);
+            eventQueue.drainTo(batch, batchSize - batch.size());
+        }
+    }
+
+    private void writeBatch(final List<Event> batch)
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int written = 0;
+        int errored = 0;
+        if (processor instanceof EventBatchWriter) {
+            try {
+                errored = ((EventBatchWriter) processor).writeAll(batch);
+                written = batch.size() - errored;
+            }
             catch (Exception ex) {
-                logger.error("Got error while trying to send an event to disk", ex);
-                stats.registerEventWritingErrored();
+                logger.error(String.format("Got error while trying to send a batch of %d events to disk", batch.size()), ex);
+                errored = batch.size();
             }
         }
+        else {
+            for (final Event event : batch) {
+                try {
+                    processor.write(event);
+                    written++;
+                }
+                catch (Exception ex) {
+                    logger.error("Got error while trying to send an event to disk", ex);
+                    errored++;
+                }
+            }
+        }
+        batch.clear();
+
+        stats.registerEventsWritten(written);
+        stats.registerEventsWritingErrored(errored);
     }
 }
@@ -81,7 +81,33 @@ public class LocalSpoolManager
             log.warn("Asked to find files in spool directory but [" + spoolDirectory + "] is not a directory!");
             return Collections.emptyList();
         }
-        return FileUtils.listFiles(spoolDirectory, FileFilterUtils.trueFileFilter(), FileFilterUtils.notFileFilter(FileFilterUtils.nameFileFilter("_tmp")));
+        // Ignore files being written (_tmp) and the delivery journals (see SpoolDeliveryJournal)
+        return FileUtils.listFiles(spoolDirectory, FileFilterUtils.trueFileFilter(),
+                                   FileFilterUtils.notFileFilter(FileFilterUtils.or(FileFilterUtils.nameFileFilter("_tmp"),
+                                                                                    FileFilterUtils.nameFileFilter(SpoolDeliveryJournal.JOURNAL_DIRECTORY_NAME))));
+    }
+
+    /**
+     * Count the committed files, waiting to be flushed, of all spool directories under the base path. These are the
+     * files at the top of each spool directory: files being written (_tmp), flushed (_lock), quarantined, linked into
+     * the processors inboxes (_inbox) and the delivery journals are not counted.
+     *
+     * @param basePath base spool directory (see CollectorConfig#getSpoolDirectoryName)
+     * @return number of committed spool files
+     */
+    public static int countCommittedSpoolFiles(final String basePath)
+    {
+        int count = 0;
+        final File[] spoolDirectories = new File(basePath).listFiles((FileFilter) FileFilterUtils.directoryFileFilter());
+        if (spoolDirectories != null) {
+            for (final File spoolDirectory : spoolDirectories) {
+                final File[] files = spoolDirectory.listFiles((FileFilter) FileFilterUtils.fileFileFilter());
+                if (files != null) {
+                    count += files.length;
+                }
+            }
+        }
+        return count;
     }
 
     public static void cleanupOldSpoolDirectories(final Iterable<File> oldSpoolDirectories)
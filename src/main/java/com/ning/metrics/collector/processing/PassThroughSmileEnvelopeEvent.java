@@ -0,0 +1,182 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.EventDeserializer;
+import com.ning.metrics.serialization.event.Granularity;
+import com.ning.metrics.serialization.event.GranularityPathMapper;
+
+import org.joda.time.DateTime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+
+/**
+ * Smile or JSON envelope (<tt>{"eventName": ..., "payload": {...}}</tt>) kept in its encoded form.
+ * <p/>
+ * Only the fields required for routing (name, date and granularity) are extracted, the envelope bytes are written as-is
+ * to the spool files by {@link PassThroughSmileEnvelopeEventSerializer}. The payload is only deserialized (into a
+ * regular SmileEnvelopeEvent) if someone asks for it.
+ * <p/>
+ * For JSON, the bytes are a slice of the request body. For Smile, they are a standalone encoding of the envelope:
+ * no header and no back-references to shared names or values.
+ */
+public class PassThroughSmileEnvelopeEvent implements Event
+{
+    private final String eventName;
+    private final DateTime eventDateTime;
+    private final Granularity granularity;
+    private final boolean plainJson;
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+
+    private volatile Event materializedEvent = null;
+
+    public PassThroughSmileEnvelopeEvent(final String eventName, final DateTime eventDateTime, final Granularity granularity,
+                                         final boolean plainJson, final byte[] bytes, final int offset, final int length)
+    {
+        this.eventName = eventName;
+        this.eventDateTime = eventDateTime;
+        this.granularity = granularity;
+        this.plainJson = plainJson;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public boolean isPlainJson()
+    {
+        return plainJson;
+    }
+
+    /**
+     * Write the encoded envelope
+     *
+     * @param out stream to write to
+     * @throws IOException generic I/O exception
+     */
+    void writeEncodedEnvelope(final OutputStream out) throws IOException
+    {
+        out.write(bytes, offset, length);
+    }
+
+    /**
+     * Deserialize the envelope, the result is cached
+     *
+     * @return the equivalent SmileEnvelopeEvent
+     */
+    public Event materialize()
+    {
+        Event event = materializedEvent;
+        if (event == null) {
+            try {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(length + 8);
+                final PassThroughSmileEnvelopeEventSerializer serializer = new PassThroughSmileEnvelopeEventSerializer(plainJson);
+                serializer.open(out);
+                serializer.serialize(this);
+                serializer.close();
+
+                final SerializationType type = plainJson ? SerializationType.JSON : SerializationType.SMILE;
+                final EventDeserializer deserializer = type.getDeSerializer(new ByteArrayInputStream(out.toByteArray()));
+                event = deserializer.getNextEvent();
+            }
+            catch (IOException e) {
+                throw new IllegalStateException(String.format("Unable to deserialize %s event", eventName), e);
+            }
+            materializedEvent = event;
+        }
+
+        return event;
+    }
+
+    @Override
+    public DateTime getEventDateTime()
+    {
+        return eventDateTime;
+    }
+
+    @Override
+    public String getName()
+    {
+        return eventName;
+    }
+
+    @Override
+    public Granularity getGranularity()
+    {
+        return granularity;
+    }
+
+    @Override
+    public String getVersion()
+    {
+        return materialize().getVersion();
+    }
+
+    @Override
+    public String getOutputDir(final String prefix)
+    {
+        // Same as SmileEnvelopeEvent
+        final GranularityPathMapper pathMapper = new GranularityPathMapper(String.format("%s/%s", prefix, eventName), granularity);
+        return pathMapper.getPathForDateTime(eventDateTime);
+    }
+
+    @Override
+    public Object getData()
+    {
+        return materialize().getData();
+    }
+
+    @Override
+    public byte[] getSerializedEvent()
+    {
+        return materialize().getSerializedEvent();
+    }
+
+    @Override
+    public void writeExternal(final ObjectOutput out) throws IOException
+    {
+        materialize().writeExternal(out);
+    }
+
+    @Override
+    public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        throw new UnsupportedOperationException("Pass-through events are written as SmileEnvelopeEvent");
+    }
+
+    @Override
+    public String toString()
+    {
+        // Don't deserialize the payload for logging
+        final StringBuilder sb = new StringBuilder();
+        sb.append("PassThroughSmileEnvelopeEvent");
+        sb.append("{eventName='").append(eventName).append('\'');
+        sb.append(", eventDateTime=").append(eventDateTime);
+        sb.append(", granularity=").append(granularity);
+        sb.append(", plainJson=").append(plainJson);
+        sb.append(", length=").append(length);
+        sb.append('}');
+        return sb.toString();
+    }
+}
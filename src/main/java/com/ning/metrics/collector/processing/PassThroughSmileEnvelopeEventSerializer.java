@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.EventSerializer;
+
+import com.fasterxml.jackson.dataformat.smile.SmileConstants;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes PassThroughSmileEnvelopeEvent envelopes as a top-level array, the same layout as SmileEnvelopeEventSerializer:
+ * files can be read back by SmileEnvelopeEventDeserializer.
+ * <p/>
+ * The array is written by hand: for Smile, the header advertises neither shared names nor shared values, which
+ * the pass-through envelopes don't use.
+ */
+public class PassThroughSmileEnvelopeEventSerializer implements EventSerializer<Event>
+{
+    private final boolean plainJson;
+
+    private OutputStream out = null;
+    private boolean firstEvent = true;
+
+    public PassThroughSmileEnvelopeEventSerializer(final boolean plainJson)
+    {
+        this.plainJson = plainJson;
+    }
+
+    @Override
+    public void open(final OutputStream out) throws IOException
+    {
+        this.out = out;
+        this.firstEvent = true;
+
+        if (plainJson) {
+            out.write('[');
+        }
+        else {
+            out.write(SmileConstants.HEADER_BYTE_1);
+            out.write(SmileConstants.HEADER_BYTE_2);
+            out.write(SmileConstants.HEADER_BYTE_3);
+            out.write(SmileConstants.HEADER_VERSION_0);
+            out.write(SmileConstants.TOKEN_LITERAL_START_ARRAY);
+        }
+    }
+
+    @Override
+    public void serialize(final Event event) throws IOException
+    {
+        if (!(event instanceof PassThroughSmileEnvelopeEvent) || ((PassThroughSmileEnvelopeEvent) event).isPlainJson() != plainJson) {
+            throw new IOException(String.format("Unable to serialize %s as pass-through %s", event, plainJson ? "JSON" : "Smile"));
+        }
+
+        if (plainJson && !firstEvent) {
+            out.write(',');
+        }
+        ((PassThroughSmileEnvelopeEvent) event).writeEncodedEnvelope(out);
+        firstEvent = false;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (plainJson) {
+            out.write(']');
+        }
+        else {
+            out.write(SmileConstants.TOKEN_LITERAL_END_ARRAY);
+        }
+        // Like the Jackson generator used by SmileEnvelopeEventSerializer, close the underlying stream
+        out.close();
+        out = null;
+    }
+}
@@ -59,6 +59,42 @@ public enum SerializationType
                 return new SmileEnvelopeEventDeserializer(is,true);
                 }
         },
+    /**
+     * Smile envelopes copied as-is from the request, see PassThroughSmileEnvelopeEvent.
+     * Files are regular Smile files, they are read back as SMILE.
+     */
+    SMILE_PASS_THROUGH("smile", true)
+        {
+            @Override
+            public EventSerializer getSerializer()
+            {
+                return new PassThroughSmileEnvelopeEventSerializer(false);
+            }
+
+            @Override
+            public EventDeserializer getDeSerializer(InputStream is) throws IOException
+            {
+                return new SmileEnvelopeEventDeserializer(is, false);
+            }
+        },
+    /**
+     * JSON envelopes copied as-is from the request, see PassThroughSmileEnvelopeEvent.
+     * Files are regular JSON files, they are read back as JSON.
+     */
+    JSON_PASS_THROUGH("json", true)
+        {
+            @Override
+            public EventSerializer getSerializer()
+            {
+                return new PassThroughSmileEnvelopeEventSerializer(true);
+            }
+
+            @Override
+            public EventDeserializer getDeSerializer(InputStream is) throws IOException
+            {
+                return new SmileEnvelopeEventDeserializer(is, true);
+            }
+        },
     THRIFT("thrift")
         {
             @Override
@@ -91,10 +127,17 @@ public enum SerializationType
         };
 
     private final String suffix;
-    
+    private final boolean passThrough;
+
     private SerializationType(String suffix)
+    {
+        this(suffix, false);
+    }
+
+    private SerializationType(String suffix, boolean passThrough)
     {
         this.suffix = suffix;
+        this.passThrough = passThrough;
     }
 
     public abstract EventSerializer getSerializer();
@@ -102,7 +145,15 @@ public enum SerializationType
 
     public static SerializationType get(final Event event)
     {
-        if (event instanceof SmileEnvelopeEvent) {
+        if (event instanceof PassThroughSmileEnvelopeEvent) {
+            if (((PassThroughSmileEnvelopeEvent) event).isPlainJson()) {
+                return JSON_PASS_THROUGH;
+            }
+            else {
+                return SMILE_PASS_THROUGH;
+            }
+        }
+        else if (event instanceof SmileEnvelopeEvent) {
             if (((SmileEnvelopeEvent) event).isPlainJson()) {
                 return JSON;
             }
@@ -123,6 +174,14 @@ public enum SerializationType
         return suffix;
     }
 
+    /**
+     * @return true if events are written as-is (they need their own files)
+     */
+    public boolean isPassThrough()
+    {
+        return passThrough;
+    }
+
     public static SerializationType fromSuffix(String suffix)
     {
         if (suffix.equals("smile")) {
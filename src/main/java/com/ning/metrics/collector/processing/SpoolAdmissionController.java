@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.ning.arecibo.jmx.Monitored;
+import com.ning.arecibo.jmx.MonitoringType;
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+
+import com.google.inject.Inject;
+import com.mogwee.executors.FailsafeScheduledExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.weakref.jmx.Managed;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for the endpoints: tells whether new requests should be rejected because the spool can't keep up
+ * (too many events queued across all spool queues, or too many local files waiting for the spool processors).
+ * <p/>
+ * The watermarks are global on purpose: a single saturated queue (i.e. a single event type and output path) doesn't
+ * push back on the other event types, its own events are dropped when the queue is full (see EventSpoolDispatcher).
+ * <p/>
+ * The watermarks are checked periodically in the background so that the check on the request path is a volatile read.
+ */
+public class SpoolAdmissionController
+{
+    private static final Logger log = LoggerFactory.getLogger(SpoolAdmissionController.class);
+
+    private final CollectorConfig config;
+    private final EventSpoolDispatcher spoolDispatcher;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong rejectedRequests = new AtomicLong(0);
+
+    private volatile boolean enabled;
+    private volatile long queuedEventsHighWatermark;
+    private volatile int pendingFilesHighWatermark;
+
+    private volatile boolean overloaded = false;
+    private volatile long queuedEvents = 0;
+    private volatile int pendingFiles = 0;
+
+    @Inject
+    public SpoolAdmissionController(final CollectorConfig config, final EventSpoolDispatcher spoolDispatcher)
+    {
+        this.config = config;
+        this.spoolDispatcher = spoolDispatcher;
+        this.enabled = config.isBackpressureEnabled();
+        this.queuedEventsHighWatermark = config.getBackpressureQueuedEventsHighWatermark();
+        this.pendingFilesHighWatermark = config.getBackpressurePendingFilesHighWatermark();
+
+        final long checkIntervalMillis = config.getBackpressureCheckInterval().getMillis();
+        this.executor = new FailsafeScheduledExecutor(1, "SpoolAdmissionController");
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                checkWatermarks();
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called on the request path, before deserializing anything
+     *
+     * @return true if the request should be processed, false if it should be rejected
+     */
+    public boolean admit()
+    {
+        if (enabled && overloaded) {
+            rejectedRequests.incrementAndGet();
+            return false;
+        }
+        else {
+            return true;
+        }
+    }
+
+    public long getRetryAfterSeconds()
+    {
+        return Math.max(1, config.getBackpressureRetryAfter().getMillis() / 1000);
+    }
+
+    /**
+     * Stop checking the watermarks. Requests are admitted from now on.
+     */
+    public void stop()
+    {
+        executor.shutdownNow();
+        overloaded = false;
+    }
+
+    //@VisibleForTesting
+    void checkWatermarks()
+    {
+        long totalSize = 0;
+        for (final Integer size : spoolDispatcher.getQueuesSizes().values()) {
+            totalSize += size;
+        }
+        queuedEvents = totalSize;
+
+        // Listing the spool directory isn't free, only do it if needed
+        if (pendingFilesHighWatermark > 0) {
+            pendingFiles = LocalSpoolManager.countCommittedSpoolFiles(config.getSpoolDirectoryName());
+        }
+
+        final boolean wasOverloaded = overloaded;
+        overloaded = (queuedEventsHighWatermark > 0 && queuedEvents >= queuedEventsHighWatermark) ||
+            (pendingFilesHighWatermark > 0 && pendingFiles >= pendingFilesHighWatermark);
+
+        if (overloaded && !wasOverloaded) {
+            log.warn(String.format("Spool overloaded (queued events: %d, pending files: %d), rejecting requests", queuedEvents, pendingFiles));
+        }
+        else if (!overloaded && wasOverloaded) {
+            log.info("Spool caught up, accepting requests again");
+        }
+    }
+
+    @Managed(description = "enable/disable rejection of requests when the spool can't keep up")
+    public void setEnabled(final boolean value)
+    {
+        enabled = value;
+    }
+
+    @Managed(description = "rejection of requests when the spool can't keep up enabled?")
+    public boolean getEnabled()
+    {
+        return enabled;
+    }
+
+    @Managed(description = "Set the number of events queued across all spool queues above which requests are rejected (0 to disable)")
+    public void setQueuedEventsHighWatermark(final long value)
+    {
+        queuedEventsHighWatermark = value;
+    }
+
+    @Managed(description = "Number of events queued across all spool queues above which requests are rejected")
+    public long getQueuedEventsHighWatermark()
+    {
+        return queuedEventsHighWatermark;
+    }
+
+    @Managed(description = "Set the number of pending spool files above which requests are rejected (0 to disable)")
+    public void setPendingFilesHighWatermark(final int value)
+    {
+        pendingFilesHighWatermark = value;
+    }
+
+    @Managed(description = "Number of pending spool files above which requests are rejected")
+    public int getPendingFilesHighWatermark()
+    {
+        return pendingFilesHighWatermark;
+    }
+
+    @Monitored(description = "Whether the spool is above the watermarks", monitoringType = {MonitoringType.VALUE})
+    public boolean isOverloaded()
+    {
+        return overloaded;
+    }
+
+    @Monitored(description = "Number of events queued across all spool queues", monitoringType = {MonitoringType.VALUE})
+    public long getQueuedEvents()
+    {
+        return queuedEvents;
+    }
+
+    @Monitored(description = "Number of local spool files not yet processed (if the watermark is enabled)", monitoringType = {MonitoringType.VALUE})
+    public int getPendingFiles()
+    {
+        return pendingFiles;
+    }
+
+    @Monitored(description = "Number of requests rejected because the spool couldn't keep up", monitoringType = {MonitoringType.VALUE, MonitoringType.RATE})
+    public long getRejectedRequests()
+    {
+        return rejectedRequests.get();
+    }
+}
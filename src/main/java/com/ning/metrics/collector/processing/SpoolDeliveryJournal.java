@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Write-ahead journal of the deliveries of the files of a spool directory to the spool processors.
+ * <p/>
+ * Each spool file has its own journal file, under the _journal directory of the spool directory, listing (one per line,
+ * synced to disk) the names of the processors which have acknowledged it. Spool files keep their name when they are
+ * moved between _lock and _quarantine, so the journal follows them. When a file has to be sent again (quarantine,
+ * restart), only the processors which have not acknowledged it yet get it.
+ * <p/>
+ * The journal directory is ignored by LocalSpoolManager#findFilesInSpoolDirectory.
+ */
+class SpoolDeliveryJournal
+{
+    static final String JOURNAL_DIRECTORY_NAME = "_journal";
+
+    private final File journalDirectory;
+
+    SpoolDeliveryJournal(final File spoolDirectory)
+    {
+        this.journalDirectory = new File(spoolDirectory, JOURNAL_DIRECTORY_NAME);
+    }
+
+    /**
+     * @param spoolFile spool file
+     * @return names of the processors which have acknowledged the file
+     * @throws IOException if the journal can't be read
+     */
+    synchronized Set<String> getAcknowledgedProcessors(final File spoolFile) throws IOException
+    {
+        final File journalFile = getJournalFile(spoolFile);
+        final Set<String> processors = new HashSet<String>();
+        if (journalFile.exists()) {
+            // A truncated last line (crash while appending) won't match any processor, which is what we want
+            processors.addAll(Files.readLines(journalFile, Charsets.UTF_8));
+        }
+        return processors;
+    }
+
+    /**
+     * Record that a processor has processed a file, before returning to the caller
+     *
+     * @param spoolFile     spool file
+     * @param processorName name of the processor (see EventSpoolProcessor#getProcessorName)
+     * @throws IOException if the journal can't be written
+     */
+    synchronized void acknowledge(final File spoolFile, final String processorName) throws IOException
+    {
+        if (!journalDirectory.isDirectory() && !journalDirectory.mkdirs()) {
+            throw new IOException(String.format("Unable to create journal directory %s", journalDirectory));
+        }
+
+        final FileOutputStream out = new FileOutputStream(getJournalFile(spoolFile), true);
+        try {
+            out.write(String.format("%s%n", processorName).getBytes(Charsets.UTF_8));
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Discard the journal of a file, once it has been deleted
+     *
+     * @param spoolFile spool file
+     * @return false if the journal of the file exists but could not be deleted
+     */
+    synchronized boolean forget(final File spoolFile)
+    {
+        final File journalFile = getJournalFile(spoolFile);
+        return !journalFile.exists() || journalFile.delete();
+    }
+
+    /**
+     * Discard the journal of all files, once the spool directory is empty
+     */
+    synchronized void clear()
+    {
+        FileUtils.deleteQuietly(journalDirectory);
+    }
+
+    private File getJournalFile(final File spoolFile)
+    {
+        return new File(journalDirectory, spoolFile.getName());
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.mogwee.executors.FailsafeScheduledExecutor;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
+import org.skife.config.TimeSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work queue of a single spool processor (by name, see EventSpoolProcessor#getProcessorName).
+ * <p/>
+ * Each processor gets the spool files with its own threads, and retries them on failure (with an exponential backoff),
+ * concurrently with the other processors. The queue is bounded: when the processor is too far behind, submitting waits
+ * for room, up to a timeout, after which the file is handled as if the processor failed on it.
+ * <p/>
+ * Stats are exported as metrics-core metrics (com.ning.metrics.collector:type=SpoolProcessorQueue,scope=processorName),
+ * including the lag of the processor, i.e. the age of the oldest file it hasn't processed yet.
+ */
+class SpoolProcessorQueue
+{
+    private static final Logger log = LoggerFactory.getLogger(SpoolProcessorQueue.class);
+
+    private static final String METRICS_GROUP = "com.ning.metrics.collector";
+    private static final String METRICS_TYPE = "SpoolProcessorQueue";
+    // Cap the backoff to 2^6 times the initial one
+    private static final int MAX_BACKOFF_SHIFT = 6;
+
+    private final String processorName;
+    private final ScheduledExecutorService executor;
+    private final Semaphore capacity;
+    private final long submitTimeoutMillis;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final Set<Work> pending = Collections.newSetFromMap(new ConcurrentHashMap<Work, Boolean>());
+
+    private final MetricName processedMetricName;
+    private final MetricName retriedMetricName;
+    private final MetricName failedMetricName;
+    private final MetricName rejectedMetricName;
+    private final MetricName pendingMetricName;
+    private final MetricName lagMetricName;
+    private final Meter processedMeter;
+    private final Meter retriedMeter;
+    private final Meter failedMeter;
+    private final Meter rejectedMeter;
+
+    /**
+     * @param processorName name of the processor
+     * @param config        configuration, with the processorName replacements
+     */
+    SpoolProcessorQueue(final String processorName, final CollectorConfig config)
+    {
+        this(processorName, config.getFileProcessorThreadCount(), config.getSpoolProcessorQueueSize(),
+             config.getSpoolProcessorQueueSubmitTimeout(), config.getSpoolProcessorMaxAttempts(), config.getSpoolProcessorRetryBackoff());
+    }
+
+    SpoolProcessorQueue(final String processorName, final int nbThreads, final int queueSize, final TimeSpan submitTimeout,
+                        final int maxAttempts, final TimeSpan retryBackoff)
+    {
+        this.processorName = processorName;
+        this.executor = new FailsafeScheduledExecutor(Math.max(1, nbThreads), processorName + "-SpoolProcessor");
+        this.capacity = new Semaphore(Math.max(1, queueSize));
+        this.submitTimeoutMillis = submitTimeout.getMillis();
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMillis = retryBackoff.getMillis();
+
+        this.processedMetricName = new MetricName(METRICS_GROUP, METRICS_TYPE, "Processed", processorName);
+        this.retriedMetricName = new MetricName(METRICS_GROUP, METRICS_TYPE, "Retried", processorName);
+        this.failedMetricName = new MetricName(METRICS_GROUP, METRICS_TYPE, "Failed", processorName);
+        this.rejectedMetricName = new MetricName(METRICS_GROUP, METRICS_TYPE, "Rejected", processorName);
+        this.pendingMetricName = new MetricName(METRICS_GROUP, METRICS_TYPE, "Pending", processorName);
+        this.lagMetricName = new MetricName(METRICS_GROUP, METRICS_TYPE, "LagMillis", processorName);
+
+        processedMeter = Metrics.newMeter(processedMetricName, "files", TimeUnit.SECONDS);
+        retriedMeter = Metrics.newMeter(retriedMetricName, "files", TimeUnit.SECONDS);
+        failedMeter = Metrics.newMeter(failedMetricName, "files", TimeUnit.SECONDS);
+        rejectedMeter = Metrics.newMeter(rejectedMetricName, "files", TimeUnit.SECONDS);
+        Metrics.newGauge(pendingMetricName, new Gauge<Integer>()
+        {
+            @Override
+            public Integer value()
+            {
+                return getPendingFiles();
+            }
+        });
+        Metrics.newGauge(lagMetricName, new Gauge<Long>()
+        {
+            @Override
+            public Long value()
+            {
+                return getLagMillis();
+            }
+        });
+    }
+
+    /**
+     * Hand a spool file to the processor. Waits up to the submit timeout if the queue is full.
+     *
+     * @param processor         processor instance (there can be several instances with the same name)
+     * @param spoolManager      spool manager of the file, for the event name and serialization type
+     * @param file              spool file
+     * @param outputPath        output path for the file
+     * @param journal           delivery journal of the file, updated once the file has been processed
+     * @return a future, true once the file has been processed, false if the processor gave up on it or if the queue
+     *         was still full after the submit timeout
+     * @throws InterruptedException if interrupted while waiting for the queue
+     */
+    ListenableFuture<Boolean> submit(final EventSpoolProcessor processor, final LocalSpoolManager spoolManager, final File file,
+                                     final String outputPath, final SpoolDeliveryJournal journal) throws InterruptedException
+    {
+        final Work work = new Work(processor, spoolManager, file, outputPath, journal);
+
+        if (!capacity.tryAcquire(submitTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            log.warn(String.format("Spool processor %s is too far behind (%d files pending), unable to process %s", processorName, pending.size(), file));
+            rejectedMeter.mark();
+            work.result.set(false);
+            return work.result;
+        }
+
+        pending.add(work);
+        try {
+            executor.submit(work);
+        }
+        catch (RejectedExecutionException e) {
+            log.warn(String.format("Spool processor %s is shut down, unable to process %s", processorName, file));
+            complete(work, false);
+        }
+
+        return work.result;
+    }
+
+    void close(final TimeSpan shutdownTimeOut)
+    {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(shutdownTimeOut.getPeriod(), shutdownTimeOut.getUnit());
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdownNow();
+
+        if (!pending.isEmpty()) {
+            // The files stay on disk, see EventSpoolWriterFactory#processLeftBelowFiles
+            log.warn(String.format("Spool processor %s shut down with %d files pending", processorName, pending.size()));
+        }
+        // Scheduled retries were cancelled: don't leave anyone waiting on them
+        for (final Work work : pending) {
+            complete(work, false);
+        }
+
+        // The gauges reference this queue
+        for (final MetricName metricName : getMetricNames()) {
+            Metrics.defaultRegistry().removeMetric(metricName);
+        }
+    }
+
+    //@VisibleForTesting
+    MetricName[] getMetricNames()
+    {
+        return new MetricName[]{processedMetricName, retriedMetricName, failedMetricName, rejectedMetricName, pendingMetricName, lagMetricName};
+    }
+
+    int getPendingFiles()
+    {
+        return pending.size();
+    }
+
+    /**
+     * @return the age, in milliseconds, of the oldest file not processed yet (0 if there is none)
+     */
+    long getLagMillis()
+    {
+        long oldest = Long.MAX_VALUE;
+        for (final Work work : pending) {
+            oldest = Math.min(oldest, work.submittedMillis);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    private void complete(final Work work, final boolean success)
+    {
+        if (pending.remove(work)) {
+            capacity.release();
+        }
+        work.result.set(success);
+    }
+
+    private final class Work implements Runnable
+    {
+        private final EventSpoolProcessor processor;
+        private final LocalSpoolManager spoolManager;
+        private final File file;
+        private final String outputPath;
+        private final SpoolDeliveryJournal journal;
+        private final long submittedMillis = System.currentTimeMillis();
+        private final SettableFuture<Boolean> result = SettableFuture.create();
+
+        private int attempts = 0;
+
+        private Work(final EventSpoolProcessor processor, final LocalSpoolManager spoolManager, final File file, final String outputPath, final SpoolDeliveryJournal journal)
+        {
+            this.processor = processor;
+            this.spoolManager = spoolManager;
+            this.file = file;
+            this.outputPath = outputPath;
+            this.journal = journal;
+        }
+
+        @Override
+        public void run()
+        {
+            attempts++;
+            try {
+                log.info(String.format("Processing Event %s via spooler %s at path %s ", spoolManager.getEventName(), processorName, outputPath));
+                processor.processEventFile(spoolManager.getEventName(), spoolManager.getSerializationType(), file, outputPath);
+                log.info(String.format("Completed Processing Event  %s via spooler %s", spoolManager.getEventName(), processorName));
+            }
+            catch (Exception e) {
+                retryOrGiveUp(e);
+                return;
+            }
+
+            try {
+                journal.acknowledge(file, processorName);
+            }
+            catch (IOException e) {
+                // Don't process it again now, but it may be sent again to this processor on restart
+                log.warn(String.format("Unable to record file %s as processed by %s", file, processorName), e);
+            }
+
+            processedMeter.mark();
+            complete(this, true);
+        }
+
+        private void retryOrGiveUp(final Exception e)
+        {
+            if (attempts >= maxAttempts) {
+                log.error(String.format("Exception occurred while processing event %s for spooler %s, giving up after %d attempts", spoolManager.getEventName(), processorName, attempts), e);
+                failedMeter.mark();
+                complete(this, false);
+                return;
+            }
+
+            final long backoffMillis = retryBackoffMillis << Math.min(attempts - 1, MAX_BACKOFF_SHIFT);
+            log.warn(String.format("Exception occurred while processing event %s for spooler %s, retrying in %d ms", spoolManager.getEventName(), processorName, backoffMillis), e);
+            retriedMeter.mark();
+            try {
+                executor.schedule(this, backoffMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException ree) {
+                log.warn(String.format("Spool processor %s is shut down, unable to retry %s", processorName, file));
+                complete(this, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+/**
+ * Identifies a writer queue: all events ending up in the same output directory (i.e. same event name
+ * and same granularity bucket) with the same serialization type share a queue.
+ * <p/>
+ * Lookups are done with a per-thread mutable instance (see {@link #lookupKey(String, SerializationType)}) so that
+ * dispatching an event doesn't allocate. Instances stored in maps are immutable copies.
+ */
+final class SpoolQueueKey
+{
+    private static final ThreadLocal<SpoolQueueKey> lookupKeys = new ThreadLocal<SpoolQueueKey>()
+    {
+        @Override
+        protected SpoolQueueKey initialValue()
+        {
+            return new SpoolQueueKey();
+        }
+    };
+
+    private String outputDir;
+    private SerializationType serializationType;
+    private int hashCode;
+
+    private SpoolQueueKey()
+    {
+    }
+
+    SpoolQueueKey(final String outputDir, final SerializationType serializationType)
+    {
+        set(outputDir, serializationType);
+    }
+
+    /**
+     * @param outputDir         output directory of the event
+     * @param serializationType serialization type of the event
+     * @return the calling thread's lookup key, only valid until the next call from the same thread
+     */
+    static SpoolQueueKey lookupKey(final String outputDir, final SerializationType serializationType)
+    {
+        return lookupKeys.get().set(outputDir, serializationType);
+    }
+
+    private SpoolQueueKey set(final String outputDir, final SerializationType serializationType)
+    {
+        this.outputDir = outputDir;
+        this.serializationType = serializationType;
+        this.hashCode = 31 * outputDir.hashCode() + serializationType.hashCode();
+        return this;
+    }
+
+    public String getOutputDir()
+    {
+        return outputDir;
+    }
+
+    public SerializationType getSerializationType()
+    {
+        return serializationType;
+    }
+
+    @Override
+    public boolean equals(final Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final SpoolQueueKey that = (SpoolQueueKey) o;
+        return hashCode == that.hashCode && serializationType == that.serializationType && outputDir.equals(that.outputDir);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    /**
+     * @return the historical queue name, e.g. /events/FuuEvent/2012/01/01/12|thrift
+     * (/events/FuuEvent/2012/01/01/12|smile|pass-through for pass-through events)
+     */
+    @Override
+    public String toString()
+    {
+        if (serializationType.isPassThrough()) {
+            return outputDir + "|" + serializationType.getFileSuffix() + "|pass-through";
+        }
+        else {
+            return outputDir + "|" + serializationType.getFileSuffix();
+        }
+    }
+}
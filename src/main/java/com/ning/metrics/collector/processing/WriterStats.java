@@ -71,11 +71,25 @@ public class WriterStats
         writtenEvents.incrementAndGet();
     }
 
+    public void registerEventsWritten(final int count)
+    {
+        if (count > 0) {
+            writtenEvents.addAndGet(count);
+        }
+    }
+
     public void registerEventWritingErrored()
     {
         erroredEvents.incrementAndGet();
     }
 
+    public void registerEventsWritingErrored(final int count)
+    {
+        if (count > 0) {
+            erroredEvents.addAndGet(count);
+        }
+    }
+
     public void registerHdfsFlush()
     {
         hdfsFlushes.incrementAndGet();
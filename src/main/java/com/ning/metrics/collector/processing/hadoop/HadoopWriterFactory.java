@@ -23,37 +23,109 @@ import com.ning.metrics.collector.processing.LocalSpoolManager;
 import com.ning.metrics.collector.processing.SerializationType;
 import com.ning.metrics.serialization.hadoop.FileSystemAccess;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.skife.config.ConfigurationObjectFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.weakref.jmx.Managed;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Spool processor uploading the spool files to HDFS.
+ * <p/>
+ * Files are uploaded concurrently by the HDFSWriter spool processor threads, at most collector.hadoop-writer.max-writers
+ * at a time. Each file is streamed to a temporary path first (collector.temporary-event-output-directory), with the
+ * block size and replication factor configured for its event type, and then renamed to its final path, so that
+ * readers never see partial files. The final directories are created once, on their first upload.
+ * <p/>
+ * Upload latencies and throughputs are exported as metrics-core histograms
+ * (com.ning.metrics.collector:type=HDFSWriter,scope=eventName).
+ */
 public class HadoopWriterFactory implements EventSpoolProcessor
 {
     private static final Logger log = LoggerFactory.getLogger(HadoopWriterFactory.class);
 
+    private static final String PROCESSOR_NAME = "HDFSWriter";
+    private static final String METRICS_GROUP = "com.ning.metrics.collector";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    // Output directories are per event type and period, forget them once in a while
+    private static final int MAX_KNOWN_DIRECTORIES = 10000;
+
     private final CollectorConfig config;
+    private final ConfigurationObjectFactory configFactory;
     private final FileSystemAccess hdfsAccess;
     private final AtomicBoolean flushEnabled;
-    private static final String PROCESSOR_NAME = "HDFSWriter";
+    private final int maxWriters;
+    private final Semaphore writers;
+    private final ConcurrentMap<String, CollectorConfig> eventConfigs = new ConcurrentHashMap<String, CollectorConfig>();
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, Histogram> throughputs = new ConcurrentHashMap<String, Histogram>();
+    // HDFS directories created by previous uploads, to save NameNode round trips
+    private final Set<String> knownDirectories = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-    @Inject
+    /**
+     * @param hdfsAccess HDFS access
+     * @param config     configuration, used for all event types
+     */
     public HadoopWriterFactory(final FileSystemAccess hdfsAccess, final CollectorConfig config)
+    {
+        this(hdfsAccess, config, null);
+    }
+
+    @Inject
+    public HadoopWriterFactory(final FileSystemAccess hdfsAccess, final CollectorConfig config, final ConfigurationObjectFactory configFactory)
     {
         this.hdfsAccess = hdfsAccess;
         this.config = config;
+        this.configFactory = configFactory;
         this.flushEnabled = new AtomicBoolean(config.isFlushEnabled());
+        this.maxWriters = Math.max(1, config.getMaxHadoopWriters());
+        this.writers = new Semaphore(maxWriters);
     }
     
     @Override
     public void processEventFile(final String eventName, final SerializationType serializationType,  final File file, final String hadoopOutputPath) throws IOException{
-        pushFileToHadoop(file, hadoopOutputPath); 
+        try {
+            writers.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while waiting to upload %s to HDFS", file));
+        }
+
+        final long startNanos = System.nanoTime();
+        try {
+            pushFileToHadoop(eventName, file, hadoopOutputPath);
+        }
+        finally {
+            writers.release();
+        }
+
+        final long elapsedNanos = Math.max(1, System.nanoTime() - startNanos);
+        getHistogram(latencies, "UploadLatencyMillis", eventName).update(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        getHistogram(throughputs, "UploadThroughputBytesPerSecond", eventName).update(file.length() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
     }
     
     @Override
@@ -68,10 +140,102 @@ public class HadoopWriterFactory implements EventSpoolProcessor
     }
 
 
-    protected void pushFileToHadoop(final File file, final String outputPath) throws IOException
+    protected void pushFileToHadoop(final String eventName, final File file, final String outputPath) throws IOException
     {
         log.info(String.format("Flushing events to HDFS: [%s] -> [%s]", file.getAbsolutePath(), outputPath));
-        hdfsAccess.get().copyFromLocalFile(new Path(file.getAbsolutePath()), new Path(outputPath));
+
+        final CollectorConfig eventConfig = getEventConfig(eventName);
+        final FileSystem fs = hdfsAccess.get();
+        final Path finalPath = new Path(outputPath);
+        final Path tmpPath = new Path(eventConfig.getTemporaryEventOutputDirectory(), String.format("%s.%s", finalPath.getName(), UUID.randomUUID()));
+        final short replication = eventConfig.getHadoopReplication() == null ? fs.getDefaultReplication() : eventConfig.getHadoopReplication().shortValue();
+
+        boolean renamed = false;
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                final FSDataOutputStream out = fs.create(tmpPath, true, COPY_BUFFER_SIZE, replication, eventConfig.getHadoopBlockSize());
+                // Closes the output stream, i.e. waits for the last block to be acknowledged
+                IOUtils.copyBytes(in, out, COPY_BUFFER_SIZE, true);
+            }
+            finally {
+                in.close();
+            }
+
+            final Path parent = finalPath.getParent();
+            if (parent != null) {
+                ensureDirectoryExists(fs, parent);
+            }
+            renamed = fs.rename(tmpPath, finalPath);
+            if (!renamed) {
+                // The directory may have been deleted since, create it again on the next attempt
+                if (parent != null) {
+                    knownDirectories.remove(parent.toString());
+                }
+                throw new IOException(String.format("Unable to rename %s to %s in HDFS", tmpPath, finalPath));
+            }
+        }
+        finally {
+            if (!renamed) {
+                deleteQuietly(fs, tmpPath);
+            }
+        }
+    }
+
+    private void ensureDirectoryExists(final FileSystem fs, final Path directory) throws IOException
+    {
+        final String key = directory.toString();
+        if (knownDirectories.contains(key)) {
+            return;
+        }
+
+        // mkdirs succeeds if the directory exists already
+        if (!fs.mkdirs(directory)) {
+            throw new IOException(String.format("Unable to create HDFS directory %s", directory));
+        }
+
+        if (knownDirectories.size() >= MAX_KNOWN_DIRECTORIES) {
+            knownDirectories.clear();
+        }
+        knownDirectories.add(key);
+    }
+
+    private void deleteQuietly(final FileSystem fs, final Path path)
+    {
+        try {
+            fs.delete(path, false);
+        }
+        catch (IOException e) {
+            log.warn(String.format("Unable to delete temporary HDFS file %s", path), e);
+        }
+    }
+
+    private CollectorConfig getEventConfig(final String eventName)
+    {
+        if (configFactory == null) {
+            return config;
+        }
+
+        CollectorConfig eventConfig = eventConfigs.get(eventName);
+        if (eventConfig == null) {
+            eventConfig = configFactory.buildWithReplacements(CollectorConfig.class, ImmutableMap.of("eventName", eventName));
+            final CollectorConfig existing = eventConfigs.putIfAbsent(eventName, eventConfig);
+            if (existing != null) {
+                eventConfig = existing;
+            }
+        }
+        return eventConfig;
+    }
+
+    private Histogram getHistogram(final ConcurrentMap<String, Histogram> histograms, final String name, final String eventName)
+    {
+        Histogram histogram = histograms.get(eventName);
+        if (histogram == null) {
+            // Returns the existing histogram if another thread beat us to it
+            histogram = Metrics.newHistogram(new MetricName(METRICS_GROUP, PROCESSOR_NAME, name, eventName), true);
+            histograms.putIfAbsent(eventName, histogram);
+        }
+        return histogram;
     }
 
 
@@ -93,6 +257,12 @@ public class HadoopWriterFactory implements EventSpoolProcessor
         flushEnabled.set(false);
     }
 
+    @Monitored(description = "Number of files being uploaded to HDFS")
+    public int nbActiveUploads()
+    {
+        return maxWriters - writers.availablePermits();
+    }
+
     @Monitored(description = "Number of local files not yet pushed to HDFS")
     public int nbLocalFiles()
     {
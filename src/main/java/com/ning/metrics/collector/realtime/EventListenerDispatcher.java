@@ -16,6 +16,7 @@
 
 package com.ning.metrics.collector.realtime;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 
 import com.ning.arecibo.jmx.Monitored;
@@ -23,16 +24,23 @@ import com.ning.metrics.serialization.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Hands events to the realtime listeners (Atmosphere) and queues (ActiveMQ).
+ * <p/>
+ * offer is called concurrently by all request threads: listeners are kept in an immutable map, replaced (copy-on-write)
+ * when a listener is added or removed, which is rare, so that dispatching never takes a lock.
+ */
 public class EventListenerDispatcher
 {
     public static final String NO_FILTER_KEY = "__ALL__";
 
     private static final Logger log = LoggerFactory.getLogger(EventListenerDispatcher.class);
 
-    private final Map<String, NewEventListener> listeners = new ConcurrentHashMap<String, NewEventListener>();
+    private final Object listenersMonitor = new Object();
+    private volatile Map<String, NewEventListener> listeners = ImmutableMap.of();
     private final EventQueueProcessor activeMQController;
 
     @Inject
@@ -44,7 +52,23 @@ public class EventListenerDispatcher
     public void addListener(final String eventKey, final NewEventListener listener)
     {
         log.info("Adding listener for " + eventKey);
-        listeners.put(eventKey, listener);
+        synchronized (listenersMonitor) {
+            final Map<String, NewEventListener> newListeners = new HashMap<String, NewEventListener>(listeners);
+            newListeners.put(eventKey, listener);
+            listeners = ImmutableMap.copyOf(newListeners);
+        }
+    }
+
+    public void removeListener(final String eventKey)
+    {
+        log.info("Removing listener for " + eventKey);
+        synchronized (listenersMonitor) {
+            if (listeners.containsKey(eventKey)) {
+                final Map<String, NewEventListener> newListeners = new HashMap<String, NewEventListener>(listeners);
+                newListeners.remove(eventKey);
+                listeners = ImmutableMap.copyOf(newListeners);
+            }
+        }
     }
 
     public void stop()
@@ -52,7 +76,7 @@ public class EventListenerDispatcher
         activeMQController.stop();
     }
 
-    public synchronized void offer(final Event event)
+    public void offer(final Event event)
     {
         if (event == null) {
             return;
@@ -61,20 +85,40 @@ public class EventListenerDispatcher
         // We are still in the request thread, make sure to stay async here!
 
         if (activeMQController != null) {
+            // No-op (besides stats) if the event type isn't forwarded
             activeMQController.send(event);
         }
 
-        final NewEventListener listener = listeners.get(event.getName());
+        // Single read of the snapshot, for a consistent view of the listeners
+        final Map<String, NewEventListener> currentListeners = listeners;
+        if (currentListeners.isEmpty()) {
+            // Fast path, nobody is subscribed
+            return;
+        }
+
+        final NewEventListener listener = currentListeners.get(event.getName());
         if (listener != null) {
             listener.onNewEvent(event);
         }
 
-        final NewEventListener allListener = listeners.get(NO_FILTER_KEY);
+        final NewEventListener allListener = currentListeners.get(NO_FILTER_KEY);
         if (allListener != null) {
             allListener.onNewEvent(event);
         }
     }
 
+    /**
+     * @param eventName event type
+     * @return true if events of this type are handed to at least one listener or queue
+     */
+    public boolean hasSubscribers(final String eventName)
+    {
+        final Map<String, NewEventListener> currentListeners = listeners;
+        return currentListeners.containsKey(eventName) ||
+            currentListeners.containsKey(NO_FILTER_KEY) ||
+            (activeMQController != null && activeMQController.isForwarding(eventName));
+    }
+
     @Monitored
     public int getNbOfListeners()
     {
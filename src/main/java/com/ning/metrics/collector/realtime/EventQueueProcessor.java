@@ -24,5 +24,11 @@ public interface EventQueueProcessor
 
     void stop();
 
+    /**
+     * @param eventName event type
+     * @return true if events of this type are sent to the queue
+     */
+    boolean isForwarding(String eventName);
+
     void send(Event event);
 }
@@ -26,10 +26,12 @@ import org.slf4j.LoggerFactory;
 import org.weakref.jmx.Managed;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -42,8 +44,10 @@ public class EventQueueProcessorImpl implements EventQueueProcessor
     private final EventQueueConnection connection;
     private final AtomicBoolean enabled = new AtomicBoolean(false);
     private final AtomicBoolean isRunning = new AtomicBoolean(false);
-    private final Map<String, LocalQueueAndWorkers> queuesPerCategory = new HashMap<String, LocalQueueAndWorkers>();
+    // Read without locking from the request threads (see EventListenerDispatcher)
+    private final Map<String, LocalQueueAndWorkers> queuesPerCategory = new ConcurrentHashMap<String, LocalQueueAndWorkers>();
     private final Object queueMapMonitor = new Object();
+    // Immutable, replaced when modified
     private final AtomicReference<Set<String>> typesToCollect = new AtomicReference<Set<String>>();
     private final GlobalEventQueueStats stats;
     private final EventFormatter eventFormatter;
@@ -60,7 +64,7 @@ public class EventQueueProcessorImpl implements EventQueueProcessor
         final String typesStr = baseConfig.getActiveMQEventsToCollect();
         final Set<String> types = (typesStr == null) ? new HashSet<String>() : new HashSet<String>(Arrays.asList(typesStr.split("\\s*,\\s*")));
 
-        this.typesToCollect.set(types);
+        this.typesToCollect.set(Collections.unmodifiableSet(types));
         eventFormatter = new EventFormatter(baseConfig);
 
         this.connection = factory.createConnection();
@@ -101,10 +105,16 @@ public class EventQueueProcessorImpl implements EventQueueProcessor
         }
     }
 
+    @Override
+    public boolean isForwarding(final String eventName)
+    {
+        return isRunning.get() && typesToCollect.get().contains(eventName);
+    }
+
     @Override
     public void send(final Event event)
     {
-        if (event != null && isRunning.get() && typesToCollect.get().contains(event.getName())) {
+        if (event != null && isForwarding(event.getName())) {
             final String type = event.getName();
             LocalQueueAndWorkers queue = queuesPerCategory.get(type);
 
@@ -167,23 +177,23 @@ public class EventQueueProcessorImpl implements EventQueueProcessor
     }
     
     @Managed(description = "add event type to collect")
-    public void addTypeToCollect(final String event)
+    public synchronized void addTypeToCollect(final String event)
     {
-        final Set<String> events = typesToCollect.get();
+        final Set<String> events = new HashSet<String>(typesToCollect.get());
 
         if (events.add(event)) {
-            typesToCollect.set(events);
+            typesToCollect.set(Collections.unmodifiableSet(events));
             log.info(String.format("Added event type '%s' to list of events to send to the queue", event));
         }
     }
 
     @Managed(description = "remove event type to collect")
-    public void removeTypeToCollect(final String event)
+    public synchronized void removeTypeToCollect(final String event)
     {
-        final Set<String> events = typesToCollect.get();
+        final Set<String> events = new HashSet<String>(typesToCollect.get());
 
         if (events.remove(event)) {
-            typesToCollect.set(events);
+            typesToCollect.set(Collections.unmodifiableSet(events));
             log.info(String.format("Removed event type '%s' from list of events to send to the queue", event));
         }
     }
@@ -18,6 +18,7 @@ package com.ning.metrics.collector.realtime;
 
 import com.mogwee.executors.FailsafeScheduledExecutor;
 import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.util.EventQueueType;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,7 +27,6 @@ import org.weakref.jmx.MBeanExporter;
 import java.lang.management.ManagementFactory;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 class LocalQueueAndWorkers
@@ -48,9 +48,9 @@ class LocalQueueAndWorkers
 
         // important: MUST use config from processor, to get per-category overrides!
         final CollectorConfig config = processor.getConfig();
-        final int queueLength = config.getActiveMQBufferLength();
-
-        this.queue = new LinkedBlockingQueue<Object>(queueLength);
+        this.queue = EventQueueType.valueOf(config.getEventQueueType()).newQueue(config.getActiveMQBufferLength(), config.getRingBufferQueueCapacity());
+        // May be less than the configured length (ring buffers)
+        final int queueLength = queue.remainingCapacity();
 
         // Gather per-queue stats and expose them via JMX
         stats = globalEventQueueStats.createLocalStats(type, queue, queueLength);
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of fixed-size direct buffers, safe to use from multiple threads.
+ * <p/>
+ * At most maxBuffers buffers are handed out (or reserved) at any time, so the pool never holds more than
+ * maxBuffers * bufferSize bytes of direct memory: acquire() returns null when the pool is exhausted. Callers which
+ * need several buffers (e.g. for a request body) reserve them upfront with reserve(), so that they either get all of
+ * them or none. At most maxPooledBuffers idle buffers are kept, extra released buffers are left to the garbage
+ * collector.
+ */
+public class ByteBufferPool
+{
+    private final int bufferSize;
+    private final int maxBuffers;
+    private final int maxPooledBuffers;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    // ConcurrentLinkedQueue#size() is O(n)
+    private final AtomicInteger pooledBuffers = new AtomicInteger(0);
+    // Buffers which can still be acquired or reserved
+    private final AtomicInteger availableBuffers;
+    private final AtomicLong allocatedBuffers = new AtomicLong(0);
+
+    public ByteBufferPool(final int bufferSize, final int maxBuffers, final int maxPooledBuffers)
+    {
+        this.bufferSize = bufferSize;
+        this.maxBuffers = maxBuffers;
+        this.maxPooledBuffers = Math.min(maxBuffers, maxPooledBuffers);
+        this.availableBuffers = new AtomicInteger(maxBuffers);
+    }
+
+    /**
+     * @return a cleared buffer of getBufferSize() bytes, null if the pool is exhausted
+     */
+    public ByteBuffer acquire()
+    {
+        if (!reserve(1)) {
+            return null;
+        }
+        return acquireReserved();
+    }
+
+    /**
+     * Reserve buffers, to be obtained later via acquireReserved()
+     *
+     * @param nbBuffers number of buffers to reserve
+     * @return true if the buffers have been reserved, false if the pool doesn't have enough of them
+     */
+    public boolean reserve(final int nbBuffers)
+    {
+        while (true) {
+            final int available = availableBuffers.get();
+            if (available < nbBuffers) {
+                return false;
+            }
+            if (availableBuffers.compareAndSet(available, available - nbBuffers)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back reserved buffers which won't be acquired
+     *
+     * @param nbBuffers number of buffers reserved via reserve() and not acquired
+     */
+    public void cancelReservation(final int nbBuffers)
+    {
+        availableBuffers.addAndGet(nbBuffers);
+    }
+
+    /**
+     * @return a cleared buffer of getBufferSize() bytes, the caller must have reserved it via reserve()
+     */
+    public ByteBuffer acquireReserved()
+    {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            allocatedBuffers.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        else {
+            pooledBuffers.decrementAndGet();
+            return buffer;
+        }
+    }
+
+    /**
+     * Give a buffer back to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer buffer obtained via acquire() or acquireReserved()
+     */
+    public void release(final ByteBuffer buffer)
+    {
+        if (buffer == null || buffer.capacity() != bufferSize) {
+            return;
+        }
+
+        if (pooledBuffers.incrementAndGet() <= maxPooledBuffers) {
+            buffer.clear();
+            buffers.offer(buffer);
+        }
+        else {
+            pooledBuffers.decrementAndGet();
+        }
+        availableBuffers.incrementAndGet();
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of buffers needed to hold that many bytes
+     */
+    public int getBuffersNeeded(final long bytes)
+    {
+        return (int) Math.min(Integer.MAX_VALUE, (bytes + bufferSize - 1) / bufferSize);
+    }
+
+    /**
+     * @return number of idle buffers in the pool
+     */
+    public int getPooledBuffers()
+    {
+        return pooledBuffers.get();
+    }
+
+    /**
+     * @return number of buffers handed out or reserved
+     */
+    public int getUsedBuffers()
+    {
+        return maxBuffers - availableBuffers.get();
+    }
+
+    /**
+     * @return number of buffers allocated since startup
+     */
+    public long getAllocatedBuffers()
+    {
+        return allocatedBuffers.get();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Implementations available for the in-memory event queues (spool writers and realtime senders)
+ *
+ * @see com.ning.metrics.collector.binder.config.CollectorConfig#getEventQueueType()
+ */
+public enum EventQueueType
+{
+    /**
+     * LinkedBlockingQueue: allocates a node per event, producers and consumers contend on locks
+     */
+    LINKED
+        {
+            @Override
+            public <T> BlockingQueue<T> newQueue(final int capacity, final int maxPreallocatedCapacity)
+            {
+                return new LinkedBlockingQueue<T>(capacity);
+            }
+        },
+
+    /**
+     * RingBufferBlockingQueue: pre-allocated and lock-free, idle consumers poll with backoff.
+     * The capacity is capped to maxPreallocatedCapacity, since the whole buffer is allocated upfront.
+     */
+    RING_BUFFER
+        {
+            @Override
+            public <T> BlockingQueue<T> newQueue(final int capacity, final int maxPreallocatedCapacity)
+            {
+                if (capacity > maxPreallocatedCapacity) {
+                    // More events will be dropped than with a LINKED queue
+                    log.warn(String.format("Ring buffer queue capacity capped to %d events (requested: %d), see collector.event-queue.ring-buffer.capacity",
+                                           maxPreallocatedCapacity, capacity));
+                }
+                return new RingBufferBlockingQueue<T>(Math.max(1, Math.min(capacity, maxPreallocatedCapacity)));
+            }
+        };
+
+    private static final Logger log = LoggerFactory.getLogger(EventQueueType.class);
+
+    /**
+     * @param capacity                maximum number of elements in the queue
+     * @param maxPreallocatedCapacity maximum capacity for implementations allocating their storage upfront
+     * @return a new, empty, queue
+     */
+    public abstract <T> BlockingQueue<T> newQueue(final int capacity, final int maxPreallocatedCapacity);
+}
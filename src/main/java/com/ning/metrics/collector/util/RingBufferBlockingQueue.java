@@ -0,0 +1,306 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.util;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free, multi-producers multi-consumers queue backed by a pre-allocated ring buffer
+ * (see Dmitry Vyukov's bounded MPMC queue).
+ * <p/>
+ * Unlike LinkedBlockingQueue, offer() and poll() don't allocate and don't take any lock. Each slot carries a sequence
+ * number telling producers and consumers whether it is available, and the head and tail counters are padded to live
+ * on their own cache line.
+ * <p/>
+ * Producers never block: offer() returns false when the queue is full. Blocking consumers (take, timed poll) don't
+ * get signaled, they spin, yield and then park with an increasing delay (capped at {@link #MAX_PARK_NANOS}) while
+ * the queue is empty. Iterators work on a snapshot of the queue and don't support removal.
+ */
+public class RingBufferBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>
+{
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int capacity;
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    // Next position to write to
+    private final PaddedAtomicLong tail = new PaddedAtomicLong();
+    // Next position to read from
+    private final PaddedAtomicLong head = new PaddedAtomicLong();
+
+    public RingBufferBlockingQueue(final int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.buffer = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    @Override
+    public boolean offer(final E e)
+    {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+
+        long position = tail.get();
+        while (true) {
+            final int index = index(position);
+            final long delta = sequences.get(index) - position;
+            if (delta == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer[index] = e;
+                    // Publish the element
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            }
+            else if (delta < 0) {
+                // The consumer hasn't freed the slot yet: full
+                return false;
+            }
+            else {
+                // Another producer got there first
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll()
+    {
+        long position = head.get();
+        while (true) {
+            final int index = index(position);
+            final long delta = sequences.get(index) - (position + 1);
+            if (delta == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E e = (E) buffer[index];
+                    buffer[index] = null;
+                    // Hand the slot over to the producer one lap ahead
+                    sequences.lazySet(index, position + capacity);
+                    return e;
+                }
+                position = head.get();
+            }
+            else if (delta < 0) {
+                // Nothing published yet: empty
+                return null;
+            }
+            else {
+                // Another consumer got there first
+                position = head.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek()
+    {
+        final long position = head.get();
+        final int index = index(position);
+        if (sequences.get(index) == position + 1) {
+            return (E) buffer[index];
+        }
+        else {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(final E e) throws InterruptedException
+    {
+        int tries = 0;
+        while (!offer(e)) {
+            tries = backOff(tries);
+        }
+    }
+
+    @Override
+    public boolean offer(final E e, final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int tries = 0;
+        while (!offer(e)) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            tries = backOff(tries);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException
+    {
+        int tries = 0;
+        E e;
+        while ((e = poll()) == null) {
+            tries = backOff(tries);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(final long timeout, final TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int tries = 0;
+        E e;
+        while ((e = poll()) == null) {
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            tries = backOff(tries);
+        }
+        return e;
+    }
+
+    @Override
+    public int remainingCapacity()
+    {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c)
+    {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super E> c, final int maxElements)
+    {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public int size()
+    {
+        // Read head first: the size can only be overestimated, clamp it
+        final long currentHead = head.get();
+        final long size = tail.get() - currentHead;
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    /**
+     * Weakly consistent: the iterator works on a snapshot of the elements published at the time of the call
+     * (for toString(), contains(), etc.). Elements consumed concurrently may or may not be part of it.
+     *
+     * @return a read-only iterator over a snapshot of the queue
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator()
+    {
+        final long currentHead = head.get();
+        final long currentTail = tail.get();
+        final List<E> snapshot = new ArrayList<E>((int) Math.max(0, Math.min(capacity, currentTail - currentHead)));
+        for (long position = currentHead; position < currentTail; position++) {
+            final int index = index(position);
+            final E e = (E) buffer[index];
+            // Only keep the element if the slot still holds the one published at this position
+            if (e != null && sequences.get(index) == position + 1) {
+                snapshot.add(e);
+            }
+        }
+
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    private int index(final long position)
+    {
+        return (int) (position % capacity);
+    }
+
+    /**
+     * Spin, then yield, then park with an exponential delay
+     *
+     * @param tries number of unsuccessful tries so far
+     * @return the updated number of tries
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    private static int backOff(final int tries) throws InterruptedException
+    {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        // Busy spin for the first SPIN_TRIES tries
+        if (tries >= SPIN_TRIES + YIELD_TRIES) {
+            final int shift = Math.min(tries - SPIN_TRIES - YIELD_TRIES, 20);
+            LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << shift));
+        }
+        else if (tries >= SPIN_TRIES) {
+            Thread.yield();
+        }
+
+        return tries == Integer.MAX_VALUE ? tries : tries + 1;
+    }
+
+    /**
+     * AtomicLong alone on its cache line, to avoid false sharing between producers and consumers
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedAtomicLong extends AtomicLong
+    {
+        public volatile long p1, p2, p3, p4, p5, p6 = 7L;
+
+        long preventOptimization()
+        {
+            return p1 + p2 + p3 + p4 + p5 + p6;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.util;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
+
+import com.google.inject.Inject;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.MetricName;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency (in microseconds) of each stage of the ingestion path, as metrics-core histograms:
+ * <ul>
+ * <li>com.ning.metrics.collector:type=StageLatencies,name=STAGE</li>
+ * <li>com.ning.metrics.collector:type=StageLatenciesByType,name=STAGE,scope=DeserializationType, for stages recorded
+ * with the deserialization type of the request</li>
+ * <li>com.ning.metrics.collector:type=StageLatenciesByEvent,name=STAGE,scope=EventName, only if enabled
+ * (collector.stage-latencies.per-event.enabled)</li>
+ * </ul>
+ * Each call to record updates the total of the stage exactly once.
+ * <p/>
+ * Histograms are recorded for every event, so they use uniform reservoirs (lock-free, fixed size) rather than
+ * exponentially decaying ones. Only the first MAX_EVENT_NAMES event names get their own histograms, others are
+ * grouped under OTHER.
+ * <p/>
+ * Bound as a singleton. Histograms are registered in the default metrics registry, so additional instances (tests)
+ * update the same histograms.
+ */
+public class StageLatencies
+{
+    public enum Stage
+    {
+        // Creating the deserializer and extracting an event
+        DESERIALIZE,
+        // Filters and load shedding
+        FILTER,
+        // EventListenerDispatcher.offer
+        REALTIME_OFFER,
+        // EventSpoolDispatcher.offer
+        SPOOL_OFFER,
+        // Building the response (including logging failures)
+        RESPONSE
+    }
+
+    private static final String METRICS_GROUP = "com.ning.metrics.collector";
+    //@VisibleForTesting
+    static final int MAX_EVENT_NAMES = 1000;
+    //@VisibleForTesting
+    static final String OTHER_EVENTS = "OTHER";
+
+    private final Map<Stage, Histogram> byStage = new EnumMap<Stage, Histogram>(Stage.class);
+    private final Map<Stage, ConcurrentMap<String, Histogram>> byType = newHistogramsMap();
+    private final Map<Stage, ConcurrentMap<String, Histogram>> byEvent = newHistogramsMap();
+    // Number of event names with their own histogram, per stage
+    private final Map<Stage, AtomicInteger> eventNamesCount = new EnumMap<Stage, AtomicInteger>(Stage.class);
+
+    private final boolean perEventEnabled;
+
+    @Inject
+    public StageLatencies(final CollectorConfig config)
+    {
+        this(config.isStageLatenciesPerEventEnabled());
+    }
+
+    /**
+     * @param perEventEnabled whether to record the latencies per event name, in addition to the totals per stage
+     */
+    public StageLatencies(final boolean perEventEnabled)
+    {
+        this.perEventEnabled = perEventEnabled;
+
+        for (final Stage stage : Stage.values()) {
+            byStage.put(stage, newHistogram(new MetricName(METRICS_GROUP, "StageLatencies", stage.toString())));
+            eventNamesCount.put(stage, new AtomicInteger(0));
+        }
+    }
+
+    /**
+     * @param stage      stage to record
+     * @param type       deserialization type of the request
+     * @param startNanos System.nanoTime() at the beginning of the stage
+     */
+    public void record(final Stage stage, final DeserializationType type, final long startNanos)
+    {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        byStage.get(stage).update(micros);
+        getHistogram(byType, "StageLatenciesByType", stage, type.toString()).update(micros);
+    }
+
+    /**
+     * @param stage      stage to record
+     * @param eventName  name of the event (may be null)
+     * @param startNanos System.nanoTime() at the beginning of the stage
+     */
+    public void record(final Stage stage, final String eventName, final long startNanos)
+    {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        byStage.get(stage).update(micros);
+        recordPerEvent(stage, eventName, micros);
+    }
+
+    /**
+     * @param stage      stage to record
+     * @param type       deserialization type of the request
+     * @param eventName  name of the event (may be null)
+     * @param startNanos System.nanoTime() at the beginning of the stage
+     */
+    public void record(final Stage stage, final DeserializationType type, final String eventName, final long startNanos)
+    {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        byStage.get(stage).update(micros);
+        getHistogram(byType, "StageLatenciesByType", stage, type.toString()).update(micros);
+        recordPerEvent(stage, eventName, micros);
+    }
+
+    //@VisibleForTesting
+    Histogram getHistogram(final Stage stage)
+    {
+        return byStage.get(stage);
+    }
+
+    //@VisibleForTesting
+    Histogram getHistogram(final Stage stage, final DeserializationType type)
+    {
+        return byType.get(stage).get(type.toString());
+    }
+
+    //@VisibleForTesting
+    Histogram getHistogram(final Stage stage, final String eventName)
+    {
+        return byEvent.get(stage).get(eventName);
+    }
+
+    private void recordPerEvent(final Stage stage, final String eventName, final long micros)
+    {
+        if (perEventEnabled) {
+            getEventHistogram(stage, eventName).update(micros);
+        }
+    }
+
+    private Histogram getEventHistogram(final Stage stage, final String eventName)
+    {
+        if (eventName == null) {
+            return getHistogram(byEvent, "StageLatenciesByEvent", stage, OTHER_EVENTS);
+        }
+
+        final Histogram histogram = byEvent.get(stage).get(eventName);
+        if (histogram != null) {
+            return histogram;
+        }
+
+        // Reserve a slot first, so that concurrent new event names can't go over the limit
+        final AtomicInteger count = eventNamesCount.get(stage);
+        if (count.incrementAndGet() > MAX_EVENT_NAMES) {
+            count.decrementAndGet();
+            return getHistogram(byEvent, "StageLatenciesByEvent", stage, OTHER_EVENTS);
+        }
+
+        final Histogram newHistogram = newHistogram(new MetricName(METRICS_GROUP, "StageLatenciesByEvent", stage.toString(), eventName));
+        final Histogram existing = byEvent.get(stage).putIfAbsent(eventName, newHistogram);
+        if (existing != null) {
+            // Another thread created it
+            count.decrementAndGet();
+            return existing;
+        }
+        return newHistogram;
+    }
+
+    private Histogram getHistogram(final Map<Stage, ConcurrentMap<String, Histogram>> histogramsPerStage, final String metricsType,
+                                   final Stage stage, final String scope)
+    {
+        final ConcurrentMap<String, Histogram> histograms = histogramsPerStage.get(stage);
+        Histogram histogram = histograms.get(scope);
+        if (histogram == null) {
+            histogram = newHistogram(new MetricName(METRICS_GROUP, metricsType, stage.toString(), scope));
+            final Histogram existing = histograms.putIfAbsent(scope, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    private static Histogram newHistogram(final MetricName metricName)
+    {
+        // Uniform: updates don't lock, unlike the exponentially decaying (biased) samples
+        return Metrics.newHistogram(metricName, false);
+    }
+
+    private static Map<Stage, ConcurrentMap<String, Histogram>> newHistogramsMap()
+    {
+        final Map<Stage, ConcurrentMap<String, Histogram>> histograms = new EnumMap<Stage, ConcurrentMap<String, Histogram>>(Stage.class);
+        for (final Stage stage : Stage.values()) {
+            histograms.put(stage, new ConcurrentHashMap<String, Histogram>());
+        }
+        return histograms;
+    }
+}
@@ -87,6 +87,17 @@ public abstract class FastCollectorConfig implements CollectorConfig
         return new TimeSpan(1, TimeUnit.SECONDS);
     }
 
+    /**
+     * Retry failed spool files quickly
+     *
+     * @return initial retry backoff of the spool processors
+     */
+    @Override
+    public TimeSpan getSpoolProcessorRetryBackoff()
+    {
+        return new TimeSpan(10, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Directory for the collector to buffer events before writing them to HDFS
      *
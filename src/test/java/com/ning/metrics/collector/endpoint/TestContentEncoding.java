@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint;
+
+import com.ning.compress.lzf.LZFOutputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class TestContentEncoding
+{
+    private static final byte[] BODY;
+
+    static {
+        final StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            builder.append(i == 0 ? "" : ",").append("{\"eventName\":\"FuuEvent\",\"payload\":{\"i\":").append(i).append("}}");
+        }
+        BODY = builder.append("]").toString().getBytes();
+    }
+
+    @Test(groups = "fast")
+    public void testFromHeader() throws Exception
+    {
+        Assert.assertEquals(ContentEncoding.fromHeader(null), ContentEncoding.IDENTITY);
+        Assert.assertEquals(ContentEncoding.fromHeader("identity"), ContentEncoding.IDENTITY);
+        Assert.assertEquals(ContentEncoding.fromHeader(" GZIP "), ContentEncoding.GZIP);
+        Assert.assertEquals(ContentEncoding.fromHeader("x-gzip"), ContentEncoding.GZIP);
+        Assert.assertEquals(ContentEncoding.fromHeader("deflate"), ContentEncoding.DEFLATE);
+        Assert.assertEquals(ContentEncoding.fromHeader("lzf"), ContentEncoding.LZF);
+        Assert.assertNull(ContentEncoding.fromHeader("br"));
+    }
+
+    @Test(groups = "fast")
+    public void testDecode() throws Exception
+    {
+        Assert.assertEquals(ByteStreams.toByteArray(ContentEncoding.decode(null, new ByteArrayInputStream(BODY), BODY.length)), BODY);
+
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        compress(new GZIPOutputStream(gzipped));
+        Assert.assertEquals(ByteStreams.toByteArray(ContentEncoding.decode("gzip", new ByteArrayInputStream(gzipped.toByteArray()), BODY.length)), BODY);
+
+        final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        compress(new DeflaterOutputStream(deflated));
+        Assert.assertEquals(ByteStreams.toByteArray(ContentEncoding.decode("deflate", new ByteArrayInputStream(deflated.toByteArray()), BODY.length)), BODY);
+
+        final ByteArrayOutputStream lzfed = new ByteArrayOutputStream();
+        compress(new LZFOutputStream(lzfed));
+        Assert.assertEquals(ByteStreams.toByteArray(ContentEncoding.decode("lzf", new ByteArrayInputStream(lzfed.toByteArray()), BODY.length)), BODY);
+    }
+
+    @Test(groups = "fast")
+    public void testUnsupportedEncoding() throws Exception
+    {
+        try {
+            ContentEncoding.decode("snappy", new ByteArrayInputStream(BODY), BODY.length);
+            Assert.fail();
+        }
+        catch (WebApplicationException e) {
+            Assert.assertEquals(e.getResponse().getStatus(), Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode());
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testInvalidBody() throws Exception
+    {
+        try {
+            ContentEncoding.decode("gzip", new ByteArrayInputStream(BODY), BODY.length);
+            Assert.fail();
+        }
+        catch (WebApplicationException e) {
+            Assert.assertEquals(e.getResponse().getStatus(), Response.Status.BAD_REQUEST.getStatusCode());
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testDecompressionBomb() throws Exception
+    {
+        // 64MB of zeros, about 64KB once gzipped
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        final OutputStream out = new GZIPOutputStream(gzipped);
+        final byte[] zeros = new byte[1024 * 1024];
+        for (int i = 0; i < 64; i++) {
+            out.write(zeros);
+        }
+        out.close();
+        Assert.assertTrue(gzipped.size() < 1024 * 1024);
+
+        final InputStream in = ContentEncoding.decode("gzip", new ByteArrayInputStream(gzipped.toByteArray()), 1024 * 1024);
+        final CountingOutputStream decoded = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try {
+            ByteStreams.copy(in, decoded);
+            Assert.fail();
+        }
+        catch (RequestTooLargeException e) {
+            Assert.assertEquals(decoded.getCount(), 1024 * 1024);
+        }
+
+        // Uncompressed bodies are not capped here
+        Assert.assertEquals(ContentEncoding.decode(null, new ByteArrayInputStream(BODY), 1).read(), (int) '[');
+    }
+
+    private void compress(final OutputStream out) throws Exception
+    {
+        out.write(BODY);
+        out.close();
+    }
+}
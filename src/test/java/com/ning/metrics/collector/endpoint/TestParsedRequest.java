@@ -19,6 +19,7 @@ package com.ning.metrics.collector.endpoint;
 import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
 
 import org.joda.time.DateTime;
+import org.mockito.Mockito;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -107,6 +108,25 @@ public class TestParsedRequest
         Assert.assertTrue(timeDiff < 100, String.format("took %d millis just to create the sample event", timeDiff));
     }
 
+    @Test(groups = "fast")
+    public void testHeadersAreParsedOnDemand() throws Exception
+    {
+        final HttpHeaders httpHeaders = Mockito.spy(createDummyHeaders());
+        final ParsedRequest parsedRequest = new ParsedRequest("DummyEvent", httpHeaders, null, null, null, DeserializationType.DEFAULT);
+        Mockito.verifyZeroInteractions(httpHeaders);
+
+        // Host and path share the same lookup, values are memoized
+        Assert.assertEquals(parsedRequest.getReferrerHost(), host);
+        Assert.assertEquals(parsedRequest.getReferrerPath(), path);
+        Assert.assertEquals(parsedRequest.getReferrerHost(), host);
+        Mockito.verify(httpHeaders, Mockito.times(1)).getRequestHeader("Referer");
+
+        Assert.assertEquals(parsedRequest.getUserAgent(), userAgent);
+        Assert.assertEquals(parsedRequest.getUserAgent(), userAgent);
+        Mockito.verify(httpHeaders, Mockito.times(1)).getRequestHeader("User-Agent");
+        Mockito.verify(httpHeaders, Mockito.never()).getRequestHeader("X-Forwarded-For");
+    }
+
     private HttpHeaders createDummyHeaders()
     {
         return new MockHttpHeaders(referer, userAgent, ip);
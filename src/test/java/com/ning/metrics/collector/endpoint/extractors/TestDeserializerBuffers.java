@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.extractors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class TestDeserializerBuffers
+{
+    @Test(groups = "fast")
+    public void testBuffersAreReused() throws Exception
+    {
+        final DeserializerBuffers buffers = DeserializerBuffers.get();
+        Assert.assertSame(DeserializerBuffers.get(), buffers);
+
+        final ByteArrayOutputStream envelope = buffers.getEnvelopeBuffer();
+        envelope.write(new byte[]{1, 2, 3});
+        final byte[] envelopeBytes = envelope.toByteArray();
+
+        // Reset for the next envelope, previous copies are left untouched
+        Assert.assertSame(buffers.getEnvelopeBuffer(), envelope);
+        Assert.assertEquals(envelope.size(), 0);
+        envelope.write(new byte[]{4});
+        Assert.assertEquals(envelopeBytes, new byte[]{1, 2, 3});
+    }
+
+    @Test(groups = "fast")
+    public void testToByteArray() throws Exception
+    {
+        final DeserializerBuffers buffers = DeserializerBuffers.get();
+        final Random random = new Random(0);
+        for (final int size : new int[]{0, 10, 8192, 100000, DeserializerBuffers.MAX_RETAINED_SIZE + 1, 10}) {
+            final byte[] body = new byte[size];
+            random.nextBytes(body);
+
+            final byte[] first = buffers.toByteArray(new ByteArrayInputStream(body));
+            final byte[] second = buffers.toByteArray(new ByteArrayInputStream(Arrays.copyOf(body, size / 2)));
+            Assert.assertEquals(first, body);
+            Assert.assertEquals(second, Arrays.copyOf(body, size / 2));
+        }
+
+        // Oversized buffers are not retained
+        final ByteArrayOutputStream envelope = buffers.getEnvelopeBuffer();
+        envelope.write(new byte[DeserializerBuffers.MAX_RETAINED_SIZE + 1]);
+        Assert.assertNotSame(buffers.getEnvelopeBuffer(), envelope);
+    }
+
+    @Test(groups = "fast")
+    public void testReadFully() throws Exception
+    {
+        final DeserializerBuffers buffers = DeserializerBuffers.get();
+        final Random random = new Random(0);
+        for (final int size : new int[]{0, 10, 100000, DeserializerBuffers.MAX_RETAINED_SIZE + 1, 10}) {
+            final byte[] body = new byte[size];
+            random.nextBytes(body);
+
+            final ByteArrayInputStream content = buffers.readFully(new ByteArrayInputStream(body));
+            Assert.assertEquals(content.available(), size);
+            final byte[] read = new byte[size];
+            Assert.assertEquals(content.read(read, 0, size), size == 0 ? -1 : size);
+            Assert.assertEquals(read, body);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.extractors;
+
+import com.ning.metrics.collector.processing.EventCollector;
+import com.ning.metrics.collector.processing.PassThroughSmileEnvelopeEvent;
+import com.ning.metrics.collector.processing.SerializationType;
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.EventDeserializer;
+import com.ning.metrics.serialization.event.EventSerializer;
+import com.ning.metrics.serialization.event.SmileEnvelopeEvent;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestPassThroughSmileEnvelopeEventDeserializer
+{
+    private static final long EVENT_DATE = 1325419200000L;
+
+    @Test(groups = "fast")
+    public void testJsonRoundTrip() throws Exception
+    {
+        testRoundTrip(true);
+    }
+
+    @Test(groups = "fast")
+    public void testSmileRoundTrip() throws Exception
+    {
+        // The default SmileFactory uses back-references to shared names across envelopes
+        testRoundTrip(false);
+    }
+
+    @Test(groups = "fast")
+    public void testForwardedEventsAreDeserialized() throws Exception
+    {
+        final EventCollector eventCollector = Mockito.mock(EventCollector.class);
+        Mockito.when(eventCollector.isForwarded("Forwarded")).thenReturn(true);
+
+        final byte[] body = createBody(false, "Forwarded", "Spooled");
+        final List<Event> events = deserialize(new PassThroughSmileEnvelopeEventDeserializer(new ByteArrayInputStream(body), false, eventCollector));
+
+        Assert.assertEquals(events.size(), 2);
+        Assert.assertTrue(events.get(0) instanceof SmileEnvelopeEvent);
+        Assert.assertEquals(events.get(0).getName(), "Forwarded");
+        Assert.assertTrue(events.get(1) instanceof PassThroughSmileEnvelopeEvent);
+        Assert.assertEquals(events.get(1).getName(), "Spooled");
+    }
+
+    private void testRoundTrip(final boolean plainJson) throws Exception
+    {
+        final byte[] body = createBody(plainJson, "FuuEvent", "BarEvent", "FuuEvent");
+        final SerializationType regularType = plainJson ? SerializationType.JSON : SerializationType.SMILE;
+        final SerializationType passThroughType = plainJson ? SerializationType.JSON_PASS_THROUGH : SerializationType.SMILE_PASS_THROUGH;
+
+        final List<Event> expected = deserialize(regularType.getDeSerializer(new ByteArrayInputStream(body)));
+        final List<Event> events = deserialize(new PassThroughSmileEnvelopeEventDeserializer(new ByteArrayInputStream(body), plainJson, null));
+        Assert.assertEquals(events.size(), 3);
+
+        for (int i = 0; i < events.size(); i++) {
+            final Event event = events.get(i);
+            Assert.assertTrue(event instanceof PassThroughSmileEnvelopeEvent);
+            Assert.assertEquals(SerializationType.get(event), passThroughType);
+            Assert.assertEquals(event.getName(), expected.get(i).getName());
+            Assert.assertEquals(event.getEventDateTime().getMillis(), EVENT_DATE);
+            Assert.assertEquals(event.getOutputDir("/events"), expected.get(i).getOutputDir("/events"));
+            Assert.assertEquals(event.getData().toString(), expected.get(i).getData().toString());
+        }
+
+        // Write them to a spool file and read them back
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        final EventSerializer serializer = passThroughType.getSerializer();
+        serializer.open(file);
+        for (final Event event : events) {
+            serializer.serialize(event);
+        }
+        serializer.close();
+
+        final List<Event> spooledEvents = deserialize(SerializationType.fromSuffix(passThroughType.getFileSuffix()).getDeSerializer(new ByteArrayInputStream(file.toByteArray())));
+        Assert.assertEquals(spooledEvents.size(), 3);
+        for (int i = 0; i < spooledEvents.size(); i++) {
+            Assert.assertEquals(spooledEvents.get(i).getName(), expected.get(i).getName());
+            Assert.assertEquals(spooledEvents.get(i).getData().toString(), expected.get(i).getData().toString());
+        }
+    }
+
+    private List<Event> deserialize(final EventDeserializer deserializer) throws IOException
+    {
+        final List<Event> events = new ArrayList<Event>();
+        while (deserializer.hasNextEvent()) {
+            events.add(deserializer.getNextEvent());
+        }
+        return events;
+    }
+
+    private byte[] createBody(final boolean plainJson, final String... eventNames) throws IOException
+    {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final JsonFactory factory = plainJson ? new JsonFactory() : new SmileFactory();
+        final JsonGenerator g = factory.createJsonGenerator(stream);
+
+        g.writeStartArray();
+        for (final String eventName : eventNames) {
+            g.writeStartObject();
+            g.writeStringField("eventName", eventName);
+            g.writeObjectFieldStart("payload");
+            g.writeNumberField(SmileEnvelopeEvent.SMILE_EVENT_DATETIME_TOKEN_NAME, EVENT_DATE);
+            g.writeStringField(SmileEnvelopeEvent.SMILE_EVENT_GRANULARITY_TOKEN_NAME, "HOURLY");
+            g.writeStringField("FuuField", "fuu");
+            g.writeArrayFieldStart("List");
+            g.writeNumber(1);
+            g.writeNumber(2);
+            g.writeEndArray();
+            g.writeObjectFieldStart("Nested");
+            g.writeBooleanField("TrueField", true);
+            g.writeEndObject();
+            g.writeEndObject();
+            g.writeEndObject();
+        }
+        g.writeEndArray();
+        g.close();
+
+        return stream.toByteArray();
+    }
+}
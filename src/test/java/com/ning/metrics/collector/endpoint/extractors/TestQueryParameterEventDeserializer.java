@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.extractors;
+
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.RequestTooLargeException;
+import com.ning.metrics.collector.events.parsing.ThriftEnvelopeEventParser;
+import com.ning.metrics.collector.events.parsing.converters.DecimalNumberConverter;
+import com.ning.metrics.serialization.event.Granularity;
+import com.ning.metrics.serialization.event.ThriftEnvelopeEvent;
+import com.ning.metrics.serialization.thrift.ThriftEnvelope;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.joda.time.DateTime;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+
+public class TestQueryParameterEventDeserializer
+{
+    private final ThriftEnvelopeEventParser parser = new ThriftEnvelopeEventParser(new DecimalNumberConverter());
+
+    @Test(groups = "fast")
+    public void testSingleEvent() throws Exception
+    {
+        final QueryParameterEventDeserializer deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(ImmutableList.of("Hello,sWorld,81"), null));
+
+        Assert.assertTrue(deserializer.hasNextEvent());
+        verifyEvent(deserializer.getNextEvent(), "Hello", "World");
+        Assert.assertFalse(deserializer.hasNextEvent());
+    }
+
+    @Test(groups = "fast")
+    public void testMultipleEventsInQueryString() throws Exception
+    {
+        final QueryParameterEventDeserializer deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(ImmutableList.of("Hello,sWorld", "Bonjour,sMonde", "", "Hola,sMundo"), null));
+
+        verifyEvent(deserializer.getNextEvent(), "Hello", "World");
+        verifyEvent(deserializer.getNextEvent(), "Bonjour", "Monde");
+        Assert.assertTrue(deserializer.hasNextEvent());
+        verifyEvent(deserializer.getNextEvent(), "Hola", "Mundo");
+        Assert.assertFalse(deserializer.hasNextEvent());
+    }
+
+    @Test(groups = "fast")
+    public void testNewlineInQueryParameter() throws Exception
+    {
+        // Query parameters are URL decoded: an encoded newline (%0A) belongs to the event, as it always did
+        final QueryParameterEventDeserializer deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(ImmutableList.of("Hello,sHello\nWorld"), null));
+
+        verifyEvent(deserializer.getNextEvent(), "Hello", "Hello\nWorld");
+        Assert.assertFalse(deserializer.hasNextEvent());
+    }
+
+    @Test(groups = "fast")
+    public void testMultipleEventsInBody() throws Exception
+    {
+        final InputStream body = new ByteArrayInputStream("Hello,sWorld\r\nBonjour,sMonde\n\n".getBytes("UTF-8"));
+        final QueryParameterEventDeserializer deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(null, body));
+
+        verifyEvent(deserializer.getNextEvent(), "Hello", "World");
+        verifyEvent(deserializer.getNextEvent(), "Bonjour", "Monde");
+        Assert.assertFalse(deserializer.hasNextEvent());
+    }
+
+    @Test(groups = "fast")
+    public void testLineTooLongInBody() throws Exception
+    {
+        final String event = "Hello,s" + Strings.repeat("a", QueryParameterEventDeserializer.MAX_LINE_LENGTH);
+        final InputStream body = new ByteArrayInputStream(("Hello,sWorld\n" + event + "\n").getBytes("UTF-8"));
+        final QueryParameterEventDeserializer deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(null, body));
+
+        verifyEvent(deserializer.getNextEvent(), "Hello", "World");
+        try {
+            deserializer.hasNextEvent();
+            Assert.fail();
+        }
+        catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof RequestTooLargeException);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testInvalidEvents() throws Exception
+    {
+        QueryParameterEventDeserializer deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(null, null));
+        Assert.assertTrue(deserializer.hasNextEvent());
+        verifyFailure(deserializer);
+
+        deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(ImmutableList.of(""), null));
+        verifyFailure(deserializer);
+
+        deserializer = new QueryParameterEventDeserializer(parser, createParsedRequest(ImmutableList.of("Hello,sWorld", "Hello", "Hello,sWorld"), null));
+        verifyEvent(deserializer.getNextEvent(), "Hello", "World");
+        verifyFailure(deserializer);
+    }
+
+    private void verifyEvent(final ThriftEnvelopeEvent event, final String eventName, final String value)
+    {
+        Assert.assertEquals(event.getName(), eventName);
+        Assert.assertEquals(((ThriftEnvelope) event.getData()).getPayload().get(0).getDataItem().getString(), value);
+    }
+
+    private void verifyFailure(final QueryParameterEventDeserializer deserializer)
+    {
+        try {
+            deserializer.getNextEvent();
+            Assert.fail();
+        }
+        catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private ParsedRequest createParsedRequest(final List<String> eventNames, final InputStream body)
+    {
+        final ParsedRequest parsedRequest = Mockito.mock(ParsedRequest.class);
+        Mockito.when(parsedRequest.getEventNames()).thenReturn(eventNames == null ? Collections.<String>emptyList() : eventNames);
+        Mockito.when(parsedRequest.getInputStream()).thenReturn(body);
+        Mockito.when(parsedRequest.getDateTime()).thenReturn(new DateTime());
+        Mockito.when(parsedRequest.getBucketGranularity()).thenReturn(Granularity.HOURLY);
+        return parsedRequest;
+    }
+}
@@ -20,6 +20,7 @@ import com.ning.metrics.collector.endpoint.ParsedRequest;
 import com.ning.metrics.collector.events.parsing.ThriftEnvelopeEventParser;
 import com.ning.metrics.collector.events.parsing.converters.Base64NumberConverter;
 import com.ning.metrics.collector.events.parsing.converters.DecimalNumberConverter;
+import com.ning.metrics.collector.events.parsing.converters.NumberConverter;
 import com.ning.metrics.collector.util.Ip;
 import com.ning.metrics.serialization.event.Granularity;
 import com.ning.metrics.serialization.event.ThriftEnvelopeEvent;
@@ -153,6 +154,10 @@ public class TestThriftEnvelopeEventParser
         Assert.assertEquals(result.getPayload().get(9).getDataItem().getLong(), Long.valueOf(-20000000000L));
 
         testParseFail("event-name", "8a-string");
+        // As Long.valueOf on Java 6
+        testParseFail("event-name", "8+1");
+        testParseFail("event-name", "8+");
+        testParseFail("event-name", "8-");
     }
 
     @Test(groups = "fast")
@@ -183,6 +188,76 @@ public class TestThriftEnvelopeEventParser
         Assert.assertEquals(result.getPayload().get(1).getDataItem().getString(), "another-string");
     }
 
+    @Test(groups = "fast")
+    public void testParseUrlEncoded() throws Exception
+    {
+        final ThriftEnvelope result = parseThriftEnvelopeBase10("event-name", "sa+b%20c,s%C3%A9t%C3%A9,,1%31,s%2C");
+
+        Assert.assertEquals(result.getPayload().size(), 4);
+        Assert.assertEquals(result.getPayload().get(0).getDataItem().getString(), "a b c");
+        Assert.assertEquals(result.getPayload().get(1).getDataItem().getString(), "\u00e9t\u00e9");
+        Assert.assertEquals(result.getPayload().get(2).getId(), (short) 4);
+        Assert.assertEquals(result.getPayload().get(2).getDataItem().getByte(), Byte.valueOf((byte) 1));
+        Assert.assertEquals(result.getPayload().get(3).getDataItem().getString(), ",");
+
+        testParseFail("event-name", "s%4");
+        testParseFail("event-name", "s%zz");
+        testParseFail("event-name", "xfoo");
+        testParseFail("event-name", "z1");
+    }
+
+    @Test(groups = "fast")
+    public void testSinglePassParserMatchesTokenizer() throws Exception
+    {
+        // Not a CharSequenceNumberConverter: goes through the Tokenizer/Converter chain
+        final ThriftEnvelopeEventParser tokenizerParser = new ThriftEnvelopeEventParser(new NumberConverter()
+        {
+            @Override
+            public Long convert(final String input)
+            {
+                return Long.valueOf(input);
+            }
+        });
+
+        final String[] inputs = new String[]{
+            "",
+            ",,,",
+            ",sfoo,,b1,",
+            "sa+b%20c,s%C3%A9t%C3%A9,1%31",
+            "1-128,2-32768,4-2147483648,8-9223372036854775808,89223372036854775807",
+            "d1e3,d-0.5,s,xDATE,xHost,xpath,xUA,xip"
+        };
+        for (final String input : inputs) {
+            final ThriftEnvelope expected = parseThriftEnvelope(tokenizerParser, "event-name", input);
+            final ThriftEnvelope actual = parseThriftEnvelopeBase10("event-name", input);
+            Assert.assertEquals(actual.getPayload(), expected.getPayload(), input);
+        }
+
+        // Parse a region of a larger input
+        final ThriftEnvelopeEvent event = base10Parser.parseThriftEvent("event-name", "event-name,sfoo,11", 11, 18, annotation);
+        Assert.assertEquals(((ThriftEnvelope) event.getData()).getPayload(), parseThriftEnvelope(tokenizerParser, "event-name", "sfoo,11").getPayload());
+    }
+
+    @Test(groups = "fast")
+    public void testPayloadsAreIndependent() throws Exception
+    {
+        final StringBuilder manyFields = new StringBuilder("s0");
+        for (int i = 1; i < 100; i++) {
+            manyFields.append(",s").append(i);
+        }
+
+        final ThriftEnvelope first = parseThriftEnvelopeBase10("event-name", "sfoo,11");
+        final ThriftEnvelope second = parseThriftEnvelopeBase10("event-name", manyFields.toString());
+        final ThriftEnvelope third = parseThriftEnvelopeBase10("event-name", "sbar");
+
+        Assert.assertEquals(first.getPayload().size(), 2);
+        Assert.assertEquals(first.getPayload().get(0).getDataItem().getString(), "foo");
+        Assert.assertEquals(second.getPayload().size(), 100);
+        Assert.assertEquals(second.getPayload().get(99).getDataItem().getString(), "99");
+        Assert.assertEquals(third.getPayload().size(), 1);
+        Assert.assertEquals(third.getPayload().get(0).getDataItem().getString(), "bar");
+    }
+
     private void testParseFail(final String eventName, final String eventString)
     {
         try {
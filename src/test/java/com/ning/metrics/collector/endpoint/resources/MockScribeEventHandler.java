@@ -21,6 +21,7 @@ import com.ning.metrics.serialization.event.Event;
 import scribe.thrift.LogEntry;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class MockScribeEventHandler extends ScribeEventHandler
@@ -28,7 +29,7 @@ public class MockScribeEventHandler extends ScribeEventHandler
     private boolean throwExceptionBeforeEvent = false;
     private boolean throwExceptionAfterEvent = false;
     private boolean handleFailureThrowsException = false;
-    private final List<Event> processedEventList = new ArrayList<Event>();
+    private final List<Event> processedEventList = Collections.synchronizedList(new ArrayList<Event>());
     private boolean handleFailureCalled = false;
     private boolean fakeCollectorFailure = false;
 
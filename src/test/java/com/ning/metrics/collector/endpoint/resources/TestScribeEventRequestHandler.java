@@ -16,7 +16,11 @@
 
 package com.ning.metrics.collector.endpoint.resources;
 
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
+
 import org.joda.time.DateTime;
+import org.mockito.Mockito;
+import org.skife.config.TimeSpan;
 import org.testng.Assert;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
@@ -25,6 +29,13 @@ import scribe.thrift.ResultCode;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class TestScribeEventRequestHandler
 {
@@ -74,4 +85,115 @@ public class TestScribeEventRequestHandler
         Assert.assertEquals(eventHandler.isHandleFailureCalled(), true);
         Assert.assertEquals(eventHandler.getProcessedEventList().size(), 0);
     }
+
+    @Test(groups = "fast")
+    public void testBackpressure() throws Exception
+    {
+        final SpoolAdmissionController admissionController = Mockito.mock(SpoolAdmissionController.class);
+        final ScribeEventRequestHandler throttledRequestHandler = new ScribeEventRequestHandler(eventHandler, admissionController);
+
+        final List<LogEntry> logEntries = new ArrayList<LogEntry>();
+        logEntries.add(new LogEntry(EVENT_NAME, THRIFT_MSG));
+
+        // Scribe buffers and retries, nothing is extracted
+        Mockito.when(admissionController.admit()).thenReturn(false);
+        Assert.assertEquals(throttledRequestHandler.Log(logEntries), ResultCode.TRY_LATER);
+        Assert.assertEquals(eventHandler.getProcessedEventList().size(), 0);
+
+        Mockito.when(admissionController.admit()).thenReturn(true);
+        Assert.assertEquals(throttledRequestHandler.Log(logEntries), ResultCode.OK);
+        Assert.assertEquals(eventHandler.getProcessedEventList().size(), 1);
+
+        Assert.assertEquals(throttledRequestHandler.getCounter(ScribeEventRequestHandler.DENIED_COUNTER), 1);
+        Assert.assertEquals(throttledRequestHandler.getCounter(ScribeEventRequestHandler.RECEIVED_COUNTER), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testConcurrentCounters() throws Exception
+    {
+        final List<LogEntry> logEntries = new ArrayList<LogEntry>();
+        logEntries.add(new LogEntry(EVENT_NAME, THRIFT_MSG));
+        logEntries.add(new LogEntry(EVENT_NAME, THRIFT_MSG));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<ResultCode>> results = new ArrayList<Future<ResultCode>>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(new Callable<ResultCode>()
+                {
+                    @Override
+                    public ResultCode call() throws Exception
+                    {
+                        return eventRequestHandler.Log(logEntries);
+                    }
+                }));
+            }
+            for (final Future<ResultCode> result : results) {
+                Assert.assertEquals(result.get(), ResultCode.OK);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        Assert.assertEquals(eventRequestHandler.getCounter(ScribeEventRequestHandler.RECEIVED_COUNTER), 200);
+        Assert.assertEquals(eventRequestHandler.getCounters().get(ScribeEventRequestHandler.RECEIVED_COUNTER), (Long) 200L);
+        Assert.assertEquals(eventRequestHandler.getCounter(ScribeEventRequestHandler.DENIED_COUNTER), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testParallelBatch() throws Exception
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final ScribeEventRequestHandler parallelRequestHandler = new ScribeEventRequestHandler(eventHandler, null, executor, 5, 3, new TimeSpan("10s"));
+
+            final List<LogEntry> logEntries = new ArrayList<LogEntry>();
+            for (int i = 0; i < 10; i++) {
+                logEntries.add(new LogEntry(EVENT_NAME, THRIFT_MSG));
+            }
+            Assert.assertEquals(parallelRequestHandler.Log(logEntries), ResultCode.OK);
+            Assert.assertEquals(eventHandler.getProcessedEventList().size(), 10);
+
+            // Same result code as the serial path
+            eventHandler.setFakeCollectorFailure(true);
+            Assert.assertEquals(parallelRequestHandler.Log(logEntries), ResultCode.TRY_LATER);
+            Assert.assertEquals(eventHandler.getProcessedEventList().size(), 10);
+
+            // Batches are processed serially once the pool has been stopped
+            parallelRequestHandler.close();
+            Assert.assertTrue(executor.isTerminated());
+            eventHandler.setFakeCollectorFailure(false);
+            Assert.assertEquals(parallelRequestHandler.Log(logEntries), ResultCode.OK);
+            Assert.assertEquals(eventHandler.getProcessedEventList().size(), 20);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testParallelBatchWhilePoolShutsDown() throws Exception
+    {
+        // Shut down between the check in Log() and the submission of the chunks
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>())
+        {
+            @Override
+            public boolean isShutdown()
+            {
+                return false;
+            }
+        };
+        executor.shutdown();
+
+        final ScribeEventRequestHandler parallelRequestHandler = new ScribeEventRequestHandler(eventHandler, null, executor, 5, 3, new TimeSpan("10s"));
+        final List<LogEntry> logEntries = new ArrayList<LogEntry>();
+        for (int i = 0; i < 10; i++) {
+            logEntries.add(new LogEntry(EVENT_NAME, THRIFT_MSG));
+        }
+
+        // The chunks are processed by the calling thread instead
+        Assert.assertEquals(parallelRequestHandler.Log(logEntries), ResultCode.OK);
+        Assert.assertEquals(eventHandler.getProcessedEventList().size(), 10);
+    }
 }
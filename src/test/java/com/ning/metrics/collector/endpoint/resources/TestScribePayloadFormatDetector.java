@@ -0,0 +1,73 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.resources;
+
+import org.apache.thrift.protocol.TType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+
+public class TestScribePayloadFormatDetector
+{
+    private static final byte[] THRIFT_PAYLOAD = new byte[]{TType.STRING, 0, 1, 0, 0, 0, 0, TType.STOP};
+    private static final byte[] TEXT_PAYLOAD = "hello world".getBytes();
+
+    @Test(groups = "fast")
+    public void testJavaSerialization() throws Exception
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final ObjectOutputStream objectOutputStream = new ObjectOutputStream(out);
+        objectOutputStream.writeUTF("hello");
+        objectOutputStream.close();
+
+        final ScribePayloadFormatDetector detector = new ScribePayloadFormatDetector();
+        Assert.assertEquals(detector.detect("FuuEvent", out.toByteArray()), ScribePayloadFormatDetector.Format.JAVA_SERIALIZATION);
+        detector.remember("FuuEvent", ScribePayloadFormatDetector.Format.PLAIN_TEXT);
+        Assert.assertEquals(detector.detect("FuuEvent", out.toByteArray()), ScribePayloadFormatDetector.Format.JAVA_SERIALIZATION);
+    }
+
+    @Test(groups = "fast")
+    public void testLearnPlainTextCategories() throws Exception
+    {
+        final ScribePayloadFormatDetector detector = new ScribePayloadFormatDetector();
+
+        // Unknown category: go through the whole chain
+        Assert.assertEquals(detector.detect("FuuEvent", TEXT_PAYLOAD), ScribePayloadFormatDetector.Format.THRIFT);
+
+        detector.remember("FuuEvent", ScribePayloadFormatDetector.Format.PLAIN_TEXT);
+        Assert.assertEquals(detector.detect("FuuEvent", TEXT_PAYLOAD), ScribePayloadFormatDetector.Format.PLAIN_TEXT);
+        Assert.assertEquals(detector.detect("BarEvent", TEXT_PAYLOAD), ScribePayloadFormatDetector.Format.THRIFT);
+
+        // Payloads which may be Thrift are still tried as such
+        Assert.assertEquals(detector.detect("FuuEvent", THRIFT_PAYLOAD), ScribePayloadFormatDetector.Format.THRIFT);
+
+        detector.remember("FuuEvent", ScribePayloadFormatDetector.Format.THRIFT);
+        Assert.assertEquals(detector.detect("FuuEvent", TEXT_PAYLOAD), ScribePayloadFormatDetector.Format.THRIFT);
+    }
+
+    @Test(groups = "fast")
+    public void testLooksLikeThrift() throws Exception
+    {
+        Assert.assertTrue(ScribePayloadFormatDetector.looksLikeThrift(THRIFT_PAYLOAD));
+        Assert.assertTrue(ScribePayloadFormatDetector.looksLikeThrift(new byte[]{TType.STOP}));
+        Assert.assertFalse(ScribePayloadFormatDetector.looksLikeThrift(new byte[]{}));
+        Assert.assertFalse(ScribePayloadFormatDetector.looksLikeThrift(new byte[]{TType.STOP, 'a'}));
+        Assert.assertFalse(ScribePayloadFormatDetector.looksLikeThrift(TEXT_PAYLOAD));
+    }
+}
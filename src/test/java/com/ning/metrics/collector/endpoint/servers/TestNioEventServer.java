@@ -0,0 +1,213 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.servers;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
+import com.ning.metrics.collector.jaxrs.EventDeserializerRequestHandler;
+
+import com.google.common.io.ByteStreams;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TestNioEventServer
+{
+    private final List<String> receivedBodies = Collections.synchronizedList(new ArrayList<String>());
+    private final List<DeserializationType> receivedTypes = Collections.synchronizedList(new ArrayList<DeserializationType>());
+
+    private NioEventServer server;
+
+    @BeforeMethod(groups = "slow")
+    public void setUp() throws Exception
+    {
+        final CollectorConfig config = Mockito.mock(CollectorConfig.class);
+        Mockito.when(config.isNioEndpointEnabled()).thenReturn(true);
+        Mockito.when(config.getLocalIp()).thenReturn("127.0.0.1");
+        Mockito.when(config.getNioPort()).thenReturn(0);
+        Mockito.when(config.getNioSelectorCount()).thenReturn(2);
+        Mockito.when(config.getNioWorkerCount()).thenReturn(2);
+        Mockito.when(config.getNioWorkerQueueSize()).thenReturn(10);
+        // Small buffers to exercise bodies spanning multiple buffers
+        Mockito.when(config.getNioBufferSize()).thenReturn(256);
+        Mockito.when(config.getNioMaxPooledBuffers()).thenReturn(16);
+        Mockito.when(config.getNioMaxRequestSize()).thenReturn(10000L);
+        Mockito.when(config.getMaxDecompressedSize()).thenReturn(100000L);
+        // 20 buffers
+        Mockito.when(config.getNioMaxBufferedBytes()).thenReturn(5120L);
+        Mockito.when(config.getNioMaxConnections()).thenReturn(3);
+        Mockito.when(config.getNioMaxIdleTime()).thenReturn(new TimeSpan("15s"));
+        Mockito.when(config.getNioShutdownTimeout()).thenReturn(new TimeSpan("5s"));
+
+        final EventDeserializerRequestHandler requestHandler = Mockito.mock(EventDeserializerRequestHandler.class);
+        Mockito.when(requestHandler.handleEventRequest(Mockito.<ParsedRequest>any())).thenAnswer(new Answer<Response>()
+        {
+            @Override
+            public Response answer(final InvocationOnMock invocation) throws Throwable
+            {
+                final ParsedRequest parsedRequest = (ParsedRequest) invocation.getArguments()[0];
+                receivedTypes.add(parsedRequest.getContentType());
+                receivedBodies.add(new String(ByteStreams.toByteArray(parsedRequest.getInputStream()), "UTF-8"));
+                return Response.status(Response.Status.ACCEPTED).build();
+            }
+        });
+
+        server = new NioEventServer(config, requestHandler);
+        server.start();
+    }
+
+    @AfterMethod(groups = "slow")
+    public void tearDown() throws Exception
+    {
+        server.stop();
+    }
+
+    @Test(groups = "slow")
+    public void testSlowClientWithKeepAlive() throws Exception
+    {
+        final StringBuilder bodyBuilder = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            bodyBuilder.append(i == 0 ? "" : ",").append("{\"eventName\":\"FuuEvent\",\"payload\":{\"i\":").append(i).append("}}");
+        }
+        final String body = bodyBuilder.append("]").toString();
+
+        final Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+        try {
+            final OutputStream out = socket.getOutputStream();
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+
+            // Trickle the request
+            final byte[] request = String.format("POST /rest/1.0/event HTTP/1.1\r\nHost: localhost\r\nContent-Type: application/json\r\nContent-Length: %d\r\n\r\n%s", body.length(), body).getBytes("ISO-8859-1");
+            for (int i = 0; i < request.length; i += 500) {
+                out.write(request, i, Math.min(500, request.length - i));
+                out.flush();
+                Thread.sleep(20);
+            }
+            Assert.assertEquals(in.readLine(), "HTTP/1.1 202 Accepted");
+            skipHeaders(in);
+            Assert.assertEquals(receivedBodies.size(), 1);
+            Assert.assertEquals(receivedBodies.get(0), body);
+            Assert.assertEquals(receivedTypes.get(0), DeserializationType.JSON);
+
+            // Same connection
+            out.write("POST /rest/1.0/event HTTP/1.1\r\nContent-Type: application/json+smile\r\nContent-Length: 3\r\n\r\nabc".getBytes("ISO-8859-1"));
+            out.flush();
+            Assert.assertEquals(in.readLine(), "HTTP/1.1 202 Accepted");
+            skipHeaders(in);
+            Assert.assertEquals(receivedBodies.get(1), "abc");
+            Assert.assertEquals(receivedTypes.get(1), DeserializationType.SMILE);
+
+            // Requests we can't handle close the connection
+            out.write("POST /rest/1.0/event HTTP/1.1\r\nContent-Type: text/plain\r\nContent-Length: 3\r\n\r\nabc".getBytes("ISO-8859-1"));
+            out.flush();
+            Assert.assertEquals(in.readLine(), "HTTP/1.1 415 Unsupported Media Type");
+            skipHeaders(in);
+            Assert.assertNull(in.readLine());
+            Assert.assertEquals(receivedBodies.size(), 2);
+        }
+        finally {
+            socket.close();
+        }
+
+        Assert.assertTrue(server.getAllocatedBuffers() > 0);
+    }
+
+    @Test(groups = "slow")
+    public void testRequestTooLarge() throws Exception
+    {
+        final Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+        try {
+            socket.getOutputStream().write("POST /rest/1.0/event HTTP/1.1\r\nContent-Type: application/json\r\nContent-Length: 20000\r\n\r\n".getBytes("ISO-8859-1"));
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            Assert.assertEquals(in.readLine(), "HTTP/1.1 413 Request Entity Too Large");
+            Assert.assertTrue(receivedBodies.isEmpty());
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testNoBuffersAvailable() throws Exception
+    {
+        final Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+        try {
+            // Allowed, but needs more buffers than the pool has
+            socket.getOutputStream().write("POST /rest/1.0/event HTTP/1.1\r\nContent-Type: application/json\r\nContent-Length: 9000\r\n\r\n".getBytes("ISO-8859-1"));
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            Assert.assertEquals(in.readLine(), "HTTP/1.1 503 Service Unavailable");
+            Assert.assertEquals(in.readLine(), "Retry-After: 1");
+            skipHeaders(in);
+            Assert.assertNull(in.readLine());
+            Assert.assertTrue(receivedBodies.isEmpty());
+            Assert.assertEquals(server.getRejectedRequestsNoBuffers(), 1);
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    @Test(groups = "slow")
+    public void testTooManyConnections() throws Exception
+    {
+        final List<Socket> sockets = new ArrayList<Socket>();
+        try {
+            for (int i = 0; i < 3; i++) {
+                sockets.add(new Socket("127.0.0.1", server.getLocalPort()));
+            }
+            for (int i = 0; i < 100 && server.getOpenConnections() < 3; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(server.getOpenConnections(), 3);
+
+            final Socket socket = new Socket("127.0.0.1", server.getLocalPort());
+            sockets.add(socket);
+            Assert.assertEquals(socket.getInputStream().read(), -1);
+            Assert.assertEquals(server.getRejectedConnections(), 1);
+            Assert.assertEquals(server.getOpenConnections(), 3);
+        }
+        finally {
+            for (final Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private void skipHeaders(final BufferedReader in) throws Exception
+    {
+        String line;
+        do {
+            line = in.readLine();
+        }
+        while (line != null && line.length() > 0);
+    }
+}
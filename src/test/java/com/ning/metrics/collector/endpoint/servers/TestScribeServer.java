@@ -0,0 +1,117 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.endpoint.servers;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransportException;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import scribe.thrift.LogEntry;
+import scribe.thrift.ResultCode;
+import scribe.thrift.scribe;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestScribeServer
+{
+    @DataProvider(name = "serverTypes")
+    public Object[][] getServerTypes()
+    {
+        final ScribeServerType[] serverTypes = ScribeServerType.values();
+        final Object[][] parameters = new Object[serverTypes.length][];
+        for (int i = 0; i < serverTypes.length; i++) {
+            parameters[i] = new Object[]{serverTypes[i]};
+        }
+        return parameters;
+    }
+
+    @Test(groups = "slow", dataProvider = "serverTypes")
+    public void testLog(final ScribeServerType serverType) throws Exception
+    {
+        final int port = findFreePort();
+        final CollectorConfig config = Mockito.mock(CollectorConfig.class);
+        Mockito.when(config.getScribePort()).thenReturn(port);
+        Mockito.when(config.getScribeServerType()).thenReturn(serverType.toString());
+        Mockito.when(config.getScribeSelectorThreads()).thenReturn(2);
+        Mockito.when(config.getScribeWorkerThreads()).thenReturn(2);
+        Mockito.when(config.getScribeAcceptQueueSizePerThread()).thenReturn(4);
+
+        final scribe.Iface eventRequestHandler = Mockito.mock(scribe.Iface.class);
+        Mockito.when(eventRequestHandler.Log(Mockito.<List<LogEntry>>any())).thenReturn(ResultCode.OK);
+
+        final ScribeServer server = new ScribeServer(eventRequestHandler, config);
+        server.start();
+        try {
+            final TFramedTransport transport = openTransport(port);
+            try {
+                final TBinaryProtocol protocol = new TBinaryProtocol(transport, false, false);
+                final scribe.Client client = new scribe.Client(protocol, protocol);
+
+                final List<LogEntry> logEntries = new ArrayList<LogEntry>();
+                logEntries.add(new LogEntry("FuuEvent", "1234:msg"));
+                for (int i = 0; i < 10; i++) {
+                    Assert.assertEquals(client.Log(logEntries), ResultCode.OK);
+                }
+            }
+            finally {
+                transport.close();
+            }
+
+            Mockito.verify(eventRequestHandler, Mockito.times(10)).Log(Mockito.<List<LogEntry>>any());
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    private int findFreePort() throws Exception
+    {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        }
+        finally {
+            socket.close();
+        }
+    }
+
+    private TFramedTransport openTransport(final int port) throws Exception
+    {
+        // The server starts asynchronously
+        for (int i = 0; ; i++) {
+            final TFramedTransport transport = new TFramedTransport(new TSocket("127.0.0.1", port));
+            try {
+                transport.open();
+                return transport;
+            }
+            catch (TTransportException e) {
+                if (i >= 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+}
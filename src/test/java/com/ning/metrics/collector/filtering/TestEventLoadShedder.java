@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.filtering;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestEventLoadShedder
+{
+    @Test(groups = "fast")
+    public void testNoRules() throws Exception
+    {
+        final EventLoadShedder loadShedder = new EventLoadShedder();
+        final ParsedRequest parsedRequest = Mockito.mock(ParsedRequest.class);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(loadShedder.admit("FrontDoorVisit", parsedRequest));
+        }
+        Assert.assertEquals(loadShedder.getAdmittedEvents(), 100);
+        Assert.assertEquals(loadShedder.getShedEvents(), 0);
+        Mockito.verifyZeroInteractions(parsedRequest);
+    }
+
+    @Test(groups = "fast")
+    public void testRandomSampling() throws Exception
+    {
+        final EventLoadShedder loadShedder = new EventLoadShedder();
+        loadShedder.setSampling("FrontDoorVisit", 0.25, null);
+
+        for (int i = 0; i < 10000; i++) {
+            loadShedder.admit("FrontDoorVisit", null);
+            Assert.assertTrue(loadShedder.admit("OtherEvent", null));
+        }
+        // 10000 OtherEvent + ~2500 FrontDoorVisit
+        Assert.assertTrue(Math.abs(loadShedder.getAdmittedEvents() - 12500) < 500, String.valueOf(loadShedder.getAdmittedEvents()));
+        Assert.assertEquals(loadShedder.getAdmittedEvents() + loadShedder.getShedEvents(), 20000);
+    }
+
+    @Test(groups = "fast")
+    public void testDeterministicSampling() throws Exception
+    {
+        final EventLoadShedder loadShedder = new EventLoadShedder();
+        loadShedder.setSampling("FrontDoorVisit", 0.5, "ip");
+
+        int admittedIps = 0;
+        for (int i = 0; i < 1000; i++) {
+            final ParsedRequest parsedRequest = Mockito.mock(ParsedRequest.class);
+            Mockito.when(parsedRequest.getIpAddress()).thenReturn("10.1.2." + i);
+
+            final boolean admitted = loadShedder.admit("FrontDoorVisit", parsedRequest);
+            // Same verdict for all events from that IP
+            for (int j = 0; j < 5; j++) {
+                Assert.assertEquals(loadShedder.admit("FrontDoorVisit", parsedRequest), admitted);
+            }
+            if (admitted) {
+                admittedIps++;
+            }
+        }
+        Assert.assertTrue(Math.abs(admittedIps - 500) < 100, String.valueOf(admittedIps));
+    }
+
+    @Test(groups = "fast")
+    public void testRateLimit() throws Exception
+    {
+        final EventLoadShedder loadShedder = new EventLoadShedder();
+        loadShedder.setRateLimit("FrontDoorVisit", 10);
+
+        int admitted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (loadShedder.admit("FrontDoorVisit", null)) {
+                admitted++;
+            }
+        }
+        // Burst of one second worth of events (plus what's refilled while the test runs)
+        Assert.assertTrue(admitted >= 10 && admitted < 15, String.valueOf(admitted));
+
+        Thread.sleep(300);
+        Assert.assertTrue(loadShedder.admit("FrontDoorVisit", null));
+
+        loadShedder.removeRateLimit("FrontDoorVisit");
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(loadShedder.admit("FrontDoorVisit", null));
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testRulesFromConfig() throws Exception
+    {
+        final CollectorConfig config = Mockito.mock(CollectorConfig.class);
+        Mockito.when(config.getFilters()).thenReturn(",");
+        Mockito.when(config.getLoadSheddingSamplingRates()).thenReturn("FrontDoorVisit:0, UserLogin:0.5:IP");
+        Mockito.when(config.getLoadSheddingRateLimits()).thenReturn("AdImpression:100");
+
+        final EventLoadShedder loadShedder = new EventLoadShedder(config);
+        Assert.assertEquals(loadShedder.getRules().size(), 3);
+        Assert.assertFalse(loadShedder.admit("FrontDoorVisit", null));
+        Assert.assertTrue(loadShedder.admit("AdImpression", null));
+        Assert.assertTrue(loadShedder.admit("OtherEvent", null));
+    }
+
+    @Test(groups = "fast", expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidSamplingRate() throws Exception
+    {
+        new EventLoadShedder().setSampling("FrontDoorVisit", 2, null);
+    }
+}
@@ -72,6 +72,65 @@ public class TestPatternSetFilter
         Assert.assertEquals(filterDoesNotMatch.passesFilter(null, null), true);
     }
 
+    @Test(groups = "fast")
+    public void testMergedPatterns() throws Exception
+    {
+        final Set<Pattern> patterns = createPatternSet("literal", "^regex[0-9]+$", "(a)\\1");
+        patterns.add(Pattern.compile("CaseInsensitive", Pattern.CASE_INSENSITIVE));
+
+        final PatternSetFilter filter = new PatternSetFilter(createFieldExtractor("test-host"), patterns);
+        Assert.assertEquals(filter.getLiteralPatternsCount(), 1);
+        // The merged regular expressions, the backreference and the case insensitive pattern
+        Assert.assertEquals(filter.getRegularExpressionsCount(), 3);
+
+        Assert.assertTrue(new PatternSetFilter(createFieldExtractor("a literal value"), patterns).passesFilter(null, null));
+        Assert.assertTrue(new PatternSetFilter(createFieldExtractor("regex42"), patterns).passesFilter(null, null));
+        Assert.assertFalse(new PatternSetFilter(createFieldExtractor("regex42 "), patterns).passesFilter(null, null));
+        Assert.assertTrue(new PatternSetFilter(createFieldExtractor("xaax"), patterns).passesFilter(null, null));
+        Assert.assertFalse(new PatternSetFilter(createFieldExtractor("xabx"), patterns).passesFilter(null, null));
+        Assert.assertTrue(new PatternSetFilter(createFieldExtractor("caseinsensitive"), patterns).passesFilter(null, null));
+        Assert.assertFalse(new PatternSetFilter(createFieldExtractor("test-host"), patterns).passesFilter(null, null));
+    }
+
+    @Test(groups = "fast")
+    public void testMergeablePatterns() throws Exception
+    {
+        Assert.assertTrue(PatternSetFilter.isLiteral(Pattern.compile("test-host")));
+        Assert.assertFalse(PatternSetFilter.isLiteral(Pattern.compile("test.host")));
+        Assert.assertFalse(PatternSetFilter.isLiteral(Pattern.compile("test-host", Pattern.CASE_INSENSITIVE)));
+
+        Assert.assertTrue(PatternSetFilter.isMergeable(Pattern.compile("^test(?:-host)?[0-9]*$")));
+        Assert.assertFalse(PatternSetFilter.isMergeable(Pattern.compile("(?i)test")));
+        Assert.assertFalse(PatternSetFilter.isMergeable(Pattern.compile("(?<name>a)\\k<name>")));
+        Assert.assertFalse(PatternSetFilter.isMergeable(Pattern.compile("\\Q|\\E")));
+        Assert.assertFalse(PatternSetFilter.isMergeable(Pattern.compile("(a)\\1")));
+    }
+
+    @Test(groups = "fast")
+    public void testVerdictCache() throws Exception
+    {
+        final PatternSetFilter filter = new PatternSetFilter(createFieldExtractor("test-host"), createPatternSet("mugen"), 10);
+        Assert.assertFalse(filter.passesFilter(null, null));
+        Assert.assertFalse(filter.passesFilter(null, null));
+        Assert.assertEquals(filter.getCacheSize(), 1);
+        Assert.assertEquals(filter.getCacheMissCount(), 1);
+        Assert.assertEquals(filter.getCacheHitCount(), 1);
+        Assert.assertEquals(filter.getCacheHitRate(), 0.5);
+
+        // Changing the patterns invalidates the cached verdicts
+        filter.addPattern("test-.*");
+        Assert.assertEquals(filter.getCacheSize(), 0);
+        Assert.assertTrue(filter.passesFilter(null, null));
+        Assert.assertTrue(filter.passesFilter(null, null));
+
+        filter.removePattern("test-.*");
+        Assert.assertFalse(filter.passesFilter(null, null));
+
+        final Filter<ParsedRequest> inclusionFilter = new EventInclusionFilter(createFieldExtractor("test-host"), createPatternSet("test-host"), 10);
+        Assert.assertFalse(inclusionFilter.passesFilter(null, null));
+        Assert.assertFalse(inclusionFilter.passesFilter(null, null));
+    }
+
     private Set<Pattern> createPatternSet(final String... patterns)
     {
         final Set<Pattern> patternSet = new HashSet<Pattern>();
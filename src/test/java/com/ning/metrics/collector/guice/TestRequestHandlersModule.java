@@ -25,6 +25,8 @@ import com.ning.metrics.collector.guice.module.RequestHandlersModule;
 import com.ning.metrics.collector.jaxrs.EventDeserializerRequestHandler;
 import com.ning.metrics.collector.jaxrs.EventFilterRequestHandler;
 import com.ning.metrics.collector.processing.EventCollector;
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
+import com.ning.metrics.collector.util.StageLatencies;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
@@ -52,6 +54,8 @@ public class TestRequestHandlersModule
                 {
                     bind(CollectorConfig.class).toInstance(config);
                     bind(EventCollector.class).toInstance(Mockito.mock(EventCollector.class));
+                    bind(SpoolAdmissionController.class).toInstance(Mockito.mock(SpoolAdmissionController.class));
+                    bind(StageLatencies.class).toInstance(new StageLatencies(false));
                 }
             }, new RequestHandlersModule(), new FiltersModule(config));
 
@@ -18,6 +18,8 @@ package com.ning.metrics.collector.jaxrs;
 
 import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
 
+import com.google.common.collect.ImmutableList;
+
 import javax.ws.rs.core.Response;
 
 public class TestCollectorResource extends TestResources<CollectorResource>
@@ -36,6 +38,6 @@ public class TestCollectorResource extends TestResources<CollectorResource>
     @Override
     public Response callEndpoint()
     {
-        return resource.get(EVENT_NAME, EVENT_DATETIME.toString(), EVENT_GRANULARITY.toString(), httpHeaders, request);
+        return resource.get(ImmutableList.of(EVENT_NAME), EVENT_DATETIME.toString(), EVENT_GRANULARITY.toString(), httpHeaders, request);
     }
 }
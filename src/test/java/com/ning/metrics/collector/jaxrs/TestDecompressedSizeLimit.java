@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.jaxrs;
+
+import com.ning.metrics.collector.endpoint.ContentEncoding;
+import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
+import com.ning.metrics.collector.endpoint.extractors.EventDeserializerFactory;
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.Granularity;
+
+import org.joda.time.DateTime;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip bombs, through the real deserializers: the legacy Thrift endpoint and the pass-through JSON path both read
+ * whole decompressed bodies.
+ */
+public class TestDecompressedSizeLimit
+{
+    private static final long MAX_DECOMPRESSED_SIZE = 1024 * 1024;
+
+    @Test(groups = "fast")
+    public void testLegacyThriftBomb() throws Exception
+    {
+        final EventFilterRequestHandler filterRequestHandler = Mockito.mock(EventFilterRequestHandler.class);
+        final EventDeserializerRequestHandler requestHandler = new EventDeserializerRequestHandler(true, filterRequestHandler, new EventDeserializerFactory());
+
+        final Response response = requestHandler.handleEventRequest(createRequest(DeserializationType.DEFAULT));
+        Assert.assertEquals(response.getStatus(), Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        Mockito.verify(filterRequestHandler, Mockito.never()).processEvent(Mockito.<Event>any(), Mockito.<ParsedRequest>any());
+    }
+
+    @Test(groups = "fast")
+    public void testPassThroughJsonBomb() throws Exception
+    {
+        final EventFilterRequestHandler filterRequestHandler = Mockito.mock(EventFilterRequestHandler.class);
+        final EventDeserializerRequestHandler requestHandler = new EventDeserializerRequestHandler(true, filterRequestHandler, new EventDeserializerFactory(true, null));
+
+        final Response response = requestHandler.handleEventRequest(createRequest(DeserializationType.JSON));
+        Assert.assertEquals(response.getStatus(), Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+        Mockito.verify(filterRequestHandler, Mockito.never()).processEvent(Mockito.<Event>any(), Mockito.<ParsedRequest>any());
+    }
+
+    private ParsedRequest createRequest(final DeserializationType deserializationType) throws Exception
+    {
+        // 64MB of spaces, about 64KB once gzipped: a 1000x ratio
+        final ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        final OutputStream out = new GZIPOutputStream(gzipped);
+        final byte[] spaces = new byte[1024 * 1024];
+        Arrays.fill(spaces, (byte) ' ');
+        for (int i = 0; i < 64; i++) {
+            out.write(spaces);
+        }
+        out.close();
+
+        // As ContentEncodingFilter does: decoded body, no Content-Length
+        return new ParsedRequest("FuuEvent", null, ContentEncoding.decode("gzip", new ByteArrayInputStream(gzipped.toByteArray()), MAX_DECOMPRESSED_SIZE),
+                                 new DateTime(), Granularity.MINUTE.toString(), null, deserializationType);
+    }
+}
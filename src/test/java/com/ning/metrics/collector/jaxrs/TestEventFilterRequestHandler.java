@@ -20,6 +20,7 @@ import com.google.inject.Inject;
 
 import com.ning.metrics.collector.binder.config.CollectorConfig;
 import com.ning.metrics.collector.endpoint.ParsedRequest;
+import com.ning.metrics.collector.filtering.EventLoadShedder;
 import com.ning.metrics.collector.filtering.Filter;
 import com.ning.metrics.collector.processing.ConfigTestModule;
 import com.ning.metrics.collector.processing.EventCollector;
@@ -152,7 +153,29 @@ public class TestEventFilterRequestHandler
         Mockito.verifyNoMoreInteractions(event, requestFilter, collector);
         Mockito.verifyZeroInteractions(parsedRequest);
     }
-    
+
+    @Test(groups = "fast")
+    public void testShedEvents() throws Exception
+    {
+        Mockito.when(event.getName()).thenReturn("FrontDoorVisit");
+        Mockito.when(collector.collectEvent(Mockito.<Event>any())).thenReturn(true);
+        final EventLoadShedder loadShedder = new EventLoadShedder();
+        loadShedder.setSampling("FrontDoorVisit", 0, null);
+        eventHandler = new EventFilterRequestHandler(collector, requestFilter, loadShedder, config);
+
+        // Shed events are acknowledged, so that the client doesn't retry
+        Assert.assertTrue(eventHandler.processEvent(event, parsedRequest));
+        checkStats(1, 0, 0, 0);
+        Assert.assertEquals(eventHandler.getShedMeter().count(), 1);
+        Mockito.verifyZeroInteractions(collector);
+
+        loadShedder.removeSampling("FrontDoorVisit");
+        Assert.assertTrue(eventHandler.processEvent(event, parsedRequest));
+        checkStats(2, 0, 1, 0);
+        Assert.assertEquals(eventHandler.getShedMeter().count(), 1);
+        Assert.assertEquals(loadShedder.getAdmittedEvents(), 1);
+        Assert.assertEquals(loadShedder.getShedEvents(), 1);
+    }
 
     private void checkStats(final int received, final int filtered, final int succeeded, final int failed)
     {
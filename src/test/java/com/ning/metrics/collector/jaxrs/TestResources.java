@@ -20,6 +20,7 @@ import com.ning.metrics.collector.endpoint.ParsedRequest;
 import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
 import com.ning.metrics.collector.endpoint.extractors.EventDeserializerFactory;
 import com.ning.metrics.collector.endpoint.extractors.MockEventDeserializer;
+import com.ning.metrics.collector.processing.SpoolAdmissionController;
 import com.ning.metrics.serialization.event.Event;
 import com.ning.metrics.serialization.event.Granularity;
 
@@ -108,13 +109,41 @@ public abstract class TestResources<T>
         verifyNoEventWentThroughTheFilterRequestHandler(disabledRequestHandler);
         verifyCollectionDisabled(response);
 
-        // Verify side effects
-        Mockito.verify(httpHeaders, Mockito.times(5)).getRequestHeader(Mockito.<String>any());
+        // Verify side effects (headers are only looked at when needed)
         Mockito.verify(request, Mockito.times(1)).getRemoteAddr();
         Mockito.verifyNoMoreInteractions(httpHeaders, request);
         Mockito.verifyZeroInteractions(filterRequestHandler, deserializerFactory);
     }
 
+    @Test(groups = "fast")
+    public void testRequestWhenSpoolIsOverloaded()
+    {
+        final SpoolAdmissionController admissionController = Mockito.mock(SpoolAdmissionController.class);
+        Mockito.when(admissionController.admit()).thenReturn(false);
+        Mockito.when(admissionController.getRetryAfterSeconds()).thenReturn(30L);
+        final EventDeserializerRequestHandler throttlingRequestHandler = new EventDeserializerRequestHandler(true, filterRequestHandler, deserializerFactory, admissionController);
+        resource = setupResource(throttlingRequestHandler);
+
+        // Verify initial state
+        verifyInitialState(throttlingRequestHandler);
+        Assert.assertEquals(throttlingRequestHandler.getThrottledMeter().count(), 0);
+
+        // Send the request
+        final Response response = callEndpoint();
+
+        // Verify end state
+        Assert.assertEquals(throttlingRequestHandler.getThrottledMeter().count(), 1);
+        Assert.assertEquals(throttlingRequestHandler.getRejectedMeter().count(), 0);
+        Assert.assertEquals(throttlingRequestHandler.getBadRequestMeter().count(), 0);
+        verifyNoEventWentThroughTheFilterRequestHandler(throttlingRequestHandler);
+        Assert.assertEquals(response.getStatus(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode());
+        Assert.assertEquals(response.getMetadata().get("Retry-After").get(0), 30L);
+        Assert.assertEquals(response.getMetadata().get("Warning").get(0), "199 Collector overloaded");
+
+        // The body should not have been looked at
+        Mockito.verifyZeroInteractions(filterRequestHandler, deserializerFactory);
+    }
+
     @Test(groups = "fast")
     public void testEventDeserializerThrowsExceptionOnCreation()
     {
@@ -135,7 +164,7 @@ public abstract class TestResources<T>
         verifyBadRequest(response);
 
         // Verify side effects
-        verifyMocksWhenEventDoesntGoThrough();
+        verifyMocksWhenEventDoesntGoThrough(4);
     }
 
     @Test(groups = "fast")
@@ -158,7 +187,7 @@ public abstract class TestResources<T>
         verifyBadRequest(response);
 
         // Verify side effects
-        verifyMocksWhenEventDoesntGoThrough();
+        verifyMocksWhenEventDoesntGoThrough(4);
     }
 
     @Test(groups = "fast")
@@ -181,7 +210,7 @@ public abstract class TestResources<T>
         verifyBadRequest(response);
 
         // Verify side effects
-        verifyMocksWhenEventDoesntGoThrough();
+        verifyMocksWhenEventDoesntGoThrough(4);
     }
 
     @Test(groups = "fast")
@@ -205,7 +234,7 @@ public abstract class TestResources<T>
         verifyGoodRequest(response, false);
 
         // Verify side effects
-        verifyMocksWhenEventDoesntGoThrough();
+        verifyMocksWhenEventDoesntGoThrough(0);
     }
 
     @Test(groups = "fast")
@@ -236,8 +265,7 @@ public abstract class TestResources<T>
         }
         verifyGoodRequest(response, false);
 
-        // Verify side effects
-        Mockito.verify(httpHeaders, Mockito.times(5)).getRequestHeader(Mockito.<String>any());
+        // Verify side effects (headers are only looked at when needed)
         Mockito.verify(request, Mockito.times(1)).getRemoteAddr();
         try {
             Mockito.verify(deserializerFactory, Mockito.times(1)).getEventDeserializer(Mockito.<ParsedRequest>any());
@@ -278,7 +306,8 @@ public abstract class TestResources<T>
         verifyGoodRequest(response, true);
 
         // Verify side effects
-        Mockito.verify(httpHeaders, Mockito.times(5)).getRequestHeader(Mockito.<String>any());
+        // The request is logged because of the failure: Referer, X-Forwarded-For, User-Agent and Content-Length
+        Mockito.verify(httpHeaders, Mockito.times(4)).getRequestHeader(Mockito.<String>any());
         Mockito.verify(request, Mockito.times(1)).getRemoteAddr();
         try {
             Mockito.verify(deserializerFactory, Mockito.times(1)).getEventDeserializer(Mockito.<ParsedRequest>any());
@@ -339,9 +368,9 @@ public abstract class TestResources<T>
         Mockito.when(filterRequestHandler.processEvent(Mockito.<Event>any(), Mockito.<ParsedRequest>any())).thenReturn(true);
     }
 
-    protected void verifyMocksWhenEventDoesntGoThrough()
+    protected void verifyMocksWhenEventDoesntGoThrough(final int headerLookups)
     {
-        Mockito.verify(httpHeaders, Mockito.times(5)).getRequestHeader(Mockito.<String>any());
+        Mockito.verify(httpHeaders, Mockito.times(headerLookups)).getRequestHeader(Mockito.<String>any());
         Mockito.verify(request, Mockito.times(1)).getRemoteAddr();
         try {
             Mockito.verify(deserializerFactory, Mockito.times(1)).getEventDeserializer(Mockito.<ParsedRequest>any());
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.collector.MockEvent;
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.writer.EventWriter;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestBatchingThresholdEventWriter
+{
+    private EventWriter delegate;
+    private List<Integer> blockSizes;
+
+    @BeforeMethod(groups = "fast")
+    public void setUp() throws Exception
+    {
+        delegate = Mockito.mock(EventWriter.class);
+        blockSizes = new ArrayList<Integer>();
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable
+            {
+                blockSizes.add(((EventBatch) invocation.getArguments()[0]).getEvents().size());
+                return null;
+            }
+        }).when(delegate).write(Mockito.any(EventBatch.class));
+    }
+
+    @Test(groups = "fast")
+    public void testCommitThresholdCountsEvents() throws Exception
+    {
+        final BatchingThresholdEventWriter writer = new BatchingThresholdEventWriter(delegate, 25, 3600, Integer.MAX_VALUE);
+
+        Assert.assertEquals(writer.writeAll(createEvents(60)), 0);
+
+        // Blocks are cut at the commit threshold: files have 25 events at most
+        Assert.assertEquals(blockSizes, Arrays.asList(25, 25, 10));
+        Mockito.verify(delegate, Mockito.times(2)).commit();
+
+        // Single events count as well
+        for (int i = 0; i < 15; i++) {
+            writer.write(new MockEvent());
+        }
+        Mockito.verify(delegate, Mockito.times(3)).commit();
+    }
+
+    @Test(groups = "fast")
+    public void testBlocksAreBounded() throws Exception
+    {
+        final BatchingThresholdEventWriter writer = new BatchingThresholdEventWriter(delegate, 25, 3600, 10);
+
+        writer.writeAll(createEvents(30));
+
+        Assert.assertEquals(blockSizes, Arrays.asList(10, 10, 5, 5));
+        Mockito.verify(delegate, Mockito.times(1)).commit();
+
+        writer.close();
+        Mockito.verify(delegate, Mockito.times(2)).commit();
+        Mockito.verify(delegate).close();
+    }
+
+    private List<Event> createEvents(final int nbEvents)
+    {
+        final List<Event> events = new ArrayList<Event>(nbEvents);
+        for (int i = 0; i < nbEvents; i++) {
+            events.add(new MockEvent());
+        }
+        return events;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.collector.MockEvent;
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.event.Granularity;
+
+import com.google.common.base.Charsets;
+import org.joda.time.DateTime;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestEventBatchSerializer
+{
+    @Test(groups = "fast")
+    public void testBatchIsWrittenAsOneBlock() throws Exception
+    {
+        final CountingOutputStream out = new CountingOutputStream();
+        final EventBatchSerializer serializer = new EventBatchSerializer(new PassThroughSmileEnvelopeEventSerializer(true));
+        serializer.open(out);
+
+        final List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 3; i++) {
+            events.add(createEvent(String.format("{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":%d}}", i)));
+        }
+        serializer.serialize(new EventBatch(events));
+
+        // Header and the three envelopes, in a single write
+        Assert.assertEquals(out.getWrites(), 1);
+
+        serializer.serialize(createEvent("{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":3}}"));
+        Assert.assertEquals(out.getWrites(), 2);
+
+        serializer.close();
+        Assert.assertTrue(out.isClosed());
+
+        // Same layout as if the events had been written one by one
+        Assert.assertEquals(new String(out.toByteArray(), Charsets.UTF_8),
+                            "[{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":0}}," +
+                            "{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":1}}," +
+                            "{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":2}}," +
+                            "{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":3}}]");
+    }
+
+    @Test(groups = "fast")
+    public void testBadEventInBatch() throws Exception
+    {
+        final CountingOutputStream out = new CountingOutputStream();
+        final EventBatchSerializer serializer = new EventBatchSerializer(new PassThroughSmileEnvelopeEventSerializer(true));
+        serializer.open(out);
+
+        final List<Event> events = new ArrayList<Event>();
+        events.add(createEvent("{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":0}}"));
+        // Not a pass-through event, rejected by the underlying serializer
+        events.add(new MockEvent());
+        events.add(createEvent("{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":1}}"));
+        final EventBatch batch = new EventBatch(events);
+        serializer.serialize(batch);
+        serializer.close();
+
+        Assert.assertEquals(batch.getErroredEvents(), 1);
+        Assert.assertEquals(new String(out.toByteArray(), Charsets.UTF_8),
+                            "[{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":0}}," +
+                            "{\"eventName\":\"FrontDoorVisit\",\"payload\":{\"i\":1}}]");
+    }
+
+    private Event createEvent(final String json)
+    {
+        final byte[] bytes = json.getBytes(Charsets.UTF_8);
+        return new PassThroughSmileEnvelopeEvent("FrontDoorVisit", new DateTime(), Granularity.HOURLY, true, bytes, 0, bytes.length);
+    }
+
+    private static final class CountingOutputStream extends ByteArrayOutputStream
+    {
+        private int writes = 0;
+        private boolean closed = false;
+
+        @Override
+        public synchronized void write(final int b)
+        {
+            writes++;
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len)
+        {
+            writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        public int getWrites()
+        {
+            return writes;
+        }
+
+        public boolean isClosed()
+        {
+            return closed;
+        }
+    }
+}
@@ -23,9 +23,12 @@ import com.ning.metrics.collector.processing.SerializationType;
 import com.ning.metrics.collector.processing.hadoop.HadoopWriterFactory;
 import com.ning.metrics.serialization.hadoop.FileSystemAccess;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 import com.google.inject.Inject;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.HardLink;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.skife.config.ConfigurationObjectFactory;
 import org.testng.Assert;
@@ -35,9 +38,10 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Guice(modules = ConfigTestModule.class)
 public class TestEventSpoolWriterFactory
@@ -53,7 +57,8 @@ public class TestEventSpoolWriterFactory
     File lockDirectory;
     File quarantineDirectory;
 
-    private final Map<String, File> hdfs = new HashMap<String, File>();
+    // Event types are recovered in parallel
+    private final Map<String, File> hdfs = new ConcurrentHashMap<String, File>();
     
     private static final long CUTOFF_TIME = 1000;
     
@@ -65,12 +70,71 @@ public class TestEventSpoolWriterFactory
         }
 
         @Override
-        protected void pushFileToHadoop(final File file, final String outputPath) throws IOException
+        protected void pushFileToHadoop(final String eventName, final File file, final String outputPath) throws IOException
         {
             hdfs.put(outputPath, file);
         }
     }
+
+    static class FailingEventSpoolProcessor implements EventSpoolProcessor
+    {
+        private final AtomicInteger calls = new AtomicInteger(0);
+        private volatile boolean failing = true;
+
+        @Override
+        public void processEventFile(final String eventName, final SerializationType serializationType, final File file, final String outputPath) throws IOException
+        {
+            calls.incrementAndGet();
+            if (failing) {
+                throw new IOException("Database is down");
+            }
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public String getProcessorName()
+        {
+            return "FailingEventSpoolProcessor";
+        }
+
+        public int getCalls()
+        {
+            return calls.get();
+        }
+
+        public void setFailing(final boolean failing)
+        {
+            this.failing = failing;
+        }
+    }
     
+    @Test(groups = "fast")
+    public void testCreateInboxLink() throws Exception
+    {
+        final File directory = Files.createTempDir();
+        try {
+            final File file = new File(directory, "some_file");
+            Files.write("some data", file, Charsets.UTF_8);
+            final File link = new File(directory, "_inbox/some_file");
+            link.getParentFile().mkdirs();
+
+            EventSpoolWriterFactory.createInboxLink(file, link);
+            Assert.assertEquals(HardLink.getLinkCount(file), 2);
+
+            // The data stays around until the last link is deleted
+            Assert.assertTrue(file.delete());
+            Assert.assertEquals(Files.toString(link, Charsets.UTF_8), "some data");
+            Assert.assertEquals(HardLink.getLinkCount(link), 1);
+        }
+        finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
  // Poor man's way of ensuring that tests are run serially (conflicts with tmp spool dir)
     @Test(groups = "slow")
     public void testProcessLeftBelow() throws Exception
@@ -86,6 +150,22 @@ public class TestEventSpoolWriterFactory
         createSpoolHierarchy();
         testProcessLeftBelowFilesWithFilesRemaining();
         tearDown();
+
+        createSpoolHierarchy();
+        testProcessLeftBelowFilesWithDeliveryJournal();
+        tearDown();
+
+        createSpoolHierarchy();
+        testProcessLeftBelowFilesWithFailingProcessor();
+        tearDown();
+
+        createSpoolHierarchy();
+        testProcessLeftBelowFilesInInboxes();
+        tearDown();
+
+        createSpoolHierarchy();
+        testProcessLeftBelowFilesForSeveralEventTypes();
+        tearDown();
     }
 
     private void testProcessLeftBelowFilesAllClean() throws Exception
@@ -181,6 +261,118 @@ public class TestEventSpoolWriterFactory
 
     }
 
+    private void testProcessLeftBelowFilesWithDeliveryJournal() throws Exception
+    {
+        final NoWriteHadoopWriterFactory hadoopWriterFactory = new NoWriteHadoopWriterFactory(null, config);
+        final EventSpoolWriterFactory factory = new EventSpoolWriterFactory(new HashSet<EventSpoolProcessor>(Arrays.asList(hadoopWriterFactory)), config, configFactory);
+        factory.setCutoffTime(CUTOFF_TIME);
+
+        final File alreadySent = new File(lockDirectory.getPath() + "/some_file_which_has_been_sent");
+        FileUtils.touch(alreadySent);
+        FileUtils.touch(new File(lockDirectory.getPath() + "/some_file_which_should_be_sent"));
+        FileUtils.touch(new File(quarantineDirectory.getPath() + "/some_other_file_which_should_be_sent"));
+
+        // Simulate a previous run which died before deleting the file
+        new SpoolDeliveryJournal(spoolDirectory).acknowledge(alreadySent, hadoopWriterFactory.getProcessorName());
+        Assert.assertTrue(new SpoolDeliveryJournal(spoolDirectory).getAcknowledgedProcessors(alreadySent).contains(hadoopWriterFactory.getProcessorName()));
+        // The journal itself is not a file to send
+        Assert.assertEquals(LocalSpoolManager.findFilesInSpoolDirectory(spoolDirectory).size(), 3);
+
+        Thread.sleep(2 * CUTOFF_TIME);
+
+        factory.processLeftBelowFiles();
+
+        // All files should have been deleted, including the journal
+        Assert.assertFalse(spoolDirectory.exists());
+
+        // ...but the one already sent should not have been sent again
+        Assert.assertEquals(hdfs.values().size(), 2);
+        Assert.assertFalse(hdfs.values().contains(alreadySent));
+    }
+
+    private void testProcessLeftBelowFilesWithFailingProcessor() throws Exception
+    {
+        final FailingEventSpoolProcessor failingProcessor = new FailingEventSpoolProcessor();
+        final EventSpoolWriterFactory factory = new EventSpoolWriterFactory(new HashSet<EventSpoolProcessor>(Arrays.asList(new NoWriteHadoopWriterFactory(null, config), failingProcessor)), config, configFactory);
+        factory.setCutoffTime(CUTOFF_TIME);
+
+        FileUtils.touch(new File(lockDirectory.getPath() + "/some_file_which_should_be_sent"));
+
+        Thread.sleep(2 * CUTOFF_TIME);
+
+        factory.processLeftBelowFiles();
+
+        // The file should have been kept for the failing processor, after a few retries
+        Assert.assertEquals(hdfs.values().size(), 1);
+        Assert.assertEquals(failingProcessor.getCalls(), config.getSpoolProcessorMaxAttempts());
+        Assert.assertEquals(LocalSpoolManager.findFilesInSpoolDirectory(spoolDirectory).size(), 1);
+
+        failingProcessor.setFailing(false);
+        // The journal has been updated, wait for the directory to be old again
+        Thread.sleep(2 * CUTOFF_TIME);
+        factory.processLeftBelowFiles();
+
+        // Only the processor which failed should have been called again
+        Assert.assertEquals(hdfs.values().size(), 1);
+        Assert.assertEquals(failingProcessor.getCalls(), config.getSpoolProcessorMaxAttempts() + 1);
+        Assert.assertFalse(spoolDirectory.exists());
+    }
+
+    private void testProcessLeftBelowFilesInInboxes() throws Exception
+    {
+        final NoWriteHadoopWriterFactory hadoopWriterFactory = new NoWriteHadoopWriterFactory(null, config);
+        final FailingEventSpoolProcessor otherProcessor = new FailingEventSpoolProcessor();
+        otherProcessor.setFailing(false);
+        final EventSpoolWriterFactory factory = new EventSpoolWriterFactory(new HashSet<EventSpoolProcessor>(Arrays.asList(hadoopWriterFactory, otherProcessor)), config, configFactory);
+        factory.setCutoffTime(CUTOFF_TIME);
+
+        // Left over by the fan-out of two files: the first one has been processed by the other processor already
+        final String inboxesPath = spoolDirectory.getPath() + "/" + EventSpoolWriterFactory.INBOX_DIRECTORY_NAME;
+        FileUtils.touch(new File(inboxesPath + "/" + hadoopWriterFactory.getProcessorName() + "/some_file_which_should_be_sent_1"));
+        FileUtils.touch(new File(inboxesPath + "/" + hadoopWriterFactory.getProcessorName() + "/some_file_which_should_be_sent_2"));
+        FileUtils.touch(new File(inboxesPath + "/" + otherProcessor.getProcessorName() + "/some_file_which_should_be_sent_2"));
+
+        Thread.sleep(2 * CUTOFF_TIME);
+
+        factory.processLeftBelowFiles();
+
+        // Each file should have been sent to the processor owning the inbox only
+        Assert.assertEquals(hdfs.values().size(), 2);
+        Assert.assertEquals(otherProcessor.getCalls(), 1);
+        Assert.assertFalse(spoolDirectory.exists());
+    }
+
+    private void testProcessLeftBelowFilesForSeveralEventTypes() throws Exception
+    {
+        final NoWriteHadoopWriterFactory hadoopWriterFactory = new NoWriteHadoopWriterFactory(null, config);
+        final EventSpoolWriterFactory factory = new EventSpoolWriterFactory(new HashSet<EventSpoolProcessor>(Arrays.asList(hadoopWriterFactory)), config, configFactory);
+        factory.setCutoffTime(CUTOFF_TIME);
+
+        final File otherSpoolDirectory = new File(new LocalSpoolManager(config, "BarEvent", SerializationType.DEFAULT, null).getSpoolDirectoryPath());
+        try {
+            final File alreadySent = new File(otherSpoolDirectory.getPath() + "/_lock/some_bar_file_which_has_been_sent");
+            FileUtils.touch(alreadySent);
+            FileUtils.touch(new File(otherSpoolDirectory.getPath() + "/_lock/some_bar_file_which_should_be_sent"));
+            FileUtils.touch(new File(lockDirectory.getPath() + "/some_file_which_should_be_sent"));
+
+            // Progress of the previous recovery of BarEvent is in its own journal
+            new SpoolDeliveryJournal(otherSpoolDirectory).acknowledge(alreadySent, hadoopWriterFactory.getProcessorName());
+
+            Thread.sleep(2 * CUTOFF_TIME);
+
+            factory.processLeftBelowFiles();
+
+            // Both event types should have been recovered, without sending the file acknowledged again
+            Assert.assertEquals(hdfs.values().size(), 2);
+            Assert.assertFalse(hdfs.values().contains(alreadySent));
+            Assert.assertFalse(spoolDirectory.exists());
+            Assert.assertFalse(otherSpoolDirectory.exists());
+        }
+        finally {
+            FileUtils.deleteQuietly(otherSpoolDirectory);
+        }
+    }
+
     private void createSpoolHierarchy()
     {
         final LocalSpoolManager spoolManager = new LocalSpoolManager(config, "FuuEvent", SerializationType.DEFAULT, null);
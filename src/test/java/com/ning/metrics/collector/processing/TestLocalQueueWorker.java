@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.collector.MockEvent;
+import com.ning.metrics.serialization.event.Event;
+import com.ning.metrics.serialization.writer.MockEventWriter;
+
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class TestLocalQueueWorker
+{
+    @Test(groups = "fast")
+    public void testBatchedDequeue() throws Exception
+    {
+        final BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>();
+        final MockEventWriter eventWriter = new MockEventWriter(false, false, false);
+        final WriterStats stats = new WriterStats();
+
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new MockEvent());
+        }
+
+        final Thread worker = new Thread(new LocalQueueWorker(queue, eventWriter, stats, 3, 10));
+        worker.start();
+        waitForWrittenEvents(stats, 10);
+        Assert.assertEquals(eventWriter.getWrittenEventList().size(), 10);
+        Assert.assertEquals(queue.size(), 0);
+
+        // Events arriving while the worker is idle are written as well
+        queue.offer(new MockEvent());
+        waitForWrittenEvents(stats, 11);
+        Assert.assertEquals(eventWriter.getWrittenEventList().size(), 11);
+        Assert.assertEquals(stats.getErroredEvents(), 0);
+
+        worker.interrupt();
+        worker.join();
+    }
+
+    @Test(groups = "fast")
+    public void testEventBatches() throws Exception
+    {
+        final BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>();
+        final EventBatchWriter eventWriter = Mockito.mock(EventBatchWriter.class);
+        final WriterStats stats = new WriterStats();
+
+        // The batch list is reused by the worker, record the batch sizes at write time
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<Integer>();
+        Mockito.doAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(final InvocationOnMock invocation) throws Throwable
+            {
+                batchSizes.add(((List) invocation.getArguments()[0]).size());
+                return 0;
+            }
+        }).when(eventWriter).writeAll(Mockito.<List<Event>>any());
+
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new MockEvent());
+        }
+
+        final Thread worker = new Thread(new LocalQueueWorker(queue, eventWriter, stats, 10, 10));
+        worker.start();
+        waitForWrittenEvents(stats, 10);
+
+        // A single call for the whole batch
+        Mockito.verify(eventWriter, Mockito.times(1)).writeAll(Mockito.<List<Event>>any());
+        Mockito.verify(eventWriter, Mockito.never()).write(Mockito.<Event>any());
+        Assert.assertEquals(batchSizes.size(), 1);
+        Assert.assertEquals((int) batchSizes.get(0), 10);
+        Assert.assertEquals(stats.getErroredEvents(), 0);
+
+        worker.interrupt();
+        worker.join();
+    }
+
+    private void waitForWrittenEvents(final WriterStats stats, final long expected) throws InterruptedException
+    {
+        for (int i = 0; i < 100 && stats.getWrittenEvents() < expected; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(stats.getWrittenEvents(), expected);
+    }
+}
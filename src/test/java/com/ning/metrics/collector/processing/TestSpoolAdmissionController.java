@@ -0,0 +1,135 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.binder.config.CollectorConfigurationObjectFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Properties;
+
+public class TestSpoolAdmissionController
+{
+    @Test(groups = "fast")
+    public void testDisabledByDefault() throws Exception
+    {
+        final CollectorConfig config = new CollectorConfigurationObjectFactory(new Properties()).build(CollectorConfig.class);
+        final EventSpoolDispatcher dispatcher = Mockito.mock(EventSpoolDispatcher.class);
+        final SpoolAdmissionController controller = new SpoolAdmissionController(config, dispatcher);
+
+        Mockito.when(dispatcher.getQueuesSizes()).thenReturn(ImmutableMap.of("/a|bin", Integer.MAX_VALUE));
+        controller.checkWatermarks();
+        Assert.assertTrue(controller.isOverloaded());
+        Assert.assertTrue(controller.admit());
+
+        controller.stop();
+    }
+
+    @Test(groups = "fast")
+    public void testQueuedEventsWatermark() throws Exception
+    {
+        final Properties properties = new Properties();
+        properties.setProperty("collector.max-event-queue-size", "100");
+        properties.setProperty("collector.backpressure.enabled", "true");
+        properties.setProperty("collector.backpressure.queued-events-high-watermark", "150");
+        properties.setProperty("collector.backpressure.check-interval", "1h");
+        final CollectorConfig config = new CollectorConfigurationObjectFactory(properties).build(CollectorConfig.class);
+
+        final EventSpoolDispatcher dispatcher = Mockito.mock(EventSpoolDispatcher.class);
+        final SpoolAdmissionController controller = new SpoolAdmissionController(config, dispatcher);
+        Assert.assertEquals(controller.getRetryAfterSeconds(), 30);
+
+        // A single full queue doesn't push back on the other event types
+        Mockito.when(dispatcher.getQueuesSizes()).thenReturn(ImmutableMap.of("/a|bin", 10, "/b|bin", 100));
+        controller.checkWatermarks();
+        Assert.assertEquals(controller.getQueuedEvents(), 110);
+        Assert.assertFalse(controller.isOverloaded());
+        Assert.assertTrue(controller.admit());
+
+        Mockito.when(dispatcher.getQueuesSizes()).thenReturn(ImmutableMap.of("/a|bin", 50, "/b|bin", 100));
+        controller.checkWatermarks();
+        Assert.assertTrue(controller.isOverloaded());
+        Assert.assertFalse(controller.admit());
+        Assert.assertEquals(controller.getRejectedRequests(), 1);
+
+        // Can be turned off at runtime
+        controller.setEnabled(false);
+        Assert.assertTrue(controller.admit());
+        controller.setEnabled(true);
+
+        Mockito.when(dispatcher.getQueuesSizes()).thenReturn(ImmutableMap.<String, Integer>of());
+        controller.checkWatermarks();
+        Assert.assertFalse(controller.isOverloaded());
+        Assert.assertTrue(controller.admit());
+        Assert.assertEquals(controller.getRejectedRequests(), 1);
+
+        // Requests are admitted once stopped
+        Mockito.when(dispatcher.getQueuesSizes()).thenReturn(ImmutableMap.of("/a|bin", 200));
+        controller.checkWatermarks();
+        Assert.assertFalse(controller.admit());
+        controller.stop();
+        Assert.assertTrue(controller.admit());
+    }
+
+    @Test(groups = "fast")
+    public void testPendingFilesWatermark() throws Exception
+    {
+        final File spoolRoot = Files.createTempDir();
+        try {
+            final Properties properties = new Properties();
+            properties.setProperty("collector.diskspool.path", spoolRoot.getAbsolutePath());
+            properties.setProperty("collector.backpressure.enabled", "true");
+            properties.setProperty("collector.backpressure.pending-files-high-watermark", "3");
+            properties.setProperty("collector.backpressure.check-interval", "1h");
+            final CollectorConfig config = new CollectorConfigurationObjectFactory(properties).build(CollectorConfig.class);
+
+            final EventSpoolDispatcher dispatcher = Mockito.mock(EventSpoolDispatcher.class);
+            Mockito.when(dispatcher.getQueuesSizes()).thenReturn(ImmutableMap.<String, Integer>of());
+            final SpoolAdmissionController controller = new SpoolAdmissionController(config, dispatcher);
+
+            // Only the committed files count, not the ones being written or flushed, nor their inbox links and journals
+            final File spoolDirectory = new File(spoolRoot, "FuuEvent");
+            FileUtils.touch(new File(spoolDirectory, "committed_1"));
+            FileUtils.touch(new File(spoolDirectory, "committed_2"));
+            FileUtils.touch(new File(spoolDirectory, "_tmp/being_written"));
+            FileUtils.touch(new File(spoolDirectory, "_lock/being_flushed"));
+            FileUtils.touch(new File(spoolDirectory, "_quarantine/quarantined"));
+            FileUtils.touch(new File(spoolDirectory, EventSpoolWriterFactory.INBOX_DIRECTORY_NAME + "/SomeProcessor/committed_0"));
+            FileUtils.touch(new File(spoolDirectory, SpoolDeliveryJournal.JOURNAL_DIRECTORY_NAME + "/committed_1"));
+            controller.checkWatermarks();
+            Assert.assertEquals(controller.getPendingFiles(), 2);
+            Assert.assertTrue(controller.admit());
+
+            FileUtils.touch(new File(new File(spoolRoot, "BarEvent"), "committed_3"));
+            controller.checkWatermarks();
+            Assert.assertEquals(controller.getPendingFiles(), 3);
+            Assert.assertFalse(controller.admit());
+
+            controller.stop();
+        }
+        finally {
+            FileUtils.deleteQuietly(spoolRoot);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing;
+
+import com.google.common.io.Files;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
+import org.apache.commons.io.FileUtils;
+import org.mockito.Mockito;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestSpoolProcessorQueue
+{
+    private File spoolDirectory;
+    private File file;
+    private SpoolDeliveryJournal journal;
+    private LocalSpoolManager spoolManager;
+    private EventSpoolProcessor processor;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception
+    {
+        spoolDirectory = Files.createTempDir();
+        file = new File(spoolDirectory, "some_file");
+        FileUtils.touch(file);
+        journal = new SpoolDeliveryJournal(spoolDirectory);
+
+        spoolManager = Mockito.mock(LocalSpoolManager.class);
+        Mockito.when(spoolManager.getEventName()).thenReturn("FrontDoorVisit");
+        Mockito.when(spoolManager.getSerializationType()).thenReturn(SerializationType.DEFAULT);
+
+        processor = Mockito.mock(EventSpoolProcessor.class);
+        Mockito.when(processor.getProcessorName()).thenReturn("MockProcessor");
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        FileUtils.deleteQuietly(spoolDirectory);
+    }
+
+    @Test(groups = "fast")
+    public void testRetryThenSucceed() throws Exception
+    {
+        Mockito.doThrow(new IOException("Database is down"))
+               .doNothing()
+               .when(processor).processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, "/output");
+
+        final SpoolProcessorQueue queue = new SpoolProcessorQueue("MockProcessor", 1, 10, new TimeSpan("1s"), 3, new TimeSpan("10ms"));
+        Assert.assertTrue(queue.submit(processor, spoolManager, file, "/output", journal).get(5, TimeUnit.SECONDS));
+
+        Mockito.verify(processor, Mockito.times(2)).processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, "/output");
+        Assert.assertTrue(journal.getAcknowledgedProcessors(file).contains("MockProcessor"));
+        Assert.assertEquals(queue.getPendingFiles(), 0);
+        Assert.assertEquals(queue.getLagMillis(), 0);
+
+        queue.close(new TimeSpan("1s"));
+    }
+
+    @Test(groups = "fast")
+    public void testGiveUp() throws Exception
+    {
+        Mockito.doThrow(new IOException("Database is down"))
+               .when(processor).processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, "/output");
+
+        final SpoolProcessorQueue queue = new SpoolProcessorQueue("MockProcessor", 1, 10, new TimeSpan("1s"), 3, new TimeSpan("10ms"));
+        Assert.assertFalse(queue.submit(processor, spoolManager, file, "/output", journal).get(5, TimeUnit.SECONDS));
+
+        Mockito.verify(processor, Mockito.times(3)).processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, "/output");
+        Assert.assertTrue(journal.getAcknowledgedProcessors(file).isEmpty());
+        Assert.assertEquals(queue.getPendingFiles(), 0);
+
+        queue.close(new TimeSpan("1s"));
+
+        // No more work accepted
+        Assert.assertFalse(queue.submit(processor, spoolManager, file, "/output", journal).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test(groups = "fast")
+    public void testCloseCompletesScheduledRetries() throws Exception
+    {
+        Mockito.doThrow(new IOException("Database is down"))
+               .when(processor).processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, "/output");
+
+        // The retry is scheduled way past the close
+        final SpoolProcessorQueue queue = new SpoolProcessorQueue("MockProcessor", 1, 10, new TimeSpan("1s"), 3, new TimeSpan("1h"));
+        final Future<Boolean> result = queue.submit(processor, spoolManager, file, "/output", journal);
+        Mockito.verify(processor, Mockito.timeout(5000)).processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, "/output");
+
+        queue.close(new TimeSpan("10ms"));
+
+        Assert.assertFalse(result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(queue.getPendingFiles(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testLag() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final EventSpoolProcessor slowProcessor = createSlowProcessor(latch);
+
+        final SpoolProcessorQueue queue = new SpoolProcessorQueue("SlowProcessor", 1, 10, new TimeSpan("1s"), 1, new TimeSpan("10ms"));
+        final Future<Boolean> result = queue.submit(slowProcessor, spoolManager, file, "/output", journal);
+
+        Thread.sleep(50);
+        Assert.assertEquals(queue.getPendingFiles(), 1);
+        Assert.assertTrue(queue.getLagMillis() >= 50);
+
+        latch.countDown();
+        Assert.assertTrue(result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(queue.getPendingFiles(), 0);
+        Assert.assertEquals(queue.getLagMillis(), 0);
+
+        queue.close(new TimeSpan("1s"));
+    }
+
+    @Test(groups = "fast")
+    public void testMetricsAreRemovedOnClose() throws Exception
+    {
+        final SpoolProcessorQueue queue = new SpoolProcessorQueue("ClosedProcessor", 1, 10, new TimeSpan("1s"), 1, new TimeSpan("10ms"));
+        for (final MetricName metricName : queue.getMetricNames()) {
+            Assert.assertTrue(Metrics.defaultRegistry().allMetrics().containsKey(metricName));
+        }
+
+        queue.close(new TimeSpan("1s"));
+
+        for (final MetricName metricName : queue.getMetricNames()) {
+            Assert.assertFalse(Metrics.defaultRegistry().allMetrics().containsKey(metricName));
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testSubmitTimeout() throws Exception
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final EventSpoolProcessor slowProcessor = createSlowProcessor(latch);
+
+        final SpoolProcessorQueue queue = new SpoolProcessorQueue("SlowProcessor", 1, 1, new TimeSpan("10ms"), 1, new TimeSpan("10ms"));
+        final Future<Boolean> result = queue.submit(slowProcessor, spoolManager, file, "/output", journal);
+
+        // The queue is full: the second file is rejected instead of blocking the caller
+        final File otherFile = new File(spoolDirectory, "some_other_file");
+        FileUtils.touch(otherFile);
+        Assert.assertFalse(queue.submit(slowProcessor, spoolManager, otherFile, "/output", journal).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(queue.getPendingFiles(), 1);
+
+        latch.countDown();
+        Assert.assertTrue(result.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue(journal.getAcknowledgedProcessors(otherFile).isEmpty());
+
+        queue.close(new TimeSpan("1s"));
+    }
+
+    private EventSpoolProcessor createSlowProcessor(final CountDownLatch latch)
+    {
+        return new EventSpoolProcessor()
+        {
+            @Override
+            public void processEventFile(final String eventName, final SerializationType serializationType, final File file, final String outputPath) throws IOException
+            {
+                try {
+                    latch.await();
+                }
+                catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public void close()
+            {
+            }
+
+            @Override
+            public String getProcessorName()
+            {
+                return "SlowProcessor";
+            }
+        };
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.processing.hadoop;
+
+import com.ning.metrics.collector.binder.config.CollectorConfig;
+import com.ning.metrics.collector.processing.SerializationType;
+import com.ning.metrics.serialization.hadoop.FileSystemAccess;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TestHadoopWriterFactory
+{
+    private File localDirectory;
+    private File hdfsDirectory;
+    private File tmpDirectory;
+    private FileSystem fs;
+    private HadoopWriterFactory writer;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception
+    {
+        localDirectory = Files.createTempDir();
+        hdfsDirectory = Files.createTempDir();
+        tmpDirectory = new File(hdfsDirectory, "tmp");
+
+        final CollectorConfig config = Mockito.mock(CollectorConfig.class);
+        Mockito.when(config.getMaxHadoopWriters()).thenReturn(2);
+        Mockito.when(config.getTemporaryEventOutputDirectory()).thenReturn(tmpDirectory.getAbsolutePath());
+        Mockito.when(config.getHadoopBlockSize()).thenReturn(1024L * 1024L);
+        Mockito.when(config.getHadoopReplication()).thenReturn(null);
+
+        final FileSystemAccess hdfsAccess = Mockito.mock(FileSystemAccess.class);
+        fs = Mockito.spy(FileSystem.getLocal(new Configuration()));
+        Mockito.when(hdfsAccess.get()).thenReturn(fs);
+
+        writer = new HadoopWriterFactory(hdfsAccess, config);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        FileUtils.deleteQuietly(localDirectory);
+        FileUtils.deleteQuietly(hdfsDirectory);
+    }
+
+    @Test(groups = "fast")
+    public void testUpload() throws Exception
+    {
+        final File file = new File(localDirectory, "some_file");
+        Files.write("Hello HDFS", file, Charsets.UTF_8);
+        final File output = new File(hdfsDirectory, "2014/01/01/some_file");
+
+        writer.processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, output.getAbsolutePath());
+
+        Assert.assertEquals(Files.toString(output, Charsets.UTF_8), "Hello HDFS");
+        Assert.assertTrue(file.exists());
+        // Nothing left behind in the temporary directory
+        Assert.assertEquals(FileUtils.listFiles(tmpDirectory, null, true).size(), 0);
+        Assert.assertEquals(writer.nbActiveUploads(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testDirectoryCreatedOnce() throws Exception
+    {
+        final File outputDirectory = new File(hdfsDirectory, "2014/01/01");
+        for (int i = 0; i < 3; i++) {
+            final File file = new File(localDirectory, "some_file_" + i);
+            Files.write("Hello HDFS " + i, file, Charsets.UTF_8);
+            final File output = new File(outputDirectory, file.getName());
+            writer.processEventFile("FrontDoorVisit", SerializationType.DEFAULT, file, output.getAbsolutePath());
+            Assert.assertEquals(Files.toString(output, Charsets.UTF_8), "Hello HDFS " + i);
+        }
+
+        // Only the first upload had to create the directory
+        Mockito.verify(fs, Mockito.times(1)).mkdirs(new Path(outputDirectory.getAbsolutePath()));
+    }
+
+    @Test(groups = "fast")
+    public void testFailedUpload() throws Exception
+    {
+        final File output = new File(hdfsDirectory, "some_file");
+        try {
+            writer.processEventFile("FrontDoorVisit", SerializationType.DEFAULT, new File(localDirectory, "missing_file"), output.getAbsolutePath());
+            Assert.fail();
+        }
+        catch (IOException e) {
+            Assert.assertFalse(output.exists());
+        }
+
+        // The upload slot has been released
+        Assert.assertEquals(writer.nbActiveUploads(), 0);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.realtime;
+
+import com.ning.metrics.serialization.event.Event;
+
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TestEventListenerDispatcher
+{
+    private EventQueueProcessor queueProcessor;
+    private EventListenerDispatcher dispatcher;
+    private Event event;
+
+    @BeforeMethod(alwaysRun = true)
+    public void setUp() throws Exception
+    {
+        queueProcessor = Mockito.mock(EventQueueProcessor.class);
+        dispatcher = new EventListenerDispatcher(queueProcessor);
+
+        event = Mockito.mock(Event.class);
+        Mockito.when(event.getName()).thenReturn("FrontDoorVisit");
+    }
+
+    @Test(groups = "fast")
+    public void testNoListener() throws Exception
+    {
+        Assert.assertFalse(dispatcher.hasSubscribers("FrontDoorVisit"));
+
+        dispatcher.offer(event);
+        dispatcher.offer(null);
+
+        // The queue processor still decides whether to forward the event
+        Mockito.verify(queueProcessor, Mockito.times(1)).send(event);
+    }
+
+    @Test(groups = "fast")
+    public void testAddAndRemoveListeners() throws Exception
+    {
+        final NewEventListener listener = Mockito.mock(NewEventListener.class);
+        final NewEventListener otherListener = Mockito.mock(NewEventListener.class);
+        final NewEventListener allListener = Mockito.mock(NewEventListener.class);
+
+        dispatcher.addListener("FrontDoorVisit", listener);
+        dispatcher.addListener("SignUp", otherListener);
+        Assert.assertEquals(dispatcher.getNbOfListeners(), 2);
+        Assert.assertTrue(dispatcher.hasSubscribers("FrontDoorVisit"));
+        Assert.assertFalse(dispatcher.hasSubscribers("Login"));
+
+        dispatcher.offer(event);
+        Mockito.verify(listener, Mockito.times(1)).onNewEvent(event);
+        Mockito.verifyZeroInteractions(otherListener);
+
+        dispatcher.addListener(EventListenerDispatcher.NO_FILTER_KEY, allListener);
+        Assert.assertTrue(dispatcher.hasSubscribers("Login"));
+
+        dispatcher.offer(event);
+        Mockito.verify(listener, Mockito.times(2)).onNewEvent(event);
+        Mockito.verify(allListener, Mockito.times(1)).onNewEvent(event);
+
+        dispatcher.removeListener("FrontDoorVisit");
+        dispatcher.removeListener(EventListenerDispatcher.NO_FILTER_KEY);
+        Assert.assertEquals(dispatcher.getNbOfListeners(), 1);
+        Assert.assertFalse(dispatcher.hasSubscribers("FrontDoorVisit"));
+
+        dispatcher.offer(event);
+        Mockito.verify(listener, Mockito.times(2)).onNewEvent(event);
+        Mockito.verify(allListener, Mockito.times(1)).onNewEvent(event);
+        Mockito.verifyZeroInteractions(otherListener);
+    }
+
+    @Test(groups = "fast")
+    public void testConcurrentOffers() throws Exception
+    {
+        final NewEventListener listener = Mockito.mock(NewEventListener.class);
+        dispatcher.addListener("FrontDoorVisit", listener);
+
+        final int nbThreads = 8;
+        final int nbEventsPerThread = 1000;
+        final CountDownLatch latch = new CountDownLatch(nbThreads);
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        for (int i = 0; i < nbThreads; i++) {
+            executor.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < nbEventsPerThread; j++) {
+                        dispatcher.offer(event);
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+
+        // Listeners can be added while events are dispatched
+        dispatcher.addListener("SignUp", Mockito.mock(NewEventListener.class));
+
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        Mockito.verify(listener, Mockito.times(nbThreads * nbEventsPerThread)).onNewEvent(event);
+        Mockito.verify(queueProcessor, Mockito.times(nbThreads * nbEventsPerThread)).send(event);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.util;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestRingBufferBlockingQueue
+{
+    @Test(groups = "fast")
+    public void testBoundedFifo() throws Exception
+    {
+        final BlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(3);
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+
+        // Go around the ring a few times
+        for (int lap = 0; lap < 5; lap++) {
+            Assert.assertTrue(queue.offer(1));
+            Assert.assertTrue(queue.offer(2));
+            Assert.assertTrue(queue.offer(3));
+            Assert.assertFalse(queue.offer(4));
+            Assert.assertEquals(queue.size(), 3);
+            Assert.assertEquals(queue.remainingCapacity(), 0);
+            Assert.assertEquals(queue.peek(), (Integer) 1);
+
+            Assert.assertEquals(queue.poll(), (Integer) 1);
+            Assert.assertTrue(queue.offer(5));
+
+            final List<Integer> drained = new ArrayList<Integer>();
+            Assert.assertEquals(queue.drainTo(drained, 2), 2);
+            Assert.assertEquals(drained.get(0), (Integer) 2);
+            Assert.assertEquals(drained.get(1), (Integer) 3);
+            Assert.assertEquals(queue.take(), (Integer) 5);
+            Assert.assertEquals(queue.size(), 0);
+        }
+
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(groups = "fast")
+    public void testSnapshotIterator() throws Exception
+    {
+        final BlockingQueue<Integer> queue = new RingBufferBlockingQueue<Integer>(3);
+        Assert.assertEquals(queue.toString(), "[]");
+
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+        Assert.assertEquals(queue.toString(), "[1, 2, 3]");
+        Assert.assertTrue(queue.contains(2));
+
+        queue.poll();
+        queue.offer(4);
+        Assert.assertEquals(queue.toString(), "[2, 3, 4]");
+        Assert.assertFalse(queue.contains(1));
+        // Iterating doesn't consume anything
+        Assert.assertEquals(queue.size(), 3);
+    }
+
+    @Test(groups = "fast")
+    public void testPreallocatedCapacityIsCapped() throws Exception
+    {
+        Assert.assertEquals(EventQueueType.RING_BUFFER.newQueue(200000, 16).remainingCapacity(), 16);
+        Assert.assertEquals(EventQueueType.RING_BUFFER.newQueue(8, 16).remainingCapacity(), 8);
+        Assert.assertEquals(EventQueueType.LINKED.newQueue(200000, 16).remainingCapacity(), 200000);
+    }
+
+    @Test(groups = "slow")
+    public void testConcurrentProducersAndConsumers() throws Exception
+    {
+        final int nbProducers = 4;
+        final int nbConsumers = 2;
+        final int eventsPerProducer = 100000;
+        final BlockingQueue<Long> queue = new RingBufferBlockingQueue<Long>(1024);
+        final AtomicLong consumedSum = new AtomicLong(0);
+        final AtomicLong consumedCount = new AtomicLong(0);
+        final CountDownLatch producersDone = new CountDownLatch(nbProducers);
+
+        final List<Thread> consumers = new ArrayList<Thread>();
+        for (int i = 0; i < nbConsumers; i++) {
+            final Thread consumer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        while (true) {
+                            consumedSum.addAndGet(queue.take());
+                            consumedCount.incrementAndGet();
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            consumer.start();
+            consumers.add(consumer);
+        }
+
+        for (int i = 0; i < nbProducers; i++) {
+            new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        for (long j = 1; j <= eventsPerProducer; j++) {
+                            queue.put(j);
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    producersDone.countDown();
+                }
+            }).start();
+        }
+
+        Assert.assertTrue(producersDone.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < 3000 && consumedCount.get() < (long) nbProducers * eventsPerProducer; i++) {
+            Thread.sleep(10);
+        }
+
+        for (final Thread consumer : consumers) {
+            consumer.interrupt();
+            consumer.join();
+        }
+
+        Assert.assertEquals(consumedCount.get(), (long) nbProducers * eventsPerProducer);
+        Assert.assertEquals(consumedSum.get(), (long) nbProducers * eventsPerProducer * (eventsPerProducer + 1) / 2);
+        Assert.assertTrue(queue.isEmpty());
+    }
+}
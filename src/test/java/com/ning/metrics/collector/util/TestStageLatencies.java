@@ -0,0 +1,141 @@
+/*
+ * Copyright 2010-2014 Ning, Inc.
+ *
+ * Ning licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.ning.metrics.collector.util;
+
+import com.ning.metrics.collector.endpoint.extractors.DeserializationType;
+
+import com.yammer.metrics.core.Histogram;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestStageLatencies
+{
+    @Test(groups = "fast")
+    public void testRecordPerTypeAndEventName() throws Exception
+    {
+        final StageLatencies stageLatencies = new StageLatencies(true);
+
+        final long startNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5);
+        final long initialStageCount = stageLatencies.getHistogram(StageLatencies.Stage.DESERIALIZE).count();
+        stageLatencies.record(StageLatencies.Stage.DESERIALIZE, DeserializationType.SMILE, "StageLatenciesEvent", startNanos);
+        stageLatencies.record(StageLatencies.Stage.DESERIALIZE, "StageLatenciesEvent", startNanos);
+
+        final Histogram byType = stageLatencies.getHistogram(StageLatencies.Stage.DESERIALIZE, DeserializationType.SMILE);
+        Assert.assertTrue(byType.count() >= 1);
+        Assert.assertTrue(byType.max() >= 5000);
+
+        // Each record updates the stage total once
+        Assert.assertEquals(stageLatencies.getHistogram(StageLatencies.Stage.DESERIALIZE).count(), initialStageCount + 2);
+
+        final Histogram byEvent = stageLatencies.getHistogram(StageLatencies.Stage.DESERIALIZE, "StageLatenciesEvent");
+        Assert.assertEquals(byEvent.count(), 2);
+        Assert.assertNull(stageLatencies.getHistogram(StageLatencies.Stage.FILTER, "StageLatenciesEvent"));
+    }
+
+    @Test(groups = "fast")
+    public void testRecordPerTypeUpdatesStageTotal() throws Exception
+    {
+        final StageLatencies stageLatencies = new StageLatencies(false);
+
+        final long initialStageCount = stageLatencies.getHistogram(StageLatencies.Stage.RESPONSE).count();
+        stageLatencies.record(StageLatencies.Stage.RESPONSE, DeserializationType.JSON, System.nanoTime());
+
+        Assert.assertEquals(stageLatencies.getHistogram(StageLatencies.Stage.RESPONSE).count(), initialStageCount + 1);
+        Assert.assertNotNull(stageLatencies.getHistogram(StageLatencies.Stage.RESPONSE, DeserializationType.JSON));
+    }
+
+    @Test(groups = "fast")
+    public void testPerEventDisabled() throws Exception
+    {
+        final StageLatencies stageLatencies = new StageLatencies(false);
+
+        final long initialStageCount = stageLatencies.getHistogram(StageLatencies.Stage.FILTER).count();
+        stageLatencies.record(StageLatencies.Stage.FILTER, "StageLatenciesDisabledEvent", System.nanoTime());
+
+        Assert.assertEquals(stageLatencies.getHistogram(StageLatencies.Stage.FILTER).count(), initialStageCount + 1);
+        Assert.assertNull(stageLatencies.getHistogram(StageLatencies.Stage.FILTER, "StageLatenciesDisabledEvent"));
+    }
+
+    @Test(groups = "fast")
+    public void testEventNamesAreBounded() throws Exception
+    {
+        final StageLatencies stageLatencies = new StageLatencies(true);
+
+        for (int i = 0; i < StageLatencies.MAX_EVENT_NAMES + 10; i++) {
+            stageLatencies.record(StageLatencies.Stage.RESPONSE, "Event" + i, System.nanoTime());
+        }
+        stageLatencies.record(StageLatencies.Stage.RESPONSE, (String) null, System.nanoTime());
+
+        Assert.assertNull(stageLatencies.getHistogram(StageLatencies.Stage.RESPONSE, "Event" + (StageLatencies.MAX_EVENT_NAMES + 5)));
+        Assert.assertTrue(stageLatencies.getHistogram(StageLatencies.Stage.RESPONSE, StageLatencies.OTHER_EVENTS).count() >= 11);
+    }
+
+    @Test(groups = "fast")
+    public void testEventNamesAreBoundedConcurrently() throws Exception
+    {
+        final StageLatencies stageLatencies = new StageLatencies(true);
+
+        final int nbThreads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            final Future<?>[] futures = new Future<?>[nbThreads];
+            for (int t = 0; t < nbThreads; t++) {
+                futures[t] = executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        start.await();
+                        // All threads race on the same new names
+                        for (int i = 0; i < StageLatencies.MAX_EVENT_NAMES * 2; i++) {
+                            stageLatencies.record(StageLatencies.Stage.REALTIME_OFFER, "ConcurrentEvent" + i, System.nanoTime());
+                        }
+                        return null;
+                    }
+                });
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        int nbHistograms = 0;
+        long nbUpdates = 0;
+        for (int i = 0; i < StageLatencies.MAX_EVENT_NAMES * 2; i++) {
+            final Histogram histogram = stageLatencies.getHistogram(StageLatencies.Stage.REALTIME_OFFER, "ConcurrentEvent" + i);
+            if (histogram != null) {
+                nbHistograms++;
+                nbUpdates += histogram.count();
+            }
+        }
+        Assert.assertEquals(nbHistograms, StageLatencies.MAX_EVENT_NAMES);
+        nbUpdates += stageLatencies.getHistogram(StageLatencies.Stage.REALTIME_OFFER, StageLatencies.OTHER_EVENTS).count();
+        Assert.assertEquals(nbUpdates, (long) nbThreads * StageLatencies.MAX_EVENT_NAMES * 2);
+    }
+}